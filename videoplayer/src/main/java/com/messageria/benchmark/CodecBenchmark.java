@@ -0,0 +1,124 @@
+package com.messageria.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.messageria.events.Event;
+import com.messageria.events.MediaInfo;
+import com.messageria.events.MessageCodec;
+import com.messageria.events.MessageCodecs;
+import com.messageria.events.ThumbnailCreated;
+import com.messageria.events.TranscodeCreated;
+import com.messageria.events.VideoCreated;
+import com.messageria.events.VideoReady;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+ * Mede encode/decode por tipo de evento: o caminho antigo (ObjectNode.toString() para
+ * escrever; new String + readTree + path() para ler), o JsonMessageCodec (streaming) e o
+ * BinaryMessageCodec. Mostra ns/op, bytes alocados por op e o tamanho da mensagem.
+ * Cada medição roda depois de um aquecimento com o mesmo número de iterações.
+ *
+ * Uso: CodecBenchmark [iterações=500000]
+ */
+public class CodecBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Evita que o JIT elimine o trabalho medido
+    private static long sink;
+
+    private interface Op {
+        Object run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+
+        // 60s a 30fps com um keyframe a cada 2s, como sai do MediaProbe
+        int[] keyframes = new int[30];
+        for (int i = 0; i < keyframes.length; i++) keyframes[i] = i * 60;
+        MediaInfo media = new MediaInfo(60_000_000L, 1800, 1280, 720, "H264", keyframes);
+
+        List<Event> events = List.of(
+                new VideoCreated("video-12345", "uploads/video-12345.mp4"),
+                new VideoCreated("video-12345", "uploads/video-12345.mp4", media),
+                new ThumbnailCreated("thumb-video-12345-0123456789abcdef", "video-12345",
+                        "/srv/videoplayer/thumbnail/video-12345_1280.jpg", null,
+                        List.of("/srv/videoplayer/thumbnail/video-12345_1280.jpg",
+                                "/srv/videoplayer/thumbnail/video-12345_640.jpg",
+                                "/srv/videoplayer/thumbnail/video-12345_320.jpg")),
+                new TranscodeCreated("transcode-video-12345-0123456789abcdef", "video-12345",
+                        List.of("/srv/videoplayer/outputs/video-12345_transcode/video-12345_720p.mp4",
+                                "/srv/videoplayer/outputs/video-12345_transcode/video-12345_480p.mp4")),
+                new VideoReady("video-12345",
+                        List.of("/srv/videoplayer/outputs/video-12345_transcode/video-12345_720p.mp4",
+                                "/srv/videoplayer/outputs/video-12345_transcode/video-12345_480p.mp4"),
+                        "/srv/videoplayer/thumbnail/video-12345.jpg"));
+
+        System.out.printf("%-18s %-10s %-8s %10s %12s %8s%n", "evento", "codec", "op", "ns/op", "bytes/op", "tamanho");
+        for (Event event : events) {
+            byte[] json = MessageCodecs.JSON.encode(event);
+            byte[] binary = MessageCodecs.BINARY.encode(event);
+
+            measure(event, "tree", "encode", json.length, iterations, () -> legacyEncode(event));
+            measure(event, "json", "encode", json.length, iterations, () -> MessageCodecs.JSON.encode(event));
+            measure(event, "binary", "encode", binary.length, iterations, () -> MessageCodecs.BINARY.encode(event));
+
+            measure(event, "tree", "decode", json.length, iterations, () -> legacyDecode(json));
+            measure(event, "json", "decode", json.length, iterations, () -> decode(MessageCodecs.JSON, json));
+            measure(event, "binary", "decode", binary.length, iterations, () -> decode(MessageCodecs.BINARY, binary));
+        }
+        System.out.println("(sink=" + sink + ")");
+    }
+
+    private static Object decode(MessageCodec codec, byte[] body) throws Exception {
+        return codec.decode(body).videoId();
+    }
+
+    // Como os consumidores montavam as mensagens antes dos codecs
+    private static byte[] legacyEncode(Event event) {
+        ObjectNode node = MAPPER.createObjectNode().put("event", event.eventName()).put("videoId", event.videoId());
+        if (event instanceof VideoCreated e) {
+            node.put("inputUrl", e.inputUrl());
+            if (e.media() != null) node.putPOJO("media", e.media());
+        } else if (event instanceof ThumbnailCreated e) {
+            node.put("jobId", e.jobId()).put("thumbnail", e.thumbnail()).putPOJO("thumbnails", e.thumbnails());
+        } else if (event instanceof TranscodeCreated e) {
+            node.put("jobId", e.jobId()).putPOJO("outputs", e.outputs());
+        } else if (event instanceof VideoReady e) {
+            node.putPOJO("outputs", e.outputs()).put("thumbnail", e.thumbnail());
+        }
+        return node.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Como os consumidores liam as mensagens antes dos codecs
+    private static Object legacyDecode(byte[] body) throws Exception {
+        String raw = new String(body, StandardCharsets.UTF_8);
+        JsonNode root = MAPPER.readTree(raw);
+        String videoId = root.path("videoId").asText(null);
+        String event = root.path("event").asText(null);
+        return videoId + event;
+    }
+
+    private static void measure(Event event, String codec, String op, int size, int iterations, Op body)
+            throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            sink += body.run().hashCode();
+        }
+        long threadId = Thread.currentThread().getId();
+        long bytes0 = THREADS.getThreadAllocatedBytes(threadId);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += body.run().hashCode();
+        }
+        long nanos = System.nanoTime() - t0;
+        long bytes = THREADS.getThreadAllocatedBytes(threadId) - bytes0;
+        System.out.printf("%-18s %-10s %-8s %10.1f %12d %8d%n", event.eventName(), codec, op,
+                (double) nanos / iterations, bytes / iterations, size);
+    }
+}
@@ -0,0 +1,98 @@
+package com.messageria.benchmark;
+
+import com.messageria.config.RabbitMQConfig;
+import com.messageria.producer.VideoProducer;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Compara mensagens/s do caminho antigo (conexão + canal novos por mensagem) com o
+ * VideoProducer com pool de canais, chamado por várias threads e em lote (esperando os
+ * publisher confirms no final de cada rodada).
+ * Publica numa exchange fanout sem filas ligadas, então nada chega aos consumidores.
+ *
+ * Uso: ProducerBenchmark [mensagens=2000] [threads=8] [canais=4]
+ */
+public class ProducerBenchmark {
+    private static final String EXCHANGE = "benchmark.exchange";
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        RabbitMQConfig config = new RabbitMQConfig();
+        try (Connection conn = config.createConnection(); Channel ch = conn.createChannel()) {
+            ch.exchangeDeclare(EXCHANGE, "fanout", false, true, null);
+
+            // Aquecimento
+            runLegacy(config, Math.min(100, messages));
+
+            long t0 = System.nanoTime();
+            runLegacy(config, messages);
+            report("conexão por mensagem", messages, System.nanoTime() - t0);
+
+            try (VideoProducer producer = new VideoProducer(config, poolSize, EXCHANGE)) {
+                runPooled(producer, Math.min(1000, messages), threads);
+
+                t0 = System.nanoTime();
+                runPooled(producer, messages, threads);
+                report("pool (" + threads + " threads, " + poolSize + " canais)", messages, System.nanoTime() - t0);
+
+                List<String> ids = new ArrayList<>(messages);
+                for (int i = 0; i < messages; i++) ids.add("bench-" + i);
+                t0 = System.nanoTime();
+                producer.publishVideos(ids).get();
+                report("publishVideos (lote)", messages, System.nanoTime() - t0);
+            }
+        }
+    }
+
+    private static void runLegacy(RabbitMQConfig config, int messages) throws Exception {
+        for (int i = 0; i < messages; i++) {
+            try (Connection connection = config.createConnection();
+                    Channel channel = connection.createChannel()) {
+                String message = "{\"videoId\": \"bench-" + i + "\", \"inputUrl\": \"uploads/bench-" + i + ".mp4\"}";
+                channel.basicPublish(EXCHANGE, "video.created", null, message.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static void runPooled(VideoProducer producer, int messages, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            int perThread = messages / threads;
+            for (int t = 0; t < threads; t++) {
+                int start = t * perThread;
+                int end = t == threads - 1 ? messages : start + perThread;
+                futures.add(executor.submit(() -> {
+                    CompletableFuture<?>[] confirms = new CompletableFuture<?>[end - start];
+                    for (int i = start; i < end; i++) {
+                        confirms[i - start] = producer.publishVideo("bench-" + i);
+                    }
+                    CompletableFuture.allOf(confirms).get();
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static void report(String name, int messages, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-40s %8d msgs em %7.2fs = %10.0f msgs/s%n", name, messages, seconds, messages / seconds);
+    }
+}
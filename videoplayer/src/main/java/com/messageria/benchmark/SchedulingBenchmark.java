@@ -0,0 +1,238 @@
+package com.messageria.benchmark;
+
+import com.messageria.transcode.JobCost;
+import com.messageria.worker.SjfQueue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/*
+ * Simulação (relógio virtual, sem ffmpeg nem broker) do tempo até o vídeo ficar pronto em
+ * transcode.queue com uma mistura de clipes curtos e uploads longos. Compara:
+ *
+ * - fifo:       fila comum, prefetch 1 (comportamento antigo);
+ * - prioridade: x-max-priority com a prioridade do JobCost, prefetch 1;
+ * - sjf:        prioridade no broker + ShortJobScheduler no consumidor (a mesma SjfQueue),
+ *               com prefetch maior que os slots, envelhecimento e slots reservados para curtos.
+ *
+ * Uso: SchedulingBenchmark [jobs=5000] [slots=4] [carga=0.85] [prefetch=slots*3] [seed=42]
+ */
+public class SchedulingBenchmark {
+    // O transcode leva em média metade da duração do vídeo
+    private static final double TRANSCODE_SPEED = 0.5;
+    private static final long SHORT_JOB_MILLIS = 1_200_000;
+    private static final double AGING_FACTOR = 1;
+
+    private static final class Job {
+        final int id;
+        final String kind;
+        final long durationMillis;
+        final long arrivalMillis;
+        final int priority;
+        long finishedMillis;
+
+        Job(int id, String kind, long durationMillis, long arrivalMillis) {
+            this.id = id;
+            this.kind = kind;
+            this.durationMillis = durationMillis;
+            this.arrivalMillis = arrivalMillis;
+            this.priority = new JobCost(durationMillis, -1).priority();
+        }
+
+        long serviceMillis() {
+            return (long) (durationMillis * TRANSCODE_SPEED);
+        }
+    }
+
+    // Ordem em que os jobs começam; arrive/next/finished são chamados pelo laço de eventos
+    private interface Policy {
+        void arrive(Job job, long now);
+
+        Job next(long now);
+
+        void finished(Job job);
+    }
+
+    public static void main(String[] args) {
+        int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int slots = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double load = args.length > 2 ? Double.parseDouble(args[2]) : 0.85;
+        int prefetch = args.length > 3 ? Integer.parseInt(args[3]) : slots * 3;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+        List<Job> workload = workload(jobs, slots, load, seed);
+        System.out.printf("%d jobs, %d slots, carga %.2f, prefetch %d (sjf)%n%n", jobs, slots, load, prefetch);
+
+        report("fifo", simulate(copy(workload), new Fifo(slots)));
+        report("prioridade", simulate(copy(workload), new BrokerPriority(slots)));
+        SjfQueue<Job> local = new SjfQueue<>(slots, slots > 1 ? 1 : 0, SHORT_JOB_MILLIS, AGING_FACTOR);
+        report("sjf", simulate(copy(workload), new Sjf(local, prefetch)));
+    }
+
+    // 80% clipes de 15-90s, 15% vídeos de 5-20min, 5% uploads de 1-2h; chegadas Poisson
+    private static List<Job> workload(int count, int slots, double load, long seed) {
+        Random random = new Random(seed);
+        long[] durations = new long[count];
+        String[] kinds = new String[count];
+        double totalService = 0;
+        for (int i = 0; i < count; i++) {
+            double r = random.nextDouble();
+            if (r < 0.80) {
+                kinds[i] = "curto";
+                durations[i] = 15_000 + (long) (random.nextDouble() * 75_000);
+            } else if (r < 0.95) {
+                kinds[i] = "médio";
+                durations[i] = 300_000 + (long) (random.nextDouble() * 900_000);
+            } else {
+                kinds[i] = "longo";
+                durations[i] = 3_600_000 + (long) (random.nextDouble() * 3_600_000);
+            }
+            totalService += durations[i] * TRANSCODE_SPEED;
+        }
+        double meanInterarrival = totalService / count / (slots * load);
+        List<Job> workload = new ArrayList<>(count);
+        long now = 0;
+        for (int i = 0; i < count; i++) {
+            now += (long) (-Math.log(1 - random.nextDouble()) * meanInterarrival);
+            workload.add(new Job(i, kinds[i], durations[i], now));
+        }
+        return workload;
+    }
+
+    private static List<Job> copy(List<Job> workload) {
+        List<Job> copy = new ArrayList<>(workload.size());
+        for (Job j : workload) copy.add(new Job(j.id, j.kind, j.durationMillis, j.arrivalMillis));
+        return copy;
+    }
+
+    private static List<Job> simulate(List<Job> workload, Policy policy) {
+        PriorityQueue<long[]> completions = new PriorityQueue<>(Comparator.comparingLong(e -> e[0]));
+        int nextArrival = 0;
+        long now = 0;
+        while (nextArrival < workload.size() || !completions.isEmpty()) {
+            long arrivalAt = nextArrival < workload.size() ? workload.get(nextArrival).arrivalMillis : Long.MAX_VALUE;
+            long completionAt = completions.isEmpty() ? Long.MAX_VALUE : completions.peek()[0];
+            if (completionAt <= arrivalAt) {
+                now = completionAt;
+                Job done = workload.get((int) completions.poll()[1]);
+                done.finishedMillis = now;
+                policy.finished(done);
+            } else {
+                now = arrivalAt;
+                policy.arrive(workload.get(nextArrival++), now);
+            }
+            Job job;
+            while ((job = policy.next(now)) != null) {
+                completions.add(new long[] { now + job.serviceMillis(), job.id });
+            }
+        }
+        return workload;
+    }
+
+    private static void report(String name, List<Job> done) {
+        System.out.println(name);
+        for (String kind : new String[] { "curto", "médio", "longo", null }) {
+            List<Long> latencies = new ArrayList<>();
+            for (Job j : done) {
+                if (kind == null || kind.equals(j.kind)) latencies.add(j.finishedMillis - j.arrivalMillis);
+            }
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            System.out.printf("  %-6s %5d jobs  p50 %8.1f min  p95 %8.1f min  p99 %8.1f min  max %8.1f min%n",
+                    kind != null ? kind : "todos", sorted.length, minutes(sorted, 0.50), minutes(sorted, 0.95),
+                    minutes(sorted, 0.99), minutes(sorted, 1.0));
+        }
+        System.out.println();
+    }
+
+    private static double minutes(long[] sorted, double quantile) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(idx, 0)] / 60_000.0;
+    }
+
+    private static final class Fifo implements Policy {
+        private final ArrayDeque<Job> queue = new ArrayDeque<>();
+        private final int slots;
+        private int running;
+
+        Fifo(int slots) {
+            this.slots = slots;
+        }
+
+        public void arrive(Job job, long now) {
+            queue.addLast(job);
+        }
+
+        public Job next(long now) {
+            if (running >= slots || queue.isEmpty()) return null;
+            running++;
+            return queue.pollFirst();
+        }
+
+        public void finished(Job job) {
+            running--;
+        }
+    }
+
+    // Fila com x-max-priority: maior prioridade primeiro, FIFO dentro da mesma prioridade
+    private static final Comparator<Job> BROKER_ORDER = Comparator.comparingInt((Job j) -> -j.priority)
+            .thenComparingInt(j -> j.id);
+
+    private static final class BrokerPriority implements Policy {
+        private final PriorityQueue<Job> queue = new PriorityQueue<>(BROKER_ORDER);
+        private final int slots;
+        private int running;
+
+        BrokerPriority(int slots) {
+            this.slots = slots;
+        }
+
+        public void arrive(Job job, long now) {
+            queue.add(job);
+        }
+
+        public Job next(long now) {
+            if (running >= slots || queue.isEmpty()) return null;
+            running++;
+            return queue.poll();
+        }
+
+        public void finished(Job job) {
+            running--;
+        }
+    }
+
+    // O consumidor só enxerga o que o prefetch trouxe do broker (em ordem de prioridade)
+    private static final class Sjf implements Policy {
+        private final PriorityQueue<Job> broker = new PriorityQueue<>(BROKER_ORDER);
+        private final SjfQueue<Job> local;
+        private final int prefetch;
+
+        Sjf(SjfQueue<Job> local, int prefetch) {
+            this.local = local;
+            this.prefetch = prefetch;
+        }
+
+        public void arrive(Job job, long now) {
+            broker.add(job);
+        }
+
+        public Job next(long now) {
+            while (!broker.isEmpty() && local.size() + local.getRunning() < prefetch) {
+                Job job = broker.poll();
+                local.add(job, job.durationMillis, now);
+            }
+            return local.poll(now);
+        }
+
+        public void finished(Job job) {
+            local.finished(job.durationMillis);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.messageria.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Hash do conteúdo do input, para reconhecer o mesmo arquivo enviado de novo com outro
+ * videoId (o JobIds.inputFingerprint usa o caminho, então não serve para isso).
+ *
+ * FULL lê o arquivo inteiro (SHA-256). SAMPLED lê só 16 blocos de 64KB espalhados pelo
+ * arquivo (incluindo o começo e o fim) mais o tamanho: muito mais rápido em vídeos grandes,
+ * mas dois arquivos do mesmo tamanho que só diferem fora das amostras teriam o mesmo hash.
+ * O resultado fica guardado por caminho + tamanho + data de modificação, então o thumbnail
+ * e o transcode no mesmo processo leem o arquivo uma vez só.
+ */
+public final class ContentHash {
+
+    public enum Mode {
+        FULL, SAMPLED
+    }
+
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int SAMPLES = 16;
+    private static final int SAMPLE_BYTES = 64 * 1024;
+    private static final int MEMO_ENTRIES = 1024;
+
+    private static final Map<String, String> MEMO = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MEMO_ENTRIES;
+        }
+    };
+
+    private ContentHash() {
+    }
+
+    // <f|s><tamanho>-<sha256 em hex>
+    public static String of(File file, Mode mode) throws IOException {
+        String memoKey = mode + "|" + file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        synchronized (MEMO) {
+            String cached = MEMO.get(memoKey);
+            if (cached != null) return cached;
+        }
+
+        MessageDigest digest = sha256();
+        long size;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            if (mode == Mode.FULL || size <= (long) SAMPLES * SAMPLE_BYTES) {
+                readRange(channel, 0, size, buffer, digest);
+            } else {
+                long step = (size - SAMPLE_BYTES) / (SAMPLES - 1);
+                for (int i = 0; i < SAMPLES; i++) {
+                    readRange(channel, i * step, SAMPLE_BYTES, buffer, digest);
+                }
+            }
+        }
+
+        String hash = (mode == Mode.FULL ? "f" : "s") + size + "-" + hex(digest.digest());
+        synchronized (MEMO) {
+            MEMO.put(memoKey, hash);
+        }
+        return hash;
+    }
+
+    private static void readRange(FileChannel channel, long position, long length, ByteBuffer buffer,
+            MessageDigest digest) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) break;
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,252 @@
+package com.messageria.cache;
+
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.Metrics;
+import com.messageria.repository.JobIds;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*
+ * Cache de outputs endereçado pelo conteúdo do input: a chave é o hash do arquivo
+ * (ContentHash) mais os parâmetros da etapa, então um reenvio byte a byte igual com outro
+ * videoId reaproveita as renditions/thumbnails em vez de rodar o ffmpeg ou o jcodec de novo.
+ *
+ * Cada entrada é uma pasta <dir>/<chave> com os arquivos 0.<ext>, 1.<ext>... na ordem em que
+ * foram guardados. Guardar e reaproveitar usam hard links (cópia se o link não for possível,
+ * por exemplo entre volumes diferentes), então o cache não duplica os outputs e apagar uma
+ * entrada não afeta os outputs já entregues. O índice (LRU por acesso) fica em memória e é
+ * remontado na inicialização pela data de modificação das pastas, que é atualizada a cada hit.
+ *
+ * O limite de tamanho conta os arquivos do cache mesmo enquanto eles também são outputs; o
+ * espaço só volta de fato quando as duas cópias somem.
+ */
+public class OutputCache {
+    private static final String TMP_PREFIX = ".tmp-";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final ContentHash.Mode hashMode;
+    // chave -> bytes da entrada, da menos para a mais recentemente usada
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public OutputCache(String name, Path dir, long maxBytes, ContentHash.Mode hashMode) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.hashMode = hashMode;
+        this.hits = Metrics.counter("cache." + name + ".hits");
+        this.misses = Metrics.counter("cache." + name + ".misses");
+        this.evictions = Metrics.counter("cache." + name + ".evictions");
+        Files.createDirectories(dir);
+        load();
+        System.out.println("Cache de " + name + " em " + dir + ": " + entries.size() + " entradas, "
+                + totalBytes / (1024 * 1024) + " de " + maxBytes / (1024 * 1024) + " MB");
+    }
+
+    /*
+     * -D<etapa>.cacheMegabytes (0 desliga) e -Dcache.hash=full|sampled. Cada etapa usa a
+     * pasta <baseDir>/<etapa>. null se o cache estiver desligado.
+     */
+    public static OutputCache fromSystemProperties(String name, Path baseDir, long defaultMegabytes)
+            throws IOException {
+        long megabytes = Long.getLong(name + ".cacheMegabytes", defaultMegabytes);
+        if (megabytes <= 0) return null;
+        ContentHash.Mode mode = "sampled".equalsIgnoreCase(System.getProperty("cache.hash", "full"))
+                ? ContentHash.Mode.SAMPLED : ContentHash.Mode.FULL;
+        return new OutputCache(name, baseDir.resolve(name), megabytes * 1024 * 1024, mode);
+    }
+
+    public String keyFor(String params, File input) throws IOException {
+        return JobIds.shortHash(params + "|" + ContentHash.of(input, hashMode));
+    }
+
+    /*
+     * Se houver uma entrada com a mesma quantidade de arquivos, cria os targets como links
+     * para ela e devolve true. Qualquer problema (entrada apagada no meio por outro processo,
+     * por exemplo) conta como miss.
+     */
+    public boolean link(String key, List<File> targets) {
+        Path entry = dir.resolve(key);
+        try {
+            List<Path> files = entryFiles(entry);
+            if (files.size() != targets.size()) {
+                misses.inc();
+                return false;
+            }
+            for (int i = 0; i < targets.size(); i++) {
+                Path target = targets.get(i).toPath();
+                Files.createDirectories(target.getParent());
+                linkOrCopy(files.get(i), target);
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            synchronized (this) {
+                if (entries.get(key) == null) {
+                    // Guardada por outro processo que usa a mesma pasta
+                    add(key, sizeOf(files));
+                }
+            }
+            hits.inc();
+            return true;
+        } catch (IOException e) {
+            misses.inc();
+            return false;
+        }
+    }
+
+    // Guarda os outputs de um job que acabou de rodar; falhas só são logadas
+    public void store(String key, List<File> outputs) {
+        Path entry = dir.resolve(key);
+        if (Files.isDirectory(entry)) return;
+        Path tmp = dir.resolve(TMP_PREFIX + key + "-" + System.nanoTime());
+        try {
+            Files.createDirectories(tmp);
+            long bytes = 0;
+            for (int i = 0; i < outputs.size(); i++) {
+                Path source = outputs.get(i).toPath();
+                linkOrCopy(source, tmp.resolve(i + extension(source)));
+                bytes += Files.size(source);
+            }
+            if (bytes > maxBytes) {
+                deleteRecursively(tmp);
+                return;
+            }
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                if (!Files.isDirectory(entry)) throw e;
+                // Outro worker guardou a mesma entrada antes
+                deleteRecursively(tmp);
+                return;
+            }
+            synchronized (this) {
+                add(key, bytes);
+                evict();
+            }
+        } catch (IOException e) {
+            System.out.println("Erro guardando outputs no cache (" + key + "): " + e.getMessage());
+            try {
+                deleteRecursively(tmp);
+            } catch (IOException ignored) {
+                // Sobra limpa na próxima inicialização
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void add(String key, long bytes) {
+        Long previous = entries.put(key, bytes);
+        totalBytes += bytes - (previous != null ? previous : 0);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            try {
+                deleteRecursively(dir.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                System.out.println("Erro removendo entrada do cache " + eldest.getKey() + ": " + e.getMessage());
+                continue;
+            }
+            totalBytes -= eldest.getValue();
+            it.remove();
+            evictions.inc();
+        }
+    }
+
+    private void load() throws IOException {
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                if (p.getFileName().toString().startsWith(TMP_PREFIX)) {
+                    deleteRecursively(p);
+                } else if (Files.isDirectory(p)) {
+                    found.add(p);
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(p -> p.toFile().lastModified()));
+        for (Path p : found) {
+            add(p.getFileName().toString(), sizeOf(entryFiles(p)));
+        }
+        evict();
+    }
+
+    // Arquivos da entrada na ordem em que foram guardados
+    private static List<Path> entryFiles(Path entry) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(entry)) {
+            for (Path p : stream) files.add(p);
+        }
+        files.sort(Comparator.comparingInt(OutputCache::index));
+        return files;
+    }
+
+    private static int index(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.indexOf('.');
+        try {
+            return Integer.parseInt(dot < 0 ? name : name.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static long sizeOf(List<Path> files) throws IOException {
+        long bytes = 0;
+        for (Path p : files) bytes += Files.size(p);
+        return bytes;
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot);
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + dir + " (" + maxBytes / (1024 * 1024) + " MB, hash " + hashMode.name().toLowerCase() + ")";
+    }
+}
@@ -0,0 +1,124 @@
+package com.messageria.config;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Topologia dos shards de notificação. A exchange notification.shards (x-consistent-hash,
+ * plugin rabbitmq_consistent_hash_exchange) recebe da video.exchange os transcode.created e
+ * thumbnail.created e escolhe a fila pelo correlation_id, que é o videoId: todos os eventos
+ * de um vídeo caem no mesmo notificacao.<n>.queue. Cada fila tem x-single-active-consumer,
+ * então várias instâncias podem se inscrever no mesmo shard e só uma recebe por vez (as
+ * outras ficam de reserva).
+ *
+ * Mudar a quantidade de shards (main abaixo) move só uma parte dos vídeos, mas os que mudaram
+ * de dono podem ter um evento no shard antigo e o outro no novo. Depois de trocar os
+ * bindings, um marcador (header x-shard-handoff) é publicado direto em cada fila antiga: as
+ * mensagens que estão antes dele foram roteadas pelo anel antigo, as que vêm depois pelo novo.
+ * Ao ler o marcador, o consumidor republica os estados pendentes do shard pela
+ * notification.shards (cada um vai para o dono atual) e os apaga do journal local. Num shard
+ * que deixou de existir, o consumidor apaga a fila logo depois (só se estiver vazia); se
+ * nenhum consumidor estiver ativo nele, a fila espera até algum se inscrever.
+ *
+ * Uso: NotificationShards <shards atuais> <shards novos>
+ *   ex.: NotificationShards 4 8
+ */
+public final class NotificationShards {
+    public static final String EXCHANGE = "notification.shards";
+    public static final String HANDOFF_HEADER = "x-shard-handoff";
+    private static final String[] EVENTS = { "transcode.created", "thumbnail.created" };
+    // Peso de cada fila no anel (a routing key do binding, para o plugin)
+    private static final String WEIGHT = "1";
+
+    private NotificationShards() {
+    }
+
+    public static String queue(int shard) {
+        return "notificacao." + shard + ".queue";
+    }
+
+    // -Dnotification.shards=0: sem shards, tudo vai para notificacao.queue como antes
+    public static int fromSystemProperties() {
+        return Integer.getInteger("notification.shards", 0);
+    }
+
+    public static void declare(Channel channel, int shards) throws IOException {
+        Map<String, Object> exchangeArgs = new HashMap<>();
+        exchangeArgs.put("hash-property", "correlation_id");
+        channel.exchangeDeclare(EXCHANGE, "x-consistent-hash", true, false, exchangeArgs);
+        for (String event : EVENTS) {
+            channel.exchangeBind(EXCHANGE, "video.exchange", event);
+        }
+        for (int i = 0; i < shards; i++) {
+            declareShard(channel, i);
+        }
+    }
+
+    private static void declareShard(Channel channel, int shard) throws IOException {
+        Map<String, Object> args = new HashMap<>();
+        args.put("x-single-active-consumer", true);
+        channel.queueDeclare(queue(shard), true, false, false, args);
+        channel.queueBind(queue(shard), EXCHANGE, WEIGHT);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Uso: NotificationShards <shards atuais> <shards novos>");
+            return;
+        }
+        int current = Integer.parseInt(args[0]);
+        int target = Integer.parseInt(args[1]);
+        if (current < 1 || target < 1) {
+            System.out.println("As quantidades de shards devem ser >= 1");
+            return;
+        }
+        try (Connection conn = new RabbitMQConfig().createConnection()) {
+            rebalance(conn, current, target);
+        }
+    }
+
+    // Troca os bindings de current para target shards e avisa as filas antigas
+    public static void rebalance(Connection conn, int current, int target) throws IOException, TimeoutException {
+        Channel channel = conn.createChannel();
+        try {
+            channel.confirmSelect();
+            declare(channel, target);
+            for (int i = target; i < current; i++) {
+                channel.queueUnbind(queue(i), EXCHANGE, WEIGHT);
+            }
+
+            Map<String, Object> headers = new HashMap<>();
+            headers.put(HANDOFF_HEADER, target);
+            AMQP.BasicProperties marker = new AMQP.BasicProperties.Builder()
+                    .headers(headers)
+                    .deliveryMode(2)
+                    .build();
+            for (int i = 0; i < current; i++) {
+                // Pela exchange padrão: vai só para esta fila, atrás do que ela já tem
+                channel.basicPublish("", queue(i), marker, new byte[0]);
+            }
+            try {
+                channel.waitForConfirmsOrDie(30_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompido esperando a confirmação dos marcadores", e);
+            }
+            System.out.println("Shards de notificação: " + current + " -> " + target
+                    + ", marcador de rebalanceamento enviado para " + current + " filas");
+            if (target == current - 1) {
+                System.out.println("A fila " + queue(target) + " será apagada pelo consumidor depois do repasse");
+            } else if (target < current) {
+                System.out.println("As filas " + queue(target) + " a " + queue(current - 1)
+                        + " serão apagadas pelos consumidores depois do repasse");
+            }
+        } finally {
+            if (channel.isOpen()) channel.close();
+        }
+    }
+}
@@ -1,26 +1,43 @@
 package com.messageria.config;
 
+import com.messageria.retry.RetryPolicy;
+import com.messageria.transcode.JobCost;
+import com.messageria.worker.VirtualThreads;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ShutdownSignalException;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
+/*
+ * Conexão com o broker. Por padrão o RabbitMQ em -Drabbitmq.host (localhost),
+ * -Drabbitmq.port (5672), -Drabbitmq.username / -Drabbitmq.password (user/password) e
+ * -Drabbitmq.virtualHost (/). Os benchmarks (em src/test) sobrescrevem createConnection()
+ * para usar o broker em memória com a mesma topologia.
+ */
 public class RabbitMQConfig {
 
     private final ConnectionFactory factory;
 
     public RabbitMQConfig() {
         this.factory = new ConnectionFactory();
-        factory.setHost("localhost");
-        factory.setUsername("user");
-        factory.setPassword("password");
+        factory.setHost(System.getProperty("rabbitmq.host", "localhost"));
+        factory.setPort(Integer.getInteger("rabbitmq.port", ConnectionFactory.DEFAULT_AMQP_PORT));
+        factory.setUsername(System.getProperty("rabbitmq.username", "user"));
+        factory.setPassword(System.getProperty("rabbitmq.password", "password"));
+        factory.setVirtualHost(System.getProperty("rabbitmq.virtualHost", "/"));
+        if (VirtualThreads.isEnabled()) {
+            // Callbacks de consumidores rodam em virtual threads em vez do pool fixo do cliente
+            factory.setSharedExecutor(VirtualThreads.newPerTaskExecutor("amqp-consumer-"));
+        }
     }
 
     public void setupTopology() {
-        try (Connection connection = factory.newConnection();
+        try (Connection connection = createConnection();
                 Channel channel = connection.createChannel()) {
 
             System.out.println("Configurando RabbitMQ");
@@ -34,17 +51,25 @@ public class RabbitMQConfig {
             channel.queueDeclare("thumbnail.queue", true, false, false, thumbArgs);
             channel.queueBind("thumbnail.queue", "video.exchange", "video.created");
 
-            // Transcode
-            Map<String, Object> transcodeArgs = new HashMap<>();
-            transcodeArgs.put("x-dead-letter-exchange", "dlx.video");
-            transcodeArgs.put("x-dead-letter-routing-key", "dead.transcode");
-            channel.queueDeclare("transcode.queue", true, false, false, transcodeArgs);
-            channel.queueBind("transcode.queue", "video.exchange", "video.created");
+            // Segmentos de vídeos longos (transcode segmentado), publicados pelo coordenador
+            Map<String, Object> segmentArgs = new HashMap<>();
+            segmentArgs.put("x-dead-letter-exchange", "dlx.video");
+            segmentArgs.put("x-dead-letter-routing-key", "dead.transcode.segment");
+            channel.queueDeclare("transcode.segment.queue", true, false, false, segmentArgs);
+            channel.queueBind("transcode.segment.queue", "video.exchange", "transcode.segment");
 
-            // Notificação
+            // Notificação: fila única ou shards por videoId (-Dnotification.shards)
             channel.queueDeclare("notificacao.queue", true, false, false, null);
-            channel.queueBind("notificacao.queue", "video.exchange", "transcode.created");
-            channel.queueBind("notificacao.queue", "video.exchange", "thumbnail.created");
+            int shards = NotificationShards.fromSystemProperties();
+            if (shards > 0) {
+                // A fila única deixa de receber; o que já estiver nela ainda pode ser consumido
+                channel.queueUnbind("notificacao.queue", "video.exchange", "transcode.created");
+                channel.queueUnbind("notificacao.queue", "video.exchange", "thumbnail.created");
+                NotificationShards.declare(channel, shards);
+            } else {
+                channel.queueBind("notificacao.queue", "video.exchange", "transcode.created");
+                channel.queueBind("notificacao.queue", "video.exchange", "thumbnail.created");
+            }
 
             channel.exchangeDeclare("dlx.video", "direct", true);
 
@@ -54,12 +79,72 @@ public class RabbitMQConfig {
             channel.queueDeclare("dlq.transcode.queue", true, false, false, null);
             channel.queueBind("dlq.transcode.queue", "dlx.video", "dead.transcode");
 
+            channel.queueDeclare("dlq.transcode.segment.queue", true, false, false, null);
+            channel.queueBind("dlq.transcode.segment.queue", "dlx.video", "dead.transcode.segment");
+
+            // Filas de espera para retentativas (TTL + dead-letter de volta pela video.retry)
+            RetryPolicy retry = RetryPolicy.fromSystemProperties();
+            retry.declare(channel, "thumbnail", "thumbnail.queue");
+            retry.declare(channel, "transcode.segment", "transcode.segment.queue");
+
+            // Por último: um erro nela não deixa as outras filas sem declarar
+            declareTranscodeQueue(connection, retry);
+
             System.out.println("Configuração do RabbitMQ concluída com sucesso.");
         } catch (Exception e) {
             System.out.println("Erro ao configurar RabbitMQ: " + e.getMessage());
         }
     }
 
+    /*
+     * A transcode.queue ganhou x-max-priority depois de já existir em produção, e o RabbitMQ não
+     * muda os argumentos de uma fila existente: o declare falha com PRECONDITION_FAILED e fecha
+     * o canal. Por isso ela usa um canal próprio, e nesse caso a fila antiga continua sendo
+     * usada (sem prioridade) até ser apagada.
+     */
+    private static void declareTranscodeQueue(Connection connection, RetryPolicy retry) throws IOException {
+        Map<String, Object> transcodeArgs = new HashMap<>();
+        transcodeArgs.put("x-dead-letter-exchange", "dlx.video");
+        transcodeArgs.put("x-dead-letter-routing-key", "dead.transcode");
+        // Vídeos curtos não ficam presos atrás de uploads longos (prioridade vem do JobCost do produtor)
+        transcodeArgs.put("x-max-priority", JobCost.MAX_PRIORITY);
+
+        Channel declare = connection.createChannel();
+        try {
+            declare.queueDeclare("transcode.queue", true, false, false, transcodeArgs);
+            closeQuietly(declare);
+        } catch (IOException e) {
+            if (!isPreconditionFailed(e)) throw e;
+            // O broker já fechou o canal
+            System.out.println("A transcode.queue já existe com outros argumentos (provavelmente sem x-max-priority)"
+                    + " e vai continuar sem prioridade. Para ativar a prioridade, apague a transcode.queue depois"
+                    + " de esvaziá-la (rabbitmqctl delete_queue transcode.queue ou pela interface de gerenciamento)"
+                    + " e rode a configuração de novo.");
+        }
+
+        Channel channel = connection.createChannel();
+        try {
+            channel.queueBind("transcode.queue", "video.exchange", "video.created");
+            retry.declare(channel, "transcode", "transcode.queue");
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    private static boolean isPreconditionFailed(IOException e) {
+        return e.getCause() instanceof ShutdownSignalException signal
+                && signal.getReason() instanceof AMQP.Channel.Close close
+                && close.getReplyCode() == AMQP.PRECONDITION_FAILED;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            if (channel.isOpen()) channel.close();
+        } catch (IOException | TimeoutException e) {
+            // Canal já fechado pelo broker
+        }
+    }
+
     public Connection createConnection() throws IOException, TimeoutException {
         return factory.newConnection();
     }
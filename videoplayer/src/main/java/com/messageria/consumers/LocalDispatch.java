@@ -0,0 +1,97 @@
+package com.messageria.consumers;
+
+import com.messageria.events.Event;
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.Metrics;
+import com.rabbitmq.client.AMQP;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Atalho em memória entre etapas na mesma JVM (PipelineLauncher). A etapa que publica um
+ * evento continua publicando no broker, que é quem garante a entrega; o mesmo evento também
+ * entra nesta fila e uma thread o entrega a quem se registrou na routing key, sem esperar a
+ * volta pelo broker. Por isso quem recebe precisa aceitar o evento duas vezes (a cópia do
+ * broker chega depois).
+ *
+ * A fila é limitada: cheia, o evento segue só pelo broker.
+ */
+public class LocalDispatch implements AutoCloseable {
+    private static final Counter DISPATCHED = Metrics.counter("local.dispatched");
+    private static final Counter DROPPED = Metrics.counter("local.dropped");
+
+    public interface Sink {
+        void accept(Event event, AMQP.BasicProperties props);
+    }
+
+    private record Item(Sink sink, Event event, AMQP.BasicProperties props) {
+    }
+
+    private static final Item STOP = new Item(null, null, null);
+
+    private final Map<String, Sink> sinks = new ConcurrentHashMap<>();
+    private final BlockingQueue<Item> queue;
+    private final Thread worker;
+
+    public LocalDispatch(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = new Thread(this::run, "local-dispatch");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // -Dlauncher.localQueue=1024
+    public static LocalDispatch fromSystemProperties() {
+        return new LocalDispatch(Integer.getInteger("launcher.localQueue", 1024));
+    }
+
+    public void register(String routingKey, Sink sink) {
+        sinks.put(routingKey, sink);
+    }
+
+    // false se ninguém nesta JVM consome a routing key ou se a fila está cheia
+    public boolean offer(String routingKey, Event event, AMQP.BasicProperties props) {
+        Sink sink = sinks.get(routingKey);
+        if (sink == null) return false;
+        if (!queue.offer(new Item(sink, event, props))) {
+            DROPPED.inc();
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        while (true) {
+            Item item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (item == STOP) return;
+            try {
+                item.sink.accept(item.event, item.props);
+                DISPATCHED.inc();
+            } catch (RuntimeException e) {
+                // A cópia do broker ainda vai chegar
+                System.out.println("Erro na entrega local de " + item.event.eventName() + " (videoId="
+                        + item.event.videoId() + "): " + e.getMessage());
+            }
+        }
+    }
+
+    // Entrega o que já está na fila e para a thread
+    @Override
+    public void close() {
+        try {
+            queue.put(STOP);
+            worker.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.messageria.consumers;
+
+import com.messageria.cache.OutputCache;
+import com.messageria.config.NotificationShards;
+import com.messageria.config.RabbitMQConfig;
+import com.messageria.metrics.Metrics;
+import com.messageria.publisher.ConfirmingPublisher;
+import com.messageria.repository.JobRepositories;
+import com.messageria.repository.JobRepository;
+import com.messageria.retry.RetryPolicy;
+import com.messageria.state.NotificationStateStore;
+import com.messageria.transcode.LadderTranscoder;
+import com.rabbitmq.client.Connection;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Roda qualquer subconjunto das etapas numa JVM só, em vez de um processo por etapa (três
+ * JVMs, três aquecimentos). As etapas dividem a conexão, o JobRepository, a thread dos
+ * callbacks de confirm e as métricas; cada uma continua com o seu WorkerPool, que é o que
+ * limita a concorrência dela.
+ *
+ * Com a notificação junto de thumbnail e/ou transcode, os eventos de conclusão também vão
+ * direto para ela por um LocalDispatch (-Dlauncher.localDispatch=true, padrão), sem esperar
+ * a volta pelo broker. A publicação no broker continua igual: é ela que garante a entrega, e
+ * a cópia que chega depois é aplicada de novo sem efeito. Com -Dnotification.shards > 0 a
+ * entrega local fica desligada (o shard do vídeo pode ser de outra instância).
+ *
+ * SIGTERM (ou Ctrl+C) para as etapas na ordem inversa do início, de cima para baixo no
+ * pipeline: thumbnail e transcode terminam os jobs em andamento e os eventos deles ainda
+ * chegam à notificação antes de ela parar.
+ *
+ * Uso: PipelineLauncher [etapas=all]
+ *   ex.: PipelineLauncher thumbnail,notification
+ */
+public class PipelineLauncher {
+    // Ordem de início: quem recebe os eventos primeiro
+    private static final List<String> STAGES = List.of("notification", "transcode", "thumbnail");
+
+    private final RabbitMQConfig config;
+    private final List<String> names;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<ConfirmingPublisher> publishers = new ArrayList<>();
+    private Connection connection;
+    private ExecutorService callbacks;
+    private JobRepository repo;
+    private NotificationStateStore store;
+    private LocalDispatch local;
+
+    public PipelineLauncher(RabbitMQConfig config, List<String> names) {
+        this.config = config;
+        this.names = names;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> names;
+        try {
+            names = parseStages(args.length > 0 ? args[0] : "all");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Uso: PipelineLauncher [thumbnail,transcode,notification | all]");
+            return;
+        }
+        System.out.println("Iniciando pipeline com " + names);
+        Metrics.start("pipeline");
+
+        PipelineLauncher launcher = new PipelineLauncher(new RabbitMQConfig(), names);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            launcher.stop();
+            Metrics.stop();
+            stopped.countDown();
+        }, "pipeline-shutdown"));
+
+        long started = System.nanoTime();
+        try {
+            launcher.start();
+        } catch (Exception e) {
+            System.out.println("Erro iniciando o pipeline: " + e.getMessage());
+            // O shutdown hook fecha o que chegou a abrir
+            System.exit(1);
+        }
+        System.out.println("Pipeline aguardando mensagens (iniciado em "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms, entrega local "
+                + (launcher.local != null ? "ligada" : "desligada") + ")");
+        stopped.await();
+    }
+
+    // "all" ou nomes separados por vírgula; devolve na ordem de início
+    static List<String> parseStages(String spec) {
+        if (spec.equalsIgnoreCase("all")) return STAGES;
+        List<String> requested = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String name = part.trim().toLowerCase();
+            if (name.isEmpty()) continue;
+            if (!STAGES.contains(name)) {
+                throw new IllegalArgumentException("Etapa desconhecida: " + name);
+            }
+            requested.add(name);
+        }
+        if (requested.isEmpty()) {
+            throw new IllegalArgumentException("Nenhuma etapa escolhida");
+        }
+        List<String> ordered = new ArrayList<>(STAGES);
+        ordered.retainAll(requested);
+        return ordered;
+    }
+
+    public synchronized void start() throws IOException, TimeoutException {
+        connection = config.createConnection();
+        callbacks = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "confirm-callbacks");
+            t.setDaemon(true);
+            return t;
+        });
+        if (names.contains("thumbnail") || names.contains("transcode")) {
+            repo = JobRepositories.fromSystemProperties(Path.of("state"), "pipeline");
+        }
+        for (String name : names) {
+            stages.add(create(name));
+        }
+        if (Boolean.parseBoolean(System.getProperty("launcher.localDispatch", "true"))) {
+            local = wireLocalDispatch(stages);
+        }
+        for (Stage stage : stages) {
+            stage.start(connection);
+            if (stage instanceof TranscodeConsumer transcode) {
+                System.out.println("Etapa transcode iniciada (" + transcode.describe() + ")");
+            } else {
+                System.out.println("Etapa " + stage.getName() + " iniciada");
+            }
+        }
+    }
+
+    private Stage create(String name) throws IOException {
+        switch (name) {
+            case "notification":
+                int shards = NotificationShards.fromSystemProperties();
+                if (shards > 0) {
+                    return NotificationConsumer.fromSystemProperties(Path.of("state", "notifications"), shards);
+                }
+                store = NotificationStateStore.fromSystemProperties(Path.of("state", "notifications"),
+                        "notifications");
+                return NotificationConsumer.fromSystemProperties(store);
+            case "transcode":
+                return new TranscodeConsumer(repo, LadderTranscoder.fromSystemProperties(),
+                        publisher("transcode.maxUnconfirmed"), RetryPolicy.fromSystemProperties(), new File("outputs"),
+                        OutputCache.fromSystemProperties("transcode", Path.of("cache"), 10 * 1024));
+            case "thumbnail":
+                return new ThumbnailConsumer(repo, publisher("thumbnail.maxUnconfirmed"),
+                        RetryPolicy.fromSystemProperties(), new File("outputs"),
+                        OutputCache.fromSystemProperties("thumbnail", Path.of("cache"), 512));
+            default:
+                throw new IllegalArgumentException("Etapa desconhecida: " + name);
+        }
+    }
+
+    // Um canal de publicação por etapa (um erro de canal não derruba a outra), callbacks na thread compartilhada
+    private ConfirmingPublisher publisher(String maxUnconfirmedProperty) throws IOException {
+        ConfirmingPublisher publisher = new ConfirmingPublisher(connection.createChannel(),
+                Integer.getInteger(maxUnconfirmedProperty, 64), callbacks);
+        publishers.add(publisher);
+        return publisher;
+    }
+
+    /*
+     * Liga thumbnail e transcode à notificação da lista pelo LocalDispatch. null se não houver
+     * notificação, nem quem publique para ela, ou se ela estiver com shards.
+     */
+    public static LocalDispatch wireLocalDispatch(List<Stage> stages) {
+        NotificationConsumer notification = null;
+        boolean publishers = false;
+        for (Stage stage : stages) {
+            if (stage instanceof NotificationConsumer n) notification = n;
+            if (stage instanceof ThumbnailConsumer || stage instanceof TranscodeConsumer) publishers = true;
+        }
+        if (notification == null || !publishers) return null;
+        if (notification.isSharded()) {
+            System.out.println("Entrega local desligada: a notificação está com shards");
+            return null;
+        }
+        LocalDispatch local = LocalDispatch.fromSystemProperties();
+        local.register("thumbnail.created", notification::deliverLocal);
+        local.register("transcode.created", notification::deliverLocal);
+        for (Stage stage : stages) {
+            if (stage instanceof ThumbnailConsumer thumbnail) thumbnail.setLocalDispatch(local);
+            if (stage instanceof TranscodeConsumer transcode) transcode.setLocalDispatch(local);
+        }
+        return local;
+    }
+
+    public synchronized void stop() {
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            Stage stage = stages.get(i);
+            // As etapas acima já pararam: o que sobrou na fila local vai para a notificação antes dela parar
+            if (stage instanceof NotificationConsumer && local != null) {
+                local.close();
+                local = null;
+            }
+            System.out.println("Parando a etapa " + stage.getName());
+            try {
+                stage.stop();
+            } catch (IOException e) {
+                System.out.println("Erro parando a etapa " + stage.getName() + ": " + e.getMessage());
+            }
+        }
+        stages.clear();
+        if (local != null) {
+            local.close();
+            local = null;
+        }
+        for (ConfirmingPublisher publisher : publishers) {
+            publisher.close();
+        }
+        publishers.clear();
+        closeQuietly(store);
+        store = null;
+        if (repo instanceof Closeable closeable) closeQuietly(closeable);
+        repo = null;
+        if (callbacks != null) {
+            callbacks.shutdown();
+            callbacks = null;
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (Exception e) {
+                System.out.println("Erro fechando conexão: " + e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            System.out.println("Erro fechando " + closeable.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.messageria.consumers;
+
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+
+/*
+ * Uma etapa do pipeline. A conexão vem de fora, então a mesma etapa roda no seu próprio
+ * processo contra o RabbitMQ, junto com as outras numa JVM só ou contra o InMemoryBroker
+ * nos benchmarks.
+ */
+public interface Stage {
+
+    String getName();
+
+    // Declara os canais e começa a consumir
+    void start(Connection conn) throws IOException;
+
+    // Para de receber mensagens e espera as que já estão sendo processadas
+    void stop() throws IOException;
+}
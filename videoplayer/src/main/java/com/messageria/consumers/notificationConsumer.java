@@ -1,149 +1,609 @@
 package com.messageria.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.messageria.config.NotificationShards;
 import com.messageria.config.RabbitMQConfig;
+import com.messageria.events.Event;
+import com.messageria.events.MessageCodec;
+import com.messageria.events.MessageCodecs;
+import com.messageria.events.ThumbnailCreated;
+import com.messageria.events.TranscodeCreated;
+import com.messageria.events.VideoReady;
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import com.messageria.publisher.ConfirmingPublisher;
+import com.messageria.state.NotificationState;
+import com.messageria.state.NotificationStateStore;
+import com.messageria.worker.AdaptivePrefetch;
+import com.messageria.worker.DeliveryBatcher;
 import com.rabbitmq.client.*;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-public class NotificationConsumer {
+/*
+ * Junta os eventos de thumbnail e transcode de cada vídeo e avisa quando os dois chegaram.
+ *
+ * Com -Dnotification.shards=N os eventos chegam por N filas (NotificationShards), e todos os
+ * eventos de um vídeo caem sempre na mesma. Cada shard tem canal, lote e journal próprios
+ * (<state>/shard-<n>), aberto só quando a primeira mensagem do shard chega: com várias
+ * instâncias inscritas no mesmo shard (single active consumer) só a ativa abre o journal, e a
+ * reserva abre quando assumir. Para a reserva continuar de onde a outra parou, a pasta de
+ * estado precisa ser compartilhada entre as instâncias.
+ */
+public class NotificationConsumer implements Stage {
     private static final String QUEUE = "notificacao.queue";
+    private static final int LEGACY = -1;
+    // Só para republicar os estados pendentes no rebalanceamento dos shards
+    private static final MessageCodec CODEC = MessageCodecs.fromSystemProperties();
+    // Só para o campo outputs do NotificationState, que é guardado como array JSON
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<List<String>> STRING_LIST = new TypeReference<>() {
+    };
+
+    private static final Counter RECEIVED = Metrics.counter("notification.received");
+    private static final Counter ACKED = Metrics.counter("notification.acked");
+    private static final Counter FAILED = Metrics.counter("notification.failed");
+    private static final Counter VIDEO_READY = Metrics.counter("notification.videoReady");
+    private static final Counter HANDED_OFF = Metrics.counter("notification.handedOff");
+    private static final Counter LOCAL = Metrics.counter("notification.local");
+    private static final LatencyHistogram QUEUE_WAIT = Metrics.histogram("notification.queueWait");
+    private static final LatencyHistogram PROCESSING = Metrics.histogram("notification.processing");
+    private static final LatencyHistogram BATCH_PROCESSING = Metrics.histogram("notification.batchProcessing");
+    // Do recebimento até o estado estar gravado (por mensagem, ou por lote no modo lote)
+    private static final LatencyHistogram ACK_LATENCY = Metrics.histogram("notification.ackLatency");
+    // Da publicação do VideoCreated até o VideoReady
+    private static final LatencyHistogram END_TO_END = Metrics.histogram("pipeline.endToEnd");
 
     private static final Path STATE_DIR = Paths.get("state", "notifications");
 
-    public static void main(String[] args) throws Exception {
-        if (!Files.exists(STATE_DIR))
-            Files.createDirectories(STATE_DIR);
+    // Fila única: o store recebido no construtor; com shards cada um abre o seu em stateDir
+    private final NotificationStateStore store;
+    private final Path stateDir;
+    private final int shardCount;
+    // null = todos os shards, inclusive os criados depois por um rebalanceamento
+    private final List<Integer> claims;
+    private final int prefetch;
+    private final int batchSize;
+    private final long batchDelayMillis;
 
-        System.out.println("Iniciando Notificacao Consumer");
+    private final Map<Integer, Shard> shards = new ConcurrentHashMap<>();
+    private Connection connection;
+    private ConfirmingPublisher handoffPublisher;
+    // Só com -Dnotification.adaptive=true; o mesmo prefetch vale para todos os shards
+    private AdaptivePrefetch adaptive;
 
-        RabbitMQConfig cfg = new RabbitMQConfig();
-        try (Connection conn = cfg.createConnection();
-                Channel channel = conn.createChannel()) {
+    /*
+     * batchSize = 1 mantém o comportamento original (um ack por mensagem). Com batchSize > 1
+     * as entregas são processadas em micro-lotes: os eventos do mesmo videoId viram um único
+     * update no store e o lote inteiro é confirmado com basicAck(multiple=true).
+     */
+    public NotificationConsumer(NotificationStateStore store, int prefetch, int batchSize, long batchDelayMillis) {
+        this(store, null, 0, null, prefetch, batchSize, batchDelayMillis);
+    }
+
+    // Com shards: prefetch, lote e journal valem para cada shard
+    public NotificationConsumer(Path stateDir, int shardCount, List<Integer> claims, int prefetch, int batchSize,
+            long batchDelayMillis) {
+        this(null, stateDir, shardCount, claims, prefetch, batchSize, batchDelayMillis);
+    }
 
-            System.out.println("Notificacao Consumer aguardando mensagens");
+    private NotificationConsumer(NotificationStateStore store, Path stateDir, int shardCount, List<Integer> claims,
+            int prefetch, int batchSize, long batchDelayMillis) {
+        if (batchSize > 1 && prefetch < batchSize) {
+            throw new IllegalArgumentException(
+                    "notification.prefetch (" + prefetch + ") deve ser >= notification.batchSize (" + batchSize + ")");
+        }
+        this.store = store;
+        this.stateDir = stateDir;
+        this.shardCount = shardCount;
+        this.claims = claims;
+        this.prefetch = prefetch;
+        this.batchSize = batchSize;
+        this.batchDelayMillis = batchDelayMillis;
+    }
 
-            channel.basicQos(5);
+    // notification.batchSize (padrão 1), notification.prefetch e notification.batchDelayMillis
+    public static NotificationConsumer fromSystemProperties(NotificationStateStore store) {
+        int batchSize = Integer.getInteger("notification.batchSize", 1);
+        int prefetch = Integer.getInteger("notification.prefetch", batchSize > 1 ? batchSize * 4 : 5);
+        long batchDelay = Long.getLong("notification.batchDelayMillis", 20);
+        return new NotificationConsumer(store, prefetch, batchSize, batchDelay);
+    }
 
-            DeliverCallback callback = (consumerTag, delivery) -> {
-                long deliveryTag = delivery.getEnvelope().getDeliveryTag();
-                String raw = new String(delivery.getBody(), StandardCharsets.UTF_8);
+    /*
+     * Mesmas opções do fromSystemProperties(store), mais -Dnotification.claim: shards que esta
+     * instância assume, como "0,2" ou "0-3". O padrão "all" se inscreve em todos.
+     */
+    public static NotificationConsumer fromSystemProperties(Path stateDir, int shardCount) {
+        NotificationConsumer base = fromSystemProperties((NotificationStateStore) null);
+        return new NotificationConsumer(stateDir, shardCount,
+                parseClaims(System.getProperty("notification.claim", "all")),
+                base.prefetch, base.batchSize, base.batchDelayMillis);
+    }
+
+    static List<Integer> parseClaims(String spec) {
+        if (spec.equalsIgnoreCase("all")) return null;
+        List<Integer> claims = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            int dash = part.indexOf('-');
+            if (dash > 0) {
+                int from = Integer.parseInt(part.substring(0, dash).trim());
+                int to = Integer.parseInt(part.substring(dash + 1).trim());
+                for (int i = from; i <= to; i++) claims.add(i);
+            } else if (!part.isEmpty()) {
+                claims.add(Integer.parseInt(part));
+            }
+        }
+        return claims;
+    }
 
-                String videoId = null;
-                String event = null;
+    public static void main(String[] args) throws Exception {
+        System.out.println("Iniciando Notificacao Consumer");
+        Metrics.start("notification");
 
+        RabbitMQConfig cfg = new RabbitMQConfig();
+        int shardCount = NotificationShards.fromSystemProperties();
+        NotificationStateStore store = shardCount > 0 ? null
+                : NotificationStateStore.fromSystemProperties(STATE_DIR, "notifications");
+        Connection conn = cfg.createConnection();
+        NotificationConsumer consumer = shardCount > 0
+                ? NotificationConsumer.fromSystemProperties(STATE_DIR, shardCount)
+                : NotificationConsumer.fromSystemProperties(store);
+        CountDownLatch stopped = new CountDownLatch(1);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                consumer.stop();
+            } catch (IOException e) {
+                System.out.println("Erro parando o consumer: " + e.getMessage());
+            }
+            // Depois do stop: o último lote já foi gravado, o close só faz o flush final do journal
+            if (store != null) {
                 try {
-                    JsonNode root = MAPPER.readTree(raw);
-                    videoId = root.path("videoId").asText(null);
-                    event = root.path("event").asText(null);
+                    store.close();
+                } catch (IOException e) {
+                    System.out.println("Erro fechando o estado de notificações: " + e.getMessage());
+                }
+            }
+            try {
+                conn.close();
+            } catch (Exception e) {
+                System.out.println("Erro fechando conexão: " + e.getMessage());
+            }
+            Metrics.stop();
+            stopped.countDown();
+        }));
 
-                    if (videoId == null) {
-                        throw new IllegalArgumentException(
-                                "Mensagem inválida, faltando jobId/videoId/inputUrl: " + raw);
-                    }
+        consumer.start(conn);
+        System.out.println("Notificacao Consumer aguardando mensagens");
+        stopped.await();
+    }
 
-                    NotificationState state = loadState(videoId);
-                    boolean stateChanged = false;
+    @Override
+    public String getName() {
+        return "notification";
+    }
 
-                    if ("transcodecreated".equalsIgnoreCase(event)) {
-                        state.transcodeDone = true;
-                        if (root.has("outputs")) {
-                            state.outputs = root.path("outputs").toString();
-                        }
-                        stateChanged = true;
-                    } else if ("thumbnailcreated".equalsIgnoreCase(event)) {
-                        state.thumbnailDone = true;
-                        if (root.has("thumbnail")) {
-                            state.thumbnailPath = root.path("thumbnail").asText(null);
-                        }
-                        stateChanged = true;
-                    }
+    @Override
+    public synchronized void start(Connection conn) throws IOException {
+        connection = conn;
+        // Cada shard processa em ordem numa thread só, então aqui o controlador só mexe no prefetch
+        adaptive = AdaptivePrefetch.fromSystemProperties("notification", prefetch, batchSize > 1 ? batchSize : 1);
+        if (adaptive != null) {
+            // A mensagem ocupa o prefetch até o flush do journal, quase sem usar CPU
+            adaptive.measure("notification.ackLatency");
+            adaptive.cpuBound(false);
+            adaptive.start(conn);
+        }
+        if (batchSize > 1) {
+            System.out.println("Notificacao Consumer em modo lote (batchSize=" + batchSize + ", prefetch="
+                    + prefetch + ", batchDelayMillis=" + batchDelayMillis + ")");
+        }
+        if (shardCount <= 0) {
+            startShard(LEGACY);
+            return;
+        }
+        handoffPublisher = new ConfirmingPublisher(conn.createChannel(), 256);
+        for (int i = 0; i < shardCount; i++) {
+            if (claims == null || claims.contains(i)) startShard(i);
+        }
+        System.out.println("Notificacao Consumer inscrito nos shards " + shards.keySet() + " de " + shardCount);
+    }
 
-                    System.out.println("Estado atual do videoId=" + videoId + ": transcodeDone=" 
-                   + state.transcodeDone + ", thumbnailDone=" + state.thumbnailDone);
+    private synchronized void startShard(int index) throws IOException {
+        if (connection == null || shards.containsKey(index)) return;
+        Shard shard = new Shard(index);
+        shard.start(connection);
+        shards.put(index, shard);
+    }
 
-                    if (stateChanged)
-                        saveState(videoId, state);
+    public boolean isSharded() {
+        return shardCount > 0;
+    }
 
-                    if (state.transcodeDone && state.thumbnailDone && !state.notified) {
-                        System.out.println("Enviando notificação");
+    /*
+     * Evento entregue pelo LocalDispatch, antes da cópia que vem pelo broker. Só na fila única:
+     * com shards o dono do vídeo é escolhido pelo anel da exchange e pode ser outra instância.
+     * Aplicar a cópia do broker depois não muda nada (os campos são os mesmos e o VideoReady
+     * só sai uma vez), e é ela que garante o estado se o processo cair antes do flush.
+     */
+    public void deliverLocal(Event event, AMQP.BasicProperties props) {
+        Shard shard = shards.get(LEGACY);
+        if (shard == null) return;
+        LOCAL.inc();
+        try {
+            shard.store().update(event.videoId(), state -> applyEvent(event, props, state))
+                    .whenComplete((ok, error) -> {
+                        if (error != null) System.out.println("Erro salvando state: " + error.getMessage());
+                    });
+        } catch (IOException e) {
+            System.out.println("Erro na entrega local para videoId=" + event.videoId() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        if (adaptive != null) {
+            adaptive.close();
+            adaptive = null;
+        }
+        for (Shard shard : new ArrayList<>(shards.values())) {
+            shard.release();
+        }
+        if (handoffPublisher != null) {
+            handoffPublisher.close();
+            handoffPublisher = null;
+        }
+        connection = null;
+    }
 
-                        Map<String, Object> payload = new HashMap<>();
-                        payload.put("videoId", videoId);
-                        payload.put("event", "VideoReady");
-                        payload.put("outputs",
-                                state.outputs != null ? MAPPER.readTree(state.outputs) : MAPPER.createArrayNode());
-                        if (state.thumbnailPath != null)
-                            payload.put("thumbnail", state.thumbnailPath);
+    /*
+     * Uma fila de notificação: notificacao.queue sem shards, ou notificacao.<n>.queue. As
+     * entregas de um shard são processadas na ordem, na thread do canal dele (ou do lote).
+     */
+    private final class Shard {
+        final int index;
+        final String queue;
+        Channel channel;
+        DeliveryBatcher batcher;
+        NotificationStateStore shardStore;
 
-                        String payloadJson = MAPPER.writeValueAsString(payload);
+        Shard(int index) {
+            this.index = index;
+            this.queue = index == LEGACY ? QUEUE : NotificationShards.queue(index);
+            this.shardStore = index == LEGACY ? store : null;
+        }
 
-                        System.out.println("Notificação enviada: " + payloadJson);
+        void start(Connection conn) throws IOException {
+            channel = conn.createChannel();
+            if (adaptive != null) {
+                adaptive.attach(channel);
+                adaptive.watchQueue(queue);
+            } else {
+                channel.basicQos(prefetch);
+            }
+            if (batchSize > 1) {
+                batcher = new DeliveryBatcher(channel, batchSize, batchDelayMillis, this::processBatch);
+            }
+            channel.basicConsume(queue, false, (consumerTag, delivery) -> {
+                if (isHandoffMarker(delivery)) {
+                    // O que veio antes do marcador precisa estar aplicado antes do repasse
+                    if (batcher != null) batcher.flush();
+                    handOff(delivery);
+                } else if (batcher != null) {
+                    batcher.add(delivery);
+                } else {
+                    handle(delivery);
+                }
+            }, consumerTag -> {
+                // Fila apagada (shard removido no rebalanceamento) ou cancelada pelo broker
+                System.out.println("Consumo de " + queue + " cancelado, liberando o shard");
+                CompletableFuture.runAsync(this::releaseQuietly);
+            });
+        }
 
-                        state.notified = true;
-                        state.notifiedAt = Instant.now().toString();
-                        saveState(videoId, state);
+        synchronized NotificationStateStore store() throws IOException {
+            if (shardStore == null) {
+                shardStore = NotificationStateStore.fromSystemProperties(stateDir.resolve("shard-" + index),
+                        "notifications");
+                System.out.println("Shard " + index + " ativo nesta instância");
+            }
+            return shardStore;
+        }
 
-                        channel.basicAck(deliveryTag, false);
-                    } else {
-                        System.out.println("Algum dos jobs ainda não está pronto, aguardando mais eventos");
-                        channel.basicAck(deliveryTag, false);
+        void release() throws IOException {
+            shards.remove(index, this);
+            AdaptivePrefetch controller = adaptive;
+            if (controller != null) controller.unwatchQueue(queue);
+            if (batcher != null) {
+                batcher.close(30, TimeUnit.SECONDS);
+            }
+            try {
+                if (channel != null && channel.isOpen()) channel.close();
+            } catch (TimeoutException e) {
+                throw new IOException(e);
+            } finally {
+                synchronized (this) {
+                    if (index != LEGACY && shardStore != null) {
+                        shardStore.close();
+                        shardStore = null;
                     }
+                }
+            }
+        }
+
+        private void releaseQuietly() {
+            try {
+                release();
+            } catch (IOException e) {
+                System.out.println("Erro liberando o shard " + index + ": " + e.getMessage());
+            }
+        }
+
+        private void handle(Delivery delivery) {
+            long started = System.nanoTime();
+            long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+            RECEIVED.inc();
+            Metrics.recordSinceHeader(QUEUE_WAIT, delivery.getProperties(), Metrics.PUBLISHED_AT_HEADER);
+
+            try {
+                Event event = MessageCodecs.decode(delivery);
+                AMQP.BasicProperties props = delivery.getProperties();
+                CompletableFuture<Void> flushed = store().update(event.videoId(),
+                        state -> applyEvent(event, props, state));
+                PROCESSING.recordSince(started);
+                flushed.whenComplete((ok, error) -> {
+                            try {
+                                if (error == null) {
+                                    channel.basicAck(deliveryTag, false);
+                                    ACKED.inc();
+                                    ACK_LATENCY.recordSince(started);
+                                } else {
+                                    System.out.println("Erro salvando state: " + error.getMessage());
+                                    FAILED.inc();
+                                    channel.basicNack(deliveryTag, false, false);
+                                }
+                            } catch (IOException ioe) {
+                                System.out.println("Erro ao enviar ack/nack: " + ioe.getMessage());
+                            }
+                        });
+
+            } catch (Exception ex) {
+                System.out.println("erro processando notificação" + ex.getMessage());
+                FAILED.inc();
+                try {
+                    channel.basicNack(deliveryTag, false, false);
+                } catch (IOException ioe) {
+                    System.out.println("Erro ao enviar nack: " + ioe.getMessage());
+                }
+            }
+        }
 
+        /*
+         * Agrupa o lote por videoId (mantendo a ordem de chegada dentro de cada vídeo) e faz um
+         * único update por vídeo. As mensagens inválidas e os eventos cujo applyEvent falhou
+         * voltam como tags com falha; o resto é confirmado quando o journal do store for gravado.
+         */
+        CompletableFuture<Set<Long>> processBatch(List<Delivery> batch) {
+            long started = System.nanoTime();
+            Set<Long> failed = ConcurrentHashMap.newKeySet();
+            Map<String, List<ParsedEvent>> byVideo = new LinkedHashMap<>();
+
+            for (Delivery delivery : batch) {
+                long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+                RECEIVED.inc();
+                Metrics.recordSinceHeader(QUEUE_WAIT, delivery.getProperties(), Metrics.PUBLISHED_AT_HEADER);
+                try {
+                    Event event = MessageCodecs.decode(delivery);
+                    byVideo.computeIfAbsent(event.videoId(), id -> new ArrayList<>(2))
+                            .add(new ParsedEvent(deliveryTag, event, delivery.getProperties()));
                 } catch (Exception ex) {
                     System.out.println("erro processando notificação" + ex.getMessage());
+                    failed.add(deliveryTag);
+                }
+            }
+
+            NotificationStateStore target;
+            try {
+                target = store();
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            List<CompletableFuture<Void>> flushes = new ArrayList<>(byVideo.size());
+            for (Map.Entry<String, List<ParsedEvent>> e : byVideo.entrySet()) {
+                String videoId = e.getKey();
+                List<ParsedEvent> events = e.getValue();
+                flushes.add(target.update(videoId, state -> {
+                    for (ParsedEvent ev : events) {
+                        try {
+                            applyEvent(ev.event, ev.props, state);
+                        } catch (RuntimeException ex) {
+                            System.out.println("erro processando notificação" + ex.getMessage());
+                            failed.add(ev.deliveryTag);
+                        }
+                    }
+                }));
+            }
+
+            BATCH_PROCESSING.recordSince(started);
+
+            // Normalmente todos os updates caem no mesmo flush do journal
+            return CompletableFuture.allOf(flushes.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+                ACK_LATENCY.recordSince(started);
+                ACKED.add(batch.size() - failed.size());
+                FAILED.add(failed.size());
+                return failed;
+            });
+        }
+
+        /*
+         * Marcador do NotificationShards.rebalance: republica pela notification.shards os
+         * vídeos pendentes deste shard (cada um vai para o dono pelo anel novo, que pode ser
+         * este mesmo shard) e só depois dos confirms apaga os estados locais. Roda na thread de
+         * entrega, então nenhum evento deste shard é aplicado no meio. Se falhar, o marcador
+         * volta para a fila e o repasse é tentado de novo.
+         */
+        private void handOff(Delivery marker) {
+            long deliveryTag = marker.getEnvelope().getDeliveryTag();
+            int target = ((Number) marker.getProperties().getHeaders().get(NotificationShards.HANDOFF_HEADER))
+                    .intValue();
+            try {
+                if (index == LEGACY || handoffPublisher == null) {
+                    throw new IllegalStateException("marcador de rebalanceamento fora de um shard");
+                }
+                NotificationStateStore local = store();
+                Map<String, NotificationState> pending = local.pendingStates();
+                List<CompletableFuture<Void>> confirms = new ArrayList<>(pending.size() * 2);
+                for (Map.Entry<String, NotificationState> e : pending.entrySet()) {
+                    String videoId = e.getKey();
+                    NotificationState state = e.getValue();
+                    if (state.thumbnailDone) {
+                        confirms.add(republish(new ThumbnailCreated(null, videoId, state.thumbnailPath, null, null)));
+                    }
+                    if (state.transcodeDone) {
+                        List<String> outputs = state.outputs != null
+                                ? MAPPER.readValue(state.outputs, STRING_LIST) : List.of();
+                        confirms.add(republish(new TranscodeCreated(null, videoId, outputs)));
+                    }
+                }
+                CompletableFuture.allOf(confirms.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+                for (String videoId : pending.keySet()) {
+                    local.remove(videoId);
+                }
+                HANDED_OFF.add(pending.size());
+                channel.basicAck(deliveryTag, false);
+                System.out.println("Shard " + index + ": " + pending.size()
+                        + " vídeos pendentes repassados (agora são " + target + " shards)");
+            } catch (Exception e) {
+                System.out.println("Erro repassando os estados do shard " + index + ": " + e.getMessage());
+                try {
+                    channel.basicNack(deliveryTag, false, true);
+                } catch (IOException ioe) {
+                    System.out.println("Erro ao devolver o marcador: " + ioe.getMessage());
+                }
+                return;
+            }
+
+            if (index >= target) {
+                deleteQueue();
+            } else if (claims == null) {
+                // Shards novos: esta instância se inscreve também (o single active consumer escolhe quem recebe)
+                for (int i = 0; i < target; i++) {
                     try {
-                        channel.basicNack(deliveryTag, false, false);
-                    } catch (IOException ioe) {
-                        System.out.println("Erro ao enviar nack: " + ioe.getMessage());
+                        startShard(i);
+                    } catch (IOException e) {
+                        System.out.println("Erro inscrevendo no shard " + i + ": " + e.getMessage());
                     }
                 }
-            };
+            }
+        }
 
-            channel.basicConsume(QUEUE, false, callback, consumerTag -> {
-            });
+        private CompletableFuture<Void> republish(Event event) throws IOException, InterruptedException {
+            Map<String, Object> headers = new HashMap<>();
+            headers.put("x-handoff-from", index);
+            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                    .contentType(CODEC.contentType())
+                    .correlationId(event.videoId())
+                    .headers(headers)
+                    .deliveryMode(2)
+                    .build();
+            return handoffPublisher.publish(NotificationShards.EXCHANGE, "", props, CODEC.encode(event));
+        }
 
-            System.in.read();
+        // Shard que deixou de existir: apaga a fila se estiver vazia; o cancel libera o shard
+        private void deleteQueue() {
+            // Canal separado: a recusa do broker (fila não vazia) fecha o canal que fez o pedido
+            try {
+                Channel admin = connection.createChannel();
+                try {
+                    admin.queueDelete(queue, false, true);
+                    System.out.println("Fila " + queue + " removida depois do repasse");
+                } finally {
+                    if (admin.isOpen()) admin.close();
+                }
+            } catch (IOException | TimeoutException e) {
+                System.out.println("Fila " + queue + " não foi removida (ainda tem mensagens?): " + e.getMessage());
+            }
         }
     }
 
-    static class NotificationState {
-        public boolean transcodeDone = false;
-        public boolean thumbnailDone = false;
-        public boolean notified = false;
-        public String outputs = null;
-        public String thumbnailPath = null;
-        public String lastSeenStatus = null;
-        public String notifiedAt = null;
+    private static boolean isHandoffMarker(Delivery delivery) {
+        Map<String, Object> headers = delivery.getProperties().getHeaders();
+        return headers != null && headers.get(NotificationShards.HANDOFF_HEADER) instanceof Number;
     }
 
-    private static NotificationState loadState(String videoId) {
-        try {
-            Path p = STATE_DIR.resolve(videoId + ".json");
-            if (Files.exists(p)) {
-                byte[] b = Files.readAllBytes(p);
-                return MAPPER.readValue(b, NotificationState.class);
-            }
-        } catch (Exception e) {
-            System.out.println("Erro carregando state");
+    private static class ParsedEvent {
+        final long deliveryTag;
+        final Event event;
+        final AMQP.BasicProperties props;
+
+        ParsedEvent(long deliveryTag, Event event, AMQP.BasicProperties props) {
+            this.deliveryTag = deliveryTag;
+            this.event = event;
+            this.props = props;
         }
-        return new NotificationState();
     }
 
-    private static void saveState(String videoId, NotificationState s) {
+    // Roda com o lock do videoId segurado pelo NotificationStateStore
+    private static void applyEvent(Event event, AMQP.BasicProperties props, NotificationState state) {
+        String videoId = event.videoId();
         try {
-            Path p = STATE_DIR.resolve(videoId + ".json");
-            byte[] b = MAPPER.writeValueAsBytes(s);
-            Files.write(p, b, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (Exception e) {
-            System.out.println("Erro salvando state");
+            if (event instanceof TranscodeCreated transcode) {
+                state.transcodeDone = true;
+                if (!transcode.outputs().isEmpty()) {
+                    state.outputs = MAPPER.writeValueAsString(transcode.outputs());
+                }
+            } else if (event instanceof ThumbnailCreated thumbnail) {
+                state.thumbnailDone = true;
+                if (thumbnail.thumbnail() != null) {
+                    state.thumbnailPath = thumbnail.thumbnail();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Erro guardando outputs: " + e.getMessage(), e);
+        }
+
+        System.out.println("Estado atual do videoId=" + videoId + ": transcodeDone=" 
+       + state.transcodeDone + ", thumbnailDone=" + state.thumbnailDone);
+
+        if (state.transcodeDone && state.thumbnailDone && !state.notified) {
+            System.out.println("Enviando notificação");
+
+            try {
+                List<String> outputs = state.outputs != null ? MAPPER.readValue(state.outputs, STRING_LIST) : List.of();
+                VideoReady ready = new VideoReady(videoId, outputs, state.thumbnailPath);
+                String payloadJson = new String(MessageCodecs.JSON.encode(ready), StandardCharsets.UTF_8);
+
+                System.out.println("Notificação enviada: " + payloadJson);
+                VIDEO_READY.inc();
+                // Os dois eventos carregam a origem do mesmo VideoCreated
+                Metrics.recordSinceHeader(END_TO_END, props, Metrics.ORIGIN_PUBLISHED_AT_HEADER);
+            } catch (IOException e) {
+                throw new IllegalStateException("Erro montando notificação: " + e.getMessage(), e);
+            }
+
+            state.notified = true;
+            state.notifiedAt = Instant.now().toString();
+        } else if (!state.notified) {
+            System.out.println("Algum dos jobs ainda não está pronto, aguardando mais eventos");
         }
     }
 }
@@ -1,147 +1,329 @@
 package com.messageria.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.messageria.cache.OutputCache;
 import com.messageria.config.RabbitMQConfig;
-import com.messageria.repository.FileJobRepository;
+import com.messageria.events.MediaInfo;
+import com.messageria.events.MessageCodec;
+import com.messageria.events.MessageCodecs;
+import com.messageria.events.ThumbnailCreated;
+import com.messageria.events.VideoCreated;
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import com.messageria.publisher.ConfirmingPublisher;
+import com.messageria.repository.JobIds;
+import com.messageria.repository.JobRepositories;
+import com.messageria.repository.JobRepository;
+import com.messageria.retry.RetryHandler;
+import com.messageria.retry.RetryPolicy;
+import com.messageria.thumbnail.InvalidMediaException;
+import com.messageria.thumbnail.ThumbnailEngine;
+import com.messageria.thumbnail.ThumbnailRenderer;
+import com.messageria.worker.AdaptivePrefetch;
+import com.messageria.worker.WorkerPool;
+import com.messageria.worker.WorkerPoolSettings;
 import com.rabbitmq.client.*;
-import org.jcodec.api.FrameGrab;
 import org.jcodec.common.model.Picture;
-import org.jcodec.common.io.NIOUtils;
-import org.jcodec.common.io.SeekableByteChannel;
-import org.jcodec.containers.mp4.demuxer.MP4Demuxer;
-import org.jcodec.scale.AWTUtil;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-public class ThumbnailConsumer {
+public class ThumbnailConsumer implements Stage {
     private static final String QUEUE = "thumbnail.queue";
     private static final String EXCHANGE = "video.exchange";
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final MessageCodec CODEC = MessageCodecs.fromSystemProperties();
+    // -Dthumbnail.spriteFrames=0 desliga o sprite sheet
+    private static final int SPRITE_FRAMES = Integer.getInteger("thumbnail.spriteFrames", 0);
+    private static final int SPRITE_COLUMNS = Integer.getInteger("thumbnail.spriteColumns", 5);
+    private static final int SPRITE_TILE_WIDTH = Integer.getInteger("thumbnail.spriteTileWidth", 160);
+
+    private static final Counter RECEIVED = Metrics.counter("thumbnail.received");
+    private static final Counter DUPLICATES = Metrics.counter("thumbnail.duplicates");
+    private static final Counter ACKED = Metrics.counter("thumbnail.acked");
+    private static final Counter FAILED = Metrics.counter("thumbnail.failed");
+    private static final LatencyHistogram QUEUE_WAIT = Metrics.histogram("thumbnail.queueWait");
+    private static final LatencyHistogram PROCESSING = Metrics.histogram("thumbnail.processing");
+    private static final LatencyHistogram FRAME_GRAB = Metrics.histogram("thumbnail.frameGrab");
+    private static final LatencyHistogram STATE_IO = Metrics.histogram("thumbnail.stateIo");
+    private static final LatencyHistogram ACK_LATENCY = Metrics.histogram("thumbnail.ackLatency");
+
+    private final JobRepository repo;
+    private final ConfirmingPublisher publisher;
+    private final RetryHandler retry;
+    private final File outputRoot;
+    // null com -Dthumbnail.cacheMegabytes=0
+    private final OutputCache cache;
+    private final ThumbnailRenderer renderer;
+    // Entra no hash do jobId; mudar a forma de gerar o thumbnail deve mudar esse valor
+    private final String thumbnailParams;
+
+    private WorkerPool pool;
+    private AdaptivePrefetch adaptive;
+    // Só com a notificação na mesma JVM (PipelineLauncher)
+    private volatile LocalDispatch local;
+
+    public ThumbnailConsumer(JobRepository repo, ConfirmingPublisher publisher, RetryPolicy retryPolicy,
+            File outputRoot, OutputCache cache) {
+        this.repo = repo;
+        this.publisher = publisher;
+        this.retry = new RetryHandler("thumbnail", retryPolicy, publisher);
+        this.outputRoot = outputRoot;
+        this.cache = cache;
+        this.renderer = ThumbnailRenderer.fromSystemProperties();
+        this.thumbnailParams = "frame=middle-keyframe;format=jpg;" + renderer.params() + ";sprite=" + SPRITE_FRAMES
+                + "x" + SPRITE_COLUMNS + "x" + SPRITE_TILE_WIDTH;
+    }
 
     public static void main(String[] args) throws Exception {
         System.out.println("Iniciando Thumbnail Consumer");
+        Metrics.start("thumbnail");
         RabbitMQConfig config = new RabbitMQConfig();
 
-        FileJobRepository repo = new FileJobRepository(Path.of("state"));
-
-        try (Connection connection = config.createConnection();
-                Channel channel = connection.createChannel()) {
-
-            System.out.println("Thumbnail Consumer aguardando mensagens");
-
-            channel.basicQos(2);
-
-            DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-                long deliveryTag = delivery.getEnvelope().getDeliveryTag();
-                String raw = new String(delivery.getBody(), StandardCharsets.UTF_8);
-
-                String videoId = null;
-                String jobId = "thumb-" + videoId + "-" + Instant.now().toEpochMilli();
-                String inputUrl = null;
-
+        JobRepository repo = JobRepositories.fromSystemProperties(Path.of("state"), "thumbnail");
+
+        Connection connection = config.createConnection();
+        ConfirmingPublisher publisher = new ConfirmingPublisher(connection.createChannel(),
+                Integer.getInteger("thumbnail.maxUnconfirmed", 64));
+        ThumbnailConsumer consumer = new ThumbnailConsumer(repo, publisher, RetryPolicy.fromSystemProperties(),
+                new File("outputs"), OutputCache.fromSystemProperties("thumbnail", Path.of("cache"), 512));
+        CountDownLatch stopped = new CountDownLatch(1);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                consumer.stop();
+            } catch (IOException e) {
+                System.out.println("Erro parando o consumer: " + e.getMessage());
+            }
+            publisher.close();
+            if (repo instanceof Closeable closeable) {
                 try {
-                    JsonNode root = MAPPER.readTree(raw);
-                    
-                    videoId = root.path("videoId").asText(null);
-                    inputUrl = root.path("inputUrl").asText(null);
-
-                    if (videoId == null || inputUrl == null) {
-                        throw new IllegalArgumentException(
-                                "Mensagem inválida, faltando jobId/videoId/inputUrl: " + raw);
-                    }
-
-                    jobId = "thumb-" + videoId + "-" + Instant.now().toEpochMilli();
-                    
-                    System.out.println("Mensagem recebida: videoId='" + videoId + "' jobId='" + jobId + "'");
-
-                    if (repo.isFinished(jobId)) {
-                        System.out.println("Job já processado (jobId=" + jobId + ")");
-                        channel.basicAck(deliveryTag, false);
-                        return;
-                    }
-
-                
-                    File videoFile = new File(inputUrl);
-                    System.out.println("Procurando arquivo de vídeo em: " + videoFile.getAbsolutePath());
-
-                    if (!videoFile.exists()) {
-                        System.err.println("Arquivo de input não encontrado: " + videoFile.getAbsolutePath());
-                        channel.basicNack(deliveryTag, false, false);
-                        return;
-                    }
-
-                    File outDir = new File("outputs",  videoId + "_thumbnail");
-                    if (!outDir.exists()) outDir.mkdirs();
-                    File thumbnailFile = new File(outDir, videoId + ".jpg");
-
-                    int frameNumberToGrab;
-                    try (SeekableByteChannel seekChan = NIOUtils.readableChannel(videoFile)) {
-                        MP4Demuxer demuxer = MP4Demuxer.createMP4Demuxer(seekChan);
-                        int totalFrames = demuxer.getVideoTrack().getMeta().getTotalFrames();
-                        if (totalFrames <= 0) {
-                            throw new IOException("Vídeo sem frames ou corrompido: " + videoFile.getName());
-                        }
-                        frameNumberToGrab = Math.max(0, totalFrames / 2);
-                    }
-
-                    Picture picture = FrameGrab.getFrameFromFile(videoFile, frameNumberToGrab);
-                    if (picture == null) {
-                        throw new IOException(
-                                "Falha ao extrair frame " + frameNumberToGrab + " de " + videoFile.getName());
-                    }
-
-                    BufferedImage bufferedImage = AWTUtil.toBufferedImage(picture);
-                    ImageIO.write(bufferedImage, "jpg", thumbnailFile);
-
-                    repo.markFinished(jobId);
-
-                    String thumbJSON = MAPPER.createObjectNode()
-                            .put("event", "ThumbnailCreated")
-                            .put("jobId", jobId)
-                            .put("videoId", videoId)
-                            .put("thumbnail", thumbnailFile.getAbsolutePath())
-                            .toString();
-
-                    AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
-                            .contentType("application/json")
-                            .messageId(jobId)
-                            .correlationId(videoId)
-                            .deliveryMode(2)
-                            .build();
-
-                    channel.basicPublish(EXCHANGE, "thumbnail.created", props,
-                            thumbJSON.getBytes(StandardCharsets.UTF_8));
-
-                    System.out.println("Publicado thumbnail.created,  videoId=" + videoId + " jobId=" + jobId);
+                    closeable.close();
+                } catch (IOException e) {
+                    System.out.println("Erro fechando o repositório de jobs: " + e.getMessage());
+                }
+            }
+            try {
+                connection.close();
+            } catch (Exception e) {
+                System.out.println("Erro fechando conexão: " + e.getMessage());
+            }
+            Metrics.stop();
+            stopped.countDown();
+        }));
+
+        consumer.start(connection);
+        System.out.println("Thumbnail Consumer aguardando mensagens");
+        stopped.await();
+    }
 
+    @Override
+    public String getName() {
+        return "thumbnail";
+    }
 
-                    System.out.println("Thumbnail gerado: " + thumbnailFile.getAbsolutePath() + " (jobId=" + jobId + ")");
+    // Os thumbnail.created também vão direto para quem estiver registrado no LocalDispatch
+    public void setLocalDispatch(LocalDispatch local) {
+        this.local = local;
+    }
 
-                    channel.basicAck(deliveryTag, false);
+    /*
+     * -Dthumbnail.channels=1 -Dthumbnail.prefetch=2 -Dthumbnail.threads=1: um thumbnail por vez,
+     * com o próximo já recebido. Com -Dthumbnail.adaptive=true o prefetch e as threads são
+     * ajustados pelo AdaptivePrefetch (-Dthumbnail.prefetchMin/-Dthumbnail.prefetchMax).
+     */
+    @Override
+    public synchronized void start(Connection conn) throws IOException {
+        WorkerPoolSettings defaults = WorkerPoolSettings.fromSystemProperties("thumbnail", 1, 2);
+        WorkerPoolSettings settings = new WorkerPoolSettings(defaults.getChannels(), defaults.getPrefetch(),
+                Integer.getInteger("thumbnail.threads", 1));
+        pool = new WorkerPool(conn, QUEUE, settings, this::handle);
+        adaptive = AdaptivePrefetch.fromSystemProperties("thumbnail", settings.getPrefetch(), 1);
+        if (adaptive != null) {
+            // Decodificar é CPU pura: o limite de CPU do controlador já segura as threads
+            pool.setAdaptive(adaptive);
+        }
+        pool.start();
+        if (adaptive != null) adaptive.start(conn);
+    }
 
-                } catch (Exception e) {
-                    System.out.println("Falha processando thumbnail para videoId='" + videoId + "' jobId='" + jobId
-                            + "'. Enviando para DLQ. Erro: " + e.getMessage());
+    // Espera os thumbnails em andamento (até -Dthumbnail.drainSeconds=60) e os confirms deles
+    @Override
+    public synchronized void stop() throws IOException {
+        if (pool == null) return;
+        if (adaptive != null) adaptive.close();
+        pool.drain(Long.getLong("thumbnail.drainSeconds", 60), TimeUnit.SECONDS);
+        try {
+            if (!publisher.awaitOutstanding(30, TimeUnit.SECONDS)) {
+                System.out.println("Encerrando com " + publisher.getOutstanding() + " publicações sem confirm");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.closeChannels();
+        pool = null;
+        adaptive = null;
+    }
 
-                    try {
-                        channel.basicNack(deliveryTag, false, false);
-                    } catch (IOException ioe) {
-                        System.out.println("Erro ao enviar nack: " + ioe.getMessage());
+    void handle(Channel channel, Delivery delivery) {
+        long started = System.nanoTime();
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        RECEIVED.inc();
+        Metrics.recordSinceHeader(QUEUE_WAIT, delivery.getProperties(), Metrics.PUBLISHED_AT_HEADER);
+
+        String videoId = null;
+        String jobId = null;
+        String inputUrl = null;
+        boolean claimed = false;
+
+        try {
+            VideoCreated message = MessageCodecs.decode(delivery, VideoCreated.class);
+            videoId = message.videoId();
+            inputUrl = message.inputUrl();
+
+            File videoFile = new File(inputUrl);
+            String fingerprint = delivery.getProperties().getMessageId();
+            if (fingerprint == null && videoFile.exists()) {
+                fingerprint = JobIds.inputFingerprint(videoFile);
+            }
+            jobId = JobIds.of("thumb", videoId, thumbnailParams, fingerprint);
+            
+            System.out.println("Mensagem recebida: videoId='" + videoId + "' jobId='" + jobId + "'");
+
+            if (repo.isFinished(jobId)) {
+                System.out.println("Job já processado (jobId=" + jobId + ")");
+                DUPLICATES.inc();
+                channel.basicAck(deliveryTag, false);
+                return;
+            }
+
+            if (!repo.tryClaim(jobId)) {
+                // Não dá ack: se o outro worker morrer, esta entrega é a única cópia do job
+                System.out.println("Job em andamento em outro worker, adiando a entrega (jobId=" + jobId + ")");
+                retry.defer(channel, delivery, "job " + jobId + " em andamento em outro worker");
+                return;
+            }
+            claimed = true;
+            // Pode ter terminado entre o isFinished e o claim
+            if (repo.isFinished(jobId)) {
+                System.out.println("Job já processado (jobId=" + jobId + ")");
+                DUPLICATES.inc();
+                channel.basicAck(deliveryTag, false);
+                return;
+            }
+
+            System.out.println("Procurando arquivo de vídeo em: " + videoFile.getAbsolutePath());
+
+            if (!videoFile.exists()) {
+                System.err.println("Arquivo de input não encontrado: " + videoFile.getAbsolutePath());
+                FAILED.inc();
+                // Pode ser o volume compartilhado ainda sem o arquivo: entra nas retentativas
+                retry.fail(channel, delivery,
+                        new FileNotFoundException("Arquivo de input não encontrado: " + inputUrl));
+                return;
+            }
+
+            File outDir = new File(outputRoot, videoId + "_thumbnail");
+            if (!outDir.exists()) outDir.mkdirs();
+            List<File> thumbnailFiles = renderer.outputsFor(outDir, videoId);
+
+            File spriteFile = SPRITE_FRAMES > 0 ? new File(outDir, videoId + "_sprite.jpg") : null;
+            List<File> files = new ArrayList<>(thumbnailFiles);
+            if (spriteFile != null) files.add(spriteFile);
+
+            // Mesmo conteúdo já processado com estes parâmetros (reenvio com outro videoId)
+            String cacheKey = cache != null ? cache.keyFor(thumbnailParams, videoFile) : null;
+            if (cacheKey != null && cache.link(cacheKey, files)) {
+                System.out.println("Thumbnail reaproveitado do cache (jobId=" + jobId + ")");
+            } else {
+                // Com os metadados da publicação, um vídeo sem frames é recusado sem abrir o arquivo
+                MediaInfo media = message.media();
+                if (media != null && media.frames() <= 0) {
+                    throw new InvalidMediaException("Vídeo sem frames ou corrompido: " + videoFile.getName());
+                }
+                try (ThumbnailEngine engine = ThumbnailEngine.open(videoFile)) {
+                    long grab = System.nanoTime();
+                    Picture frame = media != null ? engine.grabFrame(media.middleKeyframe(), false)
+                            : engine.grabMiddleFrame();
+                    FRAME_GRAB.recordSince(grab);
+                    renderer.render(frame, thumbnailFiles);
+
+                    if (spriteFile != null) {
+                        BufferedImage sheet = engine.spriteSheet(SPRITE_FRAMES, SPRITE_COLUMNS, SPRITE_TILE_WIDTH);
+                        renderer.write(sheet, spriteFile);
                     }
                 }
-            };
-
-            CancelCallback cancelCallback = consumerTag -> System.out.println("Consumer cancelado: " + consumerTag);
-
-            channel.basicConsume(QUEUE, false, deliverCallback, cancelCallback);
-
-            System.in.read();
+                if (cacheKey != null) cache.store(cacheKey, files);
+            }
+
+            List<String> thumbnailPaths = new ArrayList<>(thumbnailFiles.size());
+            for (File f : thumbnailFiles) thumbnailPaths.add(f.getAbsolutePath());
+            ThumbnailCreated created = new ThumbnailCreated(jobId, videoId, thumbnailPaths.get(0),
+                    spriteFile != null ? spriteFile.getAbsolutePath() : null, thumbnailPaths);
+            byte[] body = CODEC.encode(created);
+
+            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                    .contentType(CODEC.contentType())
+                    .messageId(jobId)
+                    .correlationId(videoId)
+                    .headers(Metrics.timestampHeaders(delivery.getProperties()))
+                    .deliveryMode(2)
+                    .build();
+            PROCESSING.recordSince(started);
+
+            // A mensagem original só recebe ack depois que o broker confirmar o thumbnail.created
+            String confirmedJobId = jobId;
+            String confirmedVideoId = videoId;
+            String thumbnailPath = thumbnailPaths.get(0);
+            long published = System.nanoTime();
+            publisher.publish(EXCHANGE, "thumbnail.created", props, body)
+                    .whenComplete((ok, error) -> {
+                        try {
+                            if (error == null) {
+                                // O evento já foi confirmado: falhar ao gravar o estado não pode deixar a entrega
+                                // sem ack. Uma reentrega cai no mesmo jobId e só refaz o trabalho.
+                                long io = System.nanoTime();
+                                try {
+                                    repo.markFinished(confirmedJobId);
+                                } catch (IOException | RuntimeException e) {
+                                    System.out.println("Erro ao gravar job concluído (jobId=" + confirmedJobId
+                                            + "): " + e.getMessage());
+                                }
+                                STATE_IO.recordSince(io);
+                                System.out.println("Publicado thumbnail.created,  videoId=" + confirmedVideoId
+                                        + " jobId=" + confirmedJobId);
+                                System.out.println("Thumbnail gerado: " + thumbnailPath + " e mais "
+                                        + (thumbnailPaths.size() - 1) + " tamanhos (jobId=" + confirmedJobId + ")");
+                                channel.basicAck(deliveryTag, false);
+                                ACKED.inc();
+                                ACK_LATENCY.recordSince(published);
+                            } else {
+                                System.out.println("thumbnail.created não confirmado (jobId=" + confirmedJobId
+                                        + "). Erro: " + error.getMessage());
+                                FAILED.inc();
+                                retry.fail(channel, delivery, error);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            System.out.println("Erro ao enviar ack/nack: " + e.getMessage());
+                        } finally {
+                            repo.release(confirmedJobId);
+                        }
+                    });
+            LocalDispatch dispatch = local;
+            if (dispatch != null) dispatch.offer("thumbnail.created", created, props);
+            claimed = false;
+
+        } catch (Exception e) {
+            System.out.println("Falha processando thumbnail para videoId='" + videoId + "' jobId='" + jobId
+                    + "'. Erro: " + e.getMessage());
+            FAILED.inc();
+            retry.fail(channel, delivery, e);
+        } finally {
+            if (claimed) repo.release(jobId);
         }
     }
 }
@@ -1,161 +1,590 @@
 package com.messageria.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.messageria.cache.OutputCache;
 import com.messageria.config.RabbitMQConfig;
-import com.messageria.repository.FileJobRepository;
+import com.messageria.events.MediaInfo;
+import com.messageria.events.MessageCodec;
+import com.messageria.events.MessageCodecs;
+import com.messageria.events.TranscodeCancel;
+import com.messageria.events.TranscodeCreated;
+import com.messageria.events.TranscodeProgress;
+import com.messageria.events.TranscodeSegment;
+import com.messageria.events.TranscodeSegmentDone;
+import com.messageria.events.VideoCreated;
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import com.messageria.publisher.BestEffortPublisher;
+import com.messageria.publisher.ConfirmingPublisher;
+import com.messageria.repository.JobIds;
+import com.messageria.repository.JobRepositories;
+import com.messageria.repository.JobRepository;
+import com.messageria.retry.RetryHandler;
+import com.messageria.retry.RetryPolicy;
+import com.messageria.thumbnail.ThumbnailEngine;
+import com.messageria.transcode.CancellationToken;
+import com.messageria.transcode.FfmpegProgress;
+import com.messageria.transcode.FfmpegRunner;
+import com.messageria.transcode.JobCost;
+import com.messageria.transcode.LadderTranscoder;
+import com.messageria.transcode.SegmentedTranscoder;
+import com.messageria.worker.AdaptivePrefetch;
+import com.messageria.worker.ShortJobScheduler;
+import com.messageria.worker.WorkerPool;
+import com.messageria.worker.WorkerPoolSettings;
 import com.rabbitmq.client.*;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
-public class TranscodeConsumer {
+public class TranscodeConsumer implements Stage {
 
     private static final String QUEUE = "transcode.queue";
+    private static final String SEGMENT_QUEUE = "transcode.segment.queue";
     private static final String EXCHANGE = "video.exchange";
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final MessageCodec CODEC = MessageCodecs.fromSystemProperties();
+    private static final long PROGRESS_INTERVAL_NANOS =
+            TimeUnit.SECONDS.toNanos(Long.getLong("transcode.progressSeconds", 5));
+    // Por quanto tempo um cancelamento de vídeo que ainda não começou continua valendo
+    private static final long CANCEL_MEMORY_MILLIS =
+            TimeUnit.MINUTES.toMillis(Long.getLong("transcode.cancelMemoryMinutes", 60));
+
+    private static final Counter RECEIVED = Metrics.counter("transcode.received");
+    private static final Counter DUPLICATES = Metrics.counter("transcode.duplicates");
+    private static final Counter ACKED = Metrics.counter("transcode.acked");
+    private static final Counter FAILED = Metrics.counter("transcode.failed");
+    private static final LatencyHistogram QUEUE_WAIT = Metrics.histogram("transcode.queueWait");
+    private static final LatencyHistogram PROCESSING = Metrics.histogram("transcode.processing");
+    private static final LatencyHistogram STATE_IO = Metrics.histogram("transcode.stateIo");
+    private static final LatencyHistogram ACK_LATENCY = Metrics.histogram("transcode.ackLatency");
+    private static final Counter CANCELLED = Metrics.counter("transcode.cancelled");
+    private static final Counter SEGMENTS = Metrics.counter("transcode.segments");
+    private static final LatencyHistogram SEGMENT_PROCESSING = Metrics.histogram("transcode.segmentProcessing");
+    private static final Counter PROGRESS_DROPPED = Metrics.counter("transcode.progressDropped");
+
+    private final JobRepository repo;
+    private final LadderTranscoder transcoder;
+    private final ConfirmingPublisher publisher;
+    // Canal próprio e sem confirms para transcode.progress, aberto no start()
+    private volatile BestEffortPublisher progressOut;
+    private final RetryHandler retry;
+    private final RetryHandler segmentRetry;
+    private final File outputRoot;
+    // null com -Dtranscode.cacheMegabytes=0
+    private final OutputCache cache;
+    private WorkerPool pool;
+    private WorkerPool segmentPool;
+    // Só com -Dtranscode.adaptive=true
+    private AdaptivePrefetch adaptive;
+    // Só com -Dtranscode.segmented=true; lido pelas threads dos pools
+    private volatile SegmentedTranscoder segmented;
+    // Só com a notificação na mesma JVM (PipelineLauncher)
+    private volatile LocalDispatch local;
+    // token -> videoId dos transcodes e segmentos em andamento
+    private final Map<CancellationToken, String> running = new ConcurrentHashMap<>();
+    // videoId -> quando o pedido de cancelamento chegou, para vídeos que ainda estavam na fila
+    private final Map<String, Long> pendingCancels = new ConcurrentHashMap<>();
+
+    public TranscodeConsumer(JobRepository repo, LadderTranscoder transcoder, ConfirmingPublisher publisher,
+            RetryPolicy retryPolicy, File outputRoot, OutputCache cache) {
+        this.repo = repo;
+        this.transcoder = transcoder;
+        this.outputRoot = outputRoot;
+        this.cache = cache;
+        this.publisher = publisher;
+        this.retry = new RetryHandler("transcode", retryPolicy, publisher);
+        this.segmentRetry = new RetryHandler("transcode.segment", retryPolicy, publisher);
+    }
 
     public static void main(String[] args) throws Exception {
         System.out.println("Iniciando Transcode Consumer");
+        Metrics.start("transcode");
         RabbitMQConfig cfg = new RabbitMQConfig();
-        FileJobRepository repo = new FileJobRepository(Path.of("state"));
-
-        try (Connection conn = cfg.createConnection(); Channel channel = conn.createChannel()) {
-
-            System.out.println("Transcode Consumer aguardando mensagens");
-            channel.basicQos(1);
-
-            DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-                String raw = new String(delivery.getBody(), StandardCharsets.UTF_8);
-                long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        JobRepository repo = JobRepositories.fromSystemProperties(Path.of("state"), "transcode");
+
+        Connection conn = cfg.createConnection();
+        ConfirmingPublisher publisher = new ConfirmingPublisher(conn.createChannel(),
+                Integer.getInteger("transcode.maxUnconfirmed", 64));
+        TranscodeConsumer consumer = new TranscodeConsumer(repo, LadderTranscoder.fromSystemProperties(), publisher,
+                RetryPolicy.fromSystemProperties(), new File("outputs"),
+                OutputCache.fromSystemProperties("transcode", Path.of("cache"), 10 * 1024));
+        CountDownLatch stopped = new CountDownLatch(1);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                consumer.stop();
+            } catch (IOException e) {
+                System.out.println("Erro parando o consumer: " + e.getMessage());
+            }
+            publisher.close();
+            if (repo instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    System.out.println("Erro fechando o repositório de jobs: " + e.getMessage());
+                }
+            }
+            try {
+                conn.close();
+            } catch (Exception e) {
+                System.out.println("Erro fechando conexão: " + e.getMessage());
+            }
+            Metrics.stop();
+            stopped.countDown();
+        }));
 
-                String videoId = null;
-                String jobId = "thumb-" + videoId + "-" + Instant.now().toEpochMilli();
-                String inputUrl = null;
+        consumer.start(conn);
+        System.out.println("Transcode Consumer aguardando mensagens (" + consumer.describe() + ")");
+        stopped.await();
+    }
 
-                try {
-                    JsonNode root = MAPPER.readTree(raw);
-                    videoId = root.path("videoId").asText(null);
-                    inputUrl = root.path("inputUrl").asText(null);
+    @Override
+    public String getName() {
+        return "transcode";
+    }
 
-                    if ( videoId == null || inputUrl == null) {
-                        throw new IllegalArgumentException(
-                                "Mensagem inválida, faltando jobId/videoId/inputUrl: " + raw);
-                    }
+    // Os transcode.created também vão direto para quem estiver registrado no LocalDispatch
+    public void setLocalDispatch(LocalDispatch local) {
+        this.local = local;
+    }
 
-                    jobId = "transcode-" + videoId + "-" + Instant.now().toEpochMilli();
+    // Para o log de inicialização de quem hospeda a etapa
+    public String describe() {
+        return "limite de ffmpeg simultâneos: " + FfmpegRunner.availableSlots() + ", modo: " + transcoder.getMode()
+                + ", timeouts: " + transcoder.getStallPolicy() + (segmented != null ? ", " + segmented : "")
+                + (cache != null ? ", " + cache : "");
+    }
 
-                    System.out.println("Mensagem recebida: videoId='" + videoId + "' jobId='" + jobId + "'");
+    /*
+     * -Dtranscode.channels=4 -Dtranscode.prefetch=2 -Dtranscode.maxProcesses=8 e, com
+     * -Dtranscode.scheduler=sjf, as entregas do prefetch esperam num ShortJobScheduler.
+     * -Dtranscode.segmented=true: vídeos longos viram segmentos em transcode.segment.queue,
+     * consumidos por um segundo pool (-Dtranscode.segment.channels=... -Dtranscode.segment.prefetch=...)
+     * -Dtranscode.adaptive=true: o prefetch (e as threads) da transcode.queue passam a ser
+     * ajustados pelo AdaptivePrefetch, que também recua quando há jobs esperando slot do ffmpeg.
+     */
+    @Override
+    public synchronized void start(Connection conn) throws IOException {
+        WorkerPoolSettings settings = WorkerPoolSettings.fromSystemProperties("transcode", 1, 1);
+        ShortJobScheduler scheduler = "sjf".equalsIgnoreCase(System.getProperty("transcode.scheduler", "fifo"))
+                ? ShortJobScheduler.fromSystemProperties("transcode", settings,
+                        delivery -> JobCost.fromProperties(delivery.getProperties()).estimateMillis())
+                : null;
+        progressOut = new BestEffortPublisher(conn.createChannel(), Integer.getInteger("transcode.progressQueue", 64));
+        pool = new WorkerPool(conn, QUEUE, settings, this::handle, scheduler);
+        adaptive = AdaptivePrefetch.fromSystemProperties("transcode", settings.getPrefetch(), 1);
+        if (adaptive != null) {
+            adaptive.saturatedWhen(() -> FfmpegRunner.waitingForSlot() > 0);
+            pool.setAdaptive(adaptive);
+        }
+        if (Boolean.getBoolean("transcode.segmented")) {
+            enableSegments(conn);
+            segmentPool = new WorkerPool(conn, SEGMENT_QUEUE,
+                    WorkerPoolSettings.fromSystemProperties("transcode.segment", 1, 1), this::handleSegment);
+        }
+        pool.start();
+        if (segmentPool != null) segmentPool.start();
+        if (adaptive != null) adaptive.start(conn);
+        listenForCancellations(conn);
+    }
 
-                    if (repo.isFinished(jobId)) {
-                        System.out.println("Job já processado (jobId=" + jobId + ")");
-                        channel.basicAck(deliveryTag, false);
-                        return;
-                    }
+    // Espera os jobs em andamento (até -Dtranscode.drainMinutes=20) e os confirms das publicações deles
+    @Override
+    public synchronized void stop() throws IOException {
+        if (pool == null) return;
+        long drainMinutes = Long.getLong("transcode.drainMinutes", 20);
+        if (adaptive != null) adaptive.close();
+        // Primeiro os coordenadores, que ainda podem estar esperando segmentos deste processo
+        pool.drain(drainMinutes, TimeUnit.MINUTES);
+        if (segmentPool != null) segmentPool.drain(drainMinutes, TimeUnit.MINUTES);
+        try {
+            // Os acks saem no callback do confirm, então os canais só fecham depois
+            if (!publisher.awaitOutstanding(30, TimeUnit.SECONDS)) {
+                System.out.println("Encerrando com " + publisher.getOutstanding() + " publicações sem confirm");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.closeChannels();
+        if (segmentPool != null) segmentPool.closeChannels();
+        progressOut.close();
+        pool = null;
+        segmentPool = null;
+        adaptive = null;
+    }
 
-                    File videoFile = new File(inputUrl);
-                    System.out.println("Procurando arquivo de vídeo em: " + inputUrl);
+    /*
+     * Respostas dos segmentos chegam numa fila exclusiva desta instância (replyTo de cada
+     * TranscodeSegment); o SegmentedTranscoder entrega cada uma para o job que espera por ela.
+     */
+    public void enableSegments(Connection conn) throws IOException {
+        Channel replies = conn.createChannel();
+        String replyQueue = replies.queueDeclare().getQueue();
+        // Pronto antes do basicConsume: uma resposta pode chegar assim que a fila é consumida
+        SegmentedTranscoder segments = SegmentedTranscoder.fromSystemProperties(transcoder.getLadder(),
+                transcoder.getStallPolicy(), task -> {
+                    AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                            .contentType(CODEC.contentType())
+                            .messageId(task.jobId() + "/" + task.rendition() + "/" + task.index())
+                            .correlationId(task.videoId())
+                            .replyTo(replyQueue)
+                            .headers(Metrics.timestampHeaders(null))
+                            .deliveryMode(2)
+                            .build();
+                    return publisher.publish(EXCHANGE, "transcode.segment", props, CODEC.encode(task));
+                });
+        replies.basicConsume(replyQueue, true, (consumerTag, delivery) -> {
+            try {
+                segments.onSegmentDone(MessageCodecs.decode(delivery, TranscodeSegmentDone.class));
+            } catch (IOException e) {
+                System.out.println("Resposta de segmento inválida: " + e.getMessage());
+            }
+        }, consumerTag -> {
+        });
+        segmented = segments;
+    }
 
-                    if (!videoFile.exists()) {
-                        System.err.println(" Arquivo de input não encontrado: " + videoFile.getAbsolutePath());
-                        channel.basicNack(deliveryTag, false, false);
-                        return;
-                    }
+    /*
+     * Mensagens de controle em transcode.cancel ({"event":"TranscodeCancel","videoId":...}).
+     * Cada instância tem a sua fila exclusiva ligada nessa routing key, então o pedido chega
+     * em todos os workers e quem estiver com o vídeo mata o ffmpeg.
+     */
+    public void listenForCancellations(Connection conn) throws IOException {
+        Channel control = conn.createChannel();
+        String queue = control.queueDeclare().getQueue();
+        control.queueBind(queue, EXCHANGE, "transcode.cancel");
+        control.basicConsume(queue, true, (consumerTag, delivery) -> {
+            try {
+                TranscodeCancel cancel = MessageCodecs.decode(delivery, TranscodeCancel.class);
+                cancel(cancel.videoId(), cancel.reason());
+            } catch (IOException e) {
+                System.out.println("Mensagem de cancelamento inválida: " + e.getMessage());
+            }
+        }, consumerTag -> {
+        });
+    }
 
-                    File outDir = new File("outputs", videoId + "_transcode");
-                    if (!outDir.exists())
-                        outDir.mkdirs();
-                    File out720 = new File(outDir, videoId + "_720p.mp4");
-                    File out480 = new File(outDir, videoId + "_480p.mp4");
+    // true se havia um transcode do vídeo rodando nesta instância
+    public boolean cancel(String videoId, String reason) {
+        String why = reason != null ? reason : "cancelado por mensagem de controle";
+        boolean found = false;
+        for (Map.Entry<CancellationToken, String> entry : running.entrySet()) {
+            if (entry.getValue().equals(videoId)) {
+                entry.getKey().cancel(why);
+                found = true;
+            }
+        }
+        if (!found) {
+            pendingCancels.put(videoId, System.currentTimeMillis());
+            System.out.println("Cancelamento de videoId=" + videoId + " registrado (não está em andamento aqui)");
+            return false;
+        }
+        System.out.println("Cancelando transcode de videoId=" + videoId + ": " + why);
+        return true;
+    }
 
-                    List<String> cmd720 = List.of("C:\\ffmpeg\\bin\\ffmpeg.exe", "-y", "-i",
-                            videoFile.getAbsolutePath(), "-vf", "scale=-2:720", "-c:v", "libx264",
-                            "-preset", "fast", "-b:v", "2500k", "-c:a", "aac", "-b:a", "128k",
-                            out720.getAbsolutePath());
+    private boolean consumePendingCancel(String videoId) {
+        Long at = pendingCancels.remove(videoId);
+        pendingCancels.values().removeIf(t -> System.currentTimeMillis() - t > CANCEL_MEMORY_MILLIS);
+        return at != null && System.currentTimeMillis() - at <= CANCEL_MEMORY_MILLIS;
+    }
 
-                    List<String> cmd480 = List.of("C:\\ffmpeg\\bin\\ffmpeg.exe", "-y", "-i",
-                            videoFile.getAbsolutePath(), "-vf", "scale=-2:480", "-c:v", "libx264",
-                            "-preset", "fast", "-b:v", "1000k", "-c:a", "aac", "-b:a", "96k", out480.getAbsolutePath());
+    // Duração lida pelo produtor; sem ela (mensagem antiga), pelo demuxer do jcodec
+    private static long durationMicros(VideoCreated message, File videoFile) {
+        MediaInfo media = message.media();
+        return media != null && media.durationMicros() > 0 ? media.durationMicros() : probeDurationMicros(videoFile);
+    }
 
-                    System.out.println("Executando ffmpeg 720p para job=" + jobId);
-                    runProcess(cmd720, 20, TimeUnit.MINUTES);
+    // Duração do input pelo demuxer do jcodec; 0 se não der para ler (os timeouts usam os limites máximos)
+    private static long probeDurationMicros(File videoFile) {
+        try (ThumbnailEngine engine = ThumbnailEngine.open(videoFile)) {
+            return (long) (engine.getDurationSeconds() * 1_000_000);
+        } catch (Exception e) {
+            System.out.println("Não foi possível ler a duração de " + videoFile.getName() + ": " + e.getMessage());
+            return 0;
+        }
+    }
 
-                    System.out.println("Executando ffmpeg 480p para job=" + jobId);
-                    runProcess(cmd480, 15, TimeUnit.MINUTES);
+    /*
+     * Loga e publica em transcode.progress no máximo um bloco por intervalo (e sempre o final).
+     * Roda na thread que lê o -progress do ffmpeg: a publicação não pode bloquear, senão o
+     * StallPolicy vê o encode parado. Por isso não usa a janela de confirms do transcode.created.
+     */
+    private class ProgressReporter implements FfmpegProgress.Listener {
+        private final String jobId;
+        private final String videoId;
+        private final Map<String, Long> lastReport = new ConcurrentHashMap<>();
+
+        ProgressReporter(String jobId, String videoId) {
+            this.jobId = jobId;
+            this.videoId = videoId;
+        }
 
-                    List<String> outputs = new ArrayList<>();
-                    outputs.add(out720.getAbsolutePath());
-                    outputs.add(out480.getAbsolutePath());
+        @Override
+        public void onProgress(FfmpegProgress progress) {
+            long now = System.nanoTime();
+            Long last = lastReport.get(progress.getLabel());
+            if (!progress.isEnd() && last != null && now - last < PROGRESS_INTERVAL_NANOS) return;
+            lastReport.put(progress.getLabel(), now);
+
+            System.out.println("Progresso jobId=" + jobId + " " + progress);
+            try {
+                byte[] body = CODEC.encode(new TranscodeProgress(jobId, videoId, progress.getLabel(),
+                        progress.getFrame(), progress.getFps(), progress.getSpeed(), progress.getOutTimeMicros(),
+                        progress.getFraction()));
+                AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                        .contentType(CODEC.contentType())
+                        .correlationId(videoId)
+                        .deliveryMode(1)
+                        .build();
+                BestEffortPublisher out = progressOut;
+                if (out == null || !out.offer(EXCHANGE, "transcode.progress", props, body)) PROGRESS_DROPPED.inc();
+            } catch (Exception e) {
+                System.out.println("Erro publicando progresso (jobId=" + jobId + "): " + e.getMessage());
+            }
+        }
+    }
 
-                    repo.markFinished(jobId);
-                    
-                    String transcodeJSON = MAPPER.createObjectNode()
-                            .put("event", "TranscodeCreated")
-                            .put("jobId", jobId)
-                            .put("videoId", videoId)
-                            .putPOJO("outputs", outputs)
-                            .toString();
+    void handle(Channel channel, Delivery delivery) throws IOException {
+        long started = System.nanoTime();
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        RECEIVED.inc();
+        Metrics.recordSinceHeader(QUEUE_WAIT, delivery.getProperties(), Metrics.PUBLISHED_AT_HEADER);
+
+        String videoId = null;
+        String jobId = null;
+        String inputUrl = null;
+        boolean claimed = false;
+        CancellationToken token = null;
+
+        try {
+            VideoCreated message = MessageCodecs.decode(delivery, VideoCreated.class);
+            videoId = message.videoId();
+            inputUrl = message.inputUrl();
+
+            File videoFile = new File(inputUrl);
+            String fingerprint = delivery.getProperties().getMessageId();
+            if (fingerprint == null && videoFile.exists()) {
+                fingerprint = JobIds.inputFingerprint(videoFile);
+            }
+            jobId = JobIds.of("transcode", videoId, transcoder.getLadder().spec(), fingerprint);
 
-                    AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
-                            .contentType("application/json")
-                            .messageId(jobId)
-                            .correlationId(videoId)
-                            .deliveryMode(2)
-                            .build();
+            System.out.println("Mensagem recebida: videoId='" + videoId + "' jobId='" + jobId + "'");
 
-                    channel.basicPublish(EXCHANGE, "transcode.created", props,
-                            transcodeJSON.getBytes(StandardCharsets.UTF_8));
+            if (consumePendingCancel(videoId)) {
+                System.out.println("Transcode de videoId=" + videoId + " foi cancelado antes de começar (jobId=" + jobId + ")");
+                CANCELLED.inc();
+                channel.basicAck(deliveryTag, false);
+                return;
+            }
 
-                    System.out.println("Publicado transcode.created,  videoId=" + videoId + " jobId=" + jobId);
+            if (repo.isFinished(jobId)) {
+                System.out.println("Job já processado (jobId=" + jobId + ")");
+                DUPLICATES.inc();
+                channel.basicAck(deliveryTag, false);
+                return;
+            }
 
-                    channel.basicAck(deliveryTag, false);
+            if (!repo.tryClaim(jobId)) {
+                // Não dá ack: se o outro worker morrer, esta entrega é a única cópia do job
+                System.out.println("Job em andamento em outro worker, adiando a entrega (jobId=" + jobId + ")");
+                retry.defer(channel, delivery, "job " + jobId + " em andamento em outro worker");
+                return;
+            }
+            claimed = true;
+            // Pode ter terminado entre o isFinished e o claim
+            if (repo.isFinished(jobId)) {
+                System.out.println("Job já processado (jobId=" + jobId + ")");
+                DUPLICATES.inc();
+                channel.basicAck(deliveryTag, false);
+                return;
+            }
 
-                } catch (Exception e) {
-                    System.out.println("Falha processando thumbnail para videoId='" + videoId + "' jobId='" + jobId
-                            + "'. Enviando para DLQ. Erro: " + e.getMessage());
-                    try {
-                        channel.basicNack(deliveryTag, false, false);
-                    } catch (IOException ioe) {
-                        System.out.println("Erro ao enviar nack: " + ioe.getMessage());
-                    }
-                }
-            };
+            System.out.println("Procurando arquivo de vídeo em: " + inputUrl);
 
-            CancelCallback cancelCallback = consumerTag -> System.out.println("Consumer cancelado: " + consumerTag);
+            if (!videoFile.exists()) {
+                System.err.println(" Arquivo de input não encontrado: " + videoFile.getAbsolutePath());
+                FAILED.inc();
+                // Pode ser o volume compartilhado ainda sem o arquivo: entra nas retentativas
+                retry.fail(channel, delivery,
+                        new FileNotFoundException("Arquivo de input não encontrado: " + inputUrl));
+                return;
+            }
 
-            channel.basicConsume(QUEUE, false, deliverCallback, cancelCallback);
+            File outDir = new File(outputRoot, videoId + "_transcode");
+            if (!outDir.exists())
+                outDir.mkdirs();
+
+            // Mesmo conteúdo já transcodificado com este ladder (reenvio com outro videoId)
+            String cacheKey = cache != null ? cache.keyFor(transcoder.getLadder().spec(), videoFile) : null;
+            List<File> files = transcoder.getLadder().outputsFor(outDir, videoId);
+            if (cacheKey != null && cache.link(cacheKey, files)) {
+                System.out.println("Renditions reaproveitadas do cache (jobId=" + jobId + ")");
+            } else {
+                long durationMicros = durationMicros(message, videoFile);
+                token = new CancellationToken();
+                running.put(token, videoId);
+                ProgressReporter reporter = new ProgressReporter(jobId, videoId);
+                files = segmented != null && segmented.accepts(durationMicros)
+                        ? segmented.transcode(videoFile, outDir, videoId, jobId, videoId, durationMicros, token,
+                                reporter)
+                        : transcoder.transcode(videoFile, outDir, videoId, jobId, durationMicros, token, reporter);
+                if (cacheKey != null) cache.store(cacheKey, files);
+            }
+            List<String> outputs = new ArrayList<>();
+            for (File out : files) {
+                outputs.add(out.getAbsolutePath());
+            }
 
-            System.in.read();
+            TranscodeCreated created = new TranscodeCreated(jobId, videoId, outputs);
+            byte[] body = CODEC.encode(created);
+
+            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                    .contentType(CODEC.contentType())
+                    .messageId(jobId)
+                    .correlationId(videoId)
+                    .headers(Metrics.timestampHeaders(delivery.getProperties()))
+                    .deliveryMode(2)
+                    .build();
+            PROCESSING.recordSince(started);
+
+            // A mensagem original só recebe ack depois que o broker confirmar o transcode.created
+            String confirmedJobId = jobId;
+            String confirmedVideoId = videoId;
+            long published = System.nanoTime();
+            publisher.publish(EXCHANGE, "transcode.created", props, body)
+                    .whenComplete((ok, error) -> {
+                        try {
+                            if (error == null) {
+                                // O evento já foi confirmado: falhar ao gravar o estado não pode deixar a entrega
+                                // sem ack. Uma reentrega cai no mesmo jobId e só refaz o trabalho.
+                                long io = System.nanoTime();
+                                try {
+                                    repo.markFinished(confirmedJobId);
+                                } catch (IOException | RuntimeException e) {
+                                    System.out.println("Erro ao gravar job concluído (jobId=" + confirmedJobId
+                                            + "): " + e.getMessage());
+                                }
+                                STATE_IO.recordSince(io);
+                                System.out.println("Publicado transcode.created,  videoId=" + confirmedVideoId
+                                        + " jobId=" + confirmedJobId);
+                                channel.basicAck(deliveryTag, false);
+                                ACKED.inc();
+                                ACK_LATENCY.recordSince(published);
+                            } else {
+                                System.out.println("transcode.created não confirmado (jobId=" + confirmedJobId
+                                        + "). Erro: " + error.getMessage());
+                                FAILED.inc();
+                                retry.fail(channel, delivery, error);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            System.out.println("Erro ao enviar ack/nack: " + e.getMessage());
+                        } finally {
+                            repo.release(confirmedJobId);
+                        }
+                    });
+            LocalDispatch dispatch = local;
+            if (dispatch != null) dispatch.offer("transcode.created", created, props);
+            claimed = false;
+
+        } catch (CancellationException e) {
+            // Cancelamento pedido: não é falha, a mensagem sai da fila sem ir para a DLQ
+            System.out.println("Transcode cancelado videoId='" + videoId + "' jobId='" + jobId + "': " + e.getMessage());
+            CANCELLED.inc();
+            try {
+                channel.basicAck(deliveryTag, false);
+            } catch (IOException ioe) {
+                System.out.println("Erro ao enviar ack: " + ioe.getMessage());
+            }
+        } catch (Exception e) {
+            System.out.println("Falha processando transcode para videoId='" + videoId + "' jobId='" + jobId
+                    + "'. Erro: " + e.getMessage());
+            FAILED.inc();
+            retry.fail(channel, delivery, e);
+        } finally {
+            if (token != null) running.remove(token);
+            if (claimed) repo.release(jobId);
         }
     }
 
-    private static void runProcess(List<String> cmd, long timeout, TimeUnit unit) throws Exception {
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-
-        Thread t = new Thread(() -> {
-            try (InputStream is = p.getInputStream();
-                    BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-                while (br.readLine() != null) {
+    /*
+     * Um segmento de uma rendition. A resposta vai para o replyTo do coordenador; em erro
+     * que ainda vai ser tentado de novo não há resposta, o coordenador só fica sabendo da
+     * falha definitiva (que derruba o job inteiro para o retry dele).
+     */
+    void handleSegment(Channel channel, Delivery delivery) throws IOException {
+        long started = System.nanoTime();
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        Metrics.recordSinceHeader(QUEUE_WAIT, delivery.getProperties(), Metrics.PUBLISHED_AT_HEADER);
+        TranscodeSegment task = null;
+        CancellationToken token = new CancellationToken();
+
+        try {
+            task = MessageCodecs.decode(delivery, TranscodeSegment.class);
+            running.put(token, task.videoId());
+            segmented.transcodeSegment(task, token);
+            SEGMENTS.inc();
+            SEGMENT_PROCESSING.recordSince(started);
+
+            TranscodeSegment done = task;
+            reply(delivery, done, null).whenComplete((ok, error) -> {
+                try {
+                    if (error == null) {
+                        channel.basicAck(deliveryTag, false);
+                    } else {
+                        System.out.println("Resposta do segmento " + done.index() + " não confirmada (jobId="
+                                + done.jobId() + "). Erro: " + error.getMessage());
+                        segmentRetry.fail(channel, delivery, error);
+                    }
+                } catch (IOException ioe) {
+                    System.out.println("Erro ao enviar ack: " + ioe.getMessage());
                 }
-            } catch (IOException ignored) {
+            });
+        } catch (CancellationException e) {
+            System.out.println("Segmento cancelado (jobId=" + (task != null ? task.jobId() : null) + "): "
+                    + e.getMessage());
+            try {
+                channel.basicAck(deliveryTag, false);
+            } catch (IOException ioe) {
+                System.out.println("Erro ao enviar ack: " + ioe.getMessage());
             }
-        });
-        t.start();
-
-        boolean finished = p.waitFor(timeout, unit);
-        if (!finished) {
-            p.destroyForcibly();
-            throw new RuntimeException("Time out");
-        }
-        if (p.exitValue() != 0) {
-            throw new RuntimeException("Erro: " + p.exitValue());
+        } catch (Exception e) {
+            System.out.println("Falha no segmento "
+                    + (task != null ? task.index() + " (" + task.rendition() + ") jobId=" + task.jobId() : "?")
+                    + ". Erro: " + e.getMessage());
+            FAILED.inc();
+            if (task != null && !segmentRetry.willRetry(delivery, e)) {
+                try {
+                    reply(delivery, task, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                } catch (Exception replyError) {
+                    System.out.println("Erro avisando o coordenador: " + replyError.getMessage());
+                }
+            }
+            segmentRetry.fail(channel, delivery, e);
+        } finally {
+            running.remove(token);
         }
     }
+
+    private CompletableFuture<Void> reply(Delivery delivery, TranscodeSegment task, String error)
+            throws IOException, InterruptedException {
+        String replyTo = delivery.getProperties().getReplyTo();
+        if (replyTo == null) return CompletableFuture.completedFuture(null);
+        byte[] body = CODEC.encode(new TranscodeSegmentDone(task.jobId(), task.videoId(), task.rendition(),
+                task.index(), task.output(), error));
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .contentType(CODEC.contentType())
+                .correlationId(task.videoId())
+                .deliveryMode(1)
+                .build();
+        return publisher.publish("", replyTo, props, body);
+    }
 }
@@ -0,0 +1,331 @@
+package com.messageria.events;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Formato binário compacto, usado quando o contentType é application/x-messageria-event.
+ *
+ *   [versão:1][tipo:1] campos na ordem do record
+ *   string = varint(tamanho em bytes + 1) + UTF-8, com 0 representando null
+ *   lista  = varint(quantidade) + strings
+ *   int    = varint de 32 bits; long = varint de 64 bits (só valores >= 0); double = 8 bytes IEEE 754
+ *
+ * A decodificação lê os campos direto do byte[] da entrega (cada String é criada a partir
+ * do array original, sem cópias intermediárias). Não tem nomes de campos, então um campo
+ * novo exige uma nova versão do formato, a não ser que seja opcional e entre no fim do tipo:
+ * decodificadores antigos ignoram os bytes que sobram e os novos leem o campo só se houver
+ * bytes depois dos anteriores (é o caso da lista de tamanhos do ThumbnailCreated e do
+ * MediaInfo do VideoCreated).
+ *
+ *   media = varlong(duração em µs) varint(frames) varint(largura) varint(altura) string(codec)
+ *           varint(keyframes + 1, 0 = sem índice) + cada keyframe como diferença do anterior
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    public static final String CONTENT_TYPE = "application/x-messageria-event";
+
+    private static final byte VERSION = 1;
+    private static final byte VIDEO_CREATED = 1;
+    private static final byte THUMBNAIL_CREATED = 2;
+    private static final byte TRANSCODE_CREATED = 3;
+    private static final byte VIDEO_READY = 4;
+    private static final byte TRANSCODE_PROGRESS = 5;
+    private static final byte TRANSCODE_CANCEL = 6;
+    private static final byte TRANSCODE_SEGMENT = 7;
+    private static final byte TRANSCODE_SEGMENT_DONE = 8;
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(Event event) {
+        Writer w = new Writer();
+        w.writeByte(VERSION);
+        if (event instanceof VideoCreated e) {
+            w.writeByte(VIDEO_CREATED);
+            w.writeString(e.videoId());
+            w.writeString(e.inputUrl());
+            if (e.media() != null) writeMedia(w, e.media());
+        } else if (event instanceof ThumbnailCreated e) {
+            w.writeByte(THUMBNAIL_CREATED);
+            w.writeString(e.jobId());
+            w.writeString(e.videoId());
+            w.writeString(e.thumbnail());
+            w.writeString(e.sprite());
+            if (e.thumbnails() != null) w.writeList(e.thumbnails());
+        } else if (event instanceof TranscodeCreated e) {
+            w.writeByte(TRANSCODE_CREATED);
+            w.writeString(e.jobId());
+            w.writeString(e.videoId());
+            w.writeList(e.outputs());
+        } else if (event instanceof VideoReady e) {
+            w.writeByte(VIDEO_READY);
+            w.writeString(e.videoId());
+            w.writeList(e.outputs());
+            w.writeString(e.thumbnail());
+        } else if (event instanceof TranscodeProgress e) {
+            w.writeByte(TRANSCODE_PROGRESS);
+            w.writeString(e.jobId());
+            w.writeString(e.videoId());
+            w.writeString(e.rendition());
+            w.writeVarlong(e.frame());
+            w.writeDouble(e.fps());
+            w.writeDouble(e.speed());
+            w.writeVarlong(e.outTimeMicros());
+            w.writeDouble(e.fraction());
+        } else if (event instanceof TranscodeCancel e) {
+            w.writeByte(TRANSCODE_CANCEL);
+            w.writeString(e.videoId());
+            w.writeString(e.reason());
+        } else if (event instanceof TranscodeSegment e) {
+            w.writeByte(TRANSCODE_SEGMENT);
+            w.writeString(e.jobId());
+            w.writeString(e.videoId());
+            w.writeString(e.rendition());
+            w.writeVarint(e.index());
+            w.writeVarint(e.count());
+            w.writeString(e.input());
+            w.writeString(e.output());
+        } else if (event instanceof TranscodeSegmentDone e) {
+            w.writeByte(TRANSCODE_SEGMENT_DONE);
+            w.writeString(e.jobId());
+            w.writeString(e.videoId());
+            w.writeString(e.rendition());
+            w.writeVarint(e.index());
+            w.writeString(e.output());
+            w.writeString(e.error());
+        }
+        return w.toByteArray();
+    }
+
+    @Override
+    public Event decode(byte[] body) throws IOException {
+        Reader r = new Reader(body);
+        int version = r.readByte();
+        if (version != VERSION) {
+            throw new InvalidMessageException("Versão do formato binário não suportada: " + version);
+        }
+        int type = r.readByte();
+        Event event;
+        switch (type) {
+            case VIDEO_CREATED:
+                event = new VideoCreated(r.readString(), r.readString(), r.hasRemaining() ? readMedia(r) : null);
+                break;
+            case THUMBNAIL_CREATED:
+                event = new ThumbnailCreated(r.readString(), r.readString(), r.readString(), r.readString(),
+                        r.hasRemaining() ? r.readList() : null);
+                break;
+            case TRANSCODE_CREATED:
+                event = new TranscodeCreated(r.readString(), r.readString(), r.readList());
+                break;
+            case VIDEO_READY:
+                event = new VideoReady(r.readString(), r.readList(), r.readString());
+                break;
+            case TRANSCODE_PROGRESS:
+                event = new TranscodeProgress(r.readString(), r.readString(), r.readString(), r.readVarlong(),
+                        r.readDouble(), r.readDouble(), r.readVarlong(), r.readDouble());
+                break;
+            case TRANSCODE_CANCEL:
+                event = new TranscodeCancel(r.readString(), r.readString());
+                break;
+            case TRANSCODE_SEGMENT:
+                event = new TranscodeSegment(r.readString(), r.readString(), r.readString(), r.readVarint(),
+                        r.readVarint(), r.readString(), r.readString());
+                break;
+            case TRANSCODE_SEGMENT_DONE:
+                event = new TranscodeSegmentDone(r.readString(), r.readString(), r.readString(), r.readVarint(),
+                        r.readString(), r.readString());
+                break;
+            default:
+                throw new InvalidMessageException("Tipo de evento binário desconhecido: " + type);
+        }
+        if (event.videoId() == null) {
+            throw new InvalidMessageException("Mensagem inválida, faltando videoId");
+        }
+        return event;
+    }
+
+    private static void writeMedia(Writer w, MediaInfo media) {
+        w.writeVarlong(media.durationMicros());
+        w.writeVarint(media.frames());
+        w.writeVarint(media.width());
+        w.writeVarint(media.height());
+        w.writeString(media.codec());
+        int[] keyframes = media.keyframes();
+        if (keyframes == null) {
+            w.writeVarint(0);
+            return;
+        }
+        w.writeVarint(keyframes.length + 1);
+        int previous = 0;
+        for (int k : keyframes) {
+            w.writeVarint(k - previous);
+            previous = k;
+        }
+    }
+
+    private static MediaInfo readMedia(Reader r) throws IOException {
+        long duration = r.readVarlong();
+        int frames = r.readVarint();
+        int width = r.readVarint();
+        int height = r.readVarint();
+        String codec = r.readString();
+        int count = r.readVarint() - 1;
+        int[] keyframes = null;
+        if (count >= 0) {
+            keyframes = new int[count];
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                previous += r.readVarint();
+                keyframes[i] = previous;
+            }
+        }
+        return new MediaInfo(duration, frames, width, height, codec, keyframes);
+    }
+
+    private static final class Writer {
+        private byte[] buf = new byte[128];
+        private int pos;
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeVarlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) buf[pos++] = (byte) (bits >>> i);
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarint(0);
+                return;
+            }
+            // Caminho rápido para ASCII (ids e caminhos): escreve os chars direto no buffer
+            int len = s.length();
+            boolean ascii = true;
+            for (int i = 0; i < len; i++) {
+                if (s.charAt(i) >= 0x80) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                writeVarint(len + 1);
+                ensure(len);
+                for (int i = 0; i < len; i++) buf[pos++] = (byte) s.charAt(i);
+            } else {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint(utf8.length + 1);
+                ensure(utf8.length);
+                System.arraycopy(utf8, 0, buf, pos, utf8.length);
+                pos += utf8.length;
+            }
+        }
+
+        void writeList(List<String> values) {
+            writeVarint(values.size());
+            for (String v : values) writeString(v);
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        boolean hasRemaining() {
+            return pos < buf.length;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= buf.length) throw new InvalidMessageException("Mensagem binária truncada");
+            return buf[pos++];
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new InvalidMessageException("Varint inválido na mensagem binária");
+        }
+
+        long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new InvalidMessageException("Varint inválido na mensagem binária");
+        }
+
+        double readDouble() throws IOException {
+            if (buf.length - pos < 8) throw new InvalidMessageException("Mensagem binária truncada");
+            long bits = 0;
+            for (int i = 0; i < 8; i++) bits = (bits << 8) | (buf[pos++] & 0xFF);
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() throws IOException {
+            int len = readVarint() - 1;
+            if (len < 0) return null;
+            if (len > buf.length - pos) throw new InvalidMessageException("Mensagem binária truncada");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        List<String> readList() throws IOException {
+            int count = readVarint();
+            if (count < 0 || count > buf.length - pos) {
+                throw new InvalidMessageException("Lista inválida na mensagem binária");
+            }
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) values.add(readString());
+            return values;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.messageria.events;
+
+/*
+ * Eventos que circulam entre os serviços. O nome do evento vai no campo "event" do JSON
+ * (ou no byte de tipo do formato binário) e identifica o record na decodificação.
+ */
+public sealed interface Event
+        permits VideoCreated, ThumbnailCreated, TranscodeCreated, VideoReady, TranscodeProgress, TranscodeCancel,
+        TranscodeSegment, TranscodeSegmentDone {
+
+    String videoId();
+
+    String eventName();
+}
@@ -0,0 +1,12 @@
+package com.messageria.events;
+
+import java.io.IOException;
+
+// Mensagem que nunca vai poder ser lida (formato, campos obrigatórios, tipo errado); não adianta tentar de novo
+public class InvalidMessageException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidMessageException(String message) {
+        super(message);
+    }
+}
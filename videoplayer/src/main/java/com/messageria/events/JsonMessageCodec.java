@@ -0,0 +1,279 @@
+package com.messageria.events;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * JSON com a API de streaming do Jackson: o parser lê direto do byte[] da entrega, sem
+ * montar JsonNode nem passar por uma String, e o gerador escreve direto em bytes.
+ * Campos desconhecidos são ignorados. Mensagem sem "event" é tratada como VideoCreated,
+ * que é o formato antigo do produtor.
+ */
+public class JsonMessageCodec implements MessageCodec {
+
+    public static final String CONTENT_TYPE = "application/json";
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(Event event) throws IOException {
+        try (ByteArrayBuilder out = new ByteArrayBuilder(256)) {
+            try (JsonGenerator g = FACTORY.createGenerator(out)) {
+                g.writeStartObject();
+                g.writeStringField("event", event.eventName());
+                if (event instanceof VideoCreated e) {
+                    g.writeStringField("videoId", e.videoId());
+                    g.writeStringField("inputUrl", e.inputUrl());
+                    if (e.media() != null) writeMedia(g, e.media());
+                } else if (event instanceof ThumbnailCreated e) {
+                    writeOptional(g, "jobId", e.jobId());
+                    g.writeStringField("videoId", e.videoId());
+                    g.writeStringField("thumbnail", e.thumbnail());
+                    writeOptional(g, "sprite", e.sprite());
+                    if (e.thumbnails() != null) writeList(g, "thumbnails", e.thumbnails());
+                } else if (event instanceof TranscodeCreated e) {
+                    writeOptional(g, "jobId", e.jobId());
+                    g.writeStringField("videoId", e.videoId());
+                    writeList(g, "outputs", e.outputs());
+                } else if (event instanceof VideoReady e) {
+                    g.writeStringField("videoId", e.videoId());
+                    writeList(g, "outputs", e.outputs());
+                    writeOptional(g, "thumbnail", e.thumbnail());
+                } else if (event instanceof TranscodeProgress e) {
+                    writeOptional(g, "jobId", e.jobId());
+                    g.writeStringField("videoId", e.videoId());
+                    writeOptional(g, "rendition", e.rendition());
+                    g.writeNumberField("frame", e.frame());
+                    g.writeNumberField("fps", e.fps());
+                    g.writeNumberField("speed", e.speed());
+                    g.writeNumberField("outTimeMicros", e.outTimeMicros());
+                    g.writeNumberField("fraction", e.fraction());
+                } else if (event instanceof TranscodeCancel e) {
+                    g.writeStringField("videoId", e.videoId());
+                    writeOptional(g, "reason", e.reason());
+                } else if (event instanceof TranscodeSegment e) {
+                    writeOptional(g, "jobId", e.jobId());
+                    g.writeStringField("videoId", e.videoId());
+                    g.writeStringField("rendition", e.rendition());
+                    g.writeNumberField("index", e.index());
+                    g.writeNumberField("count", e.count());
+                    g.writeStringField("inputUrl", e.input());
+                    g.writeStringField("output", e.output());
+                } else if (event instanceof TranscodeSegmentDone e) {
+                    writeOptional(g, "jobId", e.jobId());
+                    g.writeStringField("videoId", e.videoId());
+                    g.writeStringField("rendition", e.rendition());
+                    g.writeNumberField("index", e.index());
+                    writeOptional(g, "output", e.output());
+                    writeOptional(g, "error", e.error());
+                }
+                g.writeEndObject();
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void writeOptional(JsonGenerator g, String field, String value) throws IOException {
+        if (value != null) g.writeStringField(field, value);
+    }
+
+    private static void writeList(JsonGenerator g, String field, List<String> values) throws IOException {
+        g.writeArrayFieldStart(field);
+        for (String v : values) g.writeString(v);
+        g.writeEndArray();
+    }
+
+    private static void writeMedia(JsonGenerator g, MediaInfo media) throws IOException {
+        g.writeObjectFieldStart("media");
+        g.writeNumberField("durationMicros", media.durationMicros());
+        g.writeNumberField("frames", media.frames());
+        g.writeNumberField("width", media.width());
+        g.writeNumberField("height", media.height());
+        writeOptional(g, "codec", media.codec());
+        if (media.keyframes() != null) {
+            g.writeFieldName("keyframes");
+            g.writeArray(media.keyframes(), 0, media.keyframes().length);
+        }
+        g.writeEndObject();
+    }
+
+    @Override
+    public Event decode(byte[] body) throws IOException {
+        String event = null;
+        String jobId = null;
+        String videoId = null;
+        String inputUrl = null;
+        String thumbnail = null;
+        String sprite = null;
+        List<String> outputs = null;
+        List<String> thumbnails = null;
+        String rendition = null;
+        String reason = null;
+        String output = null;
+        String error = null;
+        int index = -1;
+        int count = 0;
+        long frame = 0;
+        double fps = 0;
+        double speed = -1;
+        long outTimeMicros = 0;
+        double fraction = -1;
+        MediaInfo media = null;
+
+        try (JsonParser p = FACTORY.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidMessageException("Mensagem JSON deve ser um objeto");
+            }
+            String field;
+            while ((field = p.nextFieldName()) != null) {
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "event": event = text(p, value); break;
+                    case "jobId": jobId = text(p, value); break;
+                    case "videoId": videoId = text(p, value); break;
+                    case "inputUrl": inputUrl = text(p, value); break;
+                    case "thumbnail": thumbnail = text(p, value); break;
+                    case "sprite": sprite = text(p, value); break;
+                    case "outputs": outputs = readList(p, value); break;
+                    case "thumbnails": thumbnails = readList(p, value); break;
+                    case "rendition": rendition = text(p, value); break;
+                    case "reason": reason = text(p, value); break;
+                    case "output": output = text(p, value); break;
+                    case "error": error = text(p, value); break;
+                    case "index": index = value.isNumeric() ? p.getIntValue() : index; break;
+                    case "count": count = value.isNumeric() ? p.getIntValue() : count; break;
+                    case "frame": frame = value.isNumeric() ? p.getLongValue() : frame; break;
+                    case "fps": fps = value.isNumeric() ? p.getDoubleValue() : fps; break;
+                    case "speed": speed = value.isNumeric() ? p.getDoubleValue() : speed; break;
+                    case "outTimeMicros": outTimeMicros = value.isNumeric() ? p.getLongValue() : outTimeMicros; break;
+                    case "fraction": fraction = value.isNumeric() ? p.getDoubleValue() : fraction; break;
+                    case "media": media = readMedia(p, value); break;
+                    default: p.skipChildren();
+                }
+            }
+        }
+
+        if (videoId == null) {
+            throw new InvalidMessageException("Mensagem inválida, faltando videoId");
+        }
+        if (event == null || event.equalsIgnoreCase(VideoCreated.NAME)) {
+            if (inputUrl == null) {
+                throw new InvalidMessageException("Mensagem inválida, faltando inputUrl (videoId=" + videoId + ")");
+            }
+            return new VideoCreated(videoId, inputUrl, media);
+        }
+        if (event.equalsIgnoreCase(ThumbnailCreated.NAME)) {
+            return new ThumbnailCreated(jobId, videoId, thumbnail, sprite, thumbnails);
+        }
+        if (event.equalsIgnoreCase(TranscodeCreated.NAME)) {
+            return new TranscodeCreated(jobId, videoId, outputs);
+        }
+        if (event.equalsIgnoreCase(VideoReady.NAME)) {
+            return new VideoReady(videoId, outputs, thumbnail);
+        }
+        if (event.equalsIgnoreCase(TranscodeProgress.NAME)) {
+            return new TranscodeProgress(jobId, videoId, rendition, frame, fps, speed, outTimeMicros, fraction);
+        }
+        if (event.equalsIgnoreCase(TranscodeCancel.NAME)) {
+            return new TranscodeCancel(videoId, reason);
+        }
+        if (event.equalsIgnoreCase(TranscodeSegment.NAME)) {
+            if (rendition == null || index < 0 || inputUrl == null || output == null) {
+                throw new InvalidMessageException("Segmento inválido (videoId=" + videoId + ")");
+            }
+            return new TranscodeSegment(jobId, videoId, rendition, index, count, inputUrl, output);
+        }
+        if (event.equalsIgnoreCase(TranscodeSegmentDone.NAME)) {
+            return new TranscodeSegmentDone(jobId, videoId, rendition, index, output, error);
+        }
+        throw new InvalidMessageException("Evento desconhecido: " + event);
+    }
+
+    private static String text(JsonParser p, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) return null;
+        if (value.isStructStart()) {
+            p.skipChildren();
+            return null;
+        }
+        return p.getText();
+    }
+
+    // Campos que faltarem ficam desconhecidos (0); keyframes fora de ordem descartam o índice
+    private static MediaInfo readMedia(JsonParser p, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        long duration = 0;
+        int frames = 0;
+        int width = 0;
+        int height = 0;
+        String codec = null;
+        int[] keyframes = null;
+        String field;
+        while ((field = p.nextFieldName()) != null) {
+            JsonToken t = p.nextToken();
+            switch (field) {
+                case "durationMicros": duration = t.isNumeric() ? p.getLongValue() : duration; break;
+                case "frames": frames = t.isNumeric() ? p.getIntValue() : frames; break;
+                case "width": width = t.isNumeric() ? p.getIntValue() : width; break;
+                case "height": height = t.isNumeric() ? p.getIntValue() : height; break;
+                case "codec": codec = text(p, t); break;
+                case "keyframes": keyframes = readSortedInts(p, t); break;
+                default: p.skipChildren();
+            }
+        }
+        return new MediaInfo(duration, frames, width, height, codec, keyframes);
+    }
+
+    private static int[] readSortedInts(JsonParser p, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return null;
+        }
+        int[] values = new int[16];
+        int size = 0;
+        boolean sorted = true;
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (t == null) throw new InvalidMessageException("Fim inesperado da mensagem JSON");
+            if (!t.isNumeric()) {
+                p.skipChildren();
+                continue;
+            }
+            int v = p.getIntValue();
+            if (size > 0 && v < values[size - 1]) sorted = false;
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+        return sorted ? Arrays.copyOf(values, size) : null;
+    }
+
+    private static List<String> readList(JsonParser p, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return null;
+        }
+        List<String> values = new ArrayList<>(4);
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (t == null) throw new InvalidMessageException("Fim inesperado da mensagem JSON");
+            String v = text(p, t);
+            if (v != null) values.add(v);
+        }
+        return values;
+    }
+}
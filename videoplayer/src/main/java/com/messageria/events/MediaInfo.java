@@ -0,0 +1,51 @@
+package com.messageria.events;
+
+import java.util.Arrays;
+
+/*
+ * Metadados do vídeo lidos uma vez na publicação (MediaProbe) e levados no VideoCreated, para
+ * as etapas não abrirem o container de novo só para saber a duração, a resolução ou onde estão
+ * os keyframes. Valores desconhecidos ficam 0 (codec null).
+ *
+ * keyframes são os índices dos frames de sincronia em ordem crescente, ou null quando o
+ * container não tem a tabela ou o vídeo tem keyframes demais para caber na mensagem. O array
+ * é compartilhado com o cache do produtor: não modificar.
+ */
+public record MediaInfo(long durationMicros, int frames, int width, int height, String codec, int[] keyframes) {
+
+    public long durationMillis() {
+        return durationMicros / 1000;
+    }
+
+    public double fps() {
+        return durationMicros > 0 && frames > 0 ? frames * 1_000_000.0 / durationMicros : 0;
+    }
+
+    // Keyframe mais perto do frame; o próprio frame se não houver índice
+    public int nearestKeyframe(int frame) {
+        return nearestKeyframe(keyframes, frame);
+    }
+
+    public int middleKeyframe() {
+        return nearestKeyframe(frames / 2);
+    }
+
+    public static int nearestKeyframe(int[] sorted, int frame) {
+        if (sorted == null || sorted.length == 0) return frame;
+        int idx = Arrays.binarySearch(sorted, frame);
+        if (idx >= 0) return sorted[idx];
+        int insert = -idx - 1;
+        if (insert == 0) return sorted[0];
+        if (insert == sorted.length) return sorted[sorted.length - 1];
+        int before = sorted[insert - 1];
+        int after = sorted[insert];
+        return (frame - before) <= (after - frame) ? before : after;
+    }
+
+    @Override
+    public String toString() {
+        return "duração=" + (durationMicros > 0 ? durationMillis() / 1000 + "s" : "?") + ", frames=" + frames + ", "
+                + width + "x" + height + ", codec=" + (codec != null ? codec : "?") + ", keyframes="
+                + (keyframes != null ? keyframes.length : "?");
+    }
+}
@@ -0,0 +1,24 @@
+package com.messageria.events;
+
+import java.io.IOException;
+
+/*
+ * Converte eventos para o corpo da mensagem AMQP e de volta. O contentType vai na
+ * propriedade da mensagem, e é por ele que o consumidor escolhe o codec (MessageCodecs).
+ */
+public interface MessageCodec {
+
+    String contentType();
+
+    byte[] encode(Event event) throws IOException;
+
+    Event decode(byte[] body) throws IOException;
+
+    default <T extends Event> T decode(byte[] body, Class<T> type) throws IOException {
+        Event event = decode(body);
+        if (!type.isInstance(event)) {
+            throw new InvalidMessageException("Esperado " + type.getSimpleName() + ", recebido " + event.eventName());
+        }
+        return type.cast(event);
+    }
+}
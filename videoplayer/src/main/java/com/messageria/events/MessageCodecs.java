@@ -0,0 +1,54 @@
+package com.messageria.events;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+
+/*
+ * Escolhe o codec pelo contentType da mensagem recebida. Para publicar, o codec vem de
+ * -Dmessaging.codec=json|binary (padrão json, que todos os consumidores entendem).
+ */
+public final class MessageCodecs {
+
+    public static final MessageCodec JSON = new JsonMessageCodec();
+    public static final MessageCodec BINARY = new BinaryMessageCodec();
+
+    private MessageCodecs() {
+    }
+
+    public static MessageCodec fromSystemProperties() {
+        String name = System.getProperty("messaging.codec", "json");
+        switch (name.toLowerCase()) {
+            case "json":
+                return JSON;
+            case "binary":
+                return BINARY;
+            default:
+                throw new IllegalArgumentException("messaging.codec inválido: " + name + " (use json ou binary)");
+        }
+    }
+
+    // Sem contentType assume JSON, que era o único formato antes dos codecs
+    public static MessageCodec forContentType(String contentType) throws IOException {
+        if (contentType == null || contentType.startsWith(JsonMessageCodec.CONTENT_TYPE)) {
+            return JSON;
+        }
+        if (contentType.startsWith(BinaryMessageCodec.CONTENT_TYPE)) {
+            return BINARY;
+        }
+        throw new InvalidMessageException("contentType não suportado: " + contentType);
+    }
+
+    public static Event decode(Delivery delivery) throws IOException {
+        return forContentType(delivery.getProperties().getContentType()).decode(delivery.getBody());
+    }
+
+    public static <T extends Event> T decode(Delivery delivery, Class<T> type) throws IOException {
+        return forContentType(delivery.getProperties().getContentType()).decode(delivery.getBody(), type);
+    }
+
+    public static Event decode(AMQP.BasicProperties props, byte[] body) throws IOException {
+        return forContentType(props == null ? null : props.getContentType()).decode(body);
+    }
+}
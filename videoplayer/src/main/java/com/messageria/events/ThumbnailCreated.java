@@ -0,0 +1,19 @@
+package com.messageria.events;
+
+import java.util.List;
+
+/*
+ * Publicado pelo ThumbnailConsumer em thumbnail.created. thumbnails tem um arquivo por tamanho,
+ * do maior para o menor, e thumbnail repete o maior (consumidores antigos só leem esse campo);
+ * thumbnails pode ser null em mensagens de versões anteriores. sprite é opcional.
+ */
+public record ThumbnailCreated(String jobId, String videoId, String thumbnail, String sprite, List<String> thumbnails)
+        implements Event {
+
+    public static final String NAME = "ThumbnailCreated";
+
+    @Override
+    public String eventName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,12 @@
+package com.messageria.events;
+
+// Mensagem de controle (transcode.cancel): cancela o transcode em andamento do vídeo
+public record TranscodeCancel(String videoId, String reason) implements Event {
+
+    public static final String NAME = "TranscodeCancel";
+
+    @Override
+    public String eventName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,18 @@
+package com.messageria.events;
+
+import java.util.List;
+
+// Publicado pelo TranscodeConsumer em transcode.created, com um arquivo por rendition
+public record TranscodeCreated(String jobId, String videoId, List<String> outputs) implements Event {
+
+    public static final String NAME = "TranscodeCreated";
+
+    public TranscodeCreated {
+        outputs = outputs == null ? List.of() : List.copyOf(outputs);
+    }
+
+    @Override
+    public String eventName() {
+        return NAME;
+    }
+}
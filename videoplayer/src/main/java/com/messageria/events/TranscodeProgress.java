@@ -0,0 +1,13 @@
+package com.messageria.events;
+
+// Progresso de um transcode em andamento (transcode.progress); fraction é -1 sem a duração do input
+public record TranscodeProgress(String jobId, String videoId, String rendition, long frame, double fps, double speed,
+        long outTimeMicros, double fraction) implements Event {
+
+    public static final String NAME = "TranscodeProgress";
+
+    @Override
+    public String eventName() {
+        return NAME;
+    }
+}
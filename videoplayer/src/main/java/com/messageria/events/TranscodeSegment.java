@@ -0,0 +1,17 @@
+package com.messageria.events;
+
+/*
+ * Tarefa de transcode de um segmento (transcode.segment): o coordenador corta o input em
+ * segmentos e publica uma tarefa por segmento e rendition. rendition vai no formato
+ * altura:bitrateVideo:bitrateAudio; input e output são caminhos no volume compartilhado.
+ */
+public record TranscodeSegment(String jobId, String videoId, String rendition, int index, int count, String input,
+        String output) implements Event {
+
+    public static final String NAME = "TranscodeSegment";
+
+    @Override
+    public String eventName() {
+        return NAME;
+    }
+}
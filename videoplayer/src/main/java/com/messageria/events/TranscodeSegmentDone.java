@@ -0,0 +1,13 @@
+package com.messageria.events;
+
+// Resposta de um segmento para o coordenador (fila do replyTo); error != null se o segmento desistiu
+public record TranscodeSegmentDone(String jobId, String videoId, String rendition, int index, String output,
+        String error) implements Event {
+
+    public static final String NAME = "TranscodeSegmentDone";
+
+    @Override
+    public String eventName() {
+        return NAME;
+    }
+}
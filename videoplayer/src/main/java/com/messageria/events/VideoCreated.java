@@ -0,0 +1,19 @@
+package com.messageria.events;
+
+/*
+ * Publicado pelo VideoProducer em video.created. media são os metadados lidos na publicação;
+ * null em mensagens de versões antigas ou quando o arquivo não pôde ser lido.
+ */
+public record VideoCreated(String videoId, String inputUrl, MediaInfo media) implements Event {
+
+    public static final String NAME = "VideoCreated";
+
+    public VideoCreated(String videoId, String inputUrl) {
+        this(videoId, inputUrl, null);
+    }
+
+    @Override
+    public String eventName() {
+        return NAME;
+    }
+}
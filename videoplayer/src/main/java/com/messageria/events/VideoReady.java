@@ -0,0 +1,18 @@
+package com.messageria.events;
+
+import java.util.List;
+
+// Notificação final do NotificationConsumer, quando transcode e thumbnail terminaram
+public record VideoReady(String videoId, List<String> outputs, String thumbnail) implements Event {
+
+    public static final String NAME = "VideoReady";
+
+    public VideoReady {
+        outputs = outputs == null ? List.of() : List.copyOf(outputs);
+    }
+
+    @Override
+    public String eventName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,30 @@
+package com.messageria.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Contador sem lock (LongAdder): várias threads incrementam sem disputar a mesma variável
+public final class Counter {
+
+    private final String name;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void add(long n) {
+        value.add(n);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    public String getName() {
+        return name;
+    }
+}
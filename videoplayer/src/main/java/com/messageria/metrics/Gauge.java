@@ -0,0 +1,26 @@
+package com.messageria.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Valor atual de algo que sobe e desce (prefetch, profundidade da fila), gravado por quem decide
+public final class Gauge {
+
+    private final String name;
+    private final AtomicLong value = new AtomicLong();
+
+    Gauge(String name) {
+        this.name = name;
+    }
+
+    public void set(long v) {
+        value.set(v);
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+}
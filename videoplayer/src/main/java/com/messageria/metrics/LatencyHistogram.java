@@ -0,0 +1,137 @@
+package com.messageria.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Histograma de latência no estilo HDR, em microssegundos: buckets lineares dentro de cada
+ * potência de 2 (32 por oitava, erro relativo < ~3%), de 1µs até ~12 dias. Gravar é só
+ * achar o índice com numberOfLeadingZeros e um incremento atômico, sem lock e sem alocar.
+ * Valores acima do limite caem no último bucket (o máximo exato continua em max).
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_MSB = 39;
+    private static final int BUCKETS = (MAX_MSB - SUB_BITS + 2) * SUB_COUNT;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordMicros(long micros) {
+        if (micros < 0) micros = 0;
+        counts.incrementAndGet(indexOf(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        recordMicros(unit.toMicros(duration));
+    }
+
+    // Uso típico: long t0 = System.nanoTime(); ...; histogram.recordSince(t0);
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    static int indexOf(long micros) {
+        if (micros < SUB_COUNT) return (int) micros;
+        int msb = 63 - Long.numberOfLeadingZeros(micros);
+        if (msb > MAX_MSB) return BUCKETS - 1;
+        int shift = msb - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((micros >>> shift) - SUB_COUNT);
+    }
+
+    // Maior valor que cai no bucket (usado para reportar percentis pelo lado conservador)
+    static long upperBound(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = index / SUB_COUNT - 1;
+        long low = ((long) (index % SUB_COUNT) + SUB_COUNT) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.sum(), max.get());
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        // O que foi gravado entre earlier e este snapshot; o máximo vira o limite do maior bucket com valores
+        public Snapshot minus(Snapshot earlier) {
+            long[] diff = new long[counts.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                diff[i] = counts[i] - earlier.counts[i];
+                total += diff[i];
+            }
+            long maxBucket = max;
+            for (int i = diff.length - 1; i >= 0; i--) {
+                if (diff[i] > 0) {
+                    maxBucket = Math.min(upperBound(i), max);
+                    break;
+                }
+            }
+            return new Snapshot(diff, total, sum - earlier.sum, maxBucket);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMaxMicros() {
+            return max;
+        }
+
+        public double getMeanMicros() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        public long percentileMicros(double percentile) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+    }
+}
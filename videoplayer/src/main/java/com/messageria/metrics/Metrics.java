@@ -0,0 +1,283 @@
+package com.messageria.metrics;
+
+import com.rabbitmq.client.AMQP;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Registro global de métricas do processo. As classes guardam as métricas em campos
+ * static final (Metrics.counter/histogram só são chamados na inicialização), então o
+ * caminho quente é só o incremento.
+ *
+ * start() liga a exposição, configurada por system properties:
+ *   metrics.httpPort   porta HTTP local (GET /metrics, texto); 0 desliga (padrão)
+ *   metrics.jmx        registra o MBean com.messageria:type=Metrics (padrão true)
+ *   metrics.logSeconds intervalo do resumo no log; 0 desliga (padrão 60)
+ */
+public final class Metrics {
+
+    // Horário (epoch ms) em que a mensagem foi publicada; usado para medir a espera na fila
+    public static final String PUBLISHED_AT_HEADER = "x-published-at";
+    // Horário da publicação do VideoCreated original, repassado pelos eventos seguintes
+    public static final String ORIGIN_PUBLISHED_AT_HEADER = "x-origin-published-at";
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+
+    private static ScheduledExecutorService reporter;
+    private static HttpServer httpServer;
+    private static String service;
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, Counter::new);
+    }
+
+    public static Gauge gauge(String name) {
+        return GAUGES.computeIfAbsent(name, Gauge::new);
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    // ---------------------------------------------------------------- headers
+
+    // Headers com o horário de publicação, mantendo a origem do evento que gerou este
+    public static Map<String, Object> timestampHeaders(AMQP.BasicProperties cause) {
+        long now = System.currentTimeMillis();
+        Map<String, Object> headers = new HashMap<>(4);
+        headers.put(PUBLISHED_AT_HEADER, now);
+        long origin = headerMillis(cause, ORIGIN_PUBLISHED_AT_HEADER);
+        if (origin < 0) origin = headerMillis(cause, PUBLISHED_AT_HEADER);
+        headers.put(ORIGIN_PUBLISHED_AT_HEADER, origin >= 0 ? origin : now);
+        return headers;
+    }
+
+    // -1 se a mensagem não tiver o header (publicada por uma versão antiga)
+    public static long headerMillis(AMQP.BasicProperties props, String header) {
+        if (props == null || props.getHeaders() == null) return -1;
+        Object value = props.getHeaders().get(header);
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    // Grava now - header no histograma, se o header existir. Relógios de máquinas diferentes
+    // podem divergir; valores negativos viram 0.
+    public static void recordSinceHeader(LatencyHistogram histogram, AMQP.BasicProperties props, String header) {
+        long at = headerMillis(props, header);
+        if (at >= 0) {
+            histogram.recordMicros((System.currentTimeMillis() - at) * 1000);
+        }
+    }
+
+    // ---------------------------------------------------------------- exposição
+
+    public static synchronized void start(String serviceName) {
+        if (service != null) return;
+        service = serviceName;
+
+        if (Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"))) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                        new ObjectName("com.messageria:type=Metrics,service=" + ObjectName.quote(serviceName)));
+            } catch (Exception e) {
+                System.out.println("Erro registrando métricas no JMX: " + e.getMessage());
+            }
+        }
+
+        int port = Integer.getInteger("metrics.httpPort", 0);
+        if (port > 0) {
+            try {
+                httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                httpServer.createContext("/metrics", exchange -> {
+                    byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                httpServer.setExecutor(null);
+                httpServer.start();
+                System.out.println("Métricas em http://localhost:" + port + "/metrics");
+            } catch (IOException e) {
+                System.out.println("Erro abrindo porta de métricas " + port + ": " + e.getMessage());
+            }
+        }
+
+        long logSeconds = Long.getLong("metrics.logSeconds", 60);
+        if (logSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-reporter");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(() -> System.out.print(summary()), logSeconds, logSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public static synchronized void stop() {
+        if (reporter != null) reporter.shutdownNow();
+        if (httpServer != null) httpServer.stop(0);
+        reporter = null;
+        httpServer = null;
+    }
+
+    // Formato texto no estilo Prometheus: contadores, gauges e, para cada histograma, count/mean/max e percentis
+    public static String render() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Counter c : COUNTERS.values()) {
+            sb.append(metricName(c.getName())).append(' ').append(c.get()).append('\n');
+        }
+        for (Gauge g : GAUGES.values()) {
+            sb.append(metricName(g.getName())).append(' ').append(g.get()).append('\n');
+        }
+        for (LatencyHistogram h : HISTOGRAMS.values()) {
+            String name = metricName(h.getName()) + "_micros";
+            LatencyHistogram.Snapshot s = h.snapshot();
+            sb.append(name).append("_count ").append(s.getCount()).append('\n');
+            sb.append(name).append("_mean ").append(Math.round(s.getMeanMicros())).append('\n');
+            sb.append(name).append("_max ").append(s.getMaxMicros()).append('\n');
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                sb.append(name).append("{quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ")
+                        .append(s.percentileMicros(PERCENTILES[i])).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    // Resumo para o log: só o que já registrou algo
+    public static String summary() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("[métricas ").append(service).append("]\n");
+        for (Counter c : COUNTERS.values()) {
+            long v = c.get();
+            if (v > 0) sb.append("  ").append(c.getName()).append('=').append(v).append('\n');
+        }
+        for (Gauge g : GAUGES.values()) {
+            sb.append("  ").append(g.getName()).append('=').append(g.get()).append('\n');
+        }
+        for (LatencyHistogram h : HISTOGRAMS.values()) {
+            LatencyHistogram.Snapshot s = h.snapshot();
+            if (s.getCount() == 0) continue;
+            sb.append("  ").append(h.getName())
+                    .append(" n=").append(s.getCount())
+                    .append(" p50=").append(formatMicros(s.percentileMicros(50)))
+                    .append(" p99=").append(formatMicros(s.percentileMicros(99)))
+                    .append(" max=").append(formatMicros(s.getMaxMicros()))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static String formatMicros(long micros) {
+        if (micros < 1000) return micros + "µs";
+        if (micros < 1_000_000) return String.format("%.1fms", micros / 1000.0);
+        return String.format("%.2fs", micros / 1_000_000.0);
+    }
+
+    private static String metricName(String name) {
+        return "messageria_" + name.replace('.', '_');
+    }
+
+    // Um atributo por contador e por gauge e, por histograma, <nome>.count/.p50/.p99/.max (em µs)
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Counter c = COUNTERS.get(attribute);
+            if (c != null) return c.get();
+            Gauge g = GAUGES.get(attribute);
+            if (g != null) return g.get();
+            int dot = attribute.lastIndexOf('.');
+            if (dot > 0) {
+                LatencyHistogram h = HISTOGRAMS.get(attribute.substring(0, dot));
+                if (h != null) {
+                    LatencyHistogram.Snapshot s = h.snapshot();
+                    switch (attribute.substring(dot + 1)) {
+                        case "count": return s.getCount();
+                        case "p50": return s.percentileMicros(50);
+                        case "p90": return s.percentileMicros(90);
+                        case "p99": return s.percentileMicros(99);
+                        case "max": return s.getMaxMicros();
+                        default: break;
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Métricas são somente leitura");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException ignored) {
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (String name : COUNTERS.keySet()) {
+                attrs.add(new MBeanAttributeInfo(name, "long", "contador", true, false, false));
+            }
+            for (String name : GAUGES.keySet()) {
+                attrs.add(new MBeanAttributeInfo(name, "long", "valor atual", true, false, false));
+            }
+            for (String name : HISTOGRAMS.keySet()) {
+                for (String suffix : new String[] { "count", "p50", "p90", "p99", "max" }) {
+                    attrs.add(new MBeanAttributeInfo(name + "." + suffix, "long",
+                            suffix.equals("count") ? "amostras" : "latência em µs", true, false, false));
+                }
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Métricas do pipeline de vídeo",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
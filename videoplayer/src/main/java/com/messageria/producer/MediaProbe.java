@@ -0,0 +1,75 @@
+package com.messageria.producer;
+
+import com.messageria.events.MediaInfo;
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import com.messageria.thumbnail.ThumbnailEngine;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Lê os metadados do vídeo (MediaInfo) uma vez, na publicação, em vez de cada etapa abrir o
+ * container por conta própria. Só o cabeçalho é lido, nenhum frame é decodificado.
+ *
+ * O resultado fica num LRU com chave caminho + data de modificação + tamanho: republicar o
+ * mesmo arquivo (retentativa do cliente, reenvio com outro videoId) não abre o arquivo de
+ * novo, e um arquivo sobrescrito no mesmo caminho é lido outra vez. Arquivos que não dão para
+ * abrir também entram no cache, como null.
+ */
+public class MediaProbe {
+    private static final Counter HITS = Metrics.counter("producer.probe.hits");
+    private static final Counter MISSES = Metrics.counter("producer.probe.misses");
+    private static final LatencyHistogram PROBE = Metrics.histogram("producer.probe");
+
+    private final int maxKeyframes;
+    private final Map<String, MediaInfo> cache;
+
+    public MediaProbe(int maxEntries, int maxKeyframes) {
+        this.maxKeyframes = maxKeyframes;
+        this.cache = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MediaInfo> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // -Dproducer.probeCacheEntries=10000 e -Dproducer.maxKeyframes=10000
+    public static MediaProbe fromSystemProperties() {
+        return new MediaProbe(Integer.getInteger("producer.probeCacheEntries", 10_000),
+                Integer.getInteger("producer.maxKeyframes", 10_000));
+    }
+
+    // null se o arquivo não existir ou não for um vídeo que o jcodec consiga abrir
+    public MediaInfo probe(File input) {
+        if (!input.isFile()) return null;
+        String key = input.getAbsolutePath() + "|" + input.lastModified() + "|" + input.length();
+        synchronized (cache) {
+            if (cache.containsKey(key)) {
+                HITS.inc();
+                return cache.get(key);
+            }
+        }
+        MISSES.inc();
+        long started = System.nanoTime();
+        MediaInfo info = null;
+        try (ThumbnailEngine engine = ThumbnailEngine.open(input)) {
+            info = engine.mediaInfo();
+            if (info.keyframes() != null && info.keyframes().length > maxKeyframes) {
+                // Mensagem grande demais; as etapas caem no índice do próprio container
+                info = new MediaInfo(info.durationMicros(), info.frames(), info.width(), info.height(), info.codec(),
+                        null);
+            }
+        } catch (Exception e) {
+            System.out.println("Não foi possível ler os metadados de " + input.getName() + ": " + e.getMessage());
+        }
+        PROBE.recordSince(started);
+        synchronized (cache) {
+            cache.put(key, info);
+        }
+        return info;
+    }
+}
@@ -1,27 +1,164 @@
 package com.messageria.producer;
 
 import com.messageria.config.RabbitMQConfig;
+import com.messageria.events.MediaInfo;
+import com.messageria.events.MessageCodec;
+import com.messageria.events.MessageCodecs;
+import com.messageria.events.VideoCreated;
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.Metrics;
+import com.messageria.publisher.ConfirmingPublisher;
+import com.messageria.repository.JobIds;
+import com.messageria.transcode.JobCost;
 
-import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Connection;
 
-public class VideoProducer {
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Produtor thread-safe: uma conexão de longa duração e um pool de canais com publisher
+ * confirms. Cada chamada pega um canal do pool, publica e devolve; o future retornado
+ * completa quando o broker confirmar a mensagem.
+ *
+ * Antes de publicar, o MediaProbe lê os metadados do vídeo (duração, frames, resolução, codec
+ * e keyframes), que vão no VideoCreated e viram a prioridade e o custo da mensagem.
+ */
+public class VideoProducer implements AutoCloseable {
     private final static String EXCHANGE_NAME = "video.exchange";
+    private static final MessageCodec CODEC = MessageCodecs.fromSystemProperties();
+    private static final Counter PUBLISHED = Metrics.counter("producer.published");
+    private static final MediaProbe PROBE = MediaProbe.fromSystemProperties();
+
+    private final Connection connection;
+    private final BlockingQueue<ConfirmingPublisher> channels;
+    private final String exchange;
+    private final int maxUnconfirmed;
+
+    public VideoProducer() throws IOException, TimeoutException {
+        this(new RabbitMQConfig(), Integer.getInteger("producer.channels", 4), EXCHANGE_NAME);
+    }
+
+    public VideoProducer(RabbitMQConfig config, int poolSize, String exchange) throws IOException, TimeoutException {
+        this.connection = config.createConnection();
+        this.channels = new ArrayBlockingQueue<>(poolSize);
+        this.exchange = exchange;
+        this.maxUnconfirmed = Integer.getInteger("producer.maxUnconfirmed", 1024);
+        for (int i = 0; i < poolSize; i++) {
+            channels.add(new ConfirmingPublisher(connection.createChannel(), maxUnconfirmed));
+        }
+    }
 
-    public void publishVideo(String videoId) throws Exception {
-        RabbitMQConfig config = new RabbitMQConfig();
-        try (Connection connection = config.createConnection();
-                Channel channel = connection.createChannel()) {
+    public CompletableFuture<Void> publishVideo(String videoId) throws IOException, InterruptedException {
+        return publishVideo(videoId, inputUrlFor(videoId));
+    }
 
-            String inputUrl = "uploads/" + videoId + ".mp4"; 
-            String message = "{\"videoId\": \"" + videoId + "\", \"inputUrl\": \"" + inputUrl + "\"}";
-            channel.basicPublish(EXCHANGE_NAME, "video.created", null, message.getBytes("UTF-8"));
+    public CompletableFuture<Void> publishVideo(String videoId, String inputUrl)
+            throws IOException, InterruptedException {
+        ConfirmingPublisher channel = borrow();
+        CompletableFuture<Void> confirm;
+        try {
+            confirm = publish(channel, videoId, inputUrl);
+        } finally {
+            giveBack(channel);
+        }
+        System.out.println( "Mensagem publicada para o vídeo: " + videoId);
+        return confirm;
+    }
 
-            System.out.println( "Mensagem publicada para o vídeo: " + videoId);
+    // Publica todos no mesmo canal, um atrás do outro, sem esperar resposta do broker entre eles.
+    // O future completa quando todos forem confirmados.
+    public CompletableFuture<Void> publishVideos(Collection<String> videoIds) throws IOException, InterruptedException {
+        ConfirmingPublisher channel = borrow();
+        CompletableFuture<?>[] confirms = new CompletableFuture<?>[videoIds.size()];
+        try {
+            int i = 0;
+            for (String videoId : videoIds) {
+                confirms[i++] = publish(channel, videoId, inputUrlFor(videoId));
+            }
+        } finally {
+            giveBack(channel);
         }
+        System.out.println("Mensagens publicadas: " + videoIds.size());
+        return CompletableFuture.allOf(confirms);
+    }
+
+    static String inputUrlFor(String videoId) {
+        return "uploads/" + videoId + ".mp4";
+    }
+
+    static byte[] messageFor(String videoId, String inputUrl, MediaInfo media) throws IOException {
+        return CODEC.encode(new VideoCreated(videoId, inputUrl, media));
+    }
+
+    static AMQP.BasicProperties propertiesFor(String videoId, String inputUrl, MediaInfo media) {
+        // messageId identifica o conteúdo: os consumidores usam no jobId para reconhecer duplicatas
+        File input = new File(inputUrl);
+        String messageId = input.exists() ? JobIds.inputFingerprint(input) : JobIds.shortHash(videoId + "|" + inputUrl);
+        // Duração e tamanho viram a prioridade da mensagem e o custo usado pelo escalonador do transcode
+        JobCost cost = JobCost.of(media, input);
+        return new AMQP.BasicProperties.Builder()
+                .contentType(CODEC.contentType())
+                .messageId(messageId)
+                .correlationId(videoId)
+                .priority(cost.priority())
+                .headers(cost.addHeaders(Metrics.timestampHeaders(null)))
+                .deliveryMode(2)
+                .build();
+    }
+
+    private CompletableFuture<Void> publish(ConfirmingPublisher channel, String videoId, String inputUrl)
+            throws IOException, InterruptedException {
+        MediaInfo media = PROBE.probe(new File(inputUrl));
+        PUBLISHED.inc();
+        return channel.publish(exchange, "video.created", propertiesFor(videoId, inputUrl, media),
+                messageFor(videoId, inputUrl, media));
+    }
+
+    private ConfirmingPublisher borrow() throws IOException, InterruptedException {
+        ConfirmingPublisher channel = channels.take();
+        if (!channel.getChannel().isOpen()) {
+            // Canal fechado pelo broker (erro de protocolo): troca por um novo
+            try {
+                channel = new ConfirmingPublisher(connection.createChannel(), maxUnconfirmed);
+            } catch (IOException e) {
+                channels.add(channel);
+                throw e;
+            }
+        }
+        return channel;
+    }
+
+    private void giveBack(ConfirmingPublisher channel) {
+        channels.add(channel);
+    }
+
+    // Espera os confirms pendentes antes de fechar a conexão
+    @Override
+    public void close() throws IOException {
+        try {
+            for (ConfirmingPublisher channel : channels) {
+                if (!channel.awaitOutstanding(30, TimeUnit.SECONDS)) {
+                    System.out.println("Fechando com " + channel.getOutstanding() + " mensagens sem confirm");
+                }
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connection.close();
     }
 
     public static void main(String[] args) throws Exception {
-        new VideoProducer().publishVideo("video-12345");
+        try (VideoProducer producer = new VideoProducer()) {
+            producer.publishVideo("video-12345").get(30, TimeUnit.SECONDS);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,78 @@
+package com.messageria.publisher;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Publica mensagens descartáveis (progresso, por exemplo) num canal próprio, sem confirms.
+ * offer() nunca bloqueia: a mensagem entra numa fila limitada e uma thread do publisher faz o
+ * basicPublish. Com a fila cheia (broker lento, conexão bloqueada por alarme de memória) a
+ * mensagem é descartada. Quem chama é tipicamente uma thread que não pode parar, como a que
+ * lê o -progress do ffmpeg, e a próxima atualização substitui a perdida.
+ */
+public class BestEffortPublisher implements AutoCloseable {
+
+    private record Message(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+    }
+
+    private final Channel channel;
+    private final BlockingQueue<Message> queue;
+    private final Thread sender;
+    private volatile boolean closed;
+
+    public BestEffortPublisher(Channel channel, int capacity) {
+        this.channel = channel;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sender = new Thread(this::run, "best-effort-publisher-" + channel.getChannelNumber());
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    // false se a mensagem foi descartada (fila cheia ou publisher fechado)
+    public boolean offer(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        if (closed) return false;
+        return queue.offer(new Message(exchange, routingKey, props, body));
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    private void run() {
+        while (!closed || !queue.isEmpty()) {
+            Message m;
+            try {
+                m = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (m == null) continue;
+            try {
+                channel.basicPublish(m.exchange(), m.routingKey(), m.props(), m.body());
+            } catch (Exception e) {
+                System.out.println("Erro publicando em " + m.routingKey() + " (descartada): " + e.getMessage());
+            }
+        }
+    }
+
+    // Envia o que ainda estiver na fila (até 1s) e fecha o canal
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            sender.join(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender.interrupt();
+        try {
+            if (channel.isOpen()) channel.close();
+        } catch (Exception e) {
+            System.out.println("Erro fechando canal: " + e.getMessage());
+        }
+    }
+}
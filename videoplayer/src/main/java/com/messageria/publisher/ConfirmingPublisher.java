@@ -0,0 +1,149 @@
+package com.messageria.publisher;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Publica com publisher confirms sem esperar um round trip por mensagem.
+ * As publicações pendentes ficam num mapa ordenado pelo número de sequência; um ack com
+ * multiple=true confirma todo o prefixo de uma vez. A janela de publicações em voo é
+ * limitada: quando está cheia, publish() bloqueia até chegar um confirm (backpressure).
+ *
+ * Os futures são completados numa thread própria, nunca na thread de I/O da conexão,
+ * então quem encadeia ack/nack de outra mensagem no future pode fazer isso direto.
+ */
+public class ConfirmingPublisher {
+
+    private final Channel channel;
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> outstanding = new ConcurrentSkipListMap<>();
+    private final Semaphore window;
+    // Lock explícito em vez de synchronized: não prende a carrier thread de uma virtual thread
+    private final ReentrantLock publishLock = new ReentrantLock();
+    private final int maxInFlight;
+    private final Executor callbacks;
+    private final ExecutorService ownedCallbacks;
+
+    public ConfirmingPublisher(Channel channel, int maxInFlight) throws IOException {
+        this(channel, maxInFlight, null);
+    }
+
+    public ConfirmingPublisher(Channel channel, int maxInFlight, Executor callbacks) throws IOException {
+        this.channel = channel;
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight);
+        if (callbacks == null) {
+            this.ownedCallbacks = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "confirm-callbacks-" + channel.getChannelNumber());
+                t.setDaemon(true);
+                return t;
+            });
+            this.callbacks = ownedCallbacks;
+        } else {
+            this.ownedCallbacks = null;
+            this.callbacks = callbacks;
+        }
+
+        channel.confirmSelect();
+        channel.addConfirmListener((tag, multiple) -> settle(tag, multiple, null),
+                (tag, multiple) -> settle(tag, multiple, new IOException("Broker recusou a mensagem (nack) seq=" + tag)));
+        channel.addShutdownListener(cause -> failAll(cause));
+    }
+
+    public CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException, InterruptedException {
+        window.acquire();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        // Número de sequência e basicPublish precisam ser atômicos entre threads
+        publishLock.lock();
+        try {
+            long seq = channel.getNextPublishSeqNo();
+            outstanding.put(seq, future);
+            try {
+                channel.basicPublish(exchange, routingKey, props, body);
+            } catch (IOException | RuntimeException e) {
+                outstanding.remove(seq);
+                window.release();
+                throw e;
+            }
+        } finally {
+            publishLock.unlock();
+        }
+        return future;
+    }
+
+    private void settle(long tag, boolean multiple, Exception error) {
+        if (multiple) {
+            ConcurrentNavigableMap<Long, CompletableFuture<Void>> confirmed = outstanding.headMap(tag, true);
+            for (Map.Entry<Long, CompletableFuture<Void>> e : confirmed.entrySet()) {
+                if (confirmed.remove(e.getKey(), e.getValue())) {
+                    complete(e.getValue(), error);
+                }
+            }
+        } else {
+            CompletableFuture<Void> future = outstanding.remove(tag);
+            if (future != null) complete(future, error);
+        }
+    }
+
+    private void complete(CompletableFuture<Void> future, Exception error) {
+        window.release();
+        callbacks.execute(() -> {
+            if (error == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(error);
+            }
+        });
+    }
+
+    private void failAll(Exception cause) {
+        for (Map.Entry<Long, CompletableFuture<Void>> e : outstanding.entrySet()) {
+            if (outstanding.remove(e.getKey(), e.getValue())) {
+                complete(e.getValue(), new IOException("Canal fechado antes do confirm: " + cause.getMessage(), cause));
+            }
+        }
+    }
+
+    public int getOutstanding() {
+        return outstanding.size();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    // Espera todos os confirms pendentes (usado no encerramento); true se não sobrou nada
+    public boolean awaitOutstanding(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!outstanding.isEmpty()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public void close() {
+        try {
+            if (channel.isOpen()) channel.close();
+        } catch (Exception e) {
+            System.out.println("Erro fechando canal de publicação: " + e.getMessage());
+        }
+        if (ownedCallbacks != null) ownedCallbacks.shutdown();
+    }
+}
@@ -0,0 +1,237 @@
+package com.messageria.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * Log append-only mapeado em memória. Cada registro é [int tamanho][bytes]; tamanho 0 marca o fim.
+ * O tamanho é escrito por último, então um registro só passa a existir depois de completo.
+ *
+ * A compactação escreve uma nova geração (<nome>.<n>.log) e troca para ela, em vez de
+ * sobrescrever o arquivo mapeado (no Windows não dá para mover/apagar um arquivo mapeado).
+ *
+ * O log pertence a um único dono: a posição de escrita fica em memória, a abertura apaga as
+ * gerações antigas e a compactação troca de geração. Por isso <nome>.lock fica com um lock
+ * exclusivo (FileChannel.tryLock) enquanto o log estiver aberto, e quem tentar abrir o mesmo
+ * log em outro processo (ou outra instância na mesma JVM) recebe IOException em vez de
+ * escrever por cima dos registros do outro.
+ */
+public class AppendOnlyLog implements Closeable {
+    private static final int MIN_CAPACITY = 1 << 20;
+
+    private final Path dir;
+    private final String name;
+    private long generation;
+    private FileChannel file;
+    private MappedByteBuffer buffer;
+    private int position;
+    private long records;
+    private final boolean created;
+    private final FileChannel lockFile;
+    private final FileLock lock;
+
+    public AppendOnlyLog(Path dir, String name) throws IOException {
+        this(dir, name, 0);
+    }
+
+    // lockWaitMillis: quanto esperar o dono anterior fechar o log antes de desistir
+    public AppendOnlyLog(Path dir, String name, long lockWaitMillis) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        if (!Files.exists(dir)) Files.createDirectories(dir);
+        this.lockFile = FileChannel.open(dir.resolve(name + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            this.lock = acquire(lockWaitMillis);
+            this.created = openLatest();
+        } catch (IOException | RuntimeException e) {
+            lockFile.close();
+            throw e;
+        }
+    }
+
+    private FileLock acquire(long waitMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            FileLock acquired;
+            try {
+                acquired = lockFile.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Aberto por outra instância nesta mesma JVM
+                acquired = null;
+            }
+            if (acquired != null) return acquired;
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IOException("Log " + dir.resolve(name) + " já está aberto por outro processo");
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompido esperando o lock de " + dir.resolve(name), e);
+            }
+        }
+    }
+
+    // true se o log não existia
+    private boolean openLatest() throws IOException {
+
+        long latest = -1;
+        List<Path> stale = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, name + ".*")) {
+            for (Path p : ds) {
+                String fileName = p.getFileName().toString();
+                if (fileName.endsWith(".tmp")) {
+                    stale.add(p);
+                    continue;
+                }
+                long gen = generationOf(fileName);
+                if (gen < 0) continue;
+                if (gen > latest) {
+                    if (latest >= 0) stale.add(pathFor(latest));
+                    latest = gen;
+                } else {
+                    stale.add(p);
+                }
+            }
+        }
+        for (Path p : stale) {
+            Files.deleteIfExists(p);
+        }
+        this.generation = Math.max(latest, 0);
+        open(pathFor(generation));
+        return latest < 0;
+    }
+
+    private long generationOf(String fileName) {
+        String prefix = name + ".";
+        if (!fileName.startsWith(prefix) || !fileName.endsWith(".log")) return -1;
+        try {
+            return Long.parseLong(fileName.substring(prefix.length(), fileName.length() - ".log".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Path pathFor(long gen) {
+        return dir.resolve(name + "." + gen + ".log");
+    }
+
+    private void open(Path path) throws IOException {
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(file.size(), MIN_CAPACITY);
+        buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        position = 0;
+        records = 0;
+        // Acha o fim do log
+        while (position + 4 <= buffer.capacity()) {
+            int len = buffer.getInt(position);
+            if (len <= 0 || position + 4 + len > buffer.capacity()) break;
+            position += 4 + len;
+            records++;
+        }
+    }
+
+    public synchronized void replay(Consumer<ByteBuffer> reader) {
+        int pos = 0;
+        while (pos < position) {
+            int len = buffer.getInt(pos);
+            ByteBuffer record = buffer.duplicate();
+            record.position(pos + 4).limit(pos + 4 + len);
+            reader.accept(record.slice());
+            pos += 4 + len;
+        }
+    }
+
+    public synchronized void append(byte[] record) throws IOException {
+        if (record.length == 0) throw new IllegalArgumentException("Registro vazio");
+        ensureCapacity(4 + record.length + 4);
+        buffer.put(position + 4, record);
+        buffer.putInt(position, record.length);
+        position += 4 + record.length;
+        records++;
+    }
+
+    private void ensureCapacity(int needed) throws IOException {
+        if (position + needed <= buffer.capacity()) return;
+        long newSize = buffer.capacity();
+        while (position + needed > newSize) newSize *= 2;
+        if (newSize > Integer.MAX_VALUE) throw new IOException("Log " + name + " excedeu 2GB, compacte antes");
+        buffer.force();
+        buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+    }
+
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    // true se o log não existia e foi criado agora
+    public boolean isNew() {
+        return created;
+    }
+
+    public synchronized long records() {
+        return records;
+    }
+
+    public synchronized long sizeBytes() {
+        return position;
+    }
+
+    /*
+     * Substitui o conteúdo do log pelos registros informados. O novo arquivo é escrito inteiro
+     * como .tmp, sincronizado em disco e só então renomeado para a próxima geração.
+     */
+    public synchronized void rewrite(Iterable<byte[]> live) throws IOException {
+        long next = generation + 1;
+        Path tmp = dir.resolve(name + "." + next + ".log.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            for (byte[] record : live) {
+                header.clear();
+                header.putInt(record.length).flip();
+                while (header.hasRemaining()) out.write(header);
+                ByteBuffer body = ByteBuffer.wrap(record);
+                while (body.hasRemaining()) out.write(body);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, pathFor(next), StandardCopyOption.ATOMIC_MOVE);
+
+        Path old = pathFor(generation);
+        buffer.force();
+        file.close();
+        generation = next;
+        open(pathFor(generation));
+        try {
+            Files.deleteIfExists(old);
+        } catch (IOException e) {
+            // Ainda mapeado (Windows); é apagado na próxima inicialização
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            buffer.force();
+            file.close();
+        } finally {
+            lock.release();
+            lockFile.close();
+        }
+    }
+}
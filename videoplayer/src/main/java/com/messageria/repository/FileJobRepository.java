@@ -1,27 +1,137 @@
 package com.messageria.repository;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+public class FileJobRepository implements JobRepository {
+    // Conteúdo do .claim: "<pid>@<host>", para reconhecer claims de processos que já morreram
+    private static final String HOST = hostName();
+    private static final String OWNER = ProcessHandle.current().pid() + "@" + HOST;
 
-public class FileJobRepository {
     private final Path baseDir;
+    private final long claimTtlMillis;
 
     public FileJobRepository(Path baseDir) throws IOException {
+        this(baseDir, TimeUnit.MINUTES.toMillis(Long.getLong("jobs.claimTtlMinutes", 60)));
+    }
+
+    public FileJobRepository(Path baseDir, long claimTtlMillis) throws IOException {
         this.baseDir = baseDir;
+        this.claimTtlMillis = claimTtlMillis;
         if (!Files.exists(baseDir)) Files.createDirectories(baseDir);
     }
 
+    @Override
     public synchronized boolean isFinished(String jobId) {
         Path p = baseDir.resolve(jobId + ".done");
         return Files.exists(p);
     }
 
+    @Override
     public synchronized void markFinished(String jobId) throws IOException {
         Path p = baseDir.resolve(jobId + ".done");
         if (!Files.exists(p)) {
             Files.write(p, ("finished\n").getBytes(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
         }
     }
+
+    /*
+     * O claim é um arquivo .claim criado com CREATE_NEW, então vale entre processos. Um claim
+     * de um processo deste host que já terminou é retomado na hora; de outro host, só depois
+     * do TTL (-Djobs.claimTtlMinutes=60), que precisa ser maior que o job mais longo.
+     */
+    @Override
+    public boolean tryClaim(String jobId) throws IOException {
+        Path p = baseDir.resolve(jobId + ".claim");
+        try {
+            Files.write(p, (OWNER + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            String owner;
+            long age;
+            try {
+                owner = Files.readString(p, StandardCharsets.UTF_8).trim();
+                age = System.currentTimeMillis() - Files.getLastModifiedTime(p).toMillis();
+            } catch (NoSuchFileException gone) {
+                return tryClaim(jobId);
+            }
+            if (ownerIsGone(owner)) {
+                System.out.println("Dono do claim (" + owner + ") não está mais rodando, retomando job " + jobId);
+            } else if (age >= claimTtlMillis) {
+                System.out.println("Claim expirado, retomando job " + jobId);
+            } else {
+                return false;
+            }
+            return takeOver(jobId, p, owner) && tryClaim(jobId);
+        }
+    }
+
+    /*
+     * Tira o claim velho do caminho com um move atômico, para que só um dos workers que o
+     * acharam abandonado consiga retomá-lo. Se o arquivo movido já não era o do dono velho
+     * (outro worker retomou no meio), ele volta para o lugar.
+     */
+    private boolean takeOver(String jobId, Path claim, String staleOwner) throws IOException {
+        Path moved = baseDir.resolve(jobId + ".claim." + OWNER + "." + System.nanoTime());
+        try {
+            Files.move(claim, moved, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+        String owner = Files.readString(moved, StandardCharsets.UTF_8).trim();
+        if (!owner.equals(staleOwner)) {
+            // Outro worker retomou no meio: o claim é dele, volta para o lugar
+            try {
+                Files.move(moved, claim, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(moved);
+            }
+            return false;
+        }
+        Files.deleteIfExists(moved);
+        return true;
+    }
+
+    private static boolean ownerIsGone(String owner) {
+        int at = owner.indexOf('@');
+        if (HOST == null || at <= 0 || !owner.substring(at + 1).equals(HOST)) return false;
+        try {
+            long pid = Long.parseLong(owner.substring(0, at));
+            return ProcessHandle.of(pid).map(h -> !h.isAlive()).orElse(true);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // null se o nome do host não puder ser lido; aí só o TTL libera claims
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Só apaga o claim se ainda for deste processo (pode ter sido retomado por outro depois do TTL)
+    @Override
+    public void release(String jobId) {
+        Path p = baseDir.resolve(jobId + ".claim");
+        try {
+            String owner = Files.readString(p, StandardCharsets.UTF_8).trim();
+            if (owner.equals(OWNER) || !owner.contains("@")) Files.deleteIfExists(p);
+        } catch (NoSuchFileException e) {
+            // Já liberado
+        } catch (IOException e) {
+            System.out.println("Erro liberando claim de " + jobId + ": " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,41 @@
+package com.messageria.repository;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * Ids de job determinísticos: a mesma mensagem (ou uma duplicada) sempre gera o mesmo id,
+ * então isFinished() consegue pular o trabalho repetido.
+ */
+public class JobIds {
+
+    private JobIds() {
+    }
+
+    // <stage>-<videoId>-<hash(parametros | fingerprint do input)>
+    public static String of(String stage, String videoId, String params, String inputFingerprint) {
+        String key = params + "|" + (inputFingerprint != null ? inputFingerprint : "");
+        return stage + "-" + videoId + "-" + shortHash(key);
+    }
+
+    // Fingerprint barato do arquivo de input: caminho, tamanho e data de modificação
+    public static String inputFingerprint(File input) {
+        return shortHash(input.getAbsolutePath() + "|" + input.length() + "|" + input.lastModified());
+    }
+
+    public static String shortHash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.messageria.repository;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class JobRepositories {
+
+    private JobRepositories() {
+    }
+
+    /*
+     * -Djobs.repository=file (padrão) ou log
+     *
+     * file vale entre processos (claims em arquivos .claim), então serve para etapas em JVMs
+     * separadas e várias instâncias no mesmo host. log é mais rápido, mas é de um processo só:
+     * o arquivo é state/jobs-<dono>[-<jobs.instance>].<n>.log, e abrir um log que outro
+     * processo está usando falha na hora.
+     * -Djobs.instance= (distingue instâncias da mesma etapa no mesmo host, só para log)
+     * -Djobs.retentionDays=0 (0 = nunca expira), -Djobs.compactMinutes=60
+     */
+    public static JobRepository fromSystemProperties(Path baseDir, String owner) throws IOException {
+        String type = System.getProperty("jobs.repository", "file");
+        if (type.equalsIgnoreCase("file")) {
+            return new FileJobRepository(baseDir);
+        }
+        String instance = System.getProperty("jobs.instance", "");
+        String logName = "jobs-" + owner + (instance.isEmpty() ? "" : "-" + instance);
+        long retention = TimeUnit.DAYS.toMillis(Long.getLong("jobs.retentionDays", 0));
+        return new LogJobRepository(baseDir, logName, retention, Long.getLong("jobs.compactMinutes", 60));
+    }
+}
@@ -0,0 +1,15 @@
+package com.messageria.repository;
+
+import java.io.IOException;
+
+public interface JobRepository {
+
+    boolean isFinished(String jobId);
+
+    void markFinished(String jobId) throws IOException;
+
+    // Reserva o job para este worker; false se outro worker já está processando
+    boolean tryClaim(String jobId) throws IOException;
+
+    void release(String jobId);
+}
@@ -0,0 +1,155 @@
+package com.messageria.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Repositório de jobs com os ids finalizados em memória (leitura sem lock) e persistidos
+ * num AppendOnlyLog. Na inicialização o log é relido; se ele ainda não existir, os arquivos
+ * .done do FileJobRepository são importados.
+ *
+ * O log pertence a um único processo (o AppendOnlyLog recusa um segundo dono), e os claims
+ * ficam só em memória: não há claim entre processos. Cada processo (ou instância de etapa)
+ * precisa do seu próprio nome de log; para várias instâncias disputando os mesmos jobs no
+ * mesmo host, use o FileJobRepository.
+ */
+public class LogJobRepository implements JobRepository, Closeable {
+    private static final String LOG_NAME = "jobs";
+
+    private final Path baseDir;
+    private final AppendOnlyLog log;
+    private final Map<String, Long> finished = new ConcurrentHashMap<>();
+    // markFinished e compact: um registro escrito durante a compactação não pode ficar na geração velha
+    private final Object writeLock = new Object();
+    private final Map<String, Long> claims = new ConcurrentHashMap<>();
+    private final long retentionMillis;
+    private final ScheduledExecutorService compactor;
+
+    public LogJobRepository(Path baseDir, long retentionMillis, long compactIntervalMinutes) throws IOException {
+        this(baseDir, LOG_NAME, retentionMillis, compactIntervalMinutes);
+    }
+
+    public LogJobRepository(Path baseDir, String logName, long retentionMillis, long compactIntervalMinutes)
+            throws IOException {
+        this.baseDir = baseDir;
+        this.retentionMillis = retentionMillis;
+        this.log = new AppendOnlyLog(baseDir, logName);
+
+        log.replay(record -> {
+            long finishedAt = record.getLong();
+            finished.put(StandardCharsets.UTF_8.decode(record).toString(), finishedAt);
+        });
+        if (log.isNew()) {
+            importLegacyFiles();
+        }
+        System.out.println("LogJobRepository carregado: " + finished.size() + " jobs finalizados");
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "job-log-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (Exception e) {
+                System.out.println("Erro compactando log de jobs: " + e.getMessage());
+            }
+        }, compactIntervalMinutes, compactIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    private void importLegacyFiles() throws IOException {
+        int imported = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(baseDir, "*.done")) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                String jobId = name.substring(0, name.length() - ".done".length());
+                long finishedAt = Files.getLastModifiedTime(p).toMillis();
+                if (finished.putIfAbsent(jobId, finishedAt) == null) {
+                    log.append(encode(jobId, finishedAt));
+                    imported++;
+                }
+            }
+        }
+        if (imported > 0) {
+            log.force();
+            System.out.println("Importados " + imported + " arquivos .done para o log de jobs");
+        }
+    }
+
+    private static byte[] encode(String jobId, long finishedAt) {
+        byte[] id = jobId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + id.length).putLong(finishedAt).put(id).array();
+    }
+
+    @Override
+    public boolean isFinished(String jobId) {
+        return finished.containsKey(jobId);
+    }
+
+    @Override
+    public void markFinished(String jobId) throws IOException {
+        long now = System.currentTimeMillis();
+        synchronized (writeLock) {
+            if (finished.putIfAbsent(jobId, now) == null) {
+                log.append(encode(jobId, now));
+                log.force();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryClaim(String jobId) {
+        return claims.putIfAbsent(jobId, System.currentTimeMillis()) == null;
+    }
+
+    @Override
+    public void release(String jobId) {
+        claims.remove(jobId);
+    }
+
+    public int size() {
+        return finished.size();
+    }
+
+    /*
+     * Remove os jobs mais antigos que a retenção (se configurada) e reescreve o log só com
+     * os registros vivos. Os markFinished esperam a troca de geração terminar.
+     */
+    public void compact() throws IOException {
+        int written;
+        synchronized (writeLock) {
+            if (retentionMillis > 0) {
+                long cutoff = System.currentTimeMillis() - retentionMillis;
+                finished.values().removeIf(finishedAt -> finishedAt < cutoff);
+            }
+            if (log.records() <= finished.size()) return;
+
+            List<byte[]> live = new ArrayList<>(finished.size());
+            for (Map.Entry<String, Long> e : finished.entrySet()) {
+                live.add(encode(e.getKey(), e.getValue()));
+            }
+            log.rewrite(live);
+            written = live.size();
+        }
+        System.out.println("Log de jobs compactado: " + written + " registros");
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        log.close();
+    }
+}
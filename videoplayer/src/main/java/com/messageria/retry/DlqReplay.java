@@ -0,0 +1,147 @@
+package com.messageria.retry;
+
+import com.messageria.config.RabbitMQConfig;
+import com.messageria.publisher.ConfirmingPublisher;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.GetResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Reprocessa o conteúdo de uma DLQ depois de corrigido o problema: tira as mensagens com
+ * basicGet, republica pela video.retry direto na fila de trabalho de origem (com o
+ * x-retry-count zerado) e só dá ack na DLQ depois do publisher confirm. A vazão é
+ * limitada para não soterrar os consumidores com a DLQ inteira de uma vez.
+ *
+ * Uso: DlqReplay <dlq> [mensagens/s=20] [máximo=tudo]
+ * "tudo" é o tamanho da DLQ no início: o que cair nela durante o reenvio fica para a próxima.
+ *   ex.: DlqReplay dlq.transcode.queue 5 100
+ */
+public class DlqReplay {
+
+    private final Channel channel;
+    private final ConfirmingPublisher publisher;
+
+    public DlqReplay(Channel channel, ConfirmingPublisher publisher) {
+        this.channel = channel;
+        this.publisher = publisher;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Uso: DlqReplay <dlq> [mensagens/s=20] [máximo=tudo]");
+            return;
+        }
+        String dlq = args[0];
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 20;
+        long max = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+
+        RabbitMQConfig config = new RabbitMQConfig();
+        try (Connection conn = config.createConnection()) {
+            Channel channel = conn.createChannel();
+            ConfirmingPublisher publisher = new ConfirmingPublisher(conn.createChannel(), 256);
+            int replayed = new DlqReplay(channel, publisher).replay(dlq, rate, max);
+            System.out.println("Mensagens reenviadas de " + dlq + ": " + replayed);
+            publisher.close();
+        }
+    }
+
+    /*
+     * Reenvia até max mensagens (e nunca mais do que a DLQ tinha no início) a no máximo
+     * ratePerSecond e espera os confirms. Mensagens cuja fila de origem não dá para descobrir,
+     * ou cujo reenvio não foi confirmado, ficam na DLQ (nack com requeue no final).
+     */
+    public int replay(String dlq, double ratePerSecond, long max) throws IOException, InterruptedException {
+        long intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        long nextSlot = System.nanoTime();
+        long limit = Math.min(max, channel.messageCount(dlq));
+        AtomicInteger replayed = new AtomicInteger();
+        List<CompletableFuture<Void>> confirms = new ArrayList<>();
+        List<Long> skipped = new ArrayList<>();
+        // Preenchida na thread dos confirms
+        List<Long> failed = Collections.synchronizedList(new ArrayList<>());
+
+        for (long count = 0; count < limit; count++) {
+            GetResponse response = channel.basicGet(dlq, false);
+            if (response == null) break;
+            long deliveryTag = response.getEnvelope().getDeliveryTag();
+
+            String stage = originStage(response.getProps(), dlq);
+            if (stage == null) {
+                System.out.println("Fila de origem desconhecida, mantendo na DLQ: messageId="
+                        + response.getProps().getMessageId());
+                skipped.add(deliveryTag);
+                continue;
+            }
+
+            long wait = nextSlot - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            nextSlot = Math.max(nextSlot + intervalNanos, System.nanoTime());
+
+            confirms.add(publisher.publish(RetryPolicy.RETRY_EXCHANGE, stage, replayProps(response.getProps()),
+                    response.getBody()).whenComplete((ok, error) -> {
+                        if (error != null) {
+                            System.out.println("Reenvio não confirmado, mensagem fica na DLQ: " + error.getMessage());
+                            failed.add(deliveryTag);
+                            return;
+                        }
+                        try {
+                            channel.basicAck(deliveryTag, false);
+                            replayed.incrementAndGet();
+                        } catch (IOException ioe) {
+                            System.out.println("Erro ao enviar ack na DLQ: " + ioe.getMessage());
+                        }
+                    }));
+        }
+
+        try {
+            CompletableFuture.allOf(confirms.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            System.out.println("Nem todos os reenvios foram confirmados: " + e.getMessage());
+        }
+        // Devolvidas só no final, senão o basicGet pegaria as mesmas de novo
+        for (long tag : skipped) channel.basicNack(tag, false, true);
+        synchronized (failed) {
+            for (long tag : failed) channel.basicNack(tag, false, true);
+        }
+        return replayed.get();
+    }
+
+    private static AMQP.BasicProperties replayProps(AMQP.BasicProperties props) {
+        Map<String, Object> headers = new HashMap<>();
+        if (props.getHeaders() != null) headers.putAll(props.getHeaders());
+        headers.remove("x-death");
+        headers.remove(RetryPolicy.RETRY_COUNT_HEADER);
+        headers.put("x-replayed-at", System.currentTimeMillis());
+        return props.builder().headers(headers).build();
+    }
+
+    // Etapa de origem pelo x-death (fila que fez o dead-letter) ou pelo nome dlq.<etapa>.queue
+    static String originStage(AMQP.BasicProperties props, String dlq) {
+        if (props.getHeaders() != null && props.getHeaders().get("x-death") instanceof List<?> deaths) {
+            for (Object d : deaths) {
+                if (d instanceof Map<?, ?> death && death.get("queue") != null) {
+                    String queue = death.get("queue").toString();
+                    if (!queue.startsWith("retry.") && queue.endsWith(".queue")) {
+                        return queue.substring(0, queue.length() - ".queue".length());
+                    }
+                }
+            }
+        }
+        if (dlq.startsWith("dlq.") && dlq.endsWith(".queue")) {
+            return dlq.substring("dlq.".length(), dlq.length() - ".queue".length());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+package com.messageria.retry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.messageria.events.InvalidMessageException;
+import com.messageria.thumbnail.InvalidMediaException;
+import com.messageria.transcode.FfmpegException;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/*
+ * Separa os erros que podem passar sozinhos (disco, rede, broker, ffmpeg travado ou
+ * sem memória, arquivo que ainda não apareceu no volume compartilhado) dos que vão
+ * falhar igual em toda tentativa (mensagem ilegível, vídeo corrompido, bug). Os
+ * primeiros vão para as filas de retry; os outros direto para a DLQ.
+ */
+public final class ErrorClassifier {
+
+    private ErrorClassifier() {
+    }
+
+    public static boolean isRetryable(Throwable error) {
+        Throwable e = unwrap(error);
+        if (e instanceof InvalidMessageException || e instanceof JsonProcessingException) return false;
+        if (e instanceof InvalidMediaException) return false;
+        // Canal ou conexão caiu (AlreadyClosedException também é um ShutdownSignalException): passa com a reconexão
+        if (e instanceof ShutdownSignalException) return true;
+        // IllegalArgument, NullPointer, ClassCast...: bug ou configuração, só resolve com deploy + replay da DLQ
+        if (e instanceof RuntimeException && e.getClass() != RuntimeException.class
+                && !(e instanceof FfmpegException)) {
+            return false;
+        }
+        return true;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable e = error;
+        while ((e instanceof ExecutionException || e instanceof CompletionException
+                || e instanceof UncheckedIOException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+}
@@ -0,0 +1,133 @@
+package com.messageria.retry;
+
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.Metrics;
+import com.messageria.publisher.ConfirmingPublisher;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Destino de uma entrega que falhou: erro recuperável e tentativas sobrando -> cópia na
+ * fila de retry do nível certo, com x-retry-count + 1; a original só recebe ack depois do
+ * publisher confirm da cópia. Erro fatal ou tentativas esgotadas -> nack sem requeue (DLQ).
+ * defer() usa o mesmo caminho para uma entrega que só não pode rodar agora, sem contar tentativa.
+ */
+public class RetryHandler {
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final String stage;
+    private final RetryPolicy policy;
+    private final ConfirmingPublisher publisher;
+    private final Counter retried;
+    private final Counter deadLettered;
+    private final Counter deferred;
+
+    public RetryHandler(String stage, RetryPolicy policy, ConfirmingPublisher publisher) {
+        this.stage = stage;
+        this.policy = policy;
+        this.publisher = publisher;
+        this.retried = Metrics.counter(stage + ".retried");
+        this.deadLettered = Metrics.counter(stage + ".deadLettered");
+        this.deferred = Metrics.counter(stage + ".deferred");
+    }
+
+    public RetryPolicy getPolicy() {
+        return policy;
+    }
+
+    // Se fail() vai mandar esta entrega para uma fila de retry (e não para a DLQ)
+    public boolean willRetry(Delivery delivery, Throwable error) {
+        return ErrorClassifier.isRetryable(error)
+                && RetryPolicy.retryCount(delivery.getProperties()) < policy.getMaxRetries();
+    }
+
+    public void fail(Channel channel, Delivery delivery, Throwable error) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        int attempt = RetryPolicy.retryCount(delivery.getProperties());
+        String reason = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+
+        if (!ErrorClassifier.isRetryable(error)) {
+            deadLetter(channel, deliveryTag, "erro não recuperável (" + error.getClass().getSimpleName() + ")");
+            return;
+        }
+        if (attempt >= policy.getMaxRetries()) {
+            deadLetter(channel, deliveryTag, "tentativas esgotadas (" + attempt + ")");
+            return;
+        }
+
+        String retryQueue = policy.queueFor(stage, attempt);
+        AMQP.BasicProperties props = delivery.getProperties();
+        Map<String, Object> headers = new HashMap<>();
+        if (props.getHeaders() != null) headers.putAll(props.getHeaders());
+        headers.put(RetryPolicy.RETRY_COUNT_HEADER, attempt + 1);
+        headers.put(RetryPolicy.LAST_ERROR_HEADER,
+                reason.length() > MAX_ERROR_LENGTH ? reason.substring(0, MAX_ERROR_LENGTH) : reason);
+        // O x-death das voltas anteriores não serve para nada e só cresce
+        headers.remove("x-death");
+
+        republish(channel, delivery, retryQueue, headers, () -> {
+            System.out.println("Nova tentativa de " + stage + " em " + policy.delaySecondsFor(attempt) + "s ("
+                    + (attempt + 1) + "/" + policy.getMaxRetries() + "): " + reason);
+            retried.inc();
+        });
+    }
+
+    /*
+     * Entrega que não pode rodar agora (o job está com outro worker): volta pela fila de retry
+     * do primeiro nível sem mudar o x-retry-count. Se o outro worker terminar, a próxima
+     * entrega vê o job finalizado; se ele tiver morrido, o claim acaba sendo retomado aqui.
+     */
+    public void defer(Channel channel, Delivery delivery, String reason) {
+        AMQP.BasicProperties props = delivery.getProperties();
+        Map<String, Object> headers = new HashMap<>();
+        if (props.getHeaders() != null) headers.putAll(props.getHeaders());
+        headers.remove("x-death");
+        republish(channel, delivery, policy.queueFor(stage, 0), headers, () -> {
+            System.out.println("Entrega de " + stage + " adiada por " + policy.delaySecondsFor(0) + "s: " + reason);
+            deferred.inc();
+        });
+    }
+
+    // Ack da original só depois do confirm da cópia; sem confirm, vai para a DLQ
+    private void republish(Channel channel, Delivery delivery, String queue, Map<String, Object> headers,
+            Runnable onConfirmed) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        AMQP.BasicProperties props = delivery.getProperties();
+        try {
+            publisher.publish("", queue, props.builder().headers(headers).build(), delivery.getBody())
+                    .whenComplete((ok, publishError) -> {
+                        try {
+                            if (publishError == null) {
+                                onConfirmed.run();
+                                channel.basicAck(deliveryTag, false);
+                            } else {
+                                deadLetter(channel, deliveryTag,
+                                        "retry não confirmado pelo broker: " + publishError.getMessage());
+                            }
+                        } catch (IOException ioe) {
+                            System.out.println("Erro ao enviar ack: " + ioe.getMessage());
+                        }
+                    });
+        } catch (IOException e) {
+            deadLetter(channel, deliveryTag, "erro publicando retry: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            deadLetter(channel, deliveryTag, "interrompido publicando retry");
+        }
+    }
+
+    private void deadLetter(Channel channel, long deliveryTag, String why) {
+        System.out.println("Enviando mensagem de " + stage + " para a DLQ: " + why);
+        deadLettered.inc();
+        try {
+            channel.basicNack(deliveryTag, false, false);
+        } catch (IOException ioe) {
+            System.out.println("Erro ao enviar nack: " + ioe.getMessage());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.messageria.retry;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Retentativas com espera crescente sem consumidor dormindo e sem requeue em loop: a
+ * mensagem que falhou é republicada numa fila de espera (retry.<etapa>.<n>s) sem
+ * consumidores, com x-message-ttl. Quando o TTL vence o RabbitMQ faz o dead-letter dela
+ * para a exchange direct video.retry, que só está ligada à fila de trabalho da etapa
+ * (routing key = etapa). Voltar pela video.exchange entregaria a mensagem de novo para
+ * todas as filas ligadas em video.created.
+ *
+ * Cada tentativa usa a fila do nível seguinte (5s, 30s, 300s...); depois do último nível
+ * as tentativas continuam no maior intervalo até maxRetries.
+ */
+public class RetryPolicy {
+    public static final String RETRY_EXCHANGE = "video.retry";
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+    public static final String LAST_ERROR_HEADER = "x-last-error";
+
+    private final long[] delaysSeconds;
+    private final int maxRetries;
+
+    public RetryPolicy(long[] delaysSeconds, int maxRetries) {
+        if (delaysSeconds.length == 0) throw new IllegalArgumentException("retry.delaysSeconds vazio");
+        for (long d : delaysSeconds) {
+            if (d <= 0) throw new IllegalArgumentException("Intervalo de retry inválido: " + d);
+        }
+        this.delaysSeconds = delaysSeconds.clone();
+        this.maxRetries = maxRetries;
+    }
+
+    // -Dretry.delaysSeconds=5,30,300 -Dretry.maxRetries=5 (0 = tudo vai direto para a DLQ, como antes)
+    public static RetryPolicy fromSystemProperties() {
+        long[] delays = Arrays.stream(System.getProperty("retry.delaysSeconds", "5,30,300").split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .mapToLong(Long::parseLong)
+                .toArray();
+        return new RetryPolicy(delays, Integer.getInteger("retry.maxRetries", 5));
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    // Quantas vezes a mensagem já voltou por uma fila de retry (0 na primeira entrega)
+    public static int retryCount(AMQP.BasicProperties props) {
+        if (props == null || props.getHeaders() == null) return 0;
+        Object value = props.getHeaders().get(RETRY_COUNT_HEADER);
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    // Soma das esperas de todas as retentativas: o maior atraso com que uma mensagem volta à fila de trabalho
+    public long maxRedeliverySeconds() {
+        long total = 0;
+        for (int i = 0; i < maxRetries; i++) total += delaySecondsFor(i);
+        return total;
+    }
+
+    public long delaySecondsFor(int retryCount) {
+        return delaysSeconds[Math.min(retryCount, delaysSeconds.length - 1)];
+    }
+
+    public String queueFor(String stage, int retryCount) {
+        return queueName(stage, delaySecondsFor(retryCount));
+    }
+
+    private static String queueName(String stage, long delaySeconds) {
+        return "retry." + stage + "." + delaySeconds + "s";
+    }
+
+    /*
+     * Declara a video.retry, liga a fila de trabalho nela e cria uma fila de espera por
+     * nível. Mudar os intervalos cria filas novas; as antigas podem ser apagadas quando
+     * esvaziarem.
+     */
+    public void declare(Channel channel, String stage, String workQueue) throws IOException {
+        channel.exchangeDeclare(RETRY_EXCHANGE, "direct", true);
+        channel.queueBind(workQueue, RETRY_EXCHANGE, stage);
+        for (long delay : delaysSeconds) {
+            Map<String, Object> args = new HashMap<>();
+            args.put("x-message-ttl", delay * 1000);
+            args.put("x-dead-letter-exchange", RETRY_EXCHANGE);
+            args.put("x-dead-letter-routing-key", stage);
+            channel.queueDeclare(queueName(stage, delay), true, false, false, args);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "intervalos=" + Arrays.toString(delaysSeconds) + "s, maxRetries=" + maxRetries;
+    }
+}
@@ -0,0 +1,11 @@
+package com.messageria.state;
+
+public class NotificationState {
+    public boolean transcodeDone = false;
+    public boolean thumbnailDone = false;
+    public boolean notified = false;
+    public String outputs = null;
+    public String thumbnailPath = null;
+    public String lastSeenStatus = null;
+    public String notifiedAt = null;
+}
@@ -0,0 +1,487 @@
+package com.messageria.state;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import com.messageria.repository.AppendOnlyLog;
+import com.messageria.retry.RetryPolicy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/*
+ * Estado das notificações em memória, com lock por faixa de videoId e escrita atrasada
+ * (write-behind). As alterações ficam marcadas como sujas e uma thread grava todas de uma
+ * vez num journal binário (AppendOnlyLog), várias alterações do mesmo vídeo viram um registro.
+ * update() devolve um future que completa quando a alteração estiver em disco.
+ *
+ * Vídeos já notificados saem da memória depois de gravados (fica só o id e a hora da
+ * notificação, para reconhecer eventos reentregues). Esses ids são esquecidos depois da
+ * retenção, na memória e na compactação do journal; um evento do vídeo que chegue depois
+ * disso começa um estado novo. Entradas paradas
+ * há mais que o TTL, ou excedentes do limite (LRU), vão para o arquivo <videoId>.json, que é
+ * o mesmo formato usado antes do journal; esses arquivos são lidos de volta quando o vídeo
+ * aparece de novo.
+ */
+public class NotificationStateStore implements Closeable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int STRIPES = 64;
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 10_000;
+    // Na troca de dono de um shard, a instância que sai ainda pode estar fechando o journal
+    private static final long JOURNAL_LOCK_WAIT_MILLIS = 30_000;
+
+    private static final int FLAG_TRANSCODE = 1;
+    private static final int FLAG_THUMBNAIL = 2;
+    private static final int FLAG_NOTIFIED = 4;
+    private static final int FLAG_SPILLED = 8;
+    private static final int FLAG_REMOVED = 16;
+
+    private static final LatencyHistogram FLUSH_TIME = Metrics.histogram("notification.stateFlush");
+    private static final Counter FLUSHED_RECORDS = Metrics.counter("notification.stateRecords");
+    private static final Counter EXPIRED_NOTIFIED = Metrics.counter("notification.notifiedExpired");
+
+    private static class Entry {
+        final NotificationState state;
+        volatile long lastAccess;
+
+        Entry(NotificationState state) {
+            this.state = state;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    private final Path dir;
+    private final AppendOnlyLog journal;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long notifiedRetentionMillis;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    // videoId -> hora da notificação (epoch millis)
+    private final Map<String, Long> notified = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final AtomicReference<CompletableFuture<Void>> nextFlush = new AtomicReference<>(new CompletableFuture<>());
+    private final ScheduledExecutorService flusher;
+    private long lastMaintenance = System.currentTimeMillis();
+
+    public NotificationStateStore(Path dir, String name, int maxEntries, long ttlMillis, long flushIntervalMillis)
+            throws IOException {
+        this(dir, name, maxEntries, ttlMillis, flushIntervalMillis, 0);
+    }
+
+    // notifiedRetentionMillis = 0 guarda os ids notificados para sempre
+    public NotificationStateStore(Path dir, String name, int maxEntries, long ttlMillis, long flushIntervalMillis,
+            long notifiedRetentionMillis) throws IOException {
+        this.dir = dir;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.notifiedRetentionMillis = notifiedRetentionMillis;
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+        if (!Files.exists(dir)) Files.createDirectories(dir);
+
+        this.journal = new AppendOnlyLog(dir, name, JOURNAL_LOCK_WAIT_MILLIS);
+        journal.replay(this::recover);
+        System.out.println("Estado de notificações carregado: " + cache.size() + " pendentes, "
+                + notified.size() + " notificados");
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "notification-state-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * -Dnotification.cacheMaxEntries, -Dnotification.cacheTtlMinutes, -Dnotification.flushMillis e
+     * -Dnotification.notifiedRetentionHours (168; 0 = para sempre). A retenção precisa passar do
+     * tempo que uma mensagem pode levar para ser reentregue pelas filas de retry, senão a cópia
+     * atrasada de um evento notifica o vídeo de novo.
+     */
+    public static NotificationStateStore fromSystemProperties(Path dir, String name) throws IOException {
+        long retention = TimeUnit.HOURS.toMillis(Long.getLong("notification.notifiedRetentionHours", 7 * 24));
+        long redelivery = TimeUnit.SECONDS.toMillis(RetryPolicy.fromSystemProperties().maxRedeliverySeconds());
+        if (retention > 0 && retention <= redelivery) {
+            throw new IllegalArgumentException("notification.notifiedRetentionHours precisa ser maior que a janela"
+                    + " de reentrega das filas de retry (" + TimeUnit.MILLISECONDS.toMinutes(redelivery) + " min)");
+        }
+        return new NotificationStateStore(dir, name,
+                Integer.getInteger("notification.cacheMaxEntries", 100_000),
+                TimeUnit.MINUTES.toMillis(Long.getLong("notification.cacheTtlMinutes", 24 * 60)),
+                Long.getLong("notification.flushMillis", 50), retention);
+    }
+
+    private ReentrantLock lockFor(String videoId) {
+        int h = videoId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /*
+     * Executa a ação sobre o estado do vídeo segurando o lock dele. O future retornado
+     * completa depois que o estado resultante for gravado no journal.
+     */
+    public CompletableFuture<Void> update(String videoId, Consumer<NotificationState> action) {
+        ReentrantLock lock = lockFor(videoId);
+        lock.lock();
+        try {
+            Entry entry = cache.get(videoId);
+            if (entry == null) {
+                entry = new Entry(load(videoId));
+                cache.put(videoId, entry);
+            }
+            entry.lastAccess = System.currentTimeMillis();
+            action.accept(entry.state);
+            dirty.add(videoId);
+        } finally {
+            lock.unlock();
+        }
+        return nextFlush.get();
+    }
+
+    private NotificationState load(String videoId) {
+        Long notifiedAt = notified.get(videoId);
+        if (notifiedAt != null) {
+            return notifiedState(notifiedAt);
+        }
+        Path cold = coldPath(videoId);
+        try {
+            if (Files.exists(cold)) {
+                return MAPPER.readValue(Files.readAllBytes(cold), NotificationState.class);
+            }
+        } catch (Exception e) {
+            System.out.println("Erro carregando state de " + videoId + ": " + e.getMessage());
+        }
+        return new NotificationState();
+    }
+
+    private Path coldPath(String videoId) {
+        return dir.resolve(videoId + ".json");
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            System.out.println("Erro gravando estado de notificações: " + e.getMessage());
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (!dirty.isEmpty()) {
+            writeDirty();
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastMaintenance >= MAINTENANCE_INTERVAL_MILLIS) {
+            lastMaintenance = now;
+            spillExpired();
+            expireNotified(now);
+            compactIfNeeded();
+        }
+    }
+
+    private void writeDirty() throws IOException {
+        // Troca o future antes de ler o conjunto sujo: quem atualizar depois disso espera o próximo flush
+        CompletableFuture<Void> done = nextFlush.getAndSet(new CompletableFuture<>());
+        List<String> ids = new ArrayList<>(dirty);
+        long started = System.nanoTime();
+        List<String> flushedNotified = new ArrayList<>();
+        try {
+            for (String videoId : ids) {
+                dirty.remove(videoId);
+                byte[] record;
+                ReentrantLock lock = lockFor(videoId);
+                lock.lock();
+                try {
+                    Entry entry = cache.get(videoId);
+                    if (entry == null) continue;
+                    record = encode(videoId, entry.state, 0);
+                    if (entry.state.notified) flushedNotified.add(videoId);
+                } finally {
+                    lock.unlock();
+                }
+                journal.append(record);
+            }
+            if (!ids.isEmpty()) {
+                journal.force();
+                FLUSH_TIME.recordSince(started);
+                FLUSHED_RECORDS.add(ids.size());
+            }
+        } catch (IOException | RuntimeException e) {
+            dirty.addAll(ids);
+            // Quem esperava este flush vai esperar o próximo
+            nextFlush.get().whenComplete((ok, err) -> {
+                if (err == null) done.complete(null);
+                else done.completeExceptionally(err);
+            });
+            throw e;
+        }
+        done.complete(null);
+
+        evictNotified(flushedNotified);
+    }
+
+    private void evictNotified(List<String> ids) throws IOException {
+        for (String videoId : ids) {
+            ReentrantLock lock = lockFor(videoId);
+            lock.lock();
+            try {
+                Entry entry = cache.get(videoId);
+                if (entry != null && entry.state.notified && !dirty.contains(videoId)) {
+                    cache.remove(videoId);
+                    notified.put(videoId, notifiedMillis(entry.state));
+                    Files.deleteIfExists(coldPath(videoId));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void spillExpired() throws IOException {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> candidates = new ArrayList<>();
+        int excess = cache.size() - maxEntries;
+        for (Map.Entry<String, Entry> e : cache.entrySet()) {
+            if (excess > 0 || (ttlMillis > 0 && now - e.getValue().lastAccess > ttlMillis)) {
+                candidates.add(e);
+            }
+        }
+        if (candidates.isEmpty()) return;
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+        int spilled = 0;
+        for (Map.Entry<String, Entry> e : candidates) {
+            boolean expired = ttlMillis > 0 && now - e.getValue().lastAccess > ttlMillis;
+            if (!expired && spilled >= excess) continue;
+            String videoId = e.getKey();
+            ReentrantLock lock = lockFor(videoId);
+            lock.lock();
+            try {
+                Entry entry = cache.get(videoId);
+                if (entry == null || dirty.contains(videoId)) continue;
+                Files.write(coldPath(videoId), MAPPER.writeValueAsBytes(entry.state),
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                journal.append(encode(videoId, entry.state, FLAG_SPILLED));
+                cache.remove(videoId);
+                spilled++;
+            } finally {
+                lock.unlock();
+            }
+        }
+        journal.force();
+    }
+
+    // Esquece os ids notificados há mais tempo que a retenção; os registros deles somem na próxima compactação
+    private void expireNotified(long now) {
+        if (notifiedRetentionMillis <= 0) return;
+        int expired = 0;
+        for (Map.Entry<String, Long> e : notified.entrySet()) {
+            if (isExpired(e.getValue(), now) && notified.remove(e.getKey(), e.getValue())) expired++;
+        }
+        if (expired > 0) EXPIRED_NOTIFIED.add(expired);
+    }
+
+    private boolean isExpired(long notifiedAt, long now) {
+        return notifiedRetentionMillis > 0 && now - notifiedAt > notifiedRetentionMillis;
+    }
+
+    // Registros antigos (ou escritos sem a hora) contam a partir de agora
+    private static long notifiedMillis(NotificationState s) {
+        if (s.notifiedAt != null) {
+            try {
+                return Instant.parse(s.notifiedAt).toEpochMilli();
+            } catch (RuntimeException e) {
+                // cai no padrão
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    private static NotificationState notifiedState(long notifiedAt) {
+        NotificationState s = new NotificationState();
+        s.notified = true;
+        s.notifiedAt = Instant.ofEpochMilli(notifiedAt).toString();
+        return s;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        long live = cache.size() + notified.size();
+        if (journal.records() < 2 * live + 10_000) return;
+
+        List<byte[]> records = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> e : notified.entrySet()) {
+            if (isExpired(e.getValue(), now)) continue;
+            records.add(encode(e.getKey(), notifiedState(e.getValue()), 0));
+        }
+        for (Map.Entry<String, Entry> e : cache.entrySet()) {
+            ReentrantLock lock = lockFor(e.getKey());
+            lock.lock();
+            try {
+                records.add(encode(e.getKey(), e.getValue().state, 0));
+            } finally {
+                lock.unlock();
+            }
+        }
+        journal.rewrite(records);
+        System.out.println("Journal de notificações compactado: " + records.size() + " registros");
+    }
+
+    private static byte[] encode(String videoId, NotificationState s, int extraFlags) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(videoId);
+            int flags = extraFlags;
+            if (s.transcodeDone) flags |= FLAG_TRANSCODE;
+            if (s.thumbnailDone) flags |= FLAG_THUMBNAIL;
+            if (s.notified) flags |= FLAG_NOTIFIED;
+            out.writeByte(flags);
+            writeNullable(out, s.outputs);
+            writeNullable(out, s.thumbnailPath);
+            writeNullable(out, s.lastSeenStatus);
+            writeNullable(out, s.notifiedAt);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void recover(ByteBuffer record) {
+        byte[] b = new byte[record.remaining()];
+        record.get(b);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(b))) {
+            String videoId = in.readUTF();
+            int flags = in.readByte();
+            NotificationState s = new NotificationState();
+            s.transcodeDone = (flags & FLAG_TRANSCODE) != 0;
+            s.thumbnailDone = (flags & FLAG_THUMBNAIL) != 0;
+            s.notified = (flags & FLAG_NOTIFIED) != 0;
+            s.outputs = readNullable(in);
+            s.thumbnailPath = readNullable(in);
+            s.lastSeenStatus = readNullable(in);
+            s.notifiedAt = readNullable(in);
+
+            if ((flags & (FLAG_SPILLED | FLAG_REMOVED)) != 0) {
+                cache.remove(videoId);
+            } else if (s.notified) {
+                cache.remove(videoId);
+                long notifiedAt = notifiedMillis(s);
+                if (isExpired(notifiedAt, System.currentTimeMillis())) {
+                    notified.remove(videoId);
+                } else {
+                    notified.put(videoId, notifiedAt);
+                }
+            } else {
+                cache.put(videoId, new Entry(s));
+            }
+        } catch (IOException e) {
+            System.out.println("Registro inválido no journal de notificações: " + e.getMessage());
+        }
+    }
+
+    public int pendingCount() {
+        return cache.size();
+    }
+
+    /*
+     * Cópia dos estados ainda não notificados, em memória e os que foram para <videoId>.json.
+     * Usado para passar os vídeos de um shard para outro no rebalanceamento.
+     */
+    public Map<String, NotificationState> pendingStates() throws IOException {
+        Map<String, NotificationState> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> e : cache.entrySet()) {
+            ReentrantLock lock = lockFor(e.getKey());
+            lock.lock();
+            try {
+                if (!e.getValue().state.notified) pending.put(e.getKey(), copy(e.getValue().state));
+            } finally {
+                lock.unlock();
+            }
+        }
+        try (DirectoryStream<Path> cold = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path p : cold) {
+                String name = p.getFileName().toString();
+                String videoId = name.substring(0, name.length() - ".json".length());
+                if (pending.containsKey(videoId) || cache.containsKey(videoId) || notified.containsKey(videoId)) continue;
+                NotificationState s = load(videoId);
+                if (!s.notified) pending.put(videoId, s);
+            }
+        }
+        return pending;
+    }
+
+    // Esquece o vídeo (memória, arquivo frio e journal), depois que o estado dele foi entregue a outro shard
+    public synchronized void remove(String videoId) throws IOException {
+        ReentrantLock lock = lockFor(videoId);
+        lock.lock();
+        try {
+            cache.remove(videoId);
+            dirty.remove(videoId);
+            Files.deleteIfExists(coldPath(videoId));
+            journal.append(encode(videoId, new NotificationState(), FLAG_REMOVED));
+        } finally {
+            lock.unlock();
+        }
+        journal.force();
+    }
+
+    private static NotificationState copy(NotificationState s) {
+        NotificationState c = new NotificationState();
+        c.transcodeDone = s.transcodeDone;
+        c.thumbnailDone = s.thumbnailDone;
+        c.notified = s.notified;
+        c.outputs = s.outputs;
+        c.thumbnailPath = s.thumbnailPath;
+        c.lastSeenStatus = s.lastSeenStatus;
+        c.notifiedAt = s.notifiedAt;
+        return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        journal.close();
+    }
+}
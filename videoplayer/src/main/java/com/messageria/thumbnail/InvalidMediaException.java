@@ -0,0 +1,16 @@
+package com.messageria.thumbnail;
+
+import java.io.IOException;
+
+// Arquivo de vídeo que o jcodec não consegue ler (corrompido ou formato não suportado)
+public class InvalidMediaException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidMediaException(String message) {
+        super(message);
+    }
+
+    public InvalidMediaException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
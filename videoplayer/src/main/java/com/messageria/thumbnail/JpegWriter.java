@@ -0,0 +1,117 @@
+package com.messageria.thumbnail;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * Grava JPEG com qualidade configurável reaproveitando os ImageWriter: o ImageIO.write
+ * procura o writer no registro de plugins e cria um novo (com as tabelas do codec) a cada
+ * chamada. ImageWriter não é thread-safe, então cada gravação pega um da fila e devolve no
+ * final. O arquivo é escrito num .part e renomeado, então nunca fica um JPEG pela metade
+ * com o nome final (que poderia ir parar no cache).
+ *
+ * Imagens TYPE_INT_RGB e TYPE_3BYTE_BGR são copiadas antes para um buffer RGB do pool (ver
+ * PixelBufferPool.rgbImage); passadas direto, o próprio writer alocaria uma cópia do tamanho
+ * da imagem (11MB num 1280x720 em INT_RGB) a cada gravação.
+ */
+public class JpegWriter {
+    private final float quality;
+    private final PixelBufferPool pool;
+    private final ConcurrentLinkedQueue<ImageWriter> idle = new ConcurrentLinkedQueue<>();
+
+    // quality de 0 a 1 (o padrão do ImageIO é 0.75)
+    public JpegWriter(float quality, PixelBufferPool pool) {
+        if (quality <= 0 || quality > 1) {
+            throw new IllegalArgumentException("Qualidade JPEG deve estar entre 0 e 1: " + quality);
+        }
+        this.quality = quality;
+        this.pool = pool;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    public void write(BufferedImage image, File file) throws IOException {
+        BufferedImage packed = packed(image);
+        try {
+            encode(packed != null ? packed : image, file);
+        } finally {
+            if (packed != null) pool.release(packed);
+        }
+    }
+
+    private void encode(BufferedImage image, File file) throws IOException {
+        ImageWriter writer = idle.poll();
+        if (writer == null) writer = newWriter();
+        File part = new File(file.getPath() + ".part");
+        Files.deleteIfExists(part.toPath());
+        boolean reusable = false;
+        try (FileImageOutputStream out = new FileImageOutputStream(part)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+            writer.setOutput(null);
+            reusable = true;
+        } finally {
+            if (reusable) {
+                idle.add(writer);
+            } else {
+                // Estado do writer desconhecido depois de um erro no meio da gravação
+                writer.dispose();
+                Files.deleteIfExists(part.toPath());
+            }
+        }
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Cópia em RGB para os tipos que o writer copiaria de novo; null se for gravar a imagem como está
+    private BufferedImage packed(BufferedImage image) {
+        int type = image.getType();
+        // Subimagens compartilham o buffer da imagem mãe, os índices abaixo não valem para elas
+        if ((type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_3BYTE_BGR)
+                || image.getRaster().getParent() != null) {
+            return null;
+        }
+        int pixels = image.getWidth() * image.getHeight();
+        BufferedImage rgb = pool.rgbImage(image.getWidth(), image.getHeight());
+        byte[] dst = ((DataBufferByte) rgb.getRaster().getDataBuffer()).getData();
+        if (type == BufferedImage.TYPE_INT_RGB) {
+            int[] src = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0, o = 0; i < pixels; i++) {
+                int p = src[i];
+                dst[o++] = (byte) (p >> 16);
+                dst[o++] = (byte) (p >> 8);
+                dst[o++] = (byte) p;
+            }
+        } else {
+            byte[] src = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < pixels * 3; i += 3) {
+                dst[i] = src[i + 2];
+                dst[i + 1] = src[i + 1];
+                dst[i + 2] = src[i];
+            }
+        }
+        return rgb;
+    }
+
+    private static ImageWriter newWriter() throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) throw new IOException("Nenhum ImageWriter de JPEG disponível");
+        return writers.next();
+    }
+}
@@ -0,0 +1,98 @@
+package com.messageria.thumbnail;
+
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.Metrics;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Buffers de pixels reaproveitados entre jobs: o frame convertido para RGB, a imagem no
+ * tamanho original e as intermediárias da redução. Sem o pool cada thumbnail alocava
+ * alguns MB por tamanho (um frame 1080p em BGR são 6MB) e tudo virava lixo logo em seguida.
+ *
+ * Os buffers são separados por dimensão e tipo; cada dimensão guarda até maxIdle livres e
+ * só as maxKeys dimensões usadas mais recentemente ficam no pool, então vídeos com muitas
+ * resoluções diferentes não acumulam memória. Quem pega um buffer devolve com release()
+ * quando terminar de usar (o conteúdo não é limpo).
+ */
+public class PixelBufferPool {
+    private static final Counter ALLOCATIONS = Metrics.counter("thumbnail.bufferPool.allocations");
+    private static final Counter REUSES = Metrics.counter("thumbnail.bufferPool.reuses");
+    private static final ColorModel RGB_BYTES = new ComponentColorModel(
+            java.awt.color.ColorSpace.getInstance(java.awt.color.ColorSpace.CS_sRGB), false, false,
+            Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+    private final int maxIdle;
+    private final Map<String, ArrayDeque<Object>> idle;
+
+    public PixelBufferPool(int maxIdle, int maxKeys) {
+        this.maxIdle = maxIdle;
+        this.idle = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArrayDeque<Object>> eldest) {
+                return size() > maxKeys;
+            }
+        };
+    }
+
+    public BufferedImage image(int width, int height, int type) {
+        Object pooled = take(key(width, height, "img" + type));
+        if (pooled != null) return (BufferedImage) pooled;
+        ALLOCATIONS.inc();
+        return new BufferedImage(width, height, type);
+    }
+
+    /*
+     * 3 bytes por pixel na ordem R, G, B. É o layout que o JPEGImageWriter grava direto; com
+     * TYPE_INT_RGB ou TYPE_3BYTE_BGR ele copia a imagem inteira para um buffer próprio antes.
+     */
+    public BufferedImage rgbImage(int width, int height) {
+        Object pooled = take(key(width, height, "rgb"));
+        if (pooled != null) return (BufferedImage) pooled;
+        ALLOCATIONS.inc();
+        return new BufferedImage(RGB_BYTES, Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height,
+                width * 3, 3, new int[] { 0, 1, 2 }, null), false, null);
+    }
+
+    public Picture picture(int width, int height, ColorSpace color) {
+        Object pooled = take(key(width, height, color.toString()));
+        if (pooled != null) return (Picture) pooled;
+        ALLOCATIONS.inc();
+        return Picture.create(width, height, color);
+    }
+
+    public void release(BufferedImage image) {
+        String kind = image.getType() == BufferedImage.TYPE_CUSTOM ? "rgb" : "img" + image.getType();
+        put(key(image.getWidth(), image.getHeight(), kind), image);
+    }
+
+    public void release(Picture picture) {
+        put(key(picture.getWidth(), picture.getHeight(), picture.getColor().toString()), picture);
+    }
+
+    private synchronized Object take(String key) {
+        ArrayDeque<Object> free = idle.get(key);
+        Object pooled = free != null ? free.poll() : null;
+        if (pooled != null) REUSES.inc();
+        return pooled;
+    }
+
+    private synchronized void put(String key, Object buffer) {
+        ArrayDeque<Object> free = idle.computeIfAbsent(key, k -> new ArrayDeque<>(maxIdle));
+        if (free.size() < maxIdle) free.push(buffer);
+    }
+
+    private static String key(int width, int height, String kind) {
+        return kind + ":" + width + "x" + height;
+    }
+}
@@ -0,0 +1,163 @@
+package com.messageria.thumbnail;
+
+import com.messageria.events.MediaInfo;
+import org.jcodec.api.FrameGrab;
+import org.jcodec.api.JCodecException;
+import org.jcodec.common.DemuxerTrackMeta;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.Picture;
+import org.jcodec.common.model.Size;
+import org.jcodec.scale.AWTUtil;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Abre o container uma vez só e reutiliza o mesmo FrameGrab para todos os frames do arquivo.
+ * Por padrão vai direto para o keyframe mais próximo do alvo e decodifica só ele; no modo
+ * preciso decodifica a partir do keyframe anterior até o frame alvo (apenas aquele GOP).
+ */
+public class ThumbnailEngine implements Closeable {
+    private final File file;
+    private final SeekableByteChannel channel;
+    private final FrameGrab grab;
+    private final DemuxerTrackMeta meta;
+    private final int[] keyframes;
+
+    private ThumbnailEngine(File file, SeekableByteChannel channel, FrameGrab grab) {
+        this.file = file;
+        this.channel = channel;
+        this.grab = grab;
+        this.meta = grab.getVideoTrack().getMeta();
+        int[] seekFrames = meta.getSeekFrames();
+        if (seekFrames != null && seekFrames.length > 0) {
+            this.keyframes = seekFrames.clone();
+            Arrays.sort(this.keyframes);
+        } else {
+            this.keyframes = null;
+        }
+    }
+
+    public static ThumbnailEngine open(File file) throws IOException {
+        SeekableByteChannel channel = NIOUtils.readableChannel(file);
+        try {
+            return new ThumbnailEngine(file, channel, FrameGrab.createFrameGrab(channel));
+        } catch (JCodecException | RuntimeException e) {
+            channel.close();
+            throw new InvalidMediaException(
+                    "Não foi possível abrir o vídeo " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    public int getTotalFrames() {
+        return meta.getTotalFrames();
+    }
+
+    public double getDurationSeconds() {
+        return meta.getTotalDuration();
+    }
+
+    // O que o cabeçalho do container diz sobre a trilha de vídeo, sem decodificar nada
+    public MediaInfo mediaInfo() {
+        Size size = meta.getVideoCodecMeta() != null ? meta.getVideoCodecMeta().getSize() : null;
+        double duration = meta.getTotalDuration();
+        return new MediaInfo(duration > 0 ? (long) (duration * 1_000_000) : 0, Math.max(0, meta.getTotalFrames()),
+                size != null ? size.getWidth() : 0, size != null ? size.getHeight() : 0,
+                meta.getCodec() != null ? meta.getCodec().name() : null, keyframes);
+    }
+
+    public int nearestKeyframe(int frame) {
+        return MediaInfo.nearestKeyframe(keyframes, frame);
+    }
+
+    public BufferedImage grab(int targetFrame, boolean precise) throws IOException {
+        return AWTUtil.toBufferedImage(grabFrame(targetFrame, precise));
+    }
+
+    // Frame como o decoder entrega (normalmente YUV), para quem converte com buffers próprios
+    public Picture grabFrame(int targetFrame, boolean precise) throws IOException {
+        Picture picture;
+        try {
+            if (precise) {
+                grab.seekToFramePrecise(targetFrame);
+            } else {
+                grab.seekToFrameSloppy(nearestKeyframe(targetFrame));
+            }
+            picture = grab.getNativeFrame();
+        } catch (JCodecException e) {
+            throw new IOException("Falha ao posicionar no frame " + targetFrame + " de " + file.getName(), e);
+        }
+        if (picture == null) {
+            throw new IOException("Falha ao extrair frame " + targetFrame + " de " + file.getName());
+        }
+        return picture;
+    }
+
+    public BufferedImage grabMiddle() throws IOException {
+        return AWTUtil.toBufferedImage(grabMiddleFrame());
+    }
+
+    public Picture grabMiddleFrame() throws IOException {
+        int totalFrames = getTotalFrames();
+        if (totalFrames <= 0) {
+            throw new InvalidMediaException("Vídeo sem frames ou corrompido: " + file.getName());
+        }
+        return grabFrame(totalFrames / 2, false);
+    }
+
+    // N frames igualmente espaçados, extraídos em ordem numa única passada pelo arquivo
+    public List<BufferedImage> grabEvenlySpaced(int count) throws IOException {
+        int totalFrames = getTotalFrames();
+        if (totalFrames <= 0) {
+            throw new InvalidMediaException("Vídeo sem frames ou corrompido: " + file.getName());
+        }
+        List<BufferedImage> frames = new ArrayList<>(count);
+        int lastKeyframe = -1;
+        BufferedImage last = null;
+        for (int i = 0; i < count; i++) {
+            int target = (int) ((i + 0.5) * totalFrames / count);
+            int key = nearestKeyframe(target);
+            // Dois alvos no mesmo GOP caem no mesmo keyframe, não precisa decodificar de novo
+            if (key != lastKeyframe || last == null) {
+                last = grab(target, false);
+                lastKeyframe = key;
+            }
+            frames.add(last);
+        }
+        return frames;
+    }
+
+    public BufferedImage spriteSheet(int count, int columns, int tileWidth) throws IOException {
+        List<BufferedImage> frames = grabEvenlySpaced(count);
+        BufferedImage first = frames.get(0);
+        int tileHeight = Math.max(1, first.getHeight() * tileWidth / first.getWidth());
+        int rows = (count + columns - 1) / columns;
+
+        BufferedImage sheet = new BufferedImage(columns * tileWidth, rows * tileHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = sheet.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            for (int i = 0; i < frames.size(); i++) {
+                int x = (i % columns) * tileWidth;
+                int y = (i / columns) * tileHeight;
+                g.drawImage(frames.get(i), x, y, tileWidth, tileHeight, null);
+            }
+        } finally {
+            g.dispose();
+        }
+        return sheet;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,184 @@
+package com.messageria.thumbnail;
+
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.scale.ColorUtil;
+import org.jcodec.scale.Transform;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Gera todos os tamanhos de thumbnail a partir de um único frame decodificado. Os tamanhos
+ * são larguras (a altura segue a proporção do vídeo), do maior para o menor, e cada um é
+ * reduzido a partir do anterior: 1920 -> 1280 -> 640 -> 320. Nenhum passo reduz mais que 2x
+ * (reduções maiores são feitas em metades), porque a bilinear de uma vez só pula pixels e
+ * serrilha o resultado. Largura 0 é o tamanho original; larguras maiores que o vídeo não
+ * aumentam a imagem, só repetem o tamanho original.
+ *
+ * Todos os buffers (frame em RGB, imagem original, reduções) vêm do PixelBufferPool e os
+ * JPEGs saem pelo JpegWriter, então um thumbnail não aloca imagens novas depois que o pool
+ * aqueceu para a resolução do vídeo.
+ */
+public class ThumbnailRenderer {
+    public static final int ORIGINAL = 0;
+
+    private static final LatencyHistogram RESIZE = Metrics.histogram("thumbnail.resize");
+    private static final LatencyHistogram ENCODE = Metrics.histogram("thumbnail.encode");
+
+    private final int[] widths;
+    private final PixelBufferPool pool;
+    private final JpegWriter writer;
+
+    public ThumbnailRenderer(int[] widths, PixelBufferPool pool, JpegWriter writer) {
+        if (widths.length == 0) throw new IllegalArgumentException("Nenhum tamanho de thumbnail configurado");
+        // Original (0) primeiro, depois do maior para o menor
+        this.widths = Arrays.stream(widths).boxed().distinct()
+                .sorted(Comparator.comparingInt((Integer w) -> w == ORIGINAL ? Integer.MAX_VALUE : w).reversed())
+                .mapToInt(Integer::intValue).toArray();
+        this.pool = pool;
+        this.writer = writer;
+    }
+
+    /*
+     * -Dthumbnail.sizes=1280,640,320 (larguras separadas por vírgula, 0 = original) e
+     * -Dthumbnail.jpegQuality=0.85.
+     */
+    public static ThumbnailRenderer fromSystemProperties() {
+        String[] parts = System.getProperty("thumbnail.sizes", "1280,640,320").split(",");
+        int[] widths = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            widths[i] = Integer.parseInt(parts[i].trim());
+            if (widths[i] < 0) throw new IllegalArgumentException("Largura de thumbnail inválida: " + parts[i]);
+        }
+        float quality = Float.parseFloat(System.getProperty("thumbnail.jpegQuality", "0.85"));
+        PixelBufferPool pool = new PixelBufferPool(2, 16);
+        return new ThumbnailRenderer(widths, pool, new JpegWriter(quality, pool));
+    }
+
+    // Entra no jobId e na chave do cache: outros tamanhos ou outra qualidade geram outros arquivos
+    public String params() {
+        StringBuilder sb = new StringBuilder("sizes=");
+        for (int i = 0; i < widths.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(widths[i]);
+        }
+        return sb.append(";quality=").append(writer.getQuality()).toString();
+    }
+
+    // Um arquivo por tamanho, na ordem dos tamanhos; o primeiro é o maior
+    public List<File> outputsFor(File outDir, String baseName) {
+        List<File> files = new ArrayList<>(widths.length);
+        for (int width : widths) {
+            files.add(new File(outDir, width == ORIGINAL ? baseName + ".jpg" : baseName + "_" + width + ".jpg"));
+        }
+        return files;
+    }
+
+    // Grava o frame em todos os tamanhos, nos arquivos de outputsFor
+    public void render(Picture frame, List<File> outputs) throws IOException {
+        Picture rgb = null;
+        BufferedImage original = null;
+        List<BufferedImage> scaled = new ArrayList<>(widths.length * 2);
+        try {
+            long resize = System.nanoTime();
+            Picture source = frame;
+            if (frame.getColor() != ColorSpace.RGB) {
+                Transform transform = ColorUtil.getTransform(frame.getColor(), ColorSpace.RGB);
+                if (transform == null) {
+                    throw new InvalidMediaException("Espaço de cor não suportado: " + frame.getColor());
+                }
+                rgb = pool.picture(frame.getWidth(), frame.getHeight(), ColorSpace.RGB);
+                transform.transform(frame, rgb);
+                source = rgb;
+            }
+            original = pool.image(frame.getCroppedWidth(), frame.getCroppedHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            copyCropped(source, frame.getStartX(), frame.getStartY(), original);
+            RESIZE.recordSince(resize);
+
+            BufferedImage current = original;
+            for (int i = 0; i < widths.length; i++) {
+                int width = widths[i] == ORIGINAL ? original.getWidth() : Math.min(widths[i], original.getWidth());
+                if (width != current.getWidth()) {
+                    resize = System.nanoTime();
+                    // Altura calculada sobre o original para o arredondamento não acumular na cadeia
+                    int height = Math.max(1, Math.round((float) original.getHeight() * width / original.getWidth()));
+                    current = downscale(current, width, height, scaled);
+                    RESIZE.recordSince(resize);
+                }
+                long encode = System.nanoTime();
+                writer.write(current, outputs.get(i));
+                ENCODE.recordSince(encode);
+            }
+        } finally {
+            for (BufferedImage image : scaled) pool.release(image);
+            if (original != null) pool.release(original);
+            if (rgb != null) pool.release(rgb);
+        }
+    }
+
+    // Para imagens geradas fora da cadeia de tamanhos (sprite sheet)
+    public void write(BufferedImage image, File file) throws IOException {
+        long encode = System.nanoTime();
+        writer.write(image, file);
+        ENCODE.recordSince(encode);
+    }
+
+    private BufferedImage downscale(BufferedImage source, int width, int height, List<BufferedImage> borrowed) {
+        BufferedImage current = source;
+        while (current.getWidth() > width * 2) {
+            current = draw(current, current.getWidth() / 2, Math.max(height, current.getHeight() / 2), borrowed);
+        }
+        return draw(current, width, height, borrowed);
+    }
+
+    private BufferedImage draw(BufferedImage source, int width, int height, List<BufferedImage> borrowed) {
+        BufferedImage target = pool.image(width, height, BufferedImage.TYPE_INT_RGB);
+        borrowed.add(target);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /*
+     * Picture RGB do jcodec (amostras deslocadas de -128) para TYPE_3BYTE_BGR, copiando só a
+     * área de crop: o H.264 codifica em blocos de 16 linhas, então um 1080p vem com 1088.
+     */
+    private static void copyCropped(Picture rgb, int startX, int startY, BufferedImage target) {
+        byte[] src = rgb.getPlaneData(0);
+        byte[] dst = ((DataBufferByte) target.getRaster().getDataBuffer()).getData();
+        int stride = rgb.getWidth() * 3;
+        int width = target.getWidth();
+        int height = target.getHeight();
+        int o = 0;
+        for (int y = 0; y < height; y++) {
+            int s = (startY + y) * stride + startX * 3;
+            for (int x = 0; x < width; x++, s += 3) {
+                dst[o++] = (byte) (src[s + 2] + 128);
+                dst[o++] = (byte) (src[s + 1] + 128);
+                dst[o++] = (byte) (src[s] + 128);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "thumbnails " + params();
+    }
+}
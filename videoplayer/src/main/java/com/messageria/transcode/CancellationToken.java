@@ -0,0 +1,42 @@
+package com.messageria.transcode;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Sinal de cancelamento de um job. Os processos do ffmpeg registram um callback que os
+ * mata; cancel() roda os callbacks registrados, e quem registrar depois de cancelado
+ * roda na hora.
+ */
+public class CancellationToken {
+
+    private final List<Runnable> callbacks = new CopyOnWriteArrayList<>();
+    private volatile String reason;
+
+    public void cancel(String reason) {
+        synchronized (this) {
+            if (this.reason != null) return;
+            this.reason = reason == null ? "cancelado" : reason;
+        }
+        for (Runnable r : callbacks) {
+            r.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void onCancel(Runnable callback) {
+        callbacks.add(callback);
+        if (isCancelled()) callback.run();
+    }
+
+    public void remove(Runnable callback) {
+        callbacks.remove(callback);
+    }
+}
@@ -0,0 +1,17 @@
+package com.messageria.transcode;
+
+// Falha na execução do ffmpeg (código de saída diferente de 0 ou travado); vale tentar de novo
+public class FfmpegException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean timedOut;
+
+    public FfmpegException(String message, boolean timedOut) {
+        super(message);
+        this.timedOut = timedOut;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
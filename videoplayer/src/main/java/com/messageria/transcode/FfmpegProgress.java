@@ -0,0 +1,82 @@
+package com.messageria.transcode;
+
+/*
+ * Último bloco de progresso lido do "-progress pipe:1" do ffmpeg. O mesmo objeto é
+ * reaproveitado a cada bloco (o parser não aloca por linha); quem precisa guardar os
+ * valores deve copiá-los no callback.
+ */
+public class FfmpegProgress {
+
+    public interface Listener {
+        // Chamado pela thread que lê a saída do ffmpeg, ao fim de cada bloco (linha progress=)
+        void onProgress(FfmpegProgress progress);
+    }
+
+    volatile long frame;
+    volatile double fps;
+    // -1 quando o ffmpeg ainda não sabe (speed=N/A)
+    volatile double speed = -1;
+    volatile long outTimeMicros;
+    volatile long totalSize;
+    volatile boolean end;
+    // System.nanoTime() da última vez que frame ou out_time avançaram; 0 antes do primeiro avanço
+    volatile long lastAdvanceNanos;
+
+    private final String label;
+    private final long durationMicros;
+
+    public FfmpegProgress(String label, long durationMicros) {
+        this.label = label;
+        this.durationMicros = durationMicros;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public long getOutTimeMicros() {
+        return outTimeMicros;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public boolean isEnd() {
+        return end;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    public long getLastAdvanceNanos() {
+        return lastAdvanceNanos;
+    }
+
+    // Fração concluída (0..1) pelo out_time, ou -1 se a duração do input não é conhecida
+    public double getFraction() {
+        if (durationMicros <= 0) return -1;
+        return Math.min(1.0, (double) outTimeMicros / durationMicros);
+    }
+
+    @Override
+    public String toString() {
+        double fraction = getFraction();
+        return label + ": frame=" + frame + " fps=" + fps + " speed=" + (speed < 0 ? "N/A" : speed + "x")
+                + " out_time=" + outTimeMicros / 1_000_000.0 + "s"
+                + (fraction >= 0 ? " (" + Math.round(fraction * 100) + "%)" : "");
+    }
+}
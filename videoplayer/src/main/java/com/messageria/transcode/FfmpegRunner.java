@@ -0,0 +1,185 @@
+package com.messageria.transcode;
+
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import com.messageria.worker.VirtualThreads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Roda o ffmpeg com "-progress pipe:1" e supervisiona o processo pelo progresso: o stdout é
+ * lido por um ProgressParser e o stderr guarda só o final (para a mensagem de erro). O
+ * processo é morto se não começar a progredir, se ficar parado mais que o stall da
+ * StallPolicy, se passar do prazo calculado pela duração, ou se o job for cancelado.
+ */
+public class FfmpegRunner {
+
+    public static final String FFMPEG_PATH = System.getProperty("ffmpeg.path", "C:\\ffmpeg\\bin\\ffmpeg.exe");
+
+    // Limite global de processos ffmpeg simultâneos na JVM (-Dtranscode.maxProcesses)
+    private static final Semaphore SLOTS = new Semaphore(
+            Integer.getInteger("transcode.maxProcesses", Math.max(1, Runtime.getRuntime().availableProcessors() / 4)));
+
+    private static final long POLL_MILLIS = 500;
+    private static final int STDERR_TAIL_BYTES = 4096;
+
+    private static final LatencyHistogram SLOT_WAIT = Metrics.histogram("ffmpeg.slotWait");
+    private static final LatencyHistogram RUN_TIME = Metrics.histogram("ffmpeg.run");
+    private static final Counter FAILURES = Metrics.counter("ffmpeg.failures");
+    private static final Counter STALLS = Metrics.counter("ffmpeg.stalls");
+    private static final Counter CANCELLED = Metrics.counter("ffmpeg.cancelled");
+
+    private FfmpegRunner() {
+    }
+
+    public static int availableSlots() {
+        return SLOTS.availablePermits();
+    }
+
+    // Threads paradas esperando um slot: mais concorrência nesta JVM só aumentaria essa fila
+    public static int waitingForSlot() {
+        return SLOTS.getQueueLength();
+    }
+
+    public static void run(List<String> cmd, FfmpegProgress progress, StallPolicy policy, CancellationToken cancel,
+            FfmpegProgress.Listener listener) throws Exception {
+        long waiting = System.nanoTime();
+        SLOTS.acquire();
+        SLOT_WAIT.recordSince(waiting);
+        long started = System.nanoTime();
+        try {
+            runInSlot(cmd, progress, policy, cancel, listener);
+        } catch (CancellationException e) {
+            CANCELLED.inc();
+            throw e;
+        } catch (Exception e) {
+            FAILURES.inc();
+            throw e;
+        } finally {
+            RUN_TIME.recordSince(started);
+            SLOTS.release();
+        }
+    }
+
+    // Opções globais logo depois do executável: progresso em key=value no stdout, sem a linha de stats no stderr
+    static List<String> withProgress(List<String> cmd) {
+        List<String> full = new ArrayList<>(cmd.size() + 3);
+        full.add(cmd.get(0));
+        full.add("-progress");
+        full.add("pipe:1");
+        full.add("-nostats");
+        full.addAll(cmd.subList(1, cmd.size()));
+        return full;
+    }
+
+    private static void runInSlot(List<String> cmd, FfmpegProgress progress, StallPolicy policy,
+            CancellationToken cancel, FfmpegProgress.Listener listener) throws Exception {
+        if (cancel.isCancelled()) throw new CancellationException(cancel.getReason());
+
+        Process p = new ProcessBuilder(withProgress(cmd)).start();
+        Runnable kill = p::destroyForcibly;
+        cancel.onCancel(kill);
+
+        ProgressParser parser = new ProgressParser(progress, listener);
+        StderrTail stderr = new StderrTail(STDERR_TAIL_BYTES);
+        // Virtual threads quando -Dmessaging.virtualThreads=true
+        Thread progressReader = VirtualThreads.start("ffmpeg-progress", () -> {
+            try (InputStream is = p.getInputStream()) {
+                parser.parse(is);
+            } catch (IOException ignored) {
+            }
+        });
+        Thread stderrReader = VirtualThreads.start("ffmpeg-stderr", () -> {
+            try (InputStream is = p.getErrorStream()) {
+                stderr.drain(is);
+            } catch (IOException ignored) {
+            }
+        });
+
+        long started = System.nanoTime();
+        long stallNanos = policy.stallNanos(progress.getDurationMicros());
+        long maxRuntime = policy.maxRuntimeNanos(progress.getDurationMicros());
+        try {
+            while (!p.waitFor(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancel.isCancelled()) break;
+                long now = System.nanoTime();
+                long lastAdvance = progress.getLastAdvanceNanos();
+                String timeout = null;
+                if (lastAdvance == 0 && now - started > policy.startupNanos()) {
+                    timeout = "nenhum progresso em " + TimeUnit.NANOSECONDS.toSeconds(now - started) + "s";
+                } else if (lastAdvance != 0 && now - lastAdvance > stallNanos) {
+                    timeout = "sem progresso há " + TimeUnit.NANOSECONDS.toSeconds(now - lastAdvance) + "s ("
+                            + progress + ")";
+                } else if (now - started > maxRuntime) {
+                    timeout = "passou do prazo de " + TimeUnit.NANOSECONDS.toMinutes(maxRuntime) + "min (" + progress
+                            + ")";
+                }
+                if (timeout != null) {
+                    p.destroyForcibly();
+                    STALLS.inc();
+                    throw new FfmpegException("Time out: " + timeout, true);
+                }
+            }
+        } catch (InterruptedException e) {
+            p.destroyForcibly();
+            throw e;
+        } finally {
+            cancel.remove(kill);
+        }
+
+        // O processo terminou: espera os leitores consumirem o resto da saída (último bloco de progresso)
+        progressReader.join(1000);
+        stderrReader.join(1000);
+
+        if (cancel.isCancelled()) {
+            p.destroyForcibly();
+            throw new CancellationException(cancel.getReason());
+        }
+        if (p.exitValue() != 0) {
+            throw new FfmpegException("Erro: " + p.exitValue() + stderr.describe(), false);
+        }
+    }
+
+    // Guarda os últimos bytes do stderr num buffer circular fixo
+    private static final class StderrTail {
+        private final byte[] ring;
+        private long written;
+
+        StderrTail(int size) {
+            this.ring = new byte[size];
+        }
+
+        void drain(InputStream in) throws IOException {
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                synchronized (this) {
+                    for (int i = 0; i < n; i++) {
+                        ring[(int) (written++ % ring.length)] = buf[i];
+                    }
+                }
+            }
+        }
+
+        synchronized String describe() {
+            if (written == 0) return "";
+            int size = (int) Math.min(written, ring.length);
+            byte[] out = new byte[size];
+            long start = written - size;
+            for (int i = 0; i < size; i++) {
+                out[i] = ring[(int) ((start + i) % ring.length)];
+            }
+            String text = new String(out, StandardCharsets.UTF_8).trim();
+            int lastLine = text.lastIndexOf('\n');
+            return ": " + (lastLine >= 0 ? text.substring(lastLine + 1) : text);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.messageria.transcode;
+
+import com.messageria.events.MediaInfo;
+import com.rabbitmq.client.AMQP;
+
+import java.io.File;
+import java.util.Map;
+
+/*
+ * Estimativa do custo de um transcode, calculada pelo produtor e levada na mensagem:
+ * a duração do vídeo (do MediaInfo lido na publicação) e o tamanho do arquivo. Vira a
+ * prioridade AMQP da mensagem (x-max-priority em transcode.queue) e o custo usado pelo
+ * ShortJobScheduler do consumidor.
+ */
+public final class JobCost {
+    public static final String DURATION_HEADER = "x-duration-ms";
+    public static final String SIZE_HEADER = "x-input-bytes";
+    // A documentação do RabbitMQ recomenda no máximo 10 níveis; mais que isso só custa CPU/memória
+    public static final int MAX_PRIORITY = 9;
+
+    // Sem a duração, o custo é estimado pelo tamanho assumindo ~2,5 Mbit/s
+    private static final long BYTES_PER_SECOND = 2_500_000 / 8;
+    private static final long UNKNOWN_COST_MILLIS = Long.getLong("transcode.unknownCostSeconds", 600) * 1000;
+
+    public static final JobCost UNKNOWN = new JobCost(-1, -1);
+
+    private final long durationMillis;
+    private final long sizeBytes;
+
+    public JobCost(long durationMillis, long sizeBytes) {
+        this.durationMillis = durationMillis;
+        this.sizeBytes = sizeBytes;
+    }
+
+    // media null (arquivo que não deu para abrir): fica só com o tamanho
+    public static JobCost of(MediaInfo media, File input) {
+        if (!input.isFile()) return UNKNOWN;
+        long duration = media != null ? media.durationMillis() : -1;
+        return new JobCost(duration > 0 ? duration : -1, input.length());
+    }
+
+    public static JobCost fromProperties(AMQP.BasicProperties props) {
+        if (props == null || props.getHeaders() == null) return UNKNOWN;
+        return new JobCost(longHeader(props.getHeaders(), DURATION_HEADER), longHeader(props.getHeaders(), SIZE_HEADER));
+    }
+
+    private static long longHeader(Map<String, Object> headers, String name) {
+        Object value = headers.get(name);
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public boolean isKnown() {
+        return durationMillis > 0 || sizeBytes > 0;
+    }
+
+    // Custo em milissegundos de vídeo; o tempo de transcode é mais ou menos proporcional a ele
+    public long estimateMillis() {
+        if (durationMillis > 0) return durationMillis;
+        if (sizeBytes > 0) return sizeBytes * 1000 / BYTES_PER_SECOND;
+        return UNKNOWN_COST_MILLIS;
+    }
+
+    // Vídeos curtos saem primeiro; sem estimativa fica no meio da escala
+    public int priority() {
+        long seconds = estimateMillis() / 1000;
+        if (seconds <= 60) return 9;
+        if (seconds <= 5 * 60) return 7;
+        if (seconds <= 20 * 60) return 5;
+        if (seconds <= 60 * 60) return 3;
+        return 1;
+    }
+
+    public Map<String, Object> addHeaders(Map<String, Object> headers) {
+        if (durationMillis > 0) headers.put(DURATION_HEADER, durationMillis);
+        if (sizeBytes > 0) headers.put(SIZE_HEADER, sizeBytes);
+        return headers;
+    }
+
+    @Override
+    public String toString() {
+        return "duração=" + (durationMillis > 0 ? durationMillis / 1000 + "s" : "?")
+                + ", tamanho=" + (sizeBytes > 0 ? sizeBytes / 1024 + "KB" : "?") + ", prioridade=" + priority();
+    }
+}
@@ -0,0 +1,130 @@
+package com.messageria.transcode;
+
+import com.messageria.worker.VirtualThreads;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Gera todas as renditions de um vídeo. No modo SINGLE_PASS o input é decodificado uma vez só;
+ * no modo PARALLEL roda um ffmpeg por rendition ao mesmo tempo (respeitando o limite global
+ * de processos do FfmpegRunner). O modo STUB não chama o ffmpeg: espera o tempo que o encode
+ * levaria a -Dtranscode.stubSpeed (20x o tempo real) e grava outputs vazios, para testes de
+ * carga do pipeline sem ffmpeg instalado.
+ */
+public class LadderTranscoder {
+
+    public enum Mode {
+        SINGLE_PASS, PARALLEL, STUB;
+
+        public static Mode fromSystemProperties() {
+            String value = System.getProperty("transcode.ladderMode", "single");
+            if (value.equalsIgnoreCase("stub")) return STUB;
+            return value.equalsIgnoreCase("parallel") ? PARALLEL : SINGLE_PASS;
+        }
+    }
+
+    private static final double STUB_SPEED = Double.parseDouble(System.getProperty("transcode.stubSpeed", "20"));
+    // Duração assumida pelo STUB quando o input não tem duração conhecida
+    private static final long STUB_DEFAULT_MICROS = 10_000_000;
+    private static final ExecutorService RENDITION_EXECUTOR = VirtualThreads.newUnboundedExecutor("rendition-");
+
+    private final RenditionLadder ladder;
+    private final Mode mode;
+    private final StallPolicy stallPolicy;
+
+    public LadderTranscoder(RenditionLadder ladder, Mode mode, StallPolicy stallPolicy) {
+        this.ladder = ladder;
+        this.mode = mode;
+        this.stallPolicy = stallPolicy;
+    }
+
+    public static LadderTranscoder fromSystemProperties() {
+        return new LadderTranscoder(RenditionLadder.fromSystemProperties(), Mode.fromSystemProperties(),
+                StallPolicy.fromSystemProperties());
+    }
+
+    public RenditionLadder getLadder() {
+        return ladder;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public StallPolicy getStallPolicy() {
+        return stallPolicy;
+    }
+
+    /*
+     * durationMicros é a duração do input (0 se desconhecida), usada nos timeouts e no
+     * percentual do progresso. O listener recebe o progresso de cada ffmpeg, identificado
+     * pelo label ("ladder" na passada única, o nome da rendition no modo paralelo).
+     */
+    public List<File> transcode(File input, File outDir, String baseName, String jobId, long durationMicros,
+            CancellationToken cancel, FfmpegProgress.Listener listener) throws Exception {
+        List<File> outputs = ladder.outputsFor(outDir, baseName);
+
+        if (mode == Mode.STUB) {
+            stubEncode(outputs, durationMicros, cancel);
+            return outputs;
+        }
+
+        if (mode == Mode.SINGLE_PASS) {
+            System.out.println("Executando ffmpeg (passada única, " + ladder + ") para job=" + jobId);
+            FfmpegRunner.run(ladder.singlePassCommand(FfmpegRunner.FFMPEG_PATH, input, outDir, baseName),
+                    new FfmpegProgress("ladder", durationMicros), stallPolicy, cancel, listener);
+            for (File out : outputs) RenditionLadder.movePart(out);
+            return outputs;
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (Rendition r : ladder.getRenditions()) {
+            List<String> cmd = ladder.renditionCommand(FfmpegRunner.FFMPEG_PATH, input, outDir, baseName, r);
+            futures.add(RENDITION_EXECUTOR.submit(() -> {
+                System.out.println("Executando ffmpeg " + r.getName() + " para job=" + jobId);
+                FfmpegRunner.run(cmd, new FfmpegProgress(r.getName(), durationMicros), stallPolicy, cancel, listener);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            // Uma rendition falhou: mata as outras, o job inteiro vai falhar de qualquer jeito
+            for (Future<?> f : futures) f.cancel(true);
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        } catch (InterruptedException e) {
+            for (Future<?> f : futures) f.cancel(true);
+            throw e;
+        }
+        // Só troca os outputs quando todas as renditions deram certo
+        for (File out : outputs) RenditionLadder.movePart(out);
+        return outputs;
+    }
+
+    private static void stubEncode(List<File> outputs, long durationMicros, CancellationToken cancel)
+            throws IOException, InterruptedException {
+        long micros = durationMicros > 0 ? durationMicros : STUB_DEFAULT_MICROS;
+        long deadline = System.nanoTime() + (long) (micros * 1000 / STUB_SPEED);
+        for (long left; (left = deadline - System.nanoTime()) > 0; ) {
+            if (cancel.isCancelled()) throw new CancellationException(cancel.getReason());
+            TimeUnit.NANOSECONDS.sleep(Math.min(left, TimeUnit.MILLISECONDS.toNanos(100)));
+        }
+        for (File out : outputs) {
+            Files.write(RenditionLadder.partFor(out).toPath(), new byte[0]);
+            RenditionLadder.movePart(out);
+        }
+    }
+}
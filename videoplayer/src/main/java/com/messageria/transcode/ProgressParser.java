@@ -0,0 +1,156 @@
+package com.messageria.transcode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Lê a saída de "-progress pipe:1" do ffmpeg (linhas key=value, cada bloco termina em
+ * progress=continue|end) de forma incremental, com buffers fixos: as chaves são comparadas
+ * byte a byte e os números convertidos direto dos bytes, sem criar Strings por linha.
+ * Linhas que não interessam (ou grandes demais) são ignoradas.
+ */
+final class ProgressParser {
+
+    private static final byte[] FRAME = ascii("frame");
+    private static final byte[] FPS = ascii("fps");
+    private static final byte[] SPEED = ascii("speed");
+    private static final byte[] OUT_TIME_US = ascii("out_time_us");
+    // Apesar do nome, o ffmpeg escreve microssegundos em out_time_ms
+    private static final byte[] OUT_TIME_MS = ascii("out_time_ms");
+    private static final byte[] TOTAL_SIZE = ascii("total_size");
+    private static final byte[] PROGRESS = ascii("progress");
+    private static final byte[] END = ascii("end");
+
+    private final FfmpegProgress progress;
+    private final FfmpegProgress.Listener listener;
+    private final byte[] buffer = new byte[8192];
+    private final byte[] line = new byte[256];
+    private int lineLength;
+    private boolean overflow;
+
+    ProgressParser(FfmpegProgress progress, FfmpegProgress.Listener listener) {
+        this.progress = progress;
+        this.listener = listener;
+    }
+
+    // Lê até o fim do stream (quando o processo termina)
+    void parse(InputStream in) throws IOException {
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            feed(buffer, 0, n);
+        }
+    }
+
+    void feed(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            if (b == '\n') {
+                if (!overflow) processLine();
+                lineLength = 0;
+                overflow = false;
+            } else if (b != '\r') {
+                if (lineLength < line.length) {
+                    line[lineLength++] = b;
+                } else {
+                    overflow = true;
+                }
+            }
+        }
+    }
+
+    private void processLine() {
+        int eq = -1;
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == '=') {
+                eq = i;
+                break;
+            }
+        }
+        if (eq <= 0) return;
+        int from = eq + 1;
+        while (from < lineLength && line[from] == ' ') from++;
+        int to = lineLength;
+        while (to > from && line[to - 1] == ' ') to--;
+
+        if (keyIs(eq, FRAME)) {
+            long v = parseLong(from, to);
+            if (v > progress.frame) {
+                progress.frame = v;
+                progress.lastAdvanceNanos = System.nanoTime();
+            }
+        } else if (keyIs(eq, OUT_TIME_US) || keyIs(eq, OUT_TIME_MS)) {
+            long v = parseLong(from, to);
+            if (v > progress.outTimeMicros) {
+                progress.outTimeMicros = v;
+                progress.lastAdvanceNanos = System.nanoTime();
+            }
+        } else if (keyIs(eq, FPS)) {
+            double v = parseDecimal(from, to);
+            if (v >= 0) progress.fps = v;
+        } else if (keyIs(eq, SPEED)) {
+            // "1.52x" ou "N/A"
+            if (to > from && line[to - 1] == 'x') to--;
+            progress.speed = parseDecimal(from, to);
+        } else if (keyIs(eq, TOTAL_SIZE)) {
+            long v = parseLong(from, to);
+            if (v >= 0) progress.totalSize = v;
+        } else if (keyIs(eq, PROGRESS)) {
+            progress.end = to - from == END.length && regionIs(from, END);
+            if (listener != null) listener.onProgress(progress);
+        }
+    }
+
+    private boolean keyIs(int keyLength, byte[] key) {
+        return keyLength == key.length && regionIs(0, key);
+    }
+
+    private boolean regionIs(int from, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (line[from + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    // -1 se não for um número (ex.: N/A)
+    private long parseLong(int from, int to) {
+        if (from >= to) return -1;
+        long v = 0;
+        for (int i = from; i < to; i++) {
+            int d = line[i] - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private double parseDecimal(int from, int to) {
+        if (from >= to) return -1;
+        long whole = 0;
+        long fraction = 0;
+        long scale = 1;
+        boolean dot = false;
+        for (int i = from; i < to; i++) {
+            byte b = line[i];
+            if (b == '.' && !dot) {
+                dot = true;
+                continue;
+            }
+            int d = b - '0';
+            if (d < 0 || d > 9) return -1;
+            if (dot) {
+                if (scale < 1_000_000) {
+                    fraction = fraction * 10 + d;
+                    scale *= 10;
+                }
+            } else {
+                whole = whole * 10 + d;
+            }
+        }
+        return whole + (double) fraction / scale;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,48 @@
+package com.messageria.transcode;
+
+public class Rendition {
+    private final int height;
+    private final String videoBitrate;
+    private final String audioBitrate;
+
+    public Rendition(int height, String videoBitrate, String audioBitrate) {
+        if (height <= 0) throw new IllegalArgumentException("Altura inválida para rendition: " + height);
+        this.height = height;
+        this.videoBitrate = videoBitrate;
+        this.audioBitrate = audioBitrate;
+    }
+
+    // Formato "720:2500k:128k"
+    public static Rendition parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Rendition inválida, esperado altura:bitrateVideo:bitrateAudio: " + spec);
+        }
+        return new Rendition(Integer.parseInt(parts[0]), parts[1], parts[2]);
+    }
+
+    public String getName() {
+        return height + "p";
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getVideoBitrate() {
+        return videoBitrate;
+    }
+
+    public String getAudioBitrate() {
+        return audioBitrate;
+    }
+
+    public String spec() {
+        return height + ":" + videoBitrate + ":" + audioBitrate;
+    }
+
+    @Override
+    public String toString() {
+        return getName() + " (v=" + videoBitrate + ", a=" + audioBitrate + ")";
+    }
+}
@@ -0,0 +1,136 @@
+package com.messageria.transcode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class RenditionLadder {
+    public static final String DEFAULT_SPEC = "720:2500k:128k,480:1000k:96k";
+
+    private final List<Rendition> renditions;
+
+    public RenditionLadder(List<Rendition> renditions) {
+        if (renditions.isEmpty()) throw new IllegalArgumentException("Ladder sem renditions");
+        this.renditions = Collections.unmodifiableList(new ArrayList<>(renditions));
+    }
+
+    public static RenditionLadder parse(String spec) {
+        List<Rendition> list = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            if (!part.isBlank()) list.add(Rendition.parse(part));
+        }
+        return new RenditionLadder(list);
+    }
+
+    // -Dtranscode.renditions=1080:5000k:192k,720:2500k:128k,480:1000k:96k
+    public static RenditionLadder fromSystemProperties() {
+        return parse(System.getProperty("transcode.renditions", DEFAULT_SPEC));
+    }
+
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    public String spec() {
+        StringBuilder sb = new StringBuilder();
+        for (Rendition r : renditions) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(r.spec());
+        }
+        return sb.toString();
+    }
+
+    public File outputFor(File outDir, String baseName, Rendition r) {
+        return new File(outDir, baseName + "_" + r.getName() + ".mp4");
+    }
+
+    // Um output por rendition, na ordem do ladder
+    public List<File> outputsFor(File outDir, String baseName) {
+        List<File> outputs = new ArrayList<>();
+        for (Rendition r : renditions) {
+            outputs.add(outputFor(outDir, baseName, r));
+        }
+        return outputs;
+    }
+
+    /*
+     * O ffmpeg nunca escreve direto no output: grava em <output>.part e o arquivo só é trocado
+     * por rename no fim (movePart). Com "-y" no próprio output o ffmpeg truncaria o arquivo no
+     * lugar, e a entrada do OutputCache, que é um hard link para ele, seria corrompida junto.
+     */
+    public static File partFor(File output) {
+        return new File(output.getPath() + ".part");
+    }
+
+    public static void movePart(File output) throws IOException {
+        Files.move(partFor(output).toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Uma única invocação do ffmpeg: decodifica o input uma vez, divide o vídeo com split
+     * e escreve um arquivo de saída por rendition (nos .part, ver partFor).
+     */
+    public List<String> singlePassCommand(String ffmpeg, File input, File outDir, String baseName) {
+        int n = renditions.size();
+        StringBuilder filter = new StringBuilder("[0:v]split=").append(n);
+        for (int i = 0; i < n; i++) filter.append("[s").append(i).append(']');
+        for (int i = 0; i < n; i++) {
+            filter.append(";[s").append(i).append("]scale=-2:").append(renditions.get(i).getHeight())
+                    .append("[v").append(i).append(']');
+        }
+
+        List<String> cmd = new ArrayList<>(List.of(ffmpeg, "-y", "-i", input.getAbsolutePath(),
+                "-filter_complex", filter.toString()));
+        for (int i = 0; i < n; i++) {
+            Rendition r = renditions.get(i);
+            cmd.addAll(List.of("-map", "[v" + i + "]", "-map", "0:a?",
+                    "-c:v", "libx264", "-preset", "fast", "-b:v", r.getVideoBitrate(),
+                    "-c:a", "aac", "-b:a", r.getAudioBitrate(),
+                    "-f", "mp4", partFor(outputFor(outDir, baseName, r)).getAbsolutePath()));
+        }
+        return cmd;
+    }
+
+    // Também escreve no .part do output
+    public List<String> renditionCommand(String ffmpeg, File input, File outDir, String baseName, Rendition r) {
+        return List.of(ffmpeg, "-y", "-i", input.getAbsolutePath(), "-vf", "scale=-2:" + r.getHeight(),
+                "-c:v", "libx264", "-preset", "fast", "-b:v", r.getVideoBitrate(),
+                "-c:a", "aac", "-b:a", r.getAudioBitrate(),
+                "-f", "mp4", partFor(outputFor(outDir, baseName, r)).getAbsolutePath());
+    }
+
+    /*
+     * Corte sem recodificar (-c copy): o muxer de segmentos só corta em keyframe, então cada
+     * segmento começa decodificável. Só o vídeo; o áudio é codificado uma vez na junção.
+     */
+    public List<String> splitCommand(String ffmpeg, File input, File segmentDir, int segmentSeconds) {
+        return List.of(ffmpeg, "-y", "-i", input.getAbsolutePath(), "-map", "0:v:0", "-an", "-c", "copy",
+                "-f", "segment", "-segment_time", String.valueOf(segmentSeconds), "-reset_timestamps", "1",
+                new File(segmentDir, "seg_%05d.mp4").getAbsolutePath());
+    }
+
+    // Um segmento numa rendition, sem áudio; "-f mp4" porque a saída é escrita num arquivo .part
+    public List<String> segmentCommand(String ffmpeg, File segment, File output, Rendition r) {
+        return List.of(ffmpeg, "-y", "-i", segment.getAbsolutePath(), "-vf", "scale=-2:" + r.getHeight(),
+                "-c:v", "libx264", "-preset", "fast", "-b:v", r.getVideoBitrate(), "-an",
+                "-f", "mp4", output.getAbsolutePath());
+    }
+
+    // Junta os segmentos já codificados sem recodificar o vídeo e codifica o áudio do input original (no .part)
+    public List<String> concatCommand(String ffmpeg, File listFile, File input, File output, Rendition r) {
+        return List.of(ffmpeg, "-y", "-f", "concat", "-safe", "0", "-i", listFile.getAbsolutePath(),
+                "-i", input.getAbsolutePath(), "-map", "0:v", "-map", "1:a?",
+                "-c:v", "copy", "-c:a", "aac", "-b:a", r.getAudioBitrate(), "-movflags", "+faststart",
+                "-f", "mp4", partFor(output).getAbsolutePath());
+    }
+
+    @Override
+    public String toString() {
+        return renditions.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package com.messageria.transcode;
+
+import com.messageria.events.TranscodeSegment;
+import com.messageria.events.TranscodeSegmentDone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Transcode dividido em segmentos para vídeos longos: o coordenador corta o input nos
+ * keyframes (sem recodificar), despacha uma tarefa por segmento e rendition para qualquer
+ * worker livre e, quando todos os segmentos de uma rendition terminam, junta os pedaços
+ * com o demuxer concat (também sem recodificar) e codifica o áudio uma vez.
+ *
+ * Os segmentos ficam em <outDir>/segments, que precisa estar num volume visto por todos os
+ * workers (como o input). Um segmento pronto é renomeado do .part para o nome final, então
+ * se o coordenador cair e a mensagem voltar, os segmentos que já existem não são refeitos.
+ */
+public class SegmentedTranscoder {
+
+    // Entrega a tarefa para os workers; o future completa quando o broker aceitar a mensagem
+    public interface Dispatcher {
+        CompletableFuture<Void> dispatch(TranscodeSegment task) throws IOException, InterruptedException;
+    }
+
+    private static final String SPLIT_DONE = "split.done";
+    private static final long POLL_MILLIS = 500;
+
+    private final RenditionLadder ladder;
+    private final StallPolicy stallPolicy;
+    private final int segmentSeconds;
+    private final long minDurationMicros;
+    private final long waitMillis;
+    private final boolean keepSegments;
+    private final Dispatcher dispatcher;
+    // jobId -> respostas dos segmentos daquele job
+    private final Map<String, BlockingQueue<TranscodeSegmentDone>> trackers = new ConcurrentHashMap<>();
+
+    public SegmentedTranscoder(RenditionLadder ladder, StallPolicy stallPolicy, int segmentSeconds,
+            long minDurationMicros, long waitMillis, boolean keepSegments, Dispatcher dispatcher) {
+        this.ladder = ladder;
+        this.stallPolicy = stallPolicy;
+        this.segmentSeconds = segmentSeconds;
+        this.minDurationMicros = minDurationMicros;
+        this.waitMillis = waitMillis;
+        this.keepSegments = keepSegments;
+        this.dispatcher = dispatcher;
+    }
+
+    /*
+     * transcode.segmentSeconds (60), transcode.segmentMinSeconds (600: vídeos mais curtos vão
+     * pelo LadderTranscoder), transcode.segmentWaitMinutes (60: tempo máximo sem nenhum
+     * segmento terminar) e transcode.keepSegments (false).
+     */
+    public static SegmentedTranscoder fromSystemProperties(RenditionLadder ladder, StallPolicy stallPolicy,
+            Dispatcher dispatcher) {
+        return new SegmentedTranscoder(ladder, stallPolicy,
+                Integer.getInteger("transcode.segmentSeconds", 60),
+                TimeUnit.SECONDS.toMicros(Long.getLong("transcode.segmentMinSeconds", 600)),
+                TimeUnit.MINUTES.toMillis(Long.getLong("transcode.segmentWaitMinutes", 60)),
+                Boolean.getBoolean("transcode.keepSegments"),
+                dispatcher);
+    }
+
+    // Sem a duração não dá para saber se compensa dividir
+    public boolean accepts(long durationMicros) {
+        return durationMicros > 0 && durationMicros >= minDurationMicros;
+    }
+
+    // Chamado pelo consumidor da fila de respostas
+    public void onSegmentDone(TranscodeSegmentDone done) {
+        BlockingQueue<TranscodeSegmentDone> results = trackers.get(done.jobId());
+        if (results != null) {
+            results.add(done);
+        }
+    }
+
+    public List<File> transcode(File input, File outDir, String baseName, String jobId, String videoId,
+            long durationMicros, CancellationToken cancel, FfmpegProgress.Listener listener) throws Exception {
+        File segmentDir = new File(outDir, "segments");
+        List<File> segments = split(input, segmentDir, durationMicros, cancel, listener);
+        int count = segments.size();
+        System.out.println("Input de job=" + jobId + " dividido em " + count + " segmentos de ~"
+                + segmentSeconds + "s");
+
+        BlockingQueue<TranscodeSegmentDone> results = new LinkedBlockingQueue<>();
+        trackers.put(jobId, results);
+        try {
+            // rendition (spec) -> segmentos que ainda faltam
+            Map<String, BitSet> pending = new LinkedHashMap<>();
+            List<CompletableFuture<?>> dispatched = new ArrayList<>();
+            for (Rendition r : ladder.getRenditions()) {
+                File renditionDir = new File(segmentDir, r.getName());
+                renditionDir.mkdirs();
+                BitSet missing = new BitSet(count);
+                for (int i = 0; i < count; i++) {
+                    File out = segmentOutput(renditionDir, i);
+                    if (out.isFile()) continue;
+                    missing.set(i);
+                    dispatched.add(dispatcher.dispatch(new TranscodeSegment(jobId, videoId, r.spec(), i, count,
+                            segments.get(i).getAbsolutePath(), out.getAbsolutePath())));
+                }
+                pending.put(r.spec(), missing);
+            }
+            CompletableFuture.allOf(dispatched.toArray(new CompletableFuture<?>[0])).get();
+
+            for (Rendition r : ladder.getRenditions()) {
+                if (pending.get(r.spec()).isEmpty()) {
+                    concat(input, outDir, baseName, segmentDir, count, r, durationMicros, cancel, listener);
+                }
+            }
+
+            int remaining = pending.values().stream().mapToInt(BitSet::cardinality).sum();
+            long lastProgress = System.currentTimeMillis();
+            while (remaining > 0) {
+                if (cancel.isCancelled()) throw new CancellationException(cancel.getReason());
+                TranscodeSegmentDone done = results.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    if (System.currentTimeMillis() - lastProgress > waitMillis) {
+                        throw new IOException("Nenhum segmento de job=" + jobId + " terminou em "
+                                + TimeUnit.MILLISECONDS.toMinutes(waitMillis) + "min (faltam " + remaining + ")");
+                    }
+                    continue;
+                }
+                if (done.error() != null) {
+                    throw new IOException("Segmento " + done.index() + " (" + done.rendition() + ") de job=" + jobId
+                            + " falhou: " + done.error());
+                }
+                BitSet missing = pending.get(done.rendition());
+                // Resposta repetida (entrega duplicada do segmento) ou de uma rendition que não é deste ladder
+                if (missing == null || !missing.get(done.index())) continue;
+                missing.clear(done.index());
+                remaining--;
+                lastProgress = System.currentTimeMillis();
+                if (missing.isEmpty()) {
+                    concat(input, outDir, baseName, segmentDir, count, Rendition.parse(done.rendition()),
+                            durationMicros, cancel, listener);
+                }
+            }
+        } finally {
+            trackers.remove(jobId);
+        }
+
+        if (!keepSegments) deleteRecursively(segmentDir);
+        return ladder.outputsFor(outDir, baseName);
+    }
+
+    // Lado do worker: codifica um segmento numa rendition
+    public void transcodeSegment(TranscodeSegment task, CancellationToken cancel) throws Exception {
+        File out = new File(task.output());
+        // Entrega repetida de um segmento que já terminou
+        if (out.isFile()) return;
+        out.getParentFile().mkdirs();
+        File part = new File(out.getPath() + ".part");
+        Rendition r = Rendition.parse(task.rendition());
+        FfmpegRunner.run(ladder.segmentCommand(FfmpegRunner.FFMPEG_PATH, new File(task.input()), part, r),
+                new FfmpegProgress(r.getName() + "#" + task.index(), 0), stallPolicy, cancel, null);
+        Files.move(part.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<File> split(File input, File segmentDir, long durationMicros, CancellationToken cancel,
+            FfmpegProgress.Listener listener) throws Exception {
+        File marker = new File(segmentDir, SPLIT_DONE);
+        if (!marker.isFile()) {
+            // Corte anterior incompleto: começa de novo
+            deleteRecursively(segmentDir);
+            segmentDir.mkdirs();
+            FfmpegRunner.run(ladder.splitCommand(FfmpegRunner.FFMPEG_PATH, input, segmentDir, segmentSeconds),
+                    new FfmpegProgress("split", durationMicros), stallPolicy, cancel, listener);
+            Files.createFile(marker.toPath());
+        }
+        File[] files = segmentDir.listFiles((dir, name) -> name.matches("seg_\\d+\\.mp4"));
+        if (files == null || files.length == 0) {
+            throw new IOException("O ffmpeg não gerou nenhum segmento de " + input.getName());
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return Arrays.asList(files);
+    }
+
+    private void concat(File input, File outDir, String baseName, File segmentDir, int count, Rendition r,
+            long durationMicros, CancellationToken cancel, FfmpegProgress.Listener listener) throws Exception {
+        File renditionDir = new File(segmentDir, r.getName());
+        File listFile = new File(segmentDir, r.getName() + ".txt");
+        try (Writer w = Files.newBufferedWriter(listFile.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                // Aspas simples no formato do concat: ' vira '\''
+                String path = segmentOutput(renditionDir, i).getAbsolutePath().replace("'", "'\\''");
+                w.write("file '" + path + "'\n");
+            }
+        }
+        File output = ladder.outputFor(outDir, baseName, r);
+        System.out.println("Juntando " + count + " segmentos de " + r.getName() + " em " + output.getName());
+        FfmpegRunner.run(ladder.concatCommand(FfmpegRunner.FFMPEG_PATH, listFile, input, output, r),
+                new FfmpegProgress("concat " + r.getName(), durationMicros), stallPolicy, cancel, listener);
+        RenditionLadder.movePart(output);
+    }
+
+    private static File segmentOutput(File renditionDir, int index) {
+        return new File(renditionDir, String.format("seg_%05d.mp4", index));
+    }
+
+    private static void deleteRecursively(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) deleteRecursively(child);
+                else child.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Override
+    public String toString() {
+        return "segmentos de " + segmentSeconds + "s para vídeos com "
+                + TimeUnit.MICROSECONDS.toSeconds(minDurationMicros) + "s ou mais";
+    }
+}
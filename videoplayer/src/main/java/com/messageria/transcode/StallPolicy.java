@@ -0,0 +1,73 @@
+package com.messageria.transcode;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Quando considerar um ffmpeg travado, a partir da duração do input e do progresso, e não
+ * de um tempo fixo de relógio:
+ *   - startup: tempo máximo até o primeiro avanço de frame/out_time;
+ *   - stall: tempo máximo sem avanço, proporcional à duração (stallFraction), entre
+ *     stallMin e stallMax; sem duração conhecida usa stallMax;
+ *   - prazo total: startup + duração / minSpeed (ex.: minSpeed=0.05 aceita até 20x o tempo
+ *     real do vídeo), mais o teto opcional maxMinutes (0 = sem teto).
+ */
+public class StallPolicy {
+
+    private final long startupSeconds;
+    private final double stallFraction;
+    private final long stallMinSeconds;
+    private final long stallMaxSeconds;
+    private final double minSpeed;
+    private final long maxMinutes;
+
+    public StallPolicy(long startupSeconds, double stallFraction, long stallMinSeconds, long stallMaxSeconds,
+            double minSpeed, long maxMinutes) {
+        if (stallMinSeconds > stallMaxSeconds) {
+            throw new IllegalArgumentException("stallMin > stallMax: " + stallMinSeconds + " > " + stallMaxSeconds);
+        }
+        this.startupSeconds = startupSeconds;
+        this.stallFraction = stallFraction;
+        this.stallMinSeconds = stallMinSeconds;
+        this.stallMaxSeconds = stallMaxSeconds;
+        this.minSpeed = minSpeed;
+        this.maxMinutes = maxMinutes;
+    }
+
+    public static StallPolicy fromSystemProperties() {
+        return new StallPolicy(
+                Long.getLong("transcode.startupSeconds", 120),
+                Double.parseDouble(System.getProperty("transcode.stallFraction", "0.05")),
+                Long.getLong("transcode.stallMinSeconds", 30),
+                Long.getLong("transcode.stallMaxSeconds", 600),
+                Double.parseDouble(System.getProperty("transcode.minSpeed", "0.05")),
+                Long.getLong("transcode.timeoutMinutes", 0));
+    }
+
+    public long startupNanos() {
+        return TimeUnit.SECONDS.toNanos(startupSeconds);
+    }
+
+    public long stallNanos(long durationMicros) {
+        if (durationMicros <= 0) return TimeUnit.SECONDS.toNanos(stallMaxSeconds);
+        long seconds = (long) (durationMicros / 1_000_000.0 * stallFraction);
+        return TimeUnit.SECONDS.toNanos(Math.max(stallMinSeconds, Math.min(stallMaxSeconds, seconds)));
+    }
+
+    // Tempo total máximo em nanos, ou Long.MAX_VALUE se não houver limite
+    public long maxRuntimeNanos(long durationMicros) {
+        long limit = Long.MAX_VALUE;
+        if (durationMicros > 0 && minSpeed > 0) {
+            limit = startupNanos() + (long) (durationMicros * 1000 / minSpeed);
+        }
+        if (maxMinutes > 0) {
+            limit = Math.min(limit, TimeUnit.MINUTES.toNanos(maxMinutes));
+        }
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "startup=" + startupSeconds + "s, stall=" + stallFraction + "x duração [" + stallMinSeconds + "s.."
+                + stallMaxSeconds + "s], minSpeed=" + minSpeed + (maxMinutes > 0 ? ", max=" + maxMinutes + "min" : "");
+    }
+}
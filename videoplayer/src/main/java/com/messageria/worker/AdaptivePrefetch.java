@@ -0,0 +1,302 @@
+package com.messageria.worker;
+
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.Gauge;
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/*
+ * Ajusta em tempo de execução o prefetch dos canais de um consumidor (e, pelo callback de
+ * onResize, as threads do WorkerPool) a partir do que ele mede. A cada intervalo lê:
+ *   - tempo de serviço: quanto tempo uma mensagem ocupa o prefetch, da entrega ao ack. Por
+ *     padrão a soma das médias de <etapa>.processing e <etapa>.ackLatency no intervalo (ver
+ *     measure);
+ *   - vazão: quantas mensagens receberam ack no intervalo (<etapa>.acked);
+ *   - fila: mensagens prontas nas filas consumidas, por queueDeclarePassive;
+ *   - saturação: CPU da máquina (inclui os ffmpeg, que são processos filhos), a não ser que a
+ *     etapa não dependa de CPU (cpuBound(false)), e o que ela informar em saturatedWhen (no
+ *     transcode, threads esperando um slot do ffmpeg).
+ *
+ * A regra é AIMD com alvo pela lei de Little:
+ *   - saturado, ou o tempo de serviço piorou depois de um aumento: prefetch pela metade;
+ *   - fila com mensagens e nada saturado: prefetch + 1;
+ *   - fila vazia: desce 1 por intervalo até o alvo L = vazão x tempo de serviço (dividido
+ *     pelos canais, + 1 de folga), que é o suficiente para manter a vazão atual sem segurar
+ *     mensagens que outra instância poderia processar.
+ * Sempre dentro de [min, max]. O tempo de serviço muda com o tamanho dos vídeos, então a
+ * referência acompanha a média recente e só conta como piora o que vem logo após um aumento.
+ *
+ * O prefetch é aplicado com basicQos(n, true): o limite por consumidor (global=false) só vale
+ * para consumidores criados depois da chamada, o do canal vale na hora. Todos os canais
+ * daqui têm um consumidor só, então dá no mesmo. Filas quorum não aceitam o limite por canal.
+ */
+public class AdaptivePrefetch implements AutoCloseable {
+    private static final com.sun.management.OperatingSystemMXBean OS =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    private final String stage;
+    private final int min;
+    private final int max;
+    private final long intervalMillis;
+    private final double cpuTarget;
+    private final double latencyTolerance;
+    private final Counter acked;
+    private volatile List<LatencyHistogram> serviceTime;
+    private volatile boolean cpuBound = true;
+
+    private final Gauge prefetchGauge;
+    private final Gauge queueDepthGauge;
+    private final Gauge serviceGauge;
+    private final Gauge targetGauge;
+    private final Gauge cpuGauge;
+    private final Counter increases;
+    private final Counter decreases;
+
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private final List<String> queues = new CopyOnWriteArrayList<>();
+    private final List<IntConsumer> resizeListeners = new CopyOnWriteArrayList<>();
+    private volatile BooleanSupplier saturatedWhen = () -> false;
+
+    private volatile int prefetch;
+    private Connection connection;
+    private Channel probe;
+    private ScheduledExecutorService timer;
+    private List<LatencyHistogram.Snapshot> last;
+    private long lastAcked;
+    private double baselineMicros;
+    private boolean lastWasIncrease;
+
+    public AdaptivePrefetch(String stage, int initial, int min, int max, long intervalMillis, double cpuTarget,
+            double latencyTolerance) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException(stage + ": limites de prefetch inválidos: " + min + "-" + max);
+        }
+        this.stage = stage;
+        this.min = min;
+        this.max = max;
+        this.prefetch = Math.max(min, Math.min(max, initial));
+        this.intervalMillis = intervalMillis;
+        this.cpuTarget = cpuTarget;
+        this.latencyTolerance = latencyTolerance;
+        this.acked = Metrics.counter(stage + ".acked");
+        this.serviceTime = List.of(Metrics.histogram(stage + ".processing"), Metrics.histogram(stage + ".ackLatency"));
+        this.prefetchGauge = Metrics.gauge(stage + ".adaptive.prefetch");
+        this.queueDepthGauge = Metrics.gauge(stage + ".adaptive.queueDepth");
+        this.serviceGauge = Metrics.gauge(stage + ".adaptive.serviceMicros");
+        this.targetGauge = Metrics.gauge(stage + ".adaptive.littleTarget");
+        this.cpuGauge = Metrics.gauge(stage + ".adaptive.cpuPercent");
+        this.increases = Metrics.counter(stage + ".adaptive.increases");
+        this.decreases = Metrics.counter(stage + ".adaptive.decreases");
+        prefetchGauge.set(prefetch);
+    }
+
+    /*
+     * null se -D<etapa>.adaptive não for true. Limites em -D<etapa>.prefetchMin (padrão 1) e
+     * -D<etapa>.prefetchMax (padrão o maior entre 4 x inicial e o número de processadores);
+     * -Dadaptive.intervalSeconds=5, -Dadaptive.cpuTarget=0.85 e -Dadaptive.latencyTolerance=0.5
+     * valem para todas as etapas.
+     */
+    public static AdaptivePrefetch fromSystemProperties(String stage, int initial, int minimum) {
+        if (!Boolean.getBoolean(stage + ".adaptive")) return null;
+        int min = Math.max(minimum, Integer.getInteger(stage + ".prefetchMin", 1));
+        int max = Integer.getInteger(stage + ".prefetchMax",
+                Math.max(min, Math.max(initial * 4, Runtime.getRuntime().availableProcessors())));
+        long interval = TimeUnit.SECONDS.toMillis(Long.getLong("adaptive.intervalSeconds", 5));
+        double cpuTarget = Double.parseDouble(System.getProperty("adaptive.cpuTarget", "0.85"));
+        double tolerance = Double.parseDouble(System.getProperty("adaptive.latencyTolerance", "0.5"));
+        return new AdaptivePrefetch(stage, initial, min, max, interval, cpuTarget, tolerance);
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    // Aplica o prefetch atual no canal e passa a ajustá-lo; chamar antes do basicConsume
+    public void attach(Channel channel) throws IOException {
+        channel.basicQos(prefetch, true);
+        channels.add(channel);
+    }
+
+    public void watchQueue(String queue) {
+        if (!queues.contains(queue)) queues.add(queue);
+    }
+
+    public void unwatchQueue(String queue) {
+        queues.remove(queue);
+    }
+
+    // Chamado com o novo prefetch a cada ajuste (ex.: WorkerPool.setThreads)
+    public void onResize(IntConsumer listener) {
+        resizeListeners.add(listener);
+        listener.accept(prefetch);
+    }
+
+    public void saturatedWhen(BooleanSupplier saturated) {
+        this.saturatedWhen = saturated;
+    }
+
+    // Histogramas cujas médias somadas dão o tempo da entrega ao ack; chamar antes do start()
+    public void measure(String... histograms) {
+        List<LatencyHistogram> list = new ArrayList<>(histograms.length);
+        for (String name : histograms) list.add(Metrics.histogram(name));
+        this.serviceTime = list;
+    }
+
+    // false: a CPU da máquina não entra na decisão (a etapa espera disco ou rede, não CPU)
+    public void cpuBound(boolean cpuBound) {
+        this.cpuBound = cpuBound;
+    }
+
+    public synchronized void start(Connection conn) {
+        if (timer != null) return;
+        connection = conn;
+        last = snapshots();
+        lastAcked = acked.get();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, stage + "-adaptive");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        System.out.println("Prefetch adaptativo de " + stage + ": " + this);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) timer.shutdownNow();
+        timer = null;
+        try {
+            if (probe != null && probe.isOpen()) probe.close();
+        } catch (Exception e) {
+            System.out.println("Erro fechando o canal de consulta das filas: " + e.getMessage());
+        }
+        probe = null;
+    }
+
+    private synchronized void tick() {
+        try {
+            List<LatencyHistogram.Snapshot> now = snapshots();
+            double serviceMicros = 0;
+            for (int i = 0; i < now.size(); i++) {
+                serviceMicros += now.get(i).minus(last.get(i)).getMeanMicros();
+            }
+            last = now;
+            long ackedNow = acked.get();
+            long completed = ackedNow - lastAcked;
+            lastAcked = ackedNow;
+            long depth = queueDepth();
+            double cpu = cpuBound ? OS.getCpuLoad() : -1;
+            int next = decide(completed, serviceMicros, depth, cpu, saturatedWhen.getAsBoolean());
+            queueDepthGauge.set(depth);
+            serviceGauge.set(Math.round(serviceMicros));
+            cpuGauge.set(cpu < 0 ? -1 : Math.round(cpu * 100));
+            if (next != prefetch) {
+                System.out.println("Prefetch de " + stage + ": " + prefetch + " -> " + next + " (fila=" + depth
+                        + ", serviço=" + Metrics.formatMicros(Math.round(serviceMicros)) + ", concluídos="
+                        + completed + ", cpu=" + (cpu < 0 ? "-" : Math.round(cpu * 100) + "%") + ")");
+                apply(next);
+            }
+        } catch (Exception e) {
+            System.out.println("Erro no ajuste de prefetch de " + stage + ": " + e.getMessage());
+        }
+    }
+
+    // Próximo prefetch a partir das medidas de um intervalo
+    int decide(long completed, double serviceMicros, long depth, double cpu, boolean saturated) {
+        int channelCount = Math.max(1, channels.size());
+        int target = min;
+        if (completed > 0) {
+            // L = λ x W, dividido entre os canais
+            double throughput = completed * 1000.0 / intervalMillis;
+            double inService = throughput * serviceMicros / 1_000_000.0;
+            target = clamp((int) Math.ceil(inService / channelCount) + 1);
+        }
+        targetGauge.set(target);
+
+        boolean slower = completed > 0 && baselineMicros > 0 && serviceMicros > baselineMicros * (1 + latencyTolerance);
+        boolean degraded = slower && lastWasIncrease;
+        if (completed > 0) {
+            // Desce na hora, sobe devagar: a referência acompanha vídeos maiores sem esconder a piora
+            baselineMicros = baselineMicros == 0 ? serviceMicros
+                    : Math.min(serviceMicros, baselineMicros * 0.8 + serviceMicros * 0.2);
+        }
+
+        int next;
+        if ((cpu >= 0 && cpu >= cpuTarget) || saturated || degraded) {
+            next = clamp(prefetch / 2);
+        } else if (depth > 0) {
+            next = clamp(prefetch + 1);
+        } else if (completed > 0 && prefetch > target) {
+            next = prefetch - 1;
+        } else {
+            next = prefetch;
+        }
+        lastWasIncrease = next > prefetch;
+        if (next > prefetch) increases.inc();
+        if (next < prefetch) decreases.inc();
+        return next;
+    }
+
+    private void apply(int next) {
+        prefetch = next;
+        prefetchGauge.set(next);
+        for (Channel channel : channels) {
+            if (!channel.isOpen()) {
+                channels.remove(channel);
+                continue;
+            }
+            try {
+                channel.basicQos(next, true);
+            } catch (IOException e) {
+                System.out.println("Erro aplicando prefetch " + next + " em " + stage + ": " + e.getMessage());
+            }
+        }
+        for (IntConsumer listener : resizeListeners) {
+            listener.accept(next);
+        }
+    }
+
+    private List<LatencyHistogram.Snapshot> snapshots() {
+        List<LatencyHistogram.Snapshot> list = new ArrayList<>(serviceTime.size());
+        for (LatencyHistogram h : serviceTime) list.add(h.snapshot());
+        return list;
+    }
+
+    // Só as mensagens prontas; as entregues e sem ack já estão no prefetch de alguém
+    private long queueDepth() {
+        long total = 0;
+        for (String queue : queues) {
+            try {
+                if (probe == null || !probe.isOpen()) probe = connection.createChannel();
+                total += probe.queueDeclarePassive(queue).getMessageCount();
+            } catch (IOException e) {
+                // Fila que sumiu (shard removido): o broker fecha o canal, outro é aberto na próxima
+                System.out.println("Não foi possível ler o tamanho de " + queue + ": " + e.getMessage());
+            }
+        }
+        return total;
+    }
+
+    private int clamp(int value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public String toString() {
+        return "prefetch=" + prefetch + " (" + min + "-" + max + "), intervalo=" + intervalMillis + "ms"
+                + (cpuBound ? ", cpuTarget=" + cpuTarget : "");
+    }
+}
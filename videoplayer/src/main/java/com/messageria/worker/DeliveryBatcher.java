@@ -0,0 +1,179 @@
+package com.messageria.worker;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Junta as entregas de um canal em micro-lotes (fecha o lote ao atingir batchSize ou após
+ * maxDelayMillis desde a primeira entrega) e liquida cada lote com o mínimo de frames:
+ * um nack por mensagem que falhou e um único basicAck(multiple=true) até a maior delivery
+ * tag que deu certo. Os lotes são liquidados na ordem em que foram fechados, então um ack
+ * múltiplo nunca cobre entregas de um lote que ainda está sendo processado.
+ *
+ * O prefetch do canal precisa ser >= batchSize, senão o lote só fecha pelo timer.
+ */
+public class DeliveryBatcher {
+
+    public interface BatchHandler {
+        // Devolve as delivery tags que falharam (recebem nack); as demais recebem ack
+        CompletableFuture<Set<Long>> process(List<Delivery> batch);
+    }
+
+    private final Channel channel;
+    private final int batchSize;
+    private final long maxDelayMillis;
+    private final BatchHandler handler;
+    private final ScheduledExecutorService timer;
+
+    private List<Delivery> current;
+    private ScheduledFuture<?> pendingTimer;
+    private CompletableFuture<Void> settled = CompletableFuture.completedFuture(null);
+    private boolean closed = false;
+
+    public DeliveryBatcher(Channel channel, int batchSize, long maxDelayMillis, BatchHandler handler) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize deve ser >= 1: " + batchSize);
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.handler = handler;
+        this.current = new ArrayList<>(batchSize);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "delivery-batcher-" + channel.getChannelNumber());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Um lote fechado e o lugar dele na fila de liquidação, completado com o resultado do handler
+    private record Batch(List<Delivery> deliveries, CompletableFuture<Set<Long>> processed) {
+    }
+
+    // Chamado pela thread de entrega do canal
+    public void add(Delivery delivery) {
+        Batch full = null;
+        synchronized (this) {
+            if (closed) {
+                requeue(delivery.getEnvelope().getDeliveryTag());
+                return;
+            }
+            current.add(delivery);
+            if (current.size() >= batchSize) {
+                full = takeBatch();
+            } else if (current.size() == 1 && maxDelayMillis > 0) {
+                pendingTimer = timer.schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) submit(full);
+        else if (maxDelayMillis <= 0) flush();
+    }
+
+    public void flush() {
+        Batch batch;
+        synchronized (this) {
+            if (current.isEmpty()) return;
+            batch = takeBatch();
+        }
+        submit(batch);
+    }
+
+    /*
+     * Fecha o lote e já reserva o lugar dele na liquidação, no mesmo lock: o timer e a thread
+     * de entrega podem fechar lotes ao mesmo tempo, e a ordem de liquidação tem que ser a de
+     * fechamento, não a de quem voltar primeiro do handler (senão o ack múltiplo de um lote
+     * cobriria as tags de outro ainda em processamento).
+     */
+    private Batch takeBatch() {
+        Batch batch = new Batch(current, new CompletableFuture<>());
+        current = new ArrayList<>(batchSize);
+        if (pendingTimer != null) {
+            pendingTimer.cancel(false);
+            pendingTimer = null;
+        }
+        settled = settled.thenCompose(ignored -> batch.processed().handle((failed, error) -> {
+            settle(batch.deliveries(), failed, error);
+            return null;
+        }));
+        return batch;
+    }
+
+    private void submit(Batch batch) {
+        CompletableFuture<Set<Long>> result;
+        try {
+            result = handler.process(batch.deliveries());
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((failed, error) -> {
+            if (error != null) batch.processed().completeExceptionally(error);
+            else batch.processed().complete(failed);
+        });
+    }
+
+    private void settle(List<Delivery> batch, Set<Long> failed, Throwable error) {
+        try {
+            if (error != null) {
+                System.out.println("Erro processando lote de " + batch.size() + " mensagens: " + error.getMessage());
+                for (Delivery d : batch) {
+                    channel.basicNack(d.getEnvelope().getDeliveryTag(), false, false);
+                }
+                return;
+            }
+
+            long highestOk = -1;
+            int ok = 0;
+            for (Delivery d : batch) {
+                long tag = d.getEnvelope().getDeliveryTag();
+                if (failed != null && failed.contains(tag)) {
+                    channel.basicNack(tag, false, false);
+                } else {
+                    highestOk = Math.max(highestOk, tag);
+                    ok++;
+                }
+            }
+            // Os nacks acima já tiraram as falhas do conjunto de não confirmadas, e os lotes
+            // anteriores já foram liquidados, então o ack múltiplo só cobre mensagens boas
+            if (highestOk >= 0) {
+                channel.basicAck(highestOk, ok > 1);
+            }
+        } catch (IOException e) {
+            System.out.println("Erro ao enviar ack/nack do lote: " + e.getMessage());
+        }
+    }
+
+    private void requeue(long deliveryTag) {
+        try {
+            channel.basicNack(deliveryTag, false, true);
+        } catch (IOException ioe) {
+            System.out.println("Erro ao devolver mensagem para a fila: " + ioe.getMessage());
+        }
+    }
+
+    // Fecha o lote aberto e espera a liquidação de tudo que já foi entregue ao handler
+    public void close(long timeout, TimeUnit unit) {
+        CompletableFuture<Void> last;
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        synchronized (this) {
+            last = settled;
+        }
+        try {
+            last.get(timeout, unit);
+        } catch (Exception e) {
+            System.out.println("Timeout aguardando liquidação dos lotes: " + e.getMessage());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
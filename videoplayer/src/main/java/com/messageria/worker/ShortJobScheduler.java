@@ -0,0 +1,138 @@
+package com.messageria.worker;
+
+import com.rabbitmq.client.Delivery;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/*
+ * Escalonador do WorkerPool para filas de jobs com custo muito diferente (transcode).
+ * As entregas recebidas pelo prefetch ficam numa SjfQueue e só "slots" rodam ao mesmo
+ * tempo; quando um termina, o próximo é escolhido pela SjfQueue (menor custo com
+ * envelhecimento, respeitando os slots reservados para jobs curtos).
+ * Para ter efeito o prefetch total (channels * prefetch) precisa ser maior que slots.
+ */
+public class ShortJobScheduler {
+
+    private final String name;
+    private final SjfQueue<Job> queue;
+    private final ToLongFunction<Delivery> costFunction;
+    private final ExecutorService executor;
+    private boolean shutdown = false;
+
+    private static final class Job {
+        final long costMillis;
+        final Runnable task;
+
+        Job(long costMillis, Runnable task) {
+            this.costMillis = costMillis;
+            this.task = task;
+        }
+    }
+
+    public ShortJobScheduler(String name, int slots, int reservedShortSlots, long shortJobMillis, double agingFactor,
+            ToLongFunction<Delivery> costFunction) {
+        this.name = name;
+        this.queue = new SjfQueue<>(slots, reservedShortSlots, shortJobMillis, agingFactor);
+        this.costFunction = costFunction;
+        if (VirtualThreads.isEnabled()) {
+            this.executor = VirtualThreads.newPerTaskExecutor(name + "-worker-");
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(slots, r -> {
+                Thread t = new Thread(r, name + "-worker-" + threadCount.incrementAndGet());
+                t.setDaemon(false);
+                return t;
+            });
+        }
+    }
+
+    /*
+     * Lê <prefix>.slots (padrão: threads do WorkerPoolSettings), <prefix>.shortReserved
+     * (padrão 1 se houver mais de um slot), <prefix>.shortJobSeconds (1200) e
+     * <prefix>.agingFactor (1: cada segundo esperando desconta 1 segundo do custo).
+     */
+    public static ShortJobScheduler fromSystemProperties(String prefix, WorkerPoolSettings settings,
+            ToLongFunction<Delivery> costFunction) {
+        int slots = Integer.getInteger(prefix + ".slots", settings.getThreads());
+        int reserved = Integer.getInteger(prefix + ".shortReserved", slots > 1 ? 1 : 0);
+        long shortJobMillis = Long.getLong(prefix + ".shortJobSeconds", 1200) * 1000;
+        double aging = Double.parseDouble(System.getProperty(prefix + ".agingFactor", "1"));
+        if (settings.getMaxInFlight() <= slots) {
+            System.out.println("Aviso: " + prefix + ".prefetch * channels (" + settings.getMaxInFlight()
+                    + ") não é maior que " + prefix + ".slots (" + slots + "), o escalonador não tem o que reordenar");
+        }
+        return new ShortJobScheduler(prefix, slots, reserved, shortJobMillis, aging, costFunction);
+    }
+
+    public void submit(Delivery delivery, Runnable task) {
+        long cost = costFunction.applyAsLong(delivery);
+        synchronized (this) {
+            if (shutdown) throw new RejectedExecutionException(name + " encerrado");
+            queue.add(new Job(cost, task), cost, System.currentTimeMillis());
+            schedule();
+        }
+    }
+
+    // Chamado com o lock
+    private void schedule() {
+        Job job;
+        while ((job = queue.poll(System.currentTimeMillis())) != null) {
+            Job started = job;
+            executor.execute(() -> {
+                try {
+                    started.task.run();
+                } finally {
+                    finished(started);
+                }
+            });
+        }
+    }
+
+    private synchronized void finished(Job job) {
+        queue.finished(job.costMillis);
+        schedule();
+        notifyAll();
+    }
+
+    // Não aceita entregas novas; as que já estão na fila ainda rodam
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (queue.size() > 0 || queue.getRunning() > 0) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+        executor.shutdown();
+        return true;
+    }
+
+    // Descarta o que ainda não começou (as entregas voltam para a fila quando o canal fechar)
+    public synchronized int shutdownNow() {
+        shutdown = true;
+        int dropped = queue.clear().size();
+        executor.shutdownNow();
+        return dropped;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized int getRunning() {
+        return queue.getRunning();
+    }
+
+    @Override
+    public String toString() {
+        return queue.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.messageria.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Fila "shortest job first" com envelhecimento e reserva de slots para jobs curtos.
+ * Não é thread-safe e recebe o relógio de fora, para o ShortJobScheduler e a simulação
+ * do SchedulingBenchmark usarem exatamente a mesma regra.
+ *
+ * - O próximo job é o de menor custo efetivo = custo - agingFactor * tempo esperando, então
+ *   um job longo que espera tempo suficiente passa na frente dos curtos que acabaram de chegar.
+ * - Jobs longos (custo > shortJobMillis) só começam se, depois disso, ainda sobrarem
+ *   reservedShortSlots slots livres para os curtos.
+ * O tamanho da fila é limitado pelo prefetch, então a busca linear é suficiente.
+ */
+public class SjfQueue<T> {
+
+    private static final class Entry<T> {
+        final T item;
+        final long costMillis;
+        final long enqueuedAtMillis;
+        final boolean shortJob;
+
+        Entry(T item, long costMillis, long enqueuedAtMillis, boolean shortJob) {
+            this.item = item;
+            this.costMillis = costMillis;
+            this.enqueuedAtMillis = enqueuedAtMillis;
+            this.shortJob = shortJob;
+        }
+    }
+
+    private final int slots;
+    private final int reservedShortSlots;
+    private final long shortJobMillis;
+    private final double agingFactor;
+    private final List<Entry<T>> entries = new ArrayList<>();
+    private int running;
+    private int runningLong;
+
+    public SjfQueue(int slots, int reservedShortSlots, long shortJobMillis, double agingFactor) {
+        if (slots < 1 || reservedShortSlots < 0 || reservedShortSlots >= slots) {
+            throw new IllegalArgumentException(
+                    "reservedShortSlots (" + reservedShortSlots + ") deve ser >= 0 e menor que slots (" + slots + ")");
+        }
+        this.slots = slots;
+        this.reservedShortSlots = reservedShortSlots;
+        this.shortJobMillis = shortJobMillis;
+        this.agingFactor = agingFactor;
+    }
+
+    public void add(T item, long costMillis, long nowMillis) {
+        entries.add(new Entry<>(item, costMillis, nowMillis, costMillis <= shortJobMillis));
+    }
+
+    public boolean isShort(long costMillis) {
+        return costMillis <= shortJobMillis;
+    }
+
+    /*
+     * Retira o próximo job que pode começar agora e já o conta como em execução, ou null
+     * se não houver slot livre (ou só houver jobs longos e o que sobra é reservado).
+     */
+    public T poll(long nowMillis) {
+        if (running >= slots) return null;
+        boolean longAllowed = runningLong < slots - reservedShortSlots;
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry<T> e = entries.get(i);
+            if (!e.shortJob && !longAllowed) continue;
+            double score = e.costMillis - agingFactor * (nowMillis - e.enqueuedAtMillis);
+            if (score < bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        if (best < 0) return null;
+        Entry<T> chosen = entries.remove(best);
+        running++;
+        if (!chosen.shortJob) runningLong++;
+        return chosen.item;
+    }
+
+    // Chamado quando um job retirado por poll termina
+    public void finished(long costMillis) {
+        running--;
+        if (!isShort(costMillis)) runningLong--;
+    }
+
+    public List<T> clear() {
+        List<T> items = new ArrayList<>(entries.size());
+        for (Entry<T> e : entries) items.add(e.item);
+        entries.clear();
+        return items;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getRunning() {
+        return running;
+    }
+
+    public int getRunningLong() {
+        return runningLong;
+    }
+
+    @Override
+    public String toString() {
+        return "slots=" + slots + ", reservados para curtos=" + reservedShortSlots + ", curto<=" + shortJobMillis / 1000
+                + "s, aging=" + agingFactor;
+    }
+}
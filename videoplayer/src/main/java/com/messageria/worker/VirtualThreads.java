@@ -0,0 +1,89 @@
+package com.messageria.worker;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Modo de virtual threads (-Dmessaging.virtualThreads=true). O projeto continua compilando
+ * para Java 17, então a API do Java 21 (Thread.ofVirtual, newThreadPerTaskExecutor) é
+ * acessada por reflexão; numa JVM 17 o modo é ignorado com um aviso e tudo roda em
+ * threads de plataforma como antes.
+ *
+ * Com o modo ligado, cada tarefa bloqueante (entrega do RabbitMQ, job do WorkerPool,
+ * rendition, leitura da saída do ffmpeg) ganha a sua própria virtual thread, e o limite
+ * real de concorrência passa a ser o prefetch e os slots do ffmpeg.
+ */
+public final class VirtualThreads {
+
+    private static final boolean REQUESTED = Boolean.getBoolean("messaging.virtualThreads");
+    private static final Method OF_VIRTUAL = lookup(Thread.class, "ofVirtual");
+    private static final boolean ENABLED = REQUESTED && OF_VIRTUAL != null;
+
+    static {
+        if (REQUESTED && !ENABLED) {
+            System.out.println("messaging.virtualThreads=true ignorado: requer Java 21 (rodando em "
+                    + System.getProperty("java.version") + ")");
+        }
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // Fábrica de threads com nome prefix-N: virtual no modo ligado, senão de plataforma
+    public static ThreadFactory factory(String prefix, boolean daemon) {
+        if (ENABLED) {
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                Object b = OF_VIRTUAL.invoke(null);
+                b = builder.getMethod("name", String.class, long.class).invoke(b, prefix, 1L);
+                return (ThreadFactory) builder.getMethod("factory").invoke(b);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Erro criando fábrica de virtual threads", e);
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(daemon);
+            return t;
+        };
+    }
+
+    // Uma virtual thread por tarefa; só deve ser chamado com o modo ligado
+    public static ExecutorService newPerTaskExecutor(String prefix) {
+        if (!ENABLED) throw new IllegalStateException("Virtual threads não estão habilitadas");
+        try {
+            Method m = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) m.invoke(null, factory(prefix, true));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Erro criando executor de virtual threads", e);
+        }
+    }
+
+    // Executor sem limite de threads: por tarefa no modo virtual, cached pool de daemons senão
+    public static ExecutorService newUnboundedExecutor(String prefix) {
+        return ENABLED ? newPerTaskExecutor(prefix) : Executors.newCachedThreadPool(factory(prefix, true));
+    }
+
+    // Inicia uma thread auxiliar curta (ex.: ler a saída de um processo)
+    public static Thread start(String name, Runnable task) {
+        Thread t = factory(name + "-", true).newThread(task);
+        t.start();
+        return t;
+    }
+
+    private static Method lookup(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
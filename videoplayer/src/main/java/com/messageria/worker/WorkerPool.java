@@ -0,0 +1,227 @@
+package com.messageria.worker;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Consome uma fila com N canais, cada um com o seu prefetch, e processa as entregas
+ * num executor limitado. O ack/nack é sempre feito no canal que recebeu a entrega.
+ * Com virtual threads (VirtualThreads) cada entrega roda na sua própria thread e o número
+ * de threads deixa de importar: quem limita é channels * prefetch.
+ * Com um ShortJobScheduler as entregas não rodam por ordem de chegada: o escalonador
+ * escolhe qual das entregas recebidas começa quando um slot fica livre.
+ * Com um AdaptivePrefetch (setAdaptive) o prefetch dos canais muda em tempo de execução e as
+ * threads acompanham: channels * prefetch, como no padrão do WorkerPoolSettings.
+ */
+public class WorkerPool {
+
+    public interface DeliveryHandler {
+        void handle(Channel channel, Delivery delivery) throws IOException;
+    }
+
+    private final Connection connection;
+    private final String queue;
+    private final WorkerPoolSettings settings;
+    private final DeliveryHandler handler;
+    private final ExecutorService executor;
+    private final ShortJobScheduler scheduler;
+    private final Map<Channel, String> consumers = new LinkedHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private AdaptivePrefetch adaptive;
+    private volatile boolean stopping = false;
+
+    public WorkerPool(Connection connection, String queue, WorkerPoolSettings settings, DeliveryHandler handler) {
+        this(connection, queue, settings, handler, null);
+    }
+
+    public WorkerPool(Connection connection, String queue, WorkerPoolSettings settings, DeliveryHandler handler,
+            ShortJobScheduler scheduler) {
+        this.connection = connection;
+        this.queue = queue;
+        this.settings = settings;
+        this.handler = handler;
+        this.scheduler = scheduler;
+
+        if (scheduler != null) {
+            this.executor = null;
+        } else if (VirtualThreads.isEnabled()) {
+            this.executor = VirtualThreads.newPerTaskExecutor(queue + "-worker-");
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            // O prefetch já limita o que pode estar em voo (e pode mudar com o AdaptivePrefetch), então
+            // a fila não precisa de limite próprio
+            this.executor = new ThreadPoolExecutor(settings.getThreads(), settings.getThreads(), 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread t = new Thread(r, queue + "-worker-" + threadCount.incrementAndGet());
+                        t.setDaemon(false);
+                        return t;
+                    });
+        }
+    }
+
+    // Chamar antes do start(); o prefetch inicial passa a ser o do controlador
+    public synchronized void setAdaptive(AdaptivePrefetch adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public synchronized void start() throws IOException {
+        for (int i = 0; i < settings.getChannels(); i++) {
+            Channel channel = connection.createChannel();
+            if (adaptive != null) {
+                adaptive.attach(channel);
+            } else {
+                channel.basicQos(settings.getPrefetch());
+            }
+            String tag = channel.basicConsume(queue, false,
+                    (consumerTag, delivery) -> dispatch(channel, delivery),
+                    consumerTag -> System.out.println("Consumer cancelado: " + consumerTag));
+            consumers.put(channel, tag);
+        }
+        if (adaptive != null) {
+            adaptive.watchQueue(queue);
+            adaptive.onResize(prefetch -> setThreads(settings.getChannels() * prefetch));
+        }
+        System.out.println("WorkerPool iniciado para " + queue + " (" + settings
+                + (VirtualThreads.isEnabled() ? ", virtual threads" : "")
+                + (scheduler != null ? ", escalonador: " + scheduler : "") + ")");
+    }
+
+    private void dispatch(Channel channel, Delivery delivery) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        if (stopping) {
+            requeue(channel, deliveryTag);
+            return;
+        }
+        try {
+            inFlight.incrementAndGet();
+            Runnable task = () -> {
+                try {
+                    handler.handle(channel, delivery);
+                } catch (Exception e) {
+                    System.out.println("Erro não tratado no worker de " + queue + ": " + e.getMessage());
+                    try {
+                        channel.basicNack(deliveryTag, false, false);
+                    } catch (IOException ioe) {
+                        System.out.println("Erro ao enviar nack: " + ioe.getMessage());
+                    }
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            };
+            if (scheduler != null) {
+                scheduler.submit(delivery, task);
+            } else {
+                executor.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            requeue(channel, deliveryTag);
+        }
+    }
+
+    private void requeue(Channel channel, long deliveryTag) {
+        try {
+            channel.basicNack(deliveryTag, false, true);
+        } catch (IOException ioe) {
+            System.out.println("Erro ao devolver mensagem para a fila: " + ioe.getMessage());
+        }
+    }
+
+    /*
+     * Só muda algo no executor de threads comuns: com virtual threads cada entrega já tem a
+     * sua, e com o ShortJobScheduler quem limita são os slots dele.
+     */
+    public void setThreads(int threads) {
+        if (!(executor instanceof ThreadPoolExecutor pool) || threads < 1) return;
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /*
+     * Para de receber novas entregas, espera os jobs em andamento terminarem (e fazerem ack)
+     * e só então fecha os canais. O que não terminar dentro do prazo volta para a fila
+     * quando o canal é fechado.
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        drain(timeout, unit);
+        closeChannels();
+    }
+
+    // Cancela os consumers e espera os handlers em execução; os canais continuam abertos
+    // para que acks assíncronos (ex.: após publisher confirm) ainda possam ser enviados.
+    public synchronized void drain(long timeout, TimeUnit unit) {
+        if (stopping) return;
+        stopping = true;
+        System.out.println("Encerrando WorkerPool de " + queue + ", jobs em andamento: " + inFlight.get());
+
+        for (Map.Entry<Channel, String> c : consumers.entrySet()) {
+            try {
+                c.getKey().basicCancel(c.getValue());
+            } catch (Exception e) {
+                System.out.println("Erro cancelando consumer " + c.getValue() + ": " + e.getMessage());
+            }
+        }
+
+        if (scheduler != null) {
+            scheduler.shutdown();
+        } else {
+            executor.shutdown();
+        }
+        try {
+            boolean done = scheduler != null ? scheduler.awaitTermination(timeout, unit)
+                    : executor.awaitTermination(timeout, unit);
+            if (!done) {
+                System.out.println("Timeout aguardando jobs de " + queue + ", restantes: " + inFlight.get());
+                forceStop();
+            }
+        } catch (InterruptedException e) {
+            forceStop();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forceStop() {
+        if (scheduler != null) {
+            // Os que nem começaram voltam para a fila quando o canal for fechado
+            inFlight.addAndGet(-scheduler.shutdownNow());
+        } else {
+            executor.shutdownNow();
+        }
+    }
+
+    public synchronized void closeChannels() {
+        List<Channel> channels = new ArrayList<>(consumers.keySet());
+        for (Channel channel : channels) {
+            try {
+                if (channel.isOpen()) channel.close();
+            } catch (Exception e) {
+                System.out.println("Erro fechando canal: " + e.getMessage());
+            }
+        }
+        consumers.clear();
+        System.out.println("WorkerPool de " + queue + " encerrado");
+    }
+}
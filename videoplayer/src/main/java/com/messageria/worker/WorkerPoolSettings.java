@@ -0,0 +1,46 @@
+package com.messageria.worker;
+
+public class WorkerPoolSettings {
+    private final int channels;
+    private final int prefetch;
+    private final int threads;
+
+    public WorkerPoolSettings(int channels, int prefetch, int threads) {
+        if (channels < 1 || prefetch < 1 || threads < 1) {
+            throw new IllegalArgumentException(
+                    "channels, prefetch e threads devem ser >= 1: " + channels + "/" + prefetch + "/" + threads);
+        }
+        this.channels = channels;
+        this.prefetch = prefetch;
+        this.threads = threads;
+    }
+
+    // Lê <prefix>.channels, <prefix>.prefetch e <prefix>.threads das system properties (-D)
+    public static WorkerPoolSettings fromSystemProperties(String prefix, int defaultChannels, int defaultPrefetch) {
+        int channels = Integer.getInteger(prefix + ".channels", defaultChannels);
+        int prefetch = Integer.getInteger(prefix + ".prefetch", defaultPrefetch);
+        int threads = Integer.getInteger(prefix + ".threads", channels * prefetch);
+        return new WorkerPoolSettings(channels, prefetch, threads);
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxInFlight() {
+        return channels * prefetch;
+    }
+
+    @Override
+    public String toString() {
+        return "channels=" + channels + ", prefetch=" + prefetch + ", threads=" + threads;
+    }
+}
@@ -0,0 +1,88 @@
+package com.messageria.benchmark;
+
+import com.messageria.broker.InMemoryBroker;
+import com.messageria.consumers.NotificationConsumer;
+import com.messageria.state.NotificationStateStore;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/*
+ * Mede eventos/s do NotificationConsumer com um ack por mensagem (batchSize=1, prefetch=5)
+ * e em modo lote, contra o InMemoryBroker. Cada vídeo recebe um thumbnail.created e um
+ * transcode.created, então metade dos eventos gera notificação. frameCostMicros simula o
+ * custo de cada frame enviado ao broker (ack/nack); com 0 só sobra o custo de CPU.
+ * A saída do consumer é descartada durante a medição.
+ *
+ * Uso: NotificationBatchBenchmark [videos=20000] [batchSize=100] [prefetch=400] [frameCostMicros=20]
+ */
+public class NotificationBatchBenchmark {
+    private static final String QUEUE = "notificacao.queue";
+
+    public static void main(String[] args) throws Exception {
+        int videos = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int prefetch = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        long frameCostMicros = args.length > 3 ? Long.parseLong(args[3]) : 20;
+
+        // Aquecimento
+        run(Math.min(2000, videos), 1, 5, frameCostMicros);
+        run(Math.min(2000, videos), batchSize, prefetch, frameCostMicros);
+
+        report("ack por mensagem (prefetch=5)", videos * 2, run(videos, 1, 5, frameCostMicros));
+        report("lote (batchSize=" + batchSize + ", prefetch=" + prefetch + ")", videos * 2,
+                run(videos, batchSize, prefetch, frameCostMicros));
+    }
+
+    private static long run(int videos, int batchSize, int prefetch, long frameCostMicros) throws Exception {
+        InMemoryBroker broker = new InMemoryBroker(frameCostMicros * 1000);
+        Path dir = Files.createTempDirectory("notification-bench");
+        PrintStream out = System.out;
+        try (Connection conn = broker.newConnection();
+                NotificationStateStore store = new NotificationStateStore(dir, "bench", videos * 2,
+                        24 * 60 * 60 * 1000L, 5)) {
+            Channel setup = conn.createChannel();
+            setup.queueDeclare(QUEUE, true, false, false, null);
+            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().contentType("application/json").build();
+            for (int i = 0; i < videos; i++) {
+                String id = "bench-" + i;
+                setup.basicPublish("", QUEUE, props, ("{\"videoId\":\"" + id
+                        + "\",\"event\":\"thumbnailCreated\",\"thumbnail\":\"thumbnail/" + id + ".jpg\"}")
+                        .getBytes(StandardCharsets.UTF_8));
+                setup.basicPublish("", QUEUE, props, ("{\"videoId\":\"" + id
+                        + "\",\"event\":\"transcodeCreated\",\"outputs\":[\"outputs/" + id + "_720p.mp4\"]}")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            NotificationConsumer consumer = new NotificationConsumer(store, prefetch, batchSize, 20);
+            long t0 = System.nanoTime();
+            consumer.start(conn);
+            while (broker.outstanding(QUEUE) > 0) {
+                Thread.sleep(1);
+            }
+            long elapsed = System.nanoTime() - t0;
+            consumer.stop();
+            return elapsed;
+        } finally {
+            System.setOut(out);
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static void report(String label, int events, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.printf("%-40s %8d eventos em %6.2fs -> %10.0f eventos/s%n", label, events, seconds,
+                events / seconds);
+    }
+}
@@ -0,0 +1,251 @@
+package com.messageria.benchmark;
+
+import com.messageria.broker.InMemoryBroker;
+import com.messageria.config.NotificationShards;
+import com.messageria.config.RabbitMQConfig;
+import com.messageria.consumers.LocalDispatch;
+import com.messageria.consumers.NotificationConsumer;
+import com.messageria.consumers.PipelineLauncher;
+import com.messageria.consumers.Stage;
+import com.messageria.consumers.ThumbnailConsumer;
+import com.messageria.consumers.TranscodeConsumer;
+import com.messageria.metrics.Counter;
+import com.messageria.metrics.LatencyHistogram;
+import com.messageria.metrics.Metrics;
+import com.messageria.producer.VideoProducer;
+import com.messageria.publisher.ConfirmingPublisher;
+import com.messageria.repository.LogJobRepository;
+import com.messageria.retry.RetryPolicy;
+import com.messageria.state.NotificationStateStore;
+import com.messageria.transcode.LadderTranscoder;
+import com.messageria.transcode.RenditionLadder;
+import com.messageria.transcode.StallPolicy;
+import com.rabbitmq.client.Connection;
+import org.jcodec.api.awt.AWTSequenceEncoder;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/*
+ * Teste de carga ponta a ponta: VideoProducer -> thumbnail -> transcode -> notificação, com
+ * as três etapas na mesma JVM contra o InMemoryBroker e a topologia do RabbitMQConfig
+ * (prioridade, retry, DLQ). O thumbnail decodifica de verdade um clipe H.264 gerado pelo
+ * jcodec no início; o transcode usa o modo STUB do LadderTranscoder no lugar do ffmpeg.
+ *
+ * Perfis de carga:
+ *   burst  - todos os vídeos publicados de uma vez
+ *   steady - taxa constante
+ *   ramp   - taxa subindo linearmente de 10% até a taxa pedida
+ *
+ * Mostra a vazão (do primeiro publish ao último VideoReady), p50/p99 do tempo ponta a ponta
+ * (pipeline.endToEnd), espera na fila e processamento por etapa, e a taxa de alocação (soma
+ * do getThreadAllocatedBytes das threads vivas; threads que terminam no meio da medição não
+ * entram). As etapas usam as mesmas opções -D dos consumidores, por exemplo
+ * -Dtranscode.channels=4 -Dtranscode.stubSpeed=50 -Dnotification.batchSize=50 -Dnotification.shards=4.
+ * Com -D<etapa>.adaptive=true o relatório mostra também o prefetch em que o AdaptivePrefetch parou.
+ * -Dlauncher.localDispatch=true liga a entrega local do PipelineLauncher (desligada por padrão aqui).
+ * A saída dos consumidores é descartada durante a medição.
+ *
+ * Uso: PipelineLoadBenchmark [perfil=steady] [videos=500] [taxa/s=10] [clipSeconds=4] [frameCostMicros=0]
+ */
+public class PipelineLoadBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final String[] STAGES = { "thumbnail", "transcode", "notification" };
+    private static final Counter VIDEO_READY = Metrics.counter("notification.videoReady");
+    private static final LatencyHistogram END_TO_END = Metrics.histogram("pipeline.endToEnd");
+    // Sem nenhum VideoReady novo por esse tempo, a medição termina com o que chegou
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    public static void main(String[] args) throws Exception {
+        String profile = args.length > 0 ? args[0] : "steady";
+        int videos = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        int clipSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        long frameCostMicros = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        if (!List.of("burst", "steady", "ramp").contains(profile)) {
+            System.out.println("Perfil desconhecido: " + profile + " (use burst, steady ou ramp)");
+            return;
+        }
+
+        Path dir = Files.createTempDirectory("pipeline-bench");
+        PrintStream out = System.out;
+        RabbitMQConfig config = new InMemoryBroker(frameCostMicros * 1000).config();
+        try {
+            File clip = dir.resolve("clip.mp4").toFile();
+            writeClip(clip, clipSeconds);
+            File outputs = dir.resolve("outputs").toFile();
+
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            config.setupTopology();
+            try (Connection conn = config.createConnection();
+                    LogJobRepository thumbnailJobs = new LogJobRepository(dir.resolve("state/thumbnail"), 0, 60);
+                    LogJobRepository transcodeJobs = new LogJobRepository(dir.resolve("state/transcode"), 0, 60);
+                    NotificationStateStore store = NotificationStateStore.fromSystemProperties(
+                            dir.resolve("state/notifications"), "bench");
+                    VideoProducer producer = new VideoProducer(config, 4, "video.exchange")) {
+                ConfirmingPublisher thumbnailPublisher = new ConfirmingPublisher(conn.createChannel(), 64);
+                ConfirmingPublisher transcodePublisher = new ConfirmingPublisher(conn.createChannel(), 64);
+                RetryPolicy retry = RetryPolicy.fromSystemProperties();
+                LadderTranscoder stub = new LadderTranscoder(RenditionLadder.fromSystemProperties(),
+                        LadderTranscoder.Mode.STUB, StallPolicy.fromSystemProperties());
+                // Sem OutputCache: todos os vídeos usam o mesmo clipe e virariam hits depois do primeiro
+                List<Stage> stages = List.of(
+                        new ThumbnailConsumer(thumbnailJobs, thumbnailPublisher, retry, outputs, null),
+                        new TranscodeConsumer(transcodeJobs, stub, transcodePublisher, retry, outputs, null),
+                        NotificationShards.fromSystemProperties() > 0
+                                ? NotificationConsumer.fromSystemProperties(dir.resolve("state/notifications"),
+                                        NotificationShards.fromSystemProperties())
+                                : NotificationConsumer.fromSystemProperties(store));
+                LocalDispatch local = Boolean.getBoolean("launcher.localDispatch")
+                        ? PipelineLauncher.wireLocalDispatch(stages) : null;
+                for (Stage stage : stages) {
+                    stage.start(conn);
+                }
+
+                run(producer, clip, "warmup-", "burst", Math.min(50, videos), rate);
+                Result result = run(producer, clip, "bench-", profile, videos, rate);
+
+                for (Stage stage : stages) {
+                    if (stage instanceof NotificationConsumer && local != null) local.close();
+                    stage.stop();
+                }
+                thumbnailPublisher.close();
+                transcodePublisher.close();
+
+                System.setOut(out);
+                report(profile, videos, rate, clipSeconds, result);
+            }
+        } finally {
+            System.setOut(out);
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private record Result(long ready, long elapsedNanos, long allocatedBytes, LatencyHistogram.Snapshot endToEnd,
+            List<LatencyHistogram.Snapshot> queueWait, List<LatencyHistogram.Snapshot> processing) {
+    }
+
+    private static Result run(VideoProducer producer, File clip, String prefix, String profile, int videos,
+            double rate) throws Exception {
+        long ready0 = VIDEO_READY.get();
+        LatencyHistogram.Snapshot endToEnd0 = END_TO_END.snapshot();
+        List<LatencyHistogram.Snapshot> queueWait0 = snapshots(".queueWait");
+        List<LatencyHistogram.Snapshot> processing0 = snapshots(".processing");
+        long allocated0 = allocatedBytes();
+        long t0 = System.nanoTime();
+
+        long nextSlot = t0;
+        for (int i = 0; i < videos; i++) {
+            if (!profile.equals("burst")) {
+                long wait = nextSlot - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                double current = profile.equals("ramp") ? rate * (0.1 + 0.9 * i / videos) : rate;
+                nextSlot += (long) (1_000_000_000L / current);
+            }
+            producer.publishVideo(prefix + i, clip.getPath());
+        }
+
+        long lastReady = 0;
+        long lastChange = System.nanoTime();
+        while (VIDEO_READY.get() - ready0 < videos && System.nanoTime() - lastChange < IDLE_TIMEOUT_NANOS) {
+            long ready = VIDEO_READY.get();
+            if (ready != lastReady) {
+                lastReady = ready;
+                lastChange = System.nanoTime();
+            }
+            Thread.sleep(5);
+        }
+        long elapsed = System.nanoTime() - t0;
+
+        List<LatencyHistogram.Snapshot> queueWait = new ArrayList<>();
+        List<LatencyHistogram.Snapshot> processing = new ArrayList<>();
+        List<LatencyHistogram.Snapshot> queueWait1 = snapshots(".queueWait");
+        List<LatencyHistogram.Snapshot> processing1 = snapshots(".processing");
+        for (int i = 0; i < STAGES.length; i++) {
+            queueWait.add(queueWait1.get(i).minus(queueWait0.get(i)));
+            processing.add(processing1.get(i).minus(processing0.get(i)));
+        }
+        return new Result(VIDEO_READY.get() - ready0, elapsed, allocatedBytes() - allocated0,
+                END_TO_END.snapshot().minus(endToEnd0), queueWait, processing);
+    }
+
+    private static List<LatencyHistogram.Snapshot> snapshots(String suffix) {
+        List<LatencyHistogram.Snapshot> list = new ArrayList<>();
+        for (String stage : STAGES) {
+            list.add(Metrics.histogram(stage + suffix).snapshot());
+        }
+        return list;
+    }
+
+    private static long allocatedBytes() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    // Clipe 320x180 a 25fps com um quadrado andando, só para o thumbnail ter o que decodificar
+    private static void writeClip(File file, int seconds) throws Exception {
+        AWTSequenceEncoder encoder = AWTSequenceEncoder.create25Fps(file);
+        BufferedImage frame = new BufferedImage(320, 180, BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < seconds * 25; i++) {
+            Graphics2D g = frame.createGraphics();
+            g.setColor(Color.DARK_GRAY);
+            g.fillRect(0, 0, 320, 180);
+            g.setColor(Color.ORANGE);
+            g.fillRect((i * 4) % 280, 70, 40, 40);
+            g.dispose();
+            encoder.encodeImage(frame);
+        }
+        encoder.finish();
+    }
+
+    private static void report(String profile, int videos, double rate, int clipSeconds, Result r) {
+        double seconds = r.elapsedNanos() / 1_000_000_000.0;
+        System.out.printf("perfil=%s videos=%d taxa=%s clipe=%ds%n", profile, videos,
+                profile.equals("burst") ? "-" : rate + "/s", clipSeconds);
+        if (r.ready() < videos) {
+            System.out.println("ATENÇÃO: só " + r.ready() + " de " + videos + " vídeos ficaram prontos");
+        }
+        System.out.printf("vazão:         %8.1f vídeos/s (%d em %.2fs)%n", r.ready() / seconds, r.ready(), seconds);
+        System.out.printf("ponta a ponta: p50 %s  p99 %s  máx %s%n",
+                Metrics.formatMicros(r.endToEnd().percentileMicros(50)),
+                Metrics.formatMicros(r.endToEnd().percentileMicros(99)),
+                Metrics.formatMicros(r.endToEnd().getMaxMicros()));
+        System.out.printf("%-14s %12s %12s %12s %12s%n", "etapa", "espera p50", "espera p99", "proc p50", "proc p99");
+        for (int i = 0; i < STAGES.length; i++) {
+            LatencyHistogram.Snapshot wait = r.queueWait().get(i);
+            LatencyHistogram.Snapshot proc = r.processing().get(i);
+            System.out.printf("%-14s %12s %12s %12s %12s%n", STAGES[i],
+                    Metrics.formatMicros(wait.percentileMicros(50)), Metrics.formatMicros(wait.percentileMicros(99)),
+                    Metrics.formatMicros(proc.percentileMicros(50)), Metrics.formatMicros(proc.percentileMicros(99)));
+        }
+        System.out.printf("alocação:      %8.1f MB/s (%d KB por vídeo)%n",
+                r.allocatedBytes() / seconds / (1024 * 1024), r.allocatedBytes() / Math.max(1, r.ready()) / 1024);
+        for (String stage : STAGES) {
+            if (Boolean.getBoolean(stage + ".adaptive")) {
+                System.out.printf("prefetch adaptativo %-13s %d (%d aumentos, %d reduções)%n", stage,
+                        Metrics.gauge(stage + ".adaptive.prefetch").get(),
+                        Metrics.counter(stage + ".adaptive.increases").get(),
+                        Metrics.counter(stage + ".adaptive.decreases").get());
+            }
+        }
+    }
+}
@@ -0,0 +1,939 @@
+package com.messageria.broker;
+
+import com.messageria.config.RabbitMQConfig;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.CancelCallback;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Broker AMQP em memória para benchmarks e testes de carga. Implementa, via proxy, o
+ * subconjunto de Connection/Channel que o projeto usa: exchanges direct/topic/fanout,
+ * filas com prefetch, prioridade (x-max-priority) e TTL (x-message-ttl), ack/nack
+ * (inclusive multiple), dead-letter, basicGet e publisher confirms. As entregas de cada canal são feitas por uma
+ * thread própria, na ordem, como no cliente real.
+ *
+ * Também tem a x-consistent-hash (com hash-property/hash-header) e filas com
+ * x-single-active-consumer, usadas pelos shards de notificação. O anel não é o mesmo do
+ * plugin do RabbitMQ (aqui cada ponto de peso vira 64 pontos no anel), então um videoId não
+ * cai necessariamente no mesmo shard nos dois brokers; só a propriedade de que o mesmo valor
+ * sempre vai para a mesma fila é garantida.
+ *
+ * frameCostNanos simula o custo de cada frame enviado ao broker (publish, ack, nack):
+ * a thread que chama fica ocupada esse tempo, como numa escrita no socket.
+ */
+public class InMemoryBroker {
+
+    private static final AtomicInteger CONNECTIONS = new AtomicInteger();
+
+    private final long frameCostNanos;
+    private final Map<String, Exchange> exchanges = new HashMap<>();
+    private final Map<String, Queue> queues = new HashMap<>();
+    private final AtomicInteger channelNumbers = new AtomicInteger();
+    // Só é criado se alguma fila tiver x-message-ttl
+    private ScheduledExecutorService ttlTimer;
+
+    public InMemoryBroker() {
+        this(0);
+    }
+
+    public InMemoryBroker(long frameCostNanos) {
+        this.frameCostNanos = frameCostNanos;
+        exchanges.put("", new Exchange("", "direct"));
+    }
+
+    private static class Exchange {
+        final String name;
+        final String type;
+        final Map<String, Object> args;
+        final List<Binding> bindings = new CopyOnWriteArrayList<>();
+        // x-consistent-hash: anel montado a partir de ringBindings, refeito quando os bindings mudam
+        private List<Binding> ringBindings;
+        private TreeMap<Integer, Binding> ring;
+
+        Exchange(String name, String type) {
+            this(name, type, null);
+        }
+
+        Exchange(String name, String type, Map<String, Object> args) {
+            this.name = name;
+            this.type = type;
+            this.args = args != null ? args : Map.of();
+        }
+
+        TreeMap<Integer, Binding> ring() {
+            if (ring == null || !ringBindings.equals(bindings)) {
+                ringBindings = new ArrayList<>(bindings);
+                ring = new TreeMap<>();
+                for (Binding b : ringBindings) {
+                    int weight;
+                    try {
+                        weight = Integer.parseInt(b.routingKey.trim());
+                    } catch (NumberFormatException e) {
+                        weight = 1;
+                    }
+                    for (int i = 0; i < weight * RING_POINTS_PER_WEIGHT; i++) {
+                        ring.put(mix((b.destination + "#" + i).hashCode()), b);
+                    }
+                }
+            }
+            return ring;
+        }
+    }
+
+    private static final int RING_POINTS_PER_WEIGHT = 64;
+
+    // Finalizador do murmur3: espalha bem hashCodes parecidos (ids sequenciais)
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static class Binding {
+        final String destination;
+        final boolean toExchange;
+        final String routingKey;
+
+        Binding(String destination, boolean toExchange, String routingKey) {
+            this.destination = destination;
+            this.toExchange = toExchange;
+            this.routingKey = routingKey;
+        }
+    }
+
+    private static class Message {
+        final String exchange;
+        final String routingKey;
+        final AMQP.BasicProperties props;
+        final byte[] body;
+        boolean redelivered;
+
+        Message(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.props = props != null ? props : new AMQP.BasicProperties();
+            this.body = body;
+        }
+    }
+
+    private static class Queue {
+        final String name;
+        final Map<String, Object> args;
+        final LinkedList<Message> messages = new LinkedList<>();
+        final List<Subscription> consumers = new ArrayList<>();
+        // x-max-priority; 0 = fila FIFO comum
+        final int maxPriority;
+        // x-message-ttl em ms; -1 = sem TTL
+        final long ttlMillis;
+        // x-single-active-consumer: só o primeiro consumidor inscrito recebe; os outros esperam a vez
+        final boolean singleActive;
+        int next;
+
+        Queue(String name, Map<String, Object> args) {
+            this.name = name;
+            this.args = args != null ? args : Map.of();
+            Object max = this.args.get("x-max-priority");
+            this.maxPriority = max instanceof Number ? ((Number) max).intValue() : 0;
+            Object ttl = this.args.get("x-message-ttl");
+            this.ttlMillis = ttl instanceof Number ? ((Number) ttl).longValue() : -1;
+            this.singleActive = Boolean.TRUE.equals(this.args.get("x-single-active-consumer"));
+        }
+
+        // Como no RabbitMQ: sem prioridade conta como 0 e acima do máximo conta como o máximo
+        int priorityOf(Message m) {
+            Integer p = m.props.getPriority();
+            return p == null ? 0 : Math.min(Math.max(p, 0), maxPriority);
+        }
+    }
+
+    private static class Subscription {
+        final String tag;
+        final Queue queue;
+        final ChannelState channel;
+        final Consumer consumer;
+        final boolean autoAck;
+
+        Subscription(String tag, Queue queue, ChannelState channel, Consumer consumer, boolean autoAck) {
+            this.tag = tag;
+            this.queue = queue;
+            this.channel = channel;
+            this.consumer = consumer;
+            this.autoAck = autoAck;
+        }
+    }
+
+    private static class Unacked {
+        final Queue queue;
+        final Message message;
+
+        Unacked(Queue queue, Message message) {
+            this.queue = queue;
+            this.message = message;
+        }
+    }
+
+    // ---------------------------------------------------------------- API do broker
+
+    public Connection newConnection() {
+        ConnectionState state = new ConnectionState("in-memory-" + CONNECTIONS.incrementAndGet());
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, state);
+    }
+
+    // RabbitMQConfig cujas conexões (inclusive a do setupTopology) vêm deste broker
+    public RabbitMQConfig config() {
+        return new RabbitMQConfig() {
+            @Override
+            public Connection createConnection() {
+                return newConnection();
+            }
+        };
+    }
+
+    public synchronized int messageCount(String queue) {
+        Queue q = queues.get(queue);
+        return q == null ? 0 : q.messages.size();
+    }
+
+    // Mensagens prontas + entregues sem ack
+    public synchronized int outstanding(String queue) {
+        Queue q = queues.get(queue);
+        if (q == null) return 0;
+        int count = q.messages.size();
+        for (ConnectionState c : connections) {
+            for (ChannelState ch : c.channels.values()) {
+                for (Unacked u : ch.unacked.values()) {
+                    if (u.queue == q) count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void spendFrame() {
+        if (frameCostNanos <= 0) return;
+        long end = System.nanoTime() + frameCostNanos;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    // ---------------------------------------------------------------- roteamento
+
+    private synchronized void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException {
+        Exchange ex = exchanges.get(exchange);
+        if (ex == null) throw new IOException("NOT_FOUND - no exchange '" + exchange + "'");
+        Message m = new Message(exchange, routingKey, props, body.clone());
+        Set<Queue> targets = new LinkedHashSet<>();
+        route(ex, m, targets, new LinkedHashSet<>());
+        for (Queue q : targets) {
+            enqueue(q, new Message(m.exchange, m.routingKey, m.props, m.body));
+        }
+    }
+
+    private void route(Exchange ex, Message m, Set<Queue> targets, Set<String> visited) {
+        if (!visited.add(ex.name)) return;
+        if (ex.name.isEmpty()) {
+            Queue q = queues.get(m.routingKey);
+            if (q != null) targets.add(q);
+            return;
+        }
+        if (ex.type.equals("x-consistent-hash")) {
+            TreeMap<Integer, Binding> ring = ex.ring();
+            if (ring.isEmpty()) return;
+            Map.Entry<Integer, Binding> point = ring.ceilingEntry(mix(hashKey(ex, m).hashCode()));
+            Binding b = (point != null ? point : ring.firstEntry()).getValue();
+            if (b.toExchange) {
+                Exchange dest = exchanges.get(b.destination);
+                if (dest != null) route(dest, m, targets, visited);
+            } else {
+                Queue q = queues.get(b.destination);
+                if (q != null) targets.add(q);
+            }
+            return;
+        }
+        for (Binding b : ex.bindings) {
+            if (!matches(ex, b, m)) continue;
+            if (b.toExchange) {
+                Exchange dest = exchanges.get(b.destination);
+                if (dest != null) route(dest, m, targets, visited);
+            } else {
+                Queue q = queues.get(b.destination);
+                if (q != null) targets.add(q);
+            }
+        }
+    }
+
+    // Valor usado pela x-consistent-hash: a propriedade ou header configurado, senão a routing key
+    private static String hashKey(Exchange ex, Message m) {
+        Object property = ex.args.get("hash-property");
+        if ("correlation_id".equals(property)) return String.valueOf(m.props.getCorrelationId());
+        if ("message_id".equals(property)) return String.valueOf(m.props.getMessageId());
+        Object header = ex.args.get("hash-header");
+        if (header != null) {
+            Map<String, Object> headers = m.props.getHeaders();
+            return String.valueOf(headers != null ? headers.get(header.toString()) : null);
+        }
+        return m.routingKey;
+    }
+
+    private boolean matches(Exchange ex, Binding b, Message m) {
+        switch (ex.type) {
+            case "fanout":
+                return true;
+            case "topic":
+                return topicMatches(b.routingKey.split("\\."), 0, m.routingKey.split("\\."), 0);
+            default:
+                return b.routingKey.equals(m.routingKey);
+        }
+    }
+
+    private static boolean topicMatches(String[] pattern, int p, String[] key, int k) {
+        if (p == pattern.length) return k == key.length;
+        if (pattern[p].equals("#")) {
+            for (int i = k; i <= key.length; i++) {
+                if (topicMatches(pattern, p + 1, key, i)) return true;
+            }
+            return false;
+        }
+        if (k == key.length) return false;
+        if (pattern[p].equals("*") || pattern[p].equals(key[k])) {
+            return topicMatches(pattern, p + 1, key, k + 1);
+        }
+        return false;
+    }
+
+    private void enqueue(Queue q, Message m) {
+        if (q.maxPriority > 0) {
+            // Entra depois de todas as mensagens com prioridade maior ou igual
+            int priority = q.priorityOf(m);
+            ListIterator<Message> it = q.messages.listIterator(q.messages.size());
+            while (it.hasPrevious()) {
+                if (q.priorityOf(it.previous()) >= priority) {
+                    it.next();
+                    break;
+                }
+            }
+            it.add(m);
+        } else {
+            q.messages.addLast(m);
+        }
+        if (q.ttlMillis >= 0) scheduleExpiry(q, m);
+        pump(q);
+    }
+
+    // Como no RabbitMQ, a mensagem que expira sem ser entregue vai para a dead-letter exchange da fila
+    private void scheduleExpiry(Queue q, Message m) {
+        if (ttlTimer == null) {
+            ttlTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "in-memory-broker-ttl");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        ttlTimer.schedule(() -> expire(q, m), q.ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void expire(Queue q, Message m) {
+        // Se já foi entregue (ou a fila foi apagada/esvaziada) não há o que fazer
+        Iterator<Message> it = q.messages.iterator();
+        while (it.hasNext()) {
+            if (it.next() == m) {
+                it.remove();
+                deadLetter(q, m, "expired");
+                return;
+            }
+        }
+    }
+
+    private void deadLetter(Queue q, Message m, String reason) {
+        Object dlx = q.args.get("x-dead-letter-exchange");
+        if (dlx == null) return;
+        Object dlk = q.args.get("x-dead-letter-routing-key");
+        String routingKey = dlk != null ? dlk.toString() : m.routingKey;
+
+        Map<String, Object> headers = new HashMap<>();
+        if (m.props.getHeaders() != null) headers.putAll(m.props.getHeaders());
+        Map<String, Object> death = new HashMap<>();
+        death.put("queue", q.name);
+        death.put("reason", reason);
+        death.put("exchange", m.exchange);
+        death.put("routing-keys", List.of(m.routingKey));
+        death.put("count", 1L);
+        List<Object> deaths = new ArrayList<>();
+        deaths.add(death);
+        Object previous = headers.get("x-death");
+        if (previous instanceof List) deaths.addAll((List<?>) previous);
+        headers.put("x-death", deaths);
+
+        Exchange ex = exchanges.get(dlx.toString());
+        if (ex == null) return;
+        Message dead = new Message(dlx.toString(), routingKey, m.props.builder().headers(headers).build(), m.body);
+        Set<Queue> targets = new LinkedHashSet<>();
+        route(ex, dead, targets, new LinkedHashSet<>());
+        for (Queue target : targets) {
+            enqueue(target, new Message(dead.exchange, dead.routingKey, dead.props, dead.body));
+        }
+    }
+
+    // Entrega o que der para os consumidores com espaço no prefetch (round robin)
+    private void pump(Queue q) {
+        while (!q.messages.isEmpty() && !q.consumers.isEmpty()) {
+            Subscription target = null;
+            if (q.singleActive) {
+                Subscription s = q.consumers.get(0);
+                if (s.autoAck || s.channel.prefetch == 0 || s.channel.unacked.size() < s.channel.prefetch) {
+                    target = s;
+                }
+            }
+            for (int i = 0; !q.singleActive && i < q.consumers.size(); i++) {
+                Subscription s = q.consumers.get((q.next + i) % q.consumers.size());
+                if (s.autoAck || s.channel.prefetch == 0 || s.channel.unacked.size() < s.channel.prefetch) {
+                    target = s;
+                    q.next = (q.next + i + 1) % q.consumers.size();
+                    break;
+                }
+            }
+            if (target == null) return;
+            Message m = q.messages.pollFirst();
+            deliver(target, m);
+        }
+    }
+
+    private void deliver(Subscription s, Message m) {
+        ChannelState ch = s.channel;
+        long tag = ++ch.deliveryTags;
+        if (!s.autoAck) ch.unacked.put(tag, new Unacked(s.queue, m));
+        Envelope envelope = new Envelope(tag, m.redelivered, m.exchange, m.routingKey);
+        ch.dispatcher.execute(() -> {
+            try {
+                s.consumer.handleDelivery(s.tag, envelope, m.props, m.body);
+            } catch (Throwable e) {
+                System.out.println("Erro no consumer " + s.tag + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private void pumpAll() {
+        for (Queue q : queues.values()) pump(q);
+    }
+
+    // ---------------------------------------------------------------- conexão e canal
+
+    private final Set<ConnectionState> connections = ConcurrentHashMap.newKeySet();
+
+    private class ConnectionState implements InvocationHandler {
+        final String name;
+        final Map<Integer, ChannelState> channels = new ConcurrentHashMap<>();
+        volatile boolean open = true;
+
+        ConnectionState(String name) {
+            this.name = name;
+            connections.add(this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "createChannel": {
+                    ChannelState ch = new ChannelState(this, channelNumbers.incrementAndGet());
+                    Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+                            new Class<?>[] { Channel.class }, ch);
+                    ch.proxy = channel;
+                    ch.connectionProxy = (Connection) proxy;
+                    channels.put(ch.number, ch);
+                    return method.getReturnType() == java.util.Optional.class ? java.util.Optional.of(channel) : channel;
+                }
+                case "close":
+                case "abort":
+                    for (ChannelState ch : new ArrayList<>(channels.values())) ch.close();
+                    open = false;
+                    connections.remove(this);
+                    return null;
+                case "isOpen":
+                    return open;
+                case "getClientProvidedName":
+                    return name;
+                case "addShutdownListener":
+                case "removeShutdownListener":
+                case "addBlockedListener":
+                    return null;
+                case "toString":
+                    return "InMemoryConnection(" + name + ")";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException("InMemoryBroker: Connection." + method.getName());
+            }
+        }
+    }
+
+    private class ChannelState implements InvocationHandler {
+        final ConnectionState connection;
+        final int number;
+        final TreeMap<Long, Unacked> unacked = new TreeMap<>();
+        final Map<String, Subscription> subscriptions = new LinkedHashMap<>();
+        final List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<>();
+        final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        final ExecutorService dispatcher;
+        Channel proxy;
+        Connection connectionProxy;
+        volatile int prefetch;
+        long deliveryTags;
+        boolean confirms;
+        long publishSeq = 1;
+        volatile boolean open = true;
+        int consumerTags;
+
+        ChannelState(ConnectionState connection, int number) {
+            this.connection = connection;
+            this.number = number;
+            this.dispatcher = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "in-memory-dispatch-" + number);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "toString":
+                    return "InMemoryChannel(" + number + ")";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "getChannelNumber":
+                    return number;
+                case "getConnection":
+                    return connectionProxy;
+                case "isOpen":
+                    return open;
+                case "close":
+                case "abort":
+                    close();
+                    return null;
+                default:
+                    break;
+            }
+            if (!open) {
+                throw new com.rabbitmq.client.AlreadyClosedException(
+                        new ShutdownSignalException(false, true, null, proxy));
+            }
+            try {
+                return invokeOpen(name, method, args == null ? new Object[0] : args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Object invokeOpen(String name, Method method, Object[] args) throws Exception {
+            InMemoryBroker broker = InMemoryBroker.this;
+            switch (name) {
+                case "exchangeDeclare": {
+                    String type = args[1] instanceof BuiltinExchangeType
+                            ? ((BuiltinExchangeType) args[1]).getType() : args[1].toString();
+                    Map<String, Object> xargs = lastMap(args);
+                    synchronized (broker) {
+                        exchanges.putIfAbsent(args[0].toString(), new Exchange(args[0].toString(), type, xargs));
+                    }
+                    return new AMQP.Exchange.DeclareOk.Builder().build();
+                }
+                case "exchangeDeclarePassive":
+                    synchronized (broker) {
+                        if (!exchanges.containsKey(args[0].toString())) {
+                            throw new IOException("NOT_FOUND - no exchange '" + args[0] + "'");
+                        }
+                    }
+                    return new AMQP.Exchange.DeclareOk.Builder().build();
+                case "exchangeBind":
+                    synchronized (broker) {
+                        Exchange source = requireExchange(args[1].toString());
+                        source.bindings.add(new Binding(args[0].toString(), true, args[2].toString()));
+                    }
+                    return new AMQP.Exchange.BindOk.Builder().build();
+                case "exchangeUnbind":
+                    synchronized (broker) {
+                        Exchange source = requireExchange(args[1].toString());
+                        source.bindings.removeIf(b -> b.toExchange && b.destination.equals(args[0].toString())
+                                && b.routingKey.equals(args[2].toString()));
+                    }
+                    return new AMQP.Exchange.UnbindOk.Builder().build();
+                case "exchangeDelete":
+                    synchronized (broker) {
+                        exchanges.remove(args[0].toString());
+                    }
+                    return new AMQP.Exchange.DeleteOk.Builder().build();
+                case "queueDeclare": {
+                    String queueName = args.length == 0 || args[0].toString().isEmpty()
+                            ? "amq.gen-" + Long.toHexString(System.nanoTime()) : args[0].toString();
+                    Map<String, Object> qargs = lastMap(args);
+                    synchronized (broker) {
+                        Queue q = queues.computeIfAbsent(queueName, n -> new Queue(n, qargs));
+                        return declareOk(queueName, q.messages.size(), q.consumers.size());
+                    }
+                }
+                case "queueDeclarePassive":
+                    synchronized (broker) {
+                        Queue q = queues.get(args[0].toString());
+                        if (q == null) throw new IOException("NOT_FOUND - no queue '" + args[0] + "'");
+                        return declareOk(q.name, q.messages.size(), q.consumers.size());
+                    }
+                case "queueBind":
+                    synchronized (broker) {
+                        Exchange ex = requireExchange(args[1].toString());
+                        boolean exists = false;
+                        for (Binding b : ex.bindings) {
+                            if (!b.toExchange && b.destination.equals(args[0]) && b.routingKey.equals(args[2])) {
+                                exists = true;
+                            }
+                        }
+                        if (!exists) ex.bindings.add(new Binding(args[0].toString(), false, args[2].toString()));
+                    }
+                    return new AMQP.Queue.BindOk.Builder().build();
+                case "queueUnbind":
+                    synchronized (broker) {
+                        Exchange ex = requireExchange(args[1].toString());
+                        ex.bindings.removeIf(b -> !b.toExchange && b.destination.equals(args[0].toString())
+                                && b.routingKey.equals(args[2].toString()));
+                    }
+                    return new AMQP.Queue.UnbindOk.Builder().build();
+                case "queueDelete":
+                    synchronized (broker) {
+                        Queue q = queues.get(args[0].toString());
+                        if (q == null) return new AMQP.Queue.DeleteOk.Builder().messageCount(0).build();
+                        boolean ifEmpty = args.length == 3 && (Boolean) args[2];
+                        if (ifEmpty && !q.messages.isEmpty()) {
+                            throw new IOException("PRECONDITION_FAILED - queue '" + q.name + "' not empty");
+                        }
+                        queues.remove(q.name);
+                        for (Exchange ex : exchanges.values()) {
+                            ex.bindings.removeIf(b -> !b.toExchange && b.destination.equals(q.name));
+                        }
+                        // Como no RabbitMQ, os consumidores da fila recebem um basic.cancel
+                        for (Subscription s : new ArrayList<>(q.consumers)) {
+                            s.channel.subscriptions.remove(s.tag);
+                            s.channel.dispatcher.execute(() -> {
+                                try {
+                                    s.consumer.handleCancel(s.tag);
+                                } catch (Throwable e) {
+                                    System.out.println("Erro no cancel do consumer " + s.tag + ": " + e.getMessage());
+                                }
+                            });
+                        }
+                        q.consumers.clear();
+                        return new AMQP.Queue.DeleteOk.Builder().messageCount(q.messages.size()).build();
+                    }
+                case "queuePurge":
+                    synchronized (broker) {
+                        Queue q = queues.get(args[0].toString());
+                        int count = q == null ? 0 : q.messages.size();
+                        if (q != null) q.messages.clear();
+                        return new AMQP.Queue.PurgeOk.Builder().messageCount(count).build();
+                    }
+                case "messageCount":
+                    return (long) broker.messageCount(args[0].toString());
+                case "consumerCount":
+                    synchronized (broker) {
+                        Queue q = queues.get(args[0].toString());
+                        return (long) (q == null ? 0 : q.consumers.size());
+                    }
+                case "basicQos":
+                    prefetch = args.length == 3 ? (Integer) args[1] : (Integer) args[0];
+                    synchronized (broker) {
+                        pumpAll();
+                    }
+                    return null;
+                case "basicPublish": {
+                    spendFrame();
+                    String exchange = args[0].toString();
+                    String routingKey = args[1].toString();
+                    AMQP.BasicProperties props = (AMQP.BasicProperties) args[args.length - 2];
+                    byte[] body = (byte[]) args[args.length - 1];
+                    long seq;
+                    synchronized (this) {
+                        seq = confirms ? publishSeq++ : 0;
+                    }
+                    broker.publish(exchange, routingKey, props, body);
+                    if (seq > 0) {
+                        dispatcher.execute(() -> {
+                            for (ConfirmListener l : confirmListeners) {
+                                try {
+                                    l.handleAck(seq, false);
+                                } catch (IOException e) {
+                                    System.out.println("Erro no confirm listener: " + e.getMessage());
+                                }
+                            }
+                        });
+                    }
+                    return null;
+                }
+                case "confirmSelect":
+                    synchronized (this) {
+                        confirms = true;
+                    }
+                    return new AMQP.Confirm.SelectOk.Builder().build();
+                case "getNextPublishSeqNo":
+                    synchronized (this) {
+                        return confirms ? publishSeq : 0L;
+                    }
+                case "waitForConfirms":
+                    return true;
+                case "waitForConfirmsOrDie":
+                    return null;
+                case "addConfirmListener": {
+                    ConfirmListener listener;
+                    if (args.length == 1) {
+                        listener = (ConfirmListener) args[0];
+                    } else {
+                        ConfirmCallback ack = (ConfirmCallback) args[0];
+                        ConfirmCallback nack = (ConfirmCallback) args[1];
+                        listener = new ConfirmListener() {
+                            @Override
+                            public void handleAck(long tag, boolean multiple) throws IOException {
+                                ack.handle(tag, multiple);
+                            }
+
+                            @Override
+                            public void handleNack(long tag, boolean multiple) throws IOException {
+                                nack.handle(tag, multiple);
+                            }
+                        };
+                    }
+                    confirmListeners.add(listener);
+                    return listener;
+                }
+                case "addShutdownListener":
+                    shutdownListeners.add((ShutdownListener) args[0]);
+                    return null;
+                case "removeShutdownListener":
+                    shutdownListeners.remove(args[0]);
+                    return null;
+                case "addReturnListener":
+                case "addRecoveryListener":
+                    return null;
+                case "basicConsume":
+                    return consume(args);
+                case "basicCancel":
+                    synchronized (broker) {
+                        Subscription s = subscriptions.remove(args[0].toString());
+                        if (s != null) {
+                            s.queue.consumers.remove(s);
+                            dispatcher.execute(() -> {
+                                try {
+                                    s.consumer.handleCancelOk(s.tag);
+                                } catch (Throwable ignored) {
+                                }
+                            });
+                        }
+                    }
+                    return null;
+                case "basicAck":
+                    spendFrame();
+                    settle((Long) args[0], (Boolean) args[1], false, false);
+                    return null;
+                case "basicNack":
+                    spendFrame();
+                    settle((Long) args[0], (Boolean) args[1], true, (Boolean) args[2]);
+                    return null;
+                case "basicReject":
+                    spendFrame();
+                    settle((Long) args[0], false, true, (Boolean) args[1]);
+                    return null;
+                case "basicGet": {
+                    boolean autoAck = (Boolean) args[1];
+                    synchronized (broker) {
+                        Queue q = queues.get(args[0].toString());
+                        if (q == null) throw new IOException("NOT_FOUND - no queue '" + args[0] + "'");
+                        Message m = q.messages.pollFirst();
+                        if (m == null) return null;
+                        long tag = ++deliveryTags;
+                        if (!autoAck) unacked.put(tag, new Unacked(q, m));
+                        return new GetResponse(new Envelope(tag, m.redelivered, m.exchange, m.routingKey),
+                                m.props, m.body, q.messages.size());
+                    }
+                }
+                case "basicRecover":
+                    synchronized (broker) {
+                        requeueAll();
+                    }
+                    return null;
+                default:
+                    throw new UnsupportedOperationException("InMemoryBroker: Channel." + name);
+            }
+        }
+
+        private Map<String, Object> lastMap(Object[] args) {
+            for (int i = args.length - 1; i >= 0; i--) {
+                if (args[i] instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> m = (Map<String, Object>) args[i];
+                    return m;
+                }
+            }
+            return null;
+        }
+
+        private Object consume(Object[] args) {
+            String queueName = args[0].toString();
+            boolean autoAck = args.length > 1 && args[1] instanceof Boolean && (Boolean) args[1];
+            String tag = null;
+            Consumer consumer = null;
+            DeliverCallback deliver = null;
+            CancelCallback cancel = null;
+            for (int i = 1; i < args.length; i++) {
+                Object a = args[i];
+                if (a instanceof String && tag == null && i == 2) tag = (String) a;
+                if (a instanceof Consumer) consumer = (Consumer) a;
+                if (a instanceof DeliverCallback) deliver = (DeliverCallback) a;
+                if (a instanceof CancelCallback && cancel == null) cancel = (CancelCallback) a;
+            }
+            if (tag == null || tag.isEmpty()) tag = "amq.ctag-" + number + "-" + (++consumerTags);
+            if (consumer == null) consumer = callbackConsumer(deliver, cancel);
+
+            synchronized (InMemoryBroker.this) {
+                Queue q = queues.get(queueName);
+                if (q == null) throw new IllegalStateException("NOT_FOUND - no queue '" + queueName + "'");
+                Subscription s = new Subscription(tag, q, this, consumer, autoAck);
+                subscriptions.put(tag, s);
+                q.consumers.add(s);
+                Consumer c = consumer;
+                String t = tag;
+                dispatcher.execute(() -> c.handleConsumeOk(t));
+                pump(q);
+            }
+            return tag;
+        }
+
+        private Consumer callbackConsumer(DeliverCallback deliver, CancelCallback cancel) {
+            return new com.rabbitmq.client.DefaultConsumer(proxy) {
+                @Override
+                public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+                        byte[] body) throws IOException {
+                    deliver.handle(consumerTag, new Delivery(envelope, properties, body));
+                }
+
+                @Override
+                public void handleCancel(String consumerTag) throws IOException {
+                    if (cancel != null) cancel.handle(consumerTag);
+                }
+            };
+        }
+
+        private void settle(long tag, boolean multiple, boolean reject, boolean requeue) {
+            synchronized (InMemoryBroker.this) {
+                List<Unacked> settled = new ArrayList<>();
+                if (multiple) {
+                    Iterator<Map.Entry<Long, Unacked>> it = unacked.headMap(tag, true).entrySet().iterator();
+                    while (it.hasNext()) {
+                        settled.add(it.next().getValue());
+                        it.remove();
+                    }
+                } else {
+                    Unacked u = unacked.remove(tag);
+                    if (u != null) settled.add(u);
+                }
+                if (reject) {
+                    for (int i = settled.size() - 1; i >= 0; i--) {
+                        Unacked u = settled.get(i);
+                        if (requeue) {
+                            u.message.redelivered = true;
+                            u.queue.messages.addFirst(u.message);
+                        } else {
+                            deadLetter(u.queue, u.message, "rejected");
+                        }
+                    }
+                }
+                pumpAll();
+            }
+        }
+
+        private void requeueAll() {
+            List<Unacked> pending = new ArrayList<>(unacked.values());
+            unacked.clear();
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                Unacked u = pending.get(i);
+                u.message.redelivered = true;
+                u.queue.messages.addFirst(u.message);
+            }
+        }
+
+        void close() {
+            synchronized (InMemoryBroker.this) {
+                if (!open) return;
+                open = false;
+                for (Subscription s : subscriptions.values()) s.queue.consumers.remove(s);
+                subscriptions.clear();
+                requeueAll();
+                connection.channels.remove(number);
+                pumpAll();
+            }
+            ShutdownSignalException cause = new ShutdownSignalException(false, true, null, proxy);
+            for (ShutdownListener l : shutdownListeners) {
+                try {
+                    l.shutdownCompleted(cause);
+                } catch (Exception ignored) {
+                }
+            }
+            dispatcher.shutdown();
+            try {
+                dispatcher.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Exchange requireExchange(String name) throws IOException {
+        Exchange ex = exchanges.get(name);
+        if (ex == null) throw new IOException("NOT_FOUND - no exchange '" + name + "'");
+        return ex;
+    }
+
+    private static AMQP.Queue.DeclareOk declareOk(String queue, int messages, int consumers) {
+        return new AMQP.Queue.DeclareOk.Builder().queue(queue).messageCount(messages).consumerCount(consumers).build();
+    }
+}
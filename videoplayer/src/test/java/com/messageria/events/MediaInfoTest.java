@@ -0,0 +1,64 @@
+package com.messageria.events;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MediaInfoTest {
+
+    private static final MediaInfo MEDIA = new MediaInfo(125_400_000L, 3762, 1920, 1080, "avc1",
+            new int[] {0, 250, 500, 750, 1000, 3750});
+
+    @Test
+    void nearestKeyframe() {
+        assertEquals(0, MEDIA.nearestKeyframe(-5));
+        assertEquals(250, MEDIA.nearestKeyframe(250));
+        assertEquals(250, MEDIA.nearestKeyframe(375));
+        assertEquals(500, MEDIA.nearestKeyframe(376));
+        assertEquals(3750, MEDIA.nearestKeyframe(9999));
+        assertEquals(1000, MEDIA.middleKeyframe());
+        // Sem índice: o próprio frame
+        assertEquals(42, MediaInfo.nearestKeyframe(null, 42));
+        assertEquals(42, MediaInfo.nearestKeyframe(new int[0], 42));
+    }
+
+    @Test
+    void roundTripInBothCodecs() throws IOException {
+        for (MessageCodec codec : new MessageCodec[] {MessageCodecs.JSON, MessageCodecs.BINARY}) {
+            VideoCreated decoded = codec.decode(codec.encode(new VideoCreated("v1", "videos/a.mp4", MEDIA)),
+                    VideoCreated.class);
+            assertSameMedia(MEDIA, decoded.media());
+
+            MediaInfo partial = new MediaInfo(0, 10, 0, 0, null, null);
+            assertSameMedia(partial, codec.decode(codec.encode(new VideoCreated("v1", "a.mp4", partial)),
+                    VideoCreated.class).media());
+
+            assertNull(codec.decode(codec.encode(new VideoCreated("v1", "a.mp4")), VideoCreated.class).media());
+        }
+    }
+
+    @Test
+    void jsonKeyframesOutOfOrderAreDropped() throws IOException {
+        String json = "{\"event\":\"VideoCreated\",\"videoId\":\"v1\",\"inputUrl\":\"a.mp4\","
+                + "\"media\":{\"frames\":100,\"keyframes\":[0,50,25],\"extra\":{\"x\":1}}}";
+        MediaInfo media = MessageCodecs.JSON.decode(json.getBytes(StandardCharsets.UTF_8), VideoCreated.class).media();
+
+        assertEquals(100, media.frames());
+        assertNull(media.keyframes());
+        assertEquals(50, media.middleKeyframe());
+    }
+
+    private static void assertSameMedia(MediaInfo expected, MediaInfo actual) {
+        assertEquals(expected.durationMicros(), actual.durationMicros());
+        assertEquals(expected.frames(), actual.frames());
+        assertEquals(expected.width(), actual.width());
+        assertEquals(expected.height(), actual.height());
+        assertEquals(expected.codec(), actual.codec());
+        assertArrayEquals(expected.keyframes(), actual.keyframes());
+    }
+}
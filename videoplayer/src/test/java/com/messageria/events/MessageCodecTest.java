@@ -0,0 +1,105 @@
+package com.messageria.events;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageCodecTest {
+
+    private static final List<Event> SAMPLES = List.of(
+            new VideoCreated("v1", "videos/entrada ção.mp4"),
+            new ThumbnailCreated("job-1", "v1", "thumbnail/v1_640.jpg", "thumbnail/v1_sprite.jpg",
+                    List.of("thumbnail/v1_640.jpg", "thumbnail/v1_320.jpg")),
+            new ThumbnailCreated("job-1", "v1", "thumbnail/v1.jpg", null, null),
+            new TranscodeCreated("job-2", "v1", List.of("outputs/v1_720p.mp4", "outputs/v1_480p.mp4")),
+            new TranscodeCreated("job-2", "v1", List.of()),
+            new VideoReady("v1", List.of("outputs/v1_720p.mp4"), "thumbnail/v1.jpg"),
+            new TranscodeProgress("job-2", "v1", "720p", 1234, 29.97, 1.5, 41_000_000L, 0.42),
+            new TranscodeProgress("job-2", "v1", "ladder", 0, 0, -1, 0, -1),
+            new TranscodeCancel("v1", "cancelado pelo usuário"),
+            new TranscodeSegment("job-3", "v1", "720:2500k:128k", 7, 12, "/data/v1.mp4", "/data/seg/720p/seg_00007.mp4"),
+            new TranscodeSegmentDone("job-3", "v1", "720:2500k:128k", 7, "/data/seg/720p/seg_00007.mp4", null),
+            new TranscodeSegmentDone("job-3", "v1", "720:2500k:128k", 8, null, "ffmpeg travado"));
+
+    static Stream<Arguments> samples() {
+        return Stream.of(MessageCodecs.JSON, MessageCodecs.BINARY)
+                .flatMap(codec -> SAMPLES.stream().map(event -> Arguments.of(codec, event)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void roundTrip(MessageCodec codec, Event event) throws IOException {
+        byte[] body = codec.encode(event);
+        assertEquals(event, codec.decode(body));
+        assertEquals(event, codec.decode(body, event.getClass()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void decodeWithWrongTypeIsInvalid(MessageCodec codec, Event event) throws IOException {
+        byte[] body = codec.encode(event);
+        Class<? extends Event> other = event instanceof VideoReady ? VideoCreated.class : VideoReady.class;
+        assertThrows(InvalidMessageException.class, () -> codec.decode(body, other));
+    }
+
+    @Test
+    void contentTypeSelectsTheCodec() throws IOException {
+        assertSame(MessageCodecs.JSON, MessageCodecs.forContentType(null));
+        assertSame(MessageCodecs.JSON, MessageCodecs.forContentType("application/json; charset=utf-8"));
+        assertSame(MessageCodecs.BINARY, MessageCodecs.forContentType(BinaryMessageCodec.CONTENT_TYPE));
+        assertThrows(InvalidMessageException.class, () -> MessageCodecs.forContentType("text/plain"));
+    }
+
+    @Test
+    void jsonWithoutEventNameIsVideoCreated() throws IOException {
+        // Formato do produtor antes dos eventos tipados
+        Event event = MessageCodecs.JSON.decode(json("{\"videoId\":\"v1\",\"inputUrl\":\"videos/a.mp4\",\"x\":[1,{}]}"));
+        assertEquals(new VideoCreated("v1", "videos/a.mp4"), event);
+    }
+
+    @Test
+    void jsonMissingRequiredFieldsIsInvalid() {
+        assertThrows(InvalidMessageException.class,
+                () -> MessageCodecs.JSON.decode(json("{\"inputUrl\":\"videos/a.mp4\"}")));
+        assertThrows(InvalidMessageException.class, () -> MessageCodecs.JSON.decode(json("{\"videoId\":\"v1\"}")));
+        assertThrows(InvalidMessageException.class, () -> MessageCodecs.JSON.decode(json("[]")));
+        assertThrows(InvalidMessageException.class,
+                () -> MessageCodecs.JSON.decode(json("{\"videoId\":\"v1\",\"event\":\"Outro\"}")));
+    }
+
+    @Test
+    void binaryTruncatedOrUnknownIsInvalid() throws IOException {
+        byte[] body = MessageCodecs.BINARY.encode(SAMPLES.get(3));
+        for (int len = 0; len < body.length; len++) {
+            byte[] truncated = Arrays.copyOf(body, len);
+            assertThrows(InvalidMessageException.class, () -> MessageCodecs.BINARY.decode(truncated));
+        }
+        assertThrows(InvalidMessageException.class, () -> MessageCodecs.BINARY.decode(new byte[] {9, 1}));
+        assertThrows(InvalidMessageException.class, () -> MessageCodecs.BINARY.decode(new byte[] {1, 99}));
+    }
+
+    @Test
+    void binaryThumbnailCreatedWithoutSizesListStillDecodes() throws IOException {
+        // Versões anteriores terminavam a mensagem no sprite
+        byte[] body = MessageCodecs.BINARY.encode(new ThumbnailCreated("job-1", "v1", "t.jpg", null, null));
+        ThumbnailCreated decoded = MessageCodecs.BINARY.decode(body, ThumbnailCreated.class);
+        assertNull(decoded.thumbnails());
+        assertEquals("t.jpg", decoded.thumbnail());
+    }
+
+    private static byte[] json(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
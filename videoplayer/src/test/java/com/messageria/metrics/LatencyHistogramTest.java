@@ -0,0 +1,88 @@
+package com.messageria.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesHaveExactBuckets() {
+        for (long v = 0; v < 32; v++) {
+            assertEquals(v, LatencyHistogram.upperBound(LatencyHistogram.indexOf(v)));
+        }
+    }
+
+    @Test
+    void bucketsCoverEveryValueWithSmallRelativeError() {
+        int previous = -1;
+        for (long v = 1; v < (1L << 40); v += Math.max(1, v / 7)) {
+            int index = LatencyHistogram.indexOf(v);
+            long upper = LatencyHistogram.upperBound(index);
+            assertTrue(index >= previous, "índice diminuiu em " + v);
+            assertTrue(upper >= v, "limite " + upper + " abaixo de " + v);
+            assertTrue(upper - v <= v / 32, "erro grande demais em " + v + ": " + upper);
+            previous = index;
+        }
+    }
+
+    @Test
+    void upperBoundIsTheLastValueOfItsBucket() {
+        for (int i = 0; i < LatencyHistogram.indexOf(1L << 39); i++) {
+            long upper = LatencyHistogram.upperBound(i);
+            assertEquals(i, LatencyHistogram.indexOf(upper));
+            assertEquals(i + 1, LatencyHistogram.indexOf(upper + 1));
+        }
+    }
+
+    @Test
+    void valuesAboveTheRangeGoToTheLastBucket() {
+        int last = LatencyHistogram.indexOf((1L << 40) - 1);
+        assertEquals(last, LatencyHistogram.indexOf(1L << 40));
+        assertEquals(last, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void percentilesAreConservativeAndCappedAtMax() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        for (long v = 1; v <= 1000; v++) h.recordMicros(v);
+        LatencyHistogram.Snapshot s = h.snapshot();
+
+        assertEquals(1000, s.getCount());
+        assertEquals(500.5, s.getMeanMicros(), 1e-9);
+        long p50 = s.percentileMicros(50);
+        assertTrue(p50 >= 500 && p50 <= 500 + 500 / 32, "p50=" + p50);
+        long p99 = s.percentileMicros(99);
+        assertTrue(p99 >= 990 && p99 <= 1000, "p99=" + p99);
+        assertEquals(1000, s.percentileMicros(100));
+        assertEquals(1000, s.getMaxMicros());
+    }
+
+    @Test
+    void snapshotDifferenceOnlyHasTheNewValues() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        h.record(5, TimeUnit.SECONDS);
+        h.recordMicros(-3);
+        LatencyHistogram.Snapshot before = h.snapshot();
+        for (int i = 0; i < 10; i++) h.recordMicros(100);
+        LatencyHistogram.Snapshot diff = h.snapshot().minus(before);
+
+        assertEquals(10, diff.getCount());
+        assertEquals(100, diff.getMeanMicros(), 1e-9);
+        // Sem o máximo exato do intervalo: fica o limite do bucket de 100 (100..101), não os 5s de antes
+        long bucket = LatencyHistogram.upperBound(LatencyHistogram.indexOf(100));
+        assertEquals(bucket, diff.getMaxMicros());
+        assertEquals(bucket, diff.percentileMicros(99));
+    }
+
+    @Test
+    void emptySnapshot() {
+        LatencyHistogram.Snapshot s = new LatencyHistogram("test").snapshot();
+        assertEquals(0, s.getCount());
+        assertEquals(0, s.percentileMicros(99));
+        assertEquals(0, s.getMeanMicros(), 1e-9);
+    }
+}
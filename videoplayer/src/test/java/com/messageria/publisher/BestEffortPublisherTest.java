@@ -0,0 +1,63 @@
+package com.messageria.publisher;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BestEffortPublisherTest {
+
+    // Canal falso: o basicPublish fica preso até o teste soltar, como numa conexão bloqueada
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private final CountDownLatch publishing = new CountDownLatch(1);
+    private final List<String> published = new CopyOnWriteArrayList<>();
+    private final Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+            new Class<?>[] {Channel.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "basicPublish":
+                        publishing.countDown();
+                        unblock.await();
+                        published.add((String) args[1]);
+                        return null;
+                    case "getChannelNumber":
+                        return 1;
+                    case "isOpen":
+                        return false;
+                    default:
+                        return null;
+                }
+            });
+
+    @Test
+    void offerDropsInsteadOfBlockingWhileTheBrokerIsStuck() throws InterruptedException {
+        BestEffortPublisher publisher = new BestEffortPublisher(channel, 2);
+        assertTrue(publisher.offer("ex", "p1", new AMQP.BasicProperties(), new byte[0]));
+        assertTrue(publishing.await(5, TimeUnit.SECONDS));
+
+        // p1 está preso no basicPublish; cabem mais 2 na fila e o resto é descartado na hora
+        assertTrue(publisher.offer("ex", "p2", new AMQP.BasicProperties(), new byte[0]));
+        assertTrue(publisher.offer("ex", "p3", new AMQP.BasicProperties(), new byte[0]));
+        assertFalse(publisher.offer("ex", "p4", new AMQP.BasicProperties(), new byte[0]));
+
+        unblock.countDown();
+        publisher.close();
+        assertEquals(List.of("p1", "p2", "p3"), published);
+    }
+
+    @Test
+    void offerAfterCloseIsDropped() {
+        unblock.countDown();
+        BestEffortPublisher publisher = new BestEffortPublisher(channel, 2);
+        publisher.close();
+        assertFalse(publisher.offer("ex", "p1", new AMQP.BasicProperties(), new byte[0]));
+    }
+}
@@ -0,0 +1,165 @@
+package com.messageria.publisher;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfirmingPublisherTest {
+
+    // Canal falso: numera as publicações como o broker e guarda os listeners para o teste chamar
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private final AtomicBoolean failPublish = new AtomicBoolean();
+    private ConfirmCallback ack;
+    private ConfirmCallback nack;
+    private ShutdownListener shutdown;
+    private final Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+            new Class<?>[] {Channel.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getNextPublishSeqNo":
+                        return nextSeq.get();
+                    case "basicPublish":
+                        if (failPublish.get()) throw new IOException("canal caiu");
+                        nextSeq.incrementAndGet();
+                        return null;
+                    case "addConfirmListener":
+                        ack = (ConfirmCallback) args[0];
+                        nack = (ConfirmCallback) args[1];
+                        return null;
+                    case "addShutdownListener":
+                        shutdown = (ShutdownListener) args[0];
+                        return null;
+                    case "getChannelNumber":
+                        return 1;
+                    case "isOpen":
+                        return false;
+                    default:
+                        return null;
+                }
+            });
+
+    // Callbacks na própria thread do confirm, para o teste ver o resultado na hora
+    private final ConfirmingPublisher publisher = new ConfirmingPublisher(channel, 8, Runnable::run);
+
+    ConfirmingPublisherTest() throws IOException {
+    }
+
+    @Test
+    void multipleAckConfirmsOnlyThePrefix() throws Exception {
+        List<CompletableFuture<Void>> futures = publish(5);
+        ack.handle(3, true);
+
+        for (int i = 0; i < 3; i++) assertTrue(futures.get(i).isDone());
+        assertFalse(futures.get(3).isDone());
+        assertFalse(futures.get(4).isDone());
+        assertEquals(2, publisher.getOutstanding());
+
+        ack.handle(5, false);
+        assertTrue(futures.get(4).isDone());
+        assertFalse(futures.get(3).isDone());
+        ack.handle(4, false);
+        assertEquals(0, publisher.getOutstanding());
+    }
+
+    @Test
+    void repeatedOrLateConfirmsAreIgnored() throws Exception {
+        List<CompletableFuture<Void>> futures = publish(2);
+        ack.handle(1, false);
+        ack.handle(1, false);
+        ack.handle(2, true);
+        ack.handle(2, true);
+
+        assertTrue(futures.get(1).isDone());
+        assertEquals(0, publisher.getOutstanding());
+        // A janela não cresceu com os confirms repetidos: a nona publicação ainda espera
+        publish(8);
+        assertBlocks(publishAsync());
+    }
+
+    @Test
+    void nackFailsTheFutures() throws Exception {
+        List<CompletableFuture<Void>> futures = publish(3);
+        nack.handle(2, true);
+
+        assertInstanceOf(IOException.class, failure(futures.get(0)));
+        assertInstanceOf(IOException.class, failure(futures.get(1)));
+        assertFalse(futures.get(2).isDone());
+    }
+
+    @Test
+    void fullWindowBlocksUntilAConfirm() throws Exception {
+        publish(8);
+        CompletableFuture<CompletableFuture<Void>> ninth = publishAsync();
+        assertBlocks(ninth);
+
+        ack.handle(1, false);
+        ninth.get(5, TimeUnit.SECONDS);
+        assertEquals(8, publisher.getOutstanding());
+    }
+
+    @Test
+    void failedPublishGivesBackItsSlot() throws Exception {
+        failPublish.set(true);
+        for (int i = 0; i < 20; i++) {
+            assertThrows(IOException.class, () -> publisher.publish("", "q", null, new byte[0]));
+        }
+        assertEquals(0, publisher.getOutstanding());
+        failPublish.set(false);
+        publish(8);
+        assertEquals(8, publisher.getOutstanding());
+        assertBlocks(publishAsync());
+    }
+
+    @Test
+    void channelShutdownFailsEverythingPending() throws Exception {
+        List<CompletableFuture<Void>> futures = publish(3);
+        shutdown.shutdownCompleted(new ShutdownSignalException(false, false, null, channel));
+
+        for (CompletableFuture<Void> f : futures) assertInstanceOf(IOException.class, failure(f));
+        assertEquals(0, publisher.getOutstanding());
+        assertTrue(publisher.awaitOutstanding(0, TimeUnit.MILLISECONDS));
+    }
+
+    private List<CompletableFuture<Void>> publish(int count) throws IOException, InterruptedException {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) futures.add(publisher.publish("", "q", null, new byte[0]));
+        return futures;
+    }
+
+    private CompletableFuture<CompletableFuture<Void>> publishAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return publisher.publish("", "q", null, new byte[0]);
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void assertBlocks(CompletableFuture<?> publish) {
+        assertThrows(TimeoutException.class, () -> publish.get(200, TimeUnit.MILLISECONDS));
+    }
+
+    private static Throwable failure(CompletableFuture<Void> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+}
@@ -0,0 +1,131 @@
+package com.messageria.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AppendOnlyLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysRecordsInOrderAfterReopen() throws IOException {
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            assertTrue(log.isNew());
+            for (int i = 0; i < 100; i++) log.append(bytes("job-" + i));
+            log.force();
+        }
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            assertFalse(log.isNew());
+            assertEquals(100, log.records());
+            List<String> read = readAll(log);
+            assertEquals("job-0", read.get(0));
+            assertEquals("job-99", read.get(99));
+
+            // Continua escrevendo depois do último registro, sem sobrescrever
+            log.append(bytes("job-100"));
+        }
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            List<String> read = readAll(log);
+            assertEquals(101, read.size());
+            assertEquals("job-100", read.get(100));
+        }
+    }
+
+    @Test
+    void growsPastTheInitialMapping() throws IOException {
+        byte[] big = new byte[64 * 1024];
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            for (int i = 0; i < 40; i++) log.append(big);
+        }
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            assertEquals(40, log.records());
+            assertEquals(40L * (4 + big.length), log.sizeBytes());
+        }
+    }
+
+    @Test
+    void rewriteKeepsOnlyLiveRecordsInANewGeneration() throws IOException {
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            for (int i = 0; i < 10; i++) log.append(bytes("old-" + i));
+            log.rewrite(List.of(bytes("live-1"), bytes("live-2")));
+
+            assertEquals(2, log.records());
+            assertEquals(List.of("live-1", "live-2"), readAll(log));
+            log.append(bytes("after"));
+        }
+        assertFalse(Files.exists(dir.resolve("jobs.0.log")));
+        assertTrue(Files.exists(dir.resolve("jobs.1.log")));
+
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            assertEquals(List.of("live-1", "live-2", "after"), readAll(log));
+        }
+    }
+
+    @Test
+    void openIgnoresInterruptedRewriteAndOlderGenerations() throws IOException {
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            log.append(bytes("a"));
+            log.rewrite(List.of(bytes("b")));
+        }
+        // Compactação que caiu antes do rename, e uma geração antiga que não chegou a ser apagada
+        Files.write(dir.resolve("jobs.2.log.tmp"), new byte[] {0, 0, 0, 5, 'x'});
+        Files.write(dir.resolve("jobs.0.log"), new byte[] {0, 0, 0, 1, 'z'});
+
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            assertEquals(List.of("b"), readAll(log));
+        }
+        assertFalse(Files.exists(dir.resolve("jobs.2.log.tmp")));
+        assertFalse(Files.exists(dir.resolve("jobs.0.log")));
+    }
+
+    @Test
+    void secondOwnerIsRefusedUntilTheFirstCloses() throws IOException {
+        AppendOnlyLog first = new AppendOnlyLog(dir, "jobs");
+        try {
+            assertThrows(IOException.class, () -> new AppendOnlyLog(dir, "jobs"));
+            // Outro nome na mesma pasta não conflita
+            new AppendOnlyLog(dir, "other").close();
+        } finally {
+            first.close();
+        }
+        new AppendOnlyLog(dir, "jobs").close();
+    }
+
+    @Test
+    void rejectsEmptyRecords() throws IOException {
+        try (AppendOnlyLog log = new AppendOnlyLog(dir, "jobs")) {
+            // Tamanho 0 marca o fim do log
+            assertThrows(IllegalArgumentException.class, () -> log.append(new byte[0]));
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readAll(AppendOnlyLog log) {
+        List<String> read = new ArrayList<>();
+        log.replay(record -> read.add(string(record)));
+        return read;
+    }
+
+    private static String string(ByteBuffer record) {
+        byte[] b = new byte[record.remaining()];
+        record.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+package com.messageria.retry;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.messageria.events.InvalidMessageException;
+import com.messageria.thumbnail.InvalidMediaException;
+import com.messageria.transcode.FfmpegException;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ErrorClassifierTest {
+
+    private static final ShutdownSignalException CONNECTION_LOST =
+            new ShutdownSignalException(true, false, null, null);
+
+    @Test
+    void transientFailuresAreRetried() {
+        assertTrue(ErrorClassifier.isRetryable(new IOException("disco cheio")));
+        assertTrue(ErrorClassifier.isRetryable(new TimeoutException()));
+        assertTrue(ErrorClassifier.isRetryable(new FfmpegException("ffmpeg travado", true)));
+        assertTrue(ErrorClassifier.isRetryable(new RuntimeException("genérico")));
+    }
+
+    @Test
+    void brokerShutdownIsRetried() {
+        // O ConfirmingPublisher lança esses quando o canal cai no meio do publish
+        assertTrue(ErrorClassifier.isRetryable(CONNECTION_LOST));
+        assertTrue(ErrorClassifier.isRetryable(new AlreadyClosedException(CONNECTION_LOST)));
+        assertTrue(ErrorClassifier.isRetryable(new CompletionException(new AlreadyClosedException(CONNECTION_LOST))));
+    }
+
+    @Test
+    void badInputAndBugsGoStraightToTheDlq() {
+        assertFalse(ErrorClassifier.isRetryable(new InvalidMessageException("sem videoId")));
+        assertFalse(ErrorClassifier.isRetryable(new JsonParseException(null, "json quebrado")));
+        assertFalse(ErrorClassifier.isRetryable(new InvalidMediaException("vídeo corrompido")));
+        assertFalse(ErrorClassifier.isRetryable(new IllegalArgumentException()));
+        assertFalse(ErrorClassifier.isRetryable(new NullPointerException()));
+    }
+
+    @Test
+    void wrappersAreUnwrapped() {
+        assertFalse(ErrorClassifier.isRetryable(new ExecutionException(new InvalidMediaException("corrompido"))));
+        assertFalse(ErrorClassifier.isRetryable(
+                new CompletionException(new UncheckedIOException(new InvalidMessageException("x")))));
+        assertTrue(ErrorClassifier.isRetryable(new ExecutionException(new IOException("rede"))));
+    }
+}
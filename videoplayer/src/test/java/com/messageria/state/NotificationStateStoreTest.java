@@ -0,0 +1,103 @@
+package com.messageria.state;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotificationStateStoreTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pendingStateSurvivesReopen() throws Exception {
+        try (NotificationStateStore store = open(0)) {
+            store.update("v1", s -> {
+                s.transcodeDone = true;
+                s.outputs = "a.mp4,b.mp4";
+            }).get(5, TimeUnit.SECONDS);
+        }
+        try (NotificationStateStore store = open(0)) {
+            NotificationState s = read(store, "v1");
+            assertTrue(s.transcodeDone);
+            assertFalse(s.thumbnailDone);
+            assertEquals("a.mp4,b.mp4", s.outputs);
+            assertEquals(1, store.pendingCount());
+        }
+    }
+
+    @Test
+    void notifiedVideoIsRememberedWithinRetention() throws Exception {
+        String at = Instant.now().minusMillis(HOUR / 2).toString();
+        try (NotificationStateStore store = open(HOUR)) {
+            notify(store, "v1", at);
+        }
+        try (NotificationStateStore store = open(HOUR)) {
+            NotificationState s = read(store, "v1");
+            assertTrue(s.notified);
+            // A hora original continua, senão a retenção recomeçaria a cada abertura
+            assertEquals(Instant.parse(at).toEpochMilli(), Instant.parse(s.notifiedAt).toEpochMilli());
+            assertTrue(store.pendingStates().isEmpty());
+        }
+    }
+
+    @Test
+    void notifiedVideoIsForgottenAfterRetention() throws Exception {
+        try (NotificationStateStore store = open(HOUR)) {
+            notify(store, "v1", Instant.now().minusMillis(2 * HOUR).toString());
+        }
+        try (NotificationStateStore store = open(HOUR)) {
+            assertFalse(read(store, "v1").notified);
+        }
+    }
+
+    @Test
+    void zeroRetentionKeepsNotifiedVideosForever() throws Exception {
+        try (NotificationStateStore store = open(0)) {
+            notify(store, "v1", Instant.now().minus(365, ChronoUnit.DAYS).toString());
+        }
+        try (NotificationStateStore store = open(0)) {
+            assertTrue(read(store, "v1").notified);
+        }
+    }
+
+    private NotificationStateStore open(long retentionMillis) throws IOException {
+        return new NotificationStateStore(dir, "notifications", 1000, TimeUnit.DAYS.toMillis(1), 10, retentionMillis);
+    }
+
+    private static void notify(NotificationStateStore store, String videoId, String at) throws Exception {
+        store.update(videoId, s -> {
+            s.transcodeDone = true;
+            s.thumbnailDone = true;
+            s.notified = true;
+            s.notifiedAt = at;
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    // Cópia do estado atual (update sem alterar nada)
+    private static NotificationState read(NotificationStateStore store, String videoId) throws Exception {
+        AtomicReference<NotificationState> copy = new AtomicReference<>();
+        store.update(videoId, s -> {
+            NotificationState c = new NotificationState();
+            c.transcodeDone = s.transcodeDone;
+            c.thumbnailDone = s.thumbnailDone;
+            c.notified = s.notified;
+            c.outputs = s.outputs;
+            c.notifiedAt = s.notifiedAt;
+            copy.set(c);
+        }).get(5, TimeUnit.SECONDS);
+        return copy.get();
+    }
+}
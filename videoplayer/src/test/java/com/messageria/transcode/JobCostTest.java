@@ -0,0 +1,64 @@
+package com.messageria.transcode;
+
+import com.rabbitmq.client.AMQP;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobCostTest {
+
+    @Test
+    void shorterVideosGetHigherPriority() {
+        assertEquals(9, new JobCost(30_000, -1).priority());
+        assertEquals(9, new JobCost(60_000, -1).priority());
+        assertEquals(7, new JobCost(61_000, -1).priority());
+        assertEquals(5, new JobCost(20 * 60_000, -1).priority());
+        assertEquals(3, new JobCost(60 * 60_000, -1).priority());
+        assertEquals(1, new JobCost(2 * 60 * 60_000, -1).priority());
+    }
+
+    @Test
+    void durationWinsOverSize() {
+        JobCost cost = new JobCost(30_000, 10L * 1024 * 1024 * 1024);
+        assertEquals(30_000, cost.estimateMillis());
+        assertEquals(9, cost.priority());
+    }
+
+    @Test
+    void sizeAloneIsEstimatedAtTheAssumedBitrate() {
+        // 2,5 Mbit/s: 312500 bytes por segundo de vídeo
+        JobCost cost = new JobCost(-1, 312_500L * 600);
+        assertEquals(600_000, cost.estimateMillis());
+        assertEquals(5, cost.priority());
+    }
+
+    @Test
+    void unknownCostStaysInTheMiddle() {
+        assertFalse(JobCost.UNKNOWN.isKnown());
+        assertEquals(5, JobCost.UNKNOWN.priority());
+        assertTrue(JobCost.UNKNOWN.priority() <= JobCost.MAX_PRIORITY);
+    }
+
+    @Test
+    void headersRoundTrip() {
+        Map<String, Object> headers = new JobCost(90_000, 4096).addHeaders(new HashMap<>());
+        JobCost read = JobCost.fromProperties(new AMQP.BasicProperties.Builder().headers(headers).build());
+
+        assertEquals(90_000, read.getDurationMillis());
+        assertEquals(4096, read.getSizeBytes());
+        assertEquals(7, read.priority());
+    }
+
+    @Test
+    void missingHeadersAreUnknown() {
+        assertSame(JobCost.UNKNOWN, JobCost.fromProperties(null));
+        assertSame(JobCost.UNKNOWN, JobCost.fromProperties(new AMQP.BasicProperties()));
+        assertTrue(new JobCost(-1, -1).addHeaders(new HashMap<>()).isEmpty());
+    }
+}
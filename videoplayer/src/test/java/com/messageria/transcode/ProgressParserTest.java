@@ -0,0 +1,103 @@
+package com.messageria.transcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressParserTest {
+
+    private static final String BLOCK = "frame=120\nfps=29.97\nstream_0_0_q=28.0\nbitrate=1000.0kbits/s\n"
+            + "total_size=524288\nout_time_us=4004000\nout_time_ms=4004000\nout_time=00:00:04.004000\n"
+            + "dup_frames=0\ndrop_frames=0\nspeed=1.52x\nprogress=continue\n";
+
+    private final FfmpegProgress progress = new FfmpegProgress("720p", 10_000_000);
+    private final List<String> blocks = new ArrayList<>();
+    private final ProgressParser parser = new ProgressParser(progress, p -> blocks.add(p.getFrame() + "@"
+            + p.getOutTimeMicros() + (p.isEnd() ? " end" : "")));
+
+    @Test
+    void readsABlock() throws IOException {
+        parser.parse(stream(BLOCK));
+
+        assertEquals(120, progress.getFrame());
+        assertEquals(29.97, progress.getFps(), 1e-9);
+        assertEquals(1.52, progress.getSpeed(), 1e-9);
+        assertEquals(4_004_000, progress.getOutTimeMicros());
+        assertEquals(524_288, progress.getTotalSize());
+        assertEquals(0.4004, progress.getFraction(), 1e-9);
+        assertFalse(progress.isEnd());
+        assertTrue(progress.getLastAdvanceNanos() > 0);
+        assertEquals(List.of("120@4004000"), blocks);
+    }
+
+    @Test
+    void notifiesOncePerBlockAndMarksTheEnd() throws IOException {
+        parser.parse(stream(BLOCK + "frame=300\nout_time_us=10000000\nspeed=2x\nprogress=end\n"));
+
+        assertEquals(List.of("120@4004000", "300@10000000 end"), blocks);
+        assertEquals(2.0, progress.getSpeed(), 1e-9);
+        assertEquals(1.0, progress.getFraction(), 1e-9);
+    }
+
+    @Test
+    void linesSplitAcrossReadsAndCrLf() {
+        byte[] data = BLOCK.replace("\n", "\r\n").getBytes(StandardCharsets.US_ASCII);
+        // Um byte por vez: cada linha chega em vários pedaços
+        for (int i = 0; i < data.length; i++) parser.feed(data, i, 1);
+
+        assertEquals(120, progress.getFrame());
+        assertEquals(1.52, progress.getSpeed(), 1e-9);
+        assertEquals(List.of("120@4004000"), blocks);
+    }
+
+    @Test
+    void unknownValuesDoNotMoveProgressBack() throws IOException {
+        parser.parse(stream(BLOCK + "frame=N/A\nout_time_us=N/A\nfps=N/A\nspeed=N/A\ntotal_size=N/A\n"
+                + "progress=continue\n"));
+
+        assertEquals(120, progress.getFrame());
+        assertEquals(4_004_000, progress.getOutTimeMicros());
+        assertEquals(29.97, progress.getFps(), 1e-9);
+        assertEquals(524_288, progress.getTotalSize());
+        // speed=N/A volta a ser desconhecida
+        assertEquals(-1, progress.getSpeed(), 1e-9);
+    }
+
+    @Test
+    void frameGoingBackwardsIsNotAnAdvance() throws IOException {
+        parser.parse(stream("frame=50\nprogress=continue\n"));
+        long advanced = progress.getLastAdvanceNanos();
+        parser.parse(stream("frame=40\nout_time_us=0\nprogress=continue\n"));
+
+        assertEquals(50, progress.getFrame());
+        assertEquals(advanced, progress.getLastAdvanceNanos());
+    }
+
+    @Test
+    void ignoresOversizedAndMalformedLines() throws IOException {
+        String longLine = "frame=" + "9".repeat(400) + "\n";
+        parser.parse(stream(longLine + "sem-igual\n=42\nframe=  77 \nprogress=continue\n"));
+
+        assertEquals(77, progress.getFrame());
+        assertEquals(List.of("77@0"), blocks);
+    }
+
+    @Test
+    void outTimeMsIsMicroseconds() throws IOException {
+        parser.parse(stream("out_time_ms=2500000\nprogress=continue\n"));
+
+        assertEquals(2_500_000, progress.getOutTimeMicros());
+    }
+
+    private static ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,55 @@
+package com.messageria.transcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StallPolicyTest {
+
+    // Os valores padrão: startup 120s, stall 5% da duração entre 30s e 600s, minSpeed 0.05, sem teto
+    private final StallPolicy policy = new StallPolicy(120, 0.05, 30, 600, 0.05, 0);
+
+    @Test
+    void stallIsProportionalToDurationWithinBounds() {
+        assertEquals(seconds(30), policy.stallNanos(micros(60)));
+        assertEquals(seconds(90), policy.stallNanos(micros(1800)));
+        assertEquals(seconds(600), policy.stallNanos(micros(4 * 3600)));
+    }
+
+    @Test
+    void unknownDurationUsesTheMaximumStall() {
+        assertEquals(seconds(600), policy.stallNanos(0));
+        assertEquals(Long.MAX_VALUE, policy.maxRuntimeNanos(0));
+    }
+
+    @Test
+    void maxRuntimeIsStartupPlusDurationAtMinSpeed() {
+        // 10 minutos a 0.05x = 200 minutos
+        assertEquals(seconds(120) + TimeUnit.MINUTES.toNanos(200), policy.maxRuntimeNanos(micros(600)));
+    }
+
+    @Test
+    void maxMinutesCapsTheRuntime() {
+        StallPolicy capped = new StallPolicy(120, 0.05, 30, 600, 0.05, 60);
+
+        assertEquals(TimeUnit.MINUTES.toNanos(60), capped.maxRuntimeNanos(micros(600)));
+        assertEquals(TimeUnit.MINUTES.toNanos(60), capped.maxRuntimeNanos(0));
+        assertEquals(seconds(120) + seconds(20 * 10), capped.maxRuntimeNanos(micros(10)));
+    }
+
+    @Test
+    void rejectsMinAboveMax() {
+        assertThrows(IllegalArgumentException.class, () -> new StallPolicy(120, 0.05, 700, 600, 0.05, 0));
+    }
+
+    private static long seconds(long s) {
+        return TimeUnit.SECONDS.toNanos(s);
+    }
+
+    private static long micros(long seconds) {
+        return TimeUnit.SECONDS.toMicros(seconds);
+    }
+}
@@ -0,0 +1,59 @@
+package com.messageria.worker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdaptivePrefetchTest {
+
+    // Intervalo de 1s: "completed" é direto a vazão por segundo
+    private static AdaptivePrefetch controller(int initial) {
+        return new AdaptivePrefetch("test", initial, 1, 16, 1000, 0.85, 0.5);
+    }
+
+    @Test
+    void backlogWithoutSaturationAddsOne() {
+        assertEquals(9, controller(8).decide(10, 100_000, 50, 0.30, false));
+        // cpu < 0: etapa que não depende de CPU
+        assertEquals(9, controller(8).decide(10, 100_000, 50, -1, false));
+    }
+
+    @Test
+    void saturationHalves() {
+        assertEquals(4, controller(8).decide(10, 100_000, 50, 0.90, false));
+        assertEquals(4, controller(8).decide(10, 100_000, 50, 0.30, true));
+    }
+
+    @Test
+    void staysWithinLimits() {
+        assertEquals(16, controller(16).decide(10, 100_000, 50, 0.30, false));
+        assertEquals(1, controller(1).decide(10, 100_000, 50, 0.95, false));
+        assertEquals(16, controller(100).getPrefetch());
+    }
+
+    @Test
+    void emptyQueueStepsDownTowardsLittleTarget() {
+        // 10/s x 200ms = 2 em serviço, + 1 de folga = 3
+        assertEquals(7, controller(8).decide(10, 200_000, 0, 0.30, false));
+        // Já abaixo do alvo (100/s x 100ms = 10 + 1): fica
+        assertEquals(2, controller(2).decide(100, 100_000, 0, 0.30, false));
+        // Sem conclusões no intervalo não há o que medir
+        assertEquals(8, controller(8).decide(0, 0, 0, 0.30, false));
+    }
+
+    @Test
+    void slowerServiceRightAfterAnIncreaseHalves() {
+        AdaptivePrefetch adaptive = controller(8);
+        assertEquals(9, adaptive.decide(10, 100_000, 50, 0.30, false));
+        // O tempo de serviço dobrou (tolerância de 50%) logo depois do aumento
+        assertEquals(4, adaptive.decide(10, 200_000, 50, 0.30, false));
+    }
+
+    @Test
+    void slowerServiceWithoutAnIncreaseIsNotBlamedOnPrefetch() {
+        AdaptivePrefetch adaptive = controller(8);
+        assertEquals(7, adaptive.decide(10, 100_000, 0, 0.30, false));
+        // Vídeos maiores: mais lento, mas o último passo foi uma descida
+        assertEquals(9, adaptive.decide(10, 200_000, 50, 0.30, false));
+    }
+}
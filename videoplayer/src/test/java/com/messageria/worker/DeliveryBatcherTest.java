@@ -0,0 +1,188 @@
+package com.messageria.worker;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeliveryBatcherTest {
+
+    // Canal falso que só anota os acks e nacks, na ordem
+    private final List<String> frames = new CopyOnWriteArrayList<>();
+    private final Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+            new Class<?>[] {Channel.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "basicAck":
+                        frames.add("ack " + args[0] + (Boolean.TRUE.equals(args[1]) ? " multiple" : ""));
+                        return null;
+                    case "basicNack":
+                        frames.add("nack " + args[0] + (Boolean.TRUE.equals(args[2]) ? " requeue" : ""));
+                        return null;
+                    case "getChannelNumber":
+                        return 1;
+                    default:
+                        return null;
+                }
+            });
+
+    private final List<CompletableFuture<Set<Long>>> pending = new ArrayList<>();
+    private final List<List<Long>> batches = new ArrayList<>();
+
+    private synchronized CompletableFuture<Set<Long>> hold(List<Delivery> batch) {
+        List<Long> tags = new ArrayList<>();
+        for (Delivery d : batch) tags.add(d.getEnvelope().getDeliveryTag());
+        batches.add(tags);
+        CompletableFuture<Set<Long>> result = new CompletableFuture<>();
+        pending.add(result);
+        return result;
+    }
+
+    @Test
+    void fullBatchIsAckedWithOneMultipleAck() {
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 3, 60_000,
+                batch -> CompletableFuture.completedFuture(Set.of()));
+        for (long tag = 1; tag <= 3; tag++) batcher.add(delivery(tag));
+        batcher.close(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of("ack 3 multiple"), frames);
+    }
+
+    @Test
+    void batchesAreSettledInTheOrderTheyClosed() {
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 2, 60_000, this::hold);
+        for (long tag = 1; tag <= 6; tag++) batcher.add(delivery(tag));
+        assertEquals(List.of(List.of(1L, 2L), List.of(3L, 4L), List.of(5L, 6L)), batches);
+
+        // O último lote termina primeiro: o ack dele não pode sair antes dos anteriores
+        pending.get(2).complete(Set.of());
+        assertTrue(frames.isEmpty());
+        pending.get(1).complete(Set.of());
+        assertTrue(frames.isEmpty());
+        pending.get(0).complete(Set.of());
+        batcher.close(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of("ack 2 multiple", "ack 4 multiple", "ack 6 multiple"), frames);
+    }
+
+    @Test
+    void failedTagsAreNackedBeforeTheMultipleAck() {
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 4, 60_000,
+                batch -> CompletableFuture.completedFuture(Set.of(2L, 4L)));
+        for (long tag = 1; tag <= 4; tag++) batcher.add(delivery(tag));
+        batcher.close(1, TimeUnit.SECONDS);
+
+        // O ack múltiplo até 3 não pode cobrir 2, que já saiu com o nack
+        assertEquals(List.of("nack 2", "nack 4", "ack 3 multiple"), frames);
+    }
+
+    @Test
+    void singleSuccessIsNotAMultipleAck() {
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 2, 60_000,
+                batch -> CompletableFuture.completedFuture(Set.of(1L)));
+        batcher.add(delivery(1));
+        batcher.add(delivery(2));
+        batcher.close(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of("nack 1", "ack 2"), frames);
+    }
+
+    @Test
+    void handlerFailureNacksTheWholeBatch() {
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 2, 60_000, batch -> {
+            throw new IllegalStateException("falhou");
+        });
+        batcher.add(delivery(1));
+        batcher.add(delivery(2));
+        batcher.close(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of("nack 1", "nack 2"), frames);
+    }
+
+    @Test
+    void incompleteBatchClosesOnTheTimer() throws InterruptedException {
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 10, 20, batch -> {
+            sizes.add(batch.size());
+            return CompletableFuture.completedFuture(Set.of());
+        });
+        batcher.add(delivery(1));
+        batcher.add(delivery(2));
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (frames.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        batcher.close(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of(2), sizes);
+        assertEquals(List.of("ack 2 multiple"), frames);
+    }
+
+    @Test
+    void timerBatchStillInTheHandlerIsSettledBeforeALaterFullBatch() throws Exception {
+        CountDownLatch inHandler = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 3, 20, batch -> {
+            if (batch.get(0).getEnvelope().getDeliveryTag() == 1) {
+                // Lote do timer: o handler ainda está processando quando o próximo lote fecha
+                inHandler.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return CompletableFuture.completedFuture(Set.of(1L));
+            }
+            return CompletableFuture.completedFuture(Set.of());
+        });
+        batcher.add(delivery(1));
+        assertTrue(inHandler.await(5, TimeUnit.SECONDS));
+        for (long tag = 2; tag <= 4; tag++) batcher.add(delivery(tag));
+
+        // O lote 2-4 terminou, mas o ack múltiplo dele cobriria a tag 1, que vai falhar
+        assertTrue(frames.isEmpty());
+        release.countDown();
+        batcher.close(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("nack 1", "ack 4 multiple"), frames);
+    }
+
+    @Test
+    void zeroDelayDoesNotWaitForMoreDeliveries() {
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 10, 0, this::hold);
+        batcher.add(delivery(1));
+        batcher.add(delivery(2));
+
+        assertEquals(List.of(List.of(1L), List.of(2L)), batches);
+        pending.forEach(p -> p.complete(Set.of()));
+        batcher.close(1, TimeUnit.SECONDS);
+        assertEquals(List.of("ack 1", "ack 2"), frames);
+    }
+
+    @Test
+    void closeFlushesTheOpenBatchAndRequeuesLateDeliveries() {
+        DeliveryBatcher batcher = new DeliveryBatcher(channel, 10, 60_000,
+                batch -> CompletableFuture.completedFuture(Set.of()));
+        batcher.add(delivery(1));
+        batcher.close(1, TimeUnit.SECONDS);
+        batcher.add(delivery(2));
+
+        assertEquals(List.of("ack 1", "nack 2 requeue"), frames);
+    }
+
+    private static Delivery delivery(long tag) {
+        return new Delivery(new Envelope(tag, false, "", "notificacao.queue"), new AMQP.BasicProperties(),
+                new byte[0]);
+    }
+}